@@ -0,0 +1,85 @@
+/*
+ * This software Copyright by the RPTools.net development team, and licensed under the Affero GPL Version 3 or, at your option, any later version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public License * along with this source Code. If not, please visit <http://www.gnu.org/licenses/> and specifically the Affero license text
+ * at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.lib.image;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Copies of an image at half, a quarter, an eighth... of its size, so that an image drawn much smaller than it is can be drawn from the copy nearest in size instead of resampling every pixel of the
+ * original each time.
+ * <p>
+ * The copies are made the first time they are needed and are kept for as long as the original image is in memory.
+ */
+public class MipMap {
+	/**
+	 * Images this small are drawn as they are, it isn't worth keeping copies of them
+	 */
+	private static final int MIN_SIZE = 64;
+
+	// Weak keys so that the levels go when the image does; the levels must not refer to the image
+	private static final Map<BufferedImage, MipMap> mipMapMap = Collections.synchronizedMap(new WeakHashMap<BufferedImage, MipMap>());
+
+	// Level 1 (half size) onwards
+	private final List<BufferedImage> levelList = new ArrayList<BufferedImage>();
+
+	/**
+	 * @param image
+	 *            the full size image
+	 * @param scale
+	 *            how large the image is drawn compared to its own size
+	 * @return the smallest copy of the image that is still at least as large as it is drawn, which is the image itself unless it is drawn at half its size or less
+	 */
+	public static BufferedImage getLevel(BufferedImage image, double scale) {
+		if (scale > 0.5 || Math.max(image.getWidth(), image.getHeight()) <= MIN_SIZE) {
+			return image;
+		}
+		int level = (int) Math.floor(Math.log(1 / scale) / Math.log(2));
+		MipMap mipMap;
+		synchronized (mipMapMap) {
+			mipMap = mipMapMap.get(image);
+			if (mipMap == null) {
+				mipMap = new MipMap();
+				mipMapMap.put(image, mipMap);
+			}
+		}
+		return mipMap.getLevel(image, level);
+	}
+
+	private synchronized BufferedImage getLevel(BufferedImage image, int level) {
+		BufferedImage last = levelList.isEmpty() ? image : levelList.get(levelList.size() - 1);
+		while (levelList.size() < level && Math.max(last.getWidth(), last.getHeight()) > MIN_SIZE) {
+			last = halve(last);
+			levelList.add(last);
+		}
+		return levelList.isEmpty() ? image : levelList.get(Math.min(level, levelList.size()) - 1);
+	}
+
+	/**
+	 * Halving with bilinear filtering averages each pixel of the copy from the four it replaces, which is as good as a box filter and a lot better than resampling the original in one go.
+	 */
+	static BufferedImage halve(BufferedImage image) {
+		int width = Math.max(1, image.getWidth() / 2);
+		int height = Math.max(1, image.getHeight() / 2);
+		BufferedImage half = new BufferedImage(width, height, image.getTransparency() == Transparency.OPAQUE ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = half.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+		g.drawImage(image, 0, 0, width, height, null);
+		g.dispose();
+		return half;
+	}
+}
@@ -0,0 +1,488 @@
+/*
+ * This software Copyright by the RPTools.net development team, and licensed under the Affero GPL Version 3 or, at your option, any later version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public License * along with this source Code. If not, please visit <http://www.gnu.org/licenses/> and specifically the Affero license text
+ * at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.lib.image;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.awt.image.ImageObserver;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.imageio.ImageIO;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A very large image kept on disk as square tiles, at full size and at half, a quarter... of it, so that only the part of it that is on screen has to be in memory.
+ * <p>
+ * The whole image has to be in memory once to cut it up, after that the tiles can be opened from their directory without it. Tiles are read in the background as they come into view, along with
+ * the ring of tiles around the view so that panning finds them ready. Until a tile is read the matching part of a smaller level is drawn in its place if that one is in memory.
+ * <p>
+ * Similar to {@link LargeImage}, but with power of two levels that can be drawn at any scale.
+ */
+public class TiledImage {
+	private static final Logger log = LogManager.getLogger(TiledImage.class);
+
+	public static final int TILE_SIZE = 512;
+
+	// Written last, so a directory without it was never finished
+	private static final String INFO_FILE = "tiles.properties";
+
+	// Lossless, so that the edges of neighbouring tiles match and the map looks the same as when drawn whole
+	private static final String TILE_FORMAT = "png";
+
+	// About 100MB of opaque tiles
+	private static final int MAX_LOADED_TILES = 96;
+
+	private static final ThreadFactory daemonThreadFactory = new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "TiledImage");
+			thread.setDaemon(true);
+			return thread;
+		}
+	};
+	private static final ExecutorService tileLoader = Executors.newSingleThreadExecutor(daemonThreadFactory);
+	private static final ExecutorService tileWriter = Executors.newSingleThreadExecutor(daemonThreadFactory);
+
+	private final File dir;
+	private final int width;
+	private final int height;
+	private final int levels;
+	private final String format;
+
+	private final Map<Long, BufferedImage> tileMap = new LinkedHashMap<Long, BufferedImage>(64, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, BufferedImage> eldest) {
+			return size() > MAX_LOADED_TILES;
+		}
+	};
+	private final Set<Long> requestedSet = new HashSet<Long>();
+	// Tiles that could not be read, they are not asked for again and a smaller level is drawn instead
+	private final Set<Long> failedSet = new HashSet<Long>();
+	private Set<Long> wantedSet = new HashSet<Long>();
+
+	/**
+	 * Callback for {@link TiledImage#createAsynchronously(BufferedImage, File, TileListener)}
+	 */
+	public interface TileListener {
+		/**
+		 * Called on the thread that cut up the image
+		 *
+		 * @param image
+		 *            the tiles, or <code>null</code> if they couldn't be written
+		 */
+		public void tilesCreated(TiledImage image);
+	}
+
+	private TiledImage(File dir, int width, int height, int levels, String format) {
+		this.dir = dir;
+		this.width = width;
+		this.height = height;
+		this.levels = levels;
+		this.format = format;
+	}
+
+	/**
+	 * @return the tiles in the directory, or <code>null</code> if there are none, they were never finished or they are in the lossy format of older versions
+	 */
+	public static TiledImage open(File dir) {
+		File infoFile = new File(dir, INFO_FILE);
+		if (!infoFile.exists()) {
+			return null;
+		}
+		Properties props = new Properties();
+		InputStream in = null;
+		try {
+			in = new FileInputStream(infoFile);
+			props.load(in);
+			if (!TILE_FORMAT.equals(props.getProperty("format"))) {
+				return null;
+			}
+			// Marks the tiles as used, see trimCache()
+			dir.setLastModified(System.currentTimeMillis());
+			return new TiledImage(dir, Integer.parseInt(props.getProperty("width")), Integer.parseInt(props.getProperty("height")), Integer.parseInt(props.getProperty("levels")),
+					props.getProperty("format"));
+		} catch (IOException | RuntimeException e) {
+			log.warn("Could not read " + infoFile, e);
+			return null;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					// Already read
+				}
+			}
+		}
+	}
+
+	/**
+	 * Cuts the image up into tiles in the directory, replacing any that are there.
+	 */
+	public static TiledImage create(BufferedImage image, File dir) throws IOException {
+		dir.mkdirs();
+		new File(dir, INFO_FILE).delete();
+		File[] oldTiles = dir.listFiles();
+		if (oldTiles != null) {
+			for (File file : oldTiles) {
+				if (file.getName().matches("\\d+-\\d+-\\d+\\.\\w+")) {
+					file.delete();
+				}
+			}
+		}
+
+		String format = TILE_FORMAT;
+		int type = image.getTransparency() == Transparency.OPAQUE ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+
+		BufferedImage levelImage = image;
+		int level = 0;
+		while (true) {
+			for (int row = 0; row * TILE_SIZE < levelImage.getHeight(); row++) {
+				for (int col = 0; col * TILE_SIZE < levelImage.getWidth(); col++) {
+					int tileWidth = Math.min(TILE_SIZE, levelImage.getWidth() - col * TILE_SIZE);
+					int tileHeight = Math.min(TILE_SIZE, levelImage.getHeight() - row * TILE_SIZE);
+
+					// A copy without an alpha channel if the image has none, which makes smaller files
+					BufferedImage tile = new BufferedImage(tileWidth, tileHeight, type);
+					Graphics2D g = tile.createGraphics();
+					g.drawImage(levelImage, -col * TILE_SIZE, -row * TILE_SIZE, null);
+					g.dispose();
+
+					if (!ImageIO.write(tile, format, getTileFile(dir, level, col, row, format))) {
+						throw new IOException("No writer for " + format);
+					}
+				}
+			}
+			level++;
+			if (Math.max(levelImage.getWidth(), levelImage.getHeight()) <= TILE_SIZE) {
+				break;
+			}
+			levelImage = MipMap.halve(levelImage);
+		}
+
+		Properties props = new Properties();
+		props.setProperty("width", Integer.toString(image.getWidth()));
+		props.setProperty("height", Integer.toString(image.getHeight()));
+		props.setProperty("levels", Integer.toString(level));
+		props.setProperty("format", format);
+		OutputStream out = new FileOutputStream(new File(dir, INFO_FILE));
+		try {
+			props.store(out, null);
+		} finally {
+			out.close();
+		}
+		return new TiledImage(dir, image.getWidth(), image.getHeight(), level, format);
+	}
+
+	/**
+	 * Same as {@link #create(BufferedImage, File)} on a background thread.
+	 */
+	public static void createAsynchronously(final BufferedImage image, final File dir, final TileListener listener) {
+		tileWriter.execute(new Runnable() {
+			public void run() {
+				TiledImage tiledImage = null;
+				try {
+					tiledImage = create(image, dir);
+				} catch (IOException | RuntimeException e) {
+					log.error("Could not cut " + dir + " into tiles", e);
+				}
+				listener.tilesCreated(tiledImage);
+			}
+		});
+	}
+
+	/**
+	 * Deletes the tiles of the images used least recently, one directory of the cache at a time, until the whole cache takes no more than the size. The directory being kept is never deleted.
+	 *
+	 * @param cacheDir
+	 *            the directory that holds a directory of tiles for each image
+	 * @param maxSize
+	 *            in bytes
+	 * @param keep
+	 *            the tiles just written, or <code>null</code>
+	 */
+	public static void trimCache(File cacheDir, long maxSize, File keep) {
+		File[] dirs = cacheDir.listFiles();
+		if (dirs == null) {
+			return;
+		}
+		final Map<File, Long> lastUsedMap = new LinkedHashMap<File, Long>();
+		long total = 0;
+		for (File dir : dirs) {
+			if (dir.isDirectory()) {
+				lastUsedMap.put(dir, dir.lastModified());
+				total += getSize(dir);
+			}
+		}
+		File[] byLastUse = lastUsedMap.keySet().toArray(new File[lastUsedMap.size()]);
+		Arrays.sort(byLastUse, new Comparator<File>() {
+			public int compare(File a, File b) {
+				return Long.compare(lastUsedMap.get(a), lastUsedMap.get(b));
+			}
+		});
+		for (File dir : byLastUse) {
+			if (total <= maxSize) {
+				break;
+			}
+			if (dir.equals(keep)) {
+				continue;
+			}
+			long size = getSize(dir);
+			File[] files = dir.listFiles();
+			if (files != null) {
+				for (File file : files) {
+					file.delete();
+				}
+			}
+			dir.delete();
+			total -= size;
+		}
+	}
+
+	private static long getSize(File dir) {
+		long size = 0;
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				size += file.length();
+			}
+		}
+		return size;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Forget the tiles in memory, they are read again when they are next drawn
+	 */
+	public synchronized void flush() {
+		tileMap.clear();
+		wantedSet.clear();
+	}
+
+	/**
+	 * Draws the part of the image that is within the clip.
+	 *
+	 * @param x
+	 *            where the top left corner of the image is on screen
+	 * @param y
+	 *            where the top left corner of the image is on screen
+	 * @param scale
+	 *            how large the image is drawn compared to its own size
+	 * @param clip
+	 *            the part of the screen to draw
+	 * @param observer
+	 *            told when a tile that was missing has been read, so that it can draw again
+	 * @return <code>true</code> if every tile was drawn at the level it was wanted or could not be read, <code>false</code> if some are still being read
+	 */
+	public boolean draw(Graphics2D g, int x, int y, double scale, Rectangle clip, ImageObserver observer) {
+		int level = 0;
+		if (scale <= 0.5) {
+			level = Math.min(levels - 1, (int) Math.floor(Math.log(1 / scale) / Math.log(2)));
+		}
+		int tileSpan = TILE_SIZE << level; // in pixels of the full size image
+		double screenSpan = tileSpan * scale;
+
+		int firstCol = Math.max(0, (int) Math.floor((clip.x - x) / screenSpan));
+		int firstRow = Math.max(0, (int) Math.floor((clip.y - y) / screenSpan));
+		int lastCol = Math.min(getColumns(level) - 1, (int) Math.floor((clip.x + clip.width - x) / screenSpan));
+		int lastRow = Math.min(getRows(level) - 1, (int) Math.floor((clip.y + clip.height - y) / screenSpan));
+
+		boolean complete = true;
+		Set<Long> wanted = new HashSet<Long>();
+		for (int row = firstRow; row <= lastRow; row++) {
+			for (int col = firstCol; col <= lastCol; col++) {
+				wanted.add(getKey(level, col, row));
+			}
+		}
+		// The ring around the view, for panning
+		for (int row = firstRow - 1; row <= lastRow + 1; row++) {
+			for (int col = firstCol - 1; col <= lastCol + 1; col++) {
+				if (row >= 0 && col >= 0 && row < getRows(level) && col < getColumns(level)) {
+					wanted.add(getKey(level, col, row));
+				}
+			}
+		}
+		synchronized (this) {
+			wantedSet = wanted;
+		}
+		for (int row = firstRow; row <= lastRow; row++) {
+			for (int col = firstCol; col <= lastCol; col++) {
+				if (!drawTile(g, x, y, scale, level, col, row, observer)) {
+					drawStandIn(g, x, y, scale, level, col, row);
+					if (!hasFailed(getKey(level, col, row))) {
+						complete = false;
+					}
+				}
+			}
+		}
+		for (Long key : wanted) {
+			request(key, observer);
+		}
+		return complete;
+	}
+
+	/**
+	 * @return <code>false</code> if the tile isn't in memory
+	 */
+	private boolean drawTile(Graphics2D g, int x, int y, double scale, int level, int col, int row, ImageObserver observer) {
+		BufferedImage tile;
+		synchronized (this) {
+			tile = tileMap.get(getKey(level, col, row));
+		}
+		if (tile == null) {
+			return false;
+		}
+		int tileSpan = TILE_SIZE << level;
+		int left = col * tileSpan;
+		int top = row * tileSpan;
+		int right = Math.min(width, left + tileSpan);
+		int bottom = Math.min(height, top + tileSpan);
+
+		// Round the edges rather than the sizes so that neighbouring tiles meet without gaps
+		int sx1 = x + (int) Math.floor(left * scale);
+		int sy1 = y + (int) Math.floor(top * scale);
+		int sx2 = x + (int) Math.floor(right * scale);
+		int sy2 = y + (int) Math.floor(bottom * scale);
+		g.drawImage(tile, sx1, sy1, sx2 - sx1, sy2 - sy1, null);
+		return true;
+	}
+
+	/**
+	 * Draws the part of a smaller level that covers the tile, if one is in memory.
+	 */
+	private void drawStandIn(Graphics2D g, int x, int y, double scale, int level, int col, int row) {
+		int tileSpan = TILE_SIZE << level;
+		int left = col * tileSpan;
+		int top = row * tileSpan;
+		int right = Math.min(width, left + tileSpan);
+		int bottom = Math.min(height, top + tileSpan);
+
+		for (int coarser = level + 1; coarser < levels; coarser++) {
+			int coarserSpan = TILE_SIZE << coarser;
+			int coarserCol = left / coarserSpan;
+			int coarserRow = top / coarserSpan;
+			BufferedImage tile;
+			synchronized (this) {
+				tile = tileMap.get(getKey(coarser, coarserCol, coarserRow));
+			}
+			if (tile == null) {
+				continue;
+			}
+			// The part of the coarser tile that covers this one, in its own pixels
+			int shift = coarser;
+			int srcX1 = (left - coarserCol * coarserSpan) >> shift;
+			int srcY1 = (top - coarserRow * coarserSpan) >> shift;
+			int srcX2 = Math.min(tile.getWidth(), (right - coarserCol * coarserSpan + (1 << shift) - 1) >> shift);
+			int srcY2 = Math.min(tile.getHeight(), (bottom - coarserRow * coarserSpan + (1 << shift) - 1) >> shift);
+
+			int sx1 = x + (int) Math.floor(left * scale);
+			int sy1 = y + (int) Math.floor(top * scale);
+			int sx2 = x + (int) Math.floor(right * scale);
+			int sy2 = y + (int) Math.floor(bottom * scale);
+			g.drawImage(tile, sx1, sy1, sx2, sy2, srcX1, srcY1, srcX2, srcY2, null);
+			return;
+		}
+	}
+
+	private synchronized boolean hasFailed(Long key) {
+		return failedSet.contains(key);
+	}
+
+	private void request(final Long key, final ImageObserver observer) {
+		synchronized (this) {
+			if (tileMap.containsKey(key) || failedSet.contains(key) || !requestedSet.add(key)) {
+				return;
+			}
+		}
+		tileLoader.execute(new Runnable() {
+			public void run() {
+				synchronized (TiledImage.this) {
+					if (!wantedSet.contains(key)) {
+						// Scrolled out of view while it was waiting
+						requestedSet.remove(key);
+						return;
+					}
+				}
+				BufferedImage tile = null;
+				try {
+					tile = ImageIO.read(getTileFile(dir, getLevel(key), getColumn(key), getRow(key), format));
+					if (tile == null) {
+						log.error("Could not decode tile " + getLevel(key) + "-" + getColumn(key) + "-" + getRow(key) + " of " + dir);
+					}
+				} catch (IOException e) {
+					log.error("Could not read tile " + getLevel(key) + "-" + getColumn(key) + "-" + getRow(key) + " of " + dir, e);
+				}
+				synchronized (TiledImage.this) {
+					requestedSet.remove(key);
+					if (tile != null) {
+						tileMap.put(key, tile);
+					} else {
+						failedSet.add(key);
+					}
+				}
+				if (tile != null && observer != null) {
+					observer.imageUpdate(tile, ImageObserver.ALLBITS, 0, 0, tile.getWidth(), tile.getHeight());
+				}
+			}
+		});
+	}
+
+	private int getColumns(int level) {
+		// Each level is half the size of the one before, rounded down
+		return (Math.max(1, width >> level) - 1) / TILE_SIZE + 1;
+	}
+
+	private int getRows(int level) {
+		return (Math.max(1, height >> level) - 1) / TILE_SIZE + 1;
+	}
+
+	private static File getTileFile(File dir, int level, int col, int row, String format) {
+		return new File(dir, level + "-" + col + "-" + row + "." + format);
+	}
+
+	private static long getKey(int level, int col, int row) {
+		return ((long) level << 48) | ((long) col << 24) | row;
+	}
+
+	private static int getLevel(long key) {
+		return (int) (key >>> 48);
+	}
+
+	private static int getColumn(long key) {
+		return (int) ((key >>> 24) & 0xFFFFFF);
+	}
+
+	private static int getRow(long key) {
+		return (int) (key & 0xFFFFFF);
+	}
+}
@@ -22,6 +22,7 @@
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
+import java.io.Writer;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.charset.Charset;
@@ -29,6 +30,7 @@
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.zip.Deflater;
@@ -95,6 +97,9 @@ public class PackedFile {
 	private final Set<String> addedFileSet = new HashSet<String>();
 	private final Set<String> removedFileSet = new HashSet<String>();
 
+	// Objects that are converted to XML straight into the zip by save(), in the order they were added
+	private final Map<String, Object> streamedFileMap = new LinkedHashMap<String, Object>();
+
 	private ModelVersionManager versionManager;
 
 	/**
@@ -207,19 +212,35 @@ public Object getContent(String fileVersion) throws IOException {
 	 * @throws IOException
 	 */
 	public Object getContent(ModelVersionManager versionManager, String fileVersion) throws IOException {
+		return getFileObject(CONTENT_FILE, versionManager, fileVersion);
+	}
+
+	/**
+	 * Same as {@link #getFileObject(String)} except that the XML is run through the transformations of <code>versionManager</code> first, as for {@link #getContent(ModelVersionManager, String)}.
+	 * 
+	 * @param path
+	 *            zip file archive path entry
+	 * @param versionManager
+	 *            which set of transforms to apply to older file versions
+	 * @param fileVersion
+	 *            such as "1.3.70"
+	 * @return the results of the deserialization
+	 * @throws IOException
+	 */
+	public Object getFileObject(String path, ModelVersionManager versionManager, String fileVersion) throws IOException {
 		Reader r = null;
 		try {
 			if (versionManager != null && versionManager.isTransformationRequired(fileVersion)) {
-				r = getFileAsReader(CONTENT_FILE);
+				r = getFileAsReader(path);
 				String xml = IOUtils.toString(r);
 				xml = versionManager.transform(xml, fileVersion);
 				xstream.ignoreUnknownElements(); // Jamz: Should we use this? This will ignore new classes/fields added.
 				return xstream.fromXML(xml);
 			} else {
-				return getFileObject(CONTENT_FILE);
+				return getFileObject(path);
 			}
 		} catch (NullPointerException npe) {
-			log.error("Problem finding/converting content file", npe);
+			log.error("Problem finding/converting " + path, npe);
 			return null;
 		} finally {
 			IOUtils.closeQuietly(r);
@@ -265,8 +286,19 @@ public void save() throws IOException {
 		ZipOutputStream zout = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(newFile)));
 		zout.setLevel(Deflater.BEST_COMPRESSION); // fast compression
 		try {
+			saveTimer.start("streamFiles");
+			Writer writer = new BufferedWriter(new OutputStreamWriter(zout, "UTF-8"));
+			for (Map.Entry<String, Object> entry : streamedFileMap.entrySet()) {
+				zout.putNextEntry(new ZipEntry(entry.getKey()));
+				xstream.toXML(entry.getValue(), writer);
+				writer.write(System.lineSeparator());
+				writer.flush(); // Not close(), that would close the zip
+				zout.closeEntry();
+			}
+			saveTimer.stop("streamFiles");
+
 			saveTimer.start(CONTENT_FILE);
-			if (hasFile(CONTENT_FILE)) {
+			if (!streamedFileMap.containsKey(CONTENT_FILE) && hasFile(CONTENT_FILE)) {
 				zout.putNextEntry(new ZipEntry(CONTENT_FILE));
 				is = getFileAsInputStream(CONTENT_FILE); // When copying, always use an InputStream
 				IOUtils.copy(is, zout);
@@ -303,7 +335,7 @@ public void save() throws IOException {
 				Enumeration<? extends ZipEntry> entries = zFile.entries();
 				while (entries.hasMoreElements()) {
 					ZipEntry entry = entries.nextElement();
-					if (!entry.isDirectory() && !addedFileSet.contains(entry.getName())
+					if (!entry.isDirectory() && !addedFileSet.contains(entry.getName()) && !streamedFileMap.containsKey(entry.getName())
 							&& !removedFileSet.contains(entry.getName()) && !CONTENT_FILE.equals(entry.getName())
 							&& !PROPERTY_FILE.equals(entry.getName())) {
 						// if (entry.getName().endsWith(".png") ||
@@ -363,6 +395,8 @@ public void save() throws IOException {
 				backupFile.delete();
 			saveTimer.stop("finalize");
 
+			// The objects are in the file now, don't hold on to them
+			streamedFileMap.clear();
 			dirty = false;
 		} finally {
 			saveTimer.start("cleanup");
@@ -394,6 +428,35 @@ public void setContent(Object content) throws IOException {
 		putFile(CONTENT_FILE, content);
 	}
 
+	/**
+	 * Same as {@link #setContent(Object)} but the content is written straight into the zip by {@link #save()}, see {@link #putStreamedFile(String, Object)}.
+	 * 
+	 * @param content
+	 */
+	public void setStreamedContent(Object content) {
+		putStreamedFile(CONTENT_FILE, content);
+	}
+
+	/**
+	 * Same as {@link #putFile(String, Object)} except that the object isn't converted to XML until {@link #save()}, which writes it straight into its zip entry. This saves writing the XML to a
+	 * temporary file and copying it into the zip, and the object can be as large as the heap allows. The object must not change until the packed file is saved.
+	 * 
+	 * @param path
+	 *            location within the ZIP file
+	 * @param obj
+	 *            the object to be written
+	 */
+	public void putStreamedFile(String path, Object obj) {
+		File explodedFile = getExplodedFile(path);
+		if (explodedFile.exists()) {
+			explodedFile.delete();
+		}
+		streamedFileMap.put(path, obj);
+		addedFileSet.remove(path);
+		removedFileSet.remove(path);
+		dirty = true;
+	}
+
 	/**
 	 * Does the work of preparing for output to a temporary file, returning the {@link File} object associated with the temporary location. The caller is then expected to open and write their data to
 	 * the file which will later be added to the ZIP file.
@@ -416,6 +479,7 @@ private File putFileImpl(String path) throws IOException {
 		}
 
 		// We just remember that we added it, then go look for it later...
+		streamedFileMap.remove(path);
 		addedFileSet.add(path);
 		removedFileSet.remove(path);
 		dirty = true;
@@ -495,6 +559,8 @@ public void putFile(String path, URL url) throws IOException {
 	public boolean hasFile(String path) throws IOException {
 		if (removedFileSet.contains(path))
 			return false;
+		if (streamedFileMap.containsKey(path))
+			return true;
 
 		File explodedFile = getExplodedFile(path);
 		if (explodedFile.exists())
@@ -632,6 +698,7 @@ public void close() {
 		propertyMap.clear();
 		addedFileSet.clear();
 		removedFileSet.clear();
+		streamedFileMap.clear();
 		propsLoaded = false;
 		dirty = !file.exists();
 	}
@@ -655,6 +722,7 @@ protected File getExplodedFile(String path) {
 	 */
 	public Set<String> getPaths() throws IOException {
 		Set<String> paths = new HashSet<String>(addedFileSet);
+		paths.addAll(streamedFileMap.keySet());
 		paths.add(CONTENT_FILE);
 		paths.add(PROPERTY_FILE);
 		if (file.exists()) {
@@ -710,6 +778,7 @@ public URL getURL(String path) throws IOException {
 	public void removeFile(String path) {
 		removedFileSet.add(path);
 		addedFileSet.remove(path);
+		streamedFileMap.remove(path);
 		File explodedFile = getExplodedFile(path);
 		if (explodedFile.exists()) {
 			explodedFile.delete();
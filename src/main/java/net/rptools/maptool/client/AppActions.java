@@ -1848,6 +1848,7 @@ public void run() {
 					// my addition
 					policy.setRestrictedImpersonation(serverProps.getRestrictedImpersonation());
 					policy.setMovementMetric(serverProps.getMovementMetric());
+					policy.setVblBlocksMove(serverProps.getVblBlocksMove());
 					boolean useIF = serverProps.getUseIndividualViews() && serverProps.getUseIndividualFOW();
 					policy.setUseIndividualFOW(useIF);
 
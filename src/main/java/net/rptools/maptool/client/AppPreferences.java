@@ -39,6 +39,13 @@ public class AppPreferences {
 	private static final String KEY_SAVE_REMINDER = "autoSaveReminder";
 	private static final boolean DEFAULT_SAVE_REMINDER = true;
 
+	private static final String KEY_IMAGE_CACHE_SIZE = "imageCacheSize";
+	// A quarter of the heap, in megabytes
+	private static final int DEFAULT_IMAGE_CACHE_SIZE = (int) Math.max(64, Runtime.getRuntime().maxMemory() / (4 * 1024 * 1024));
+
+	private static final String KEY_STREAM_CAMPAIGN_SAVE = "streamCampaignSave";
+	private static final boolean DEFAULT_STREAM_CAMPAIGN_SAVE = false;
+
 	private static final String KEY_TOKEN_NUMBER_DISPLAY = "tokenNumberDisplayg";
 	private static final String DEFAULT_TOKEN_NUMBER_DISPLAY = Token.NUM_ON_NAME;
 
@@ -51,6 +58,9 @@ public class AppPreferences {
 	private static final String KEY_CHAT_AUTOSAVE_TIME = "chatAutosaveTime";
 	private static final int DEFAULT_CHAT_AUTOSAVE_TIME = 0; // Minutes; zero=disabled
 
+	private static final String KEY_CHAT_LOG_LIMIT = "chatLogLimit";
+	private static final int DEFAULT_CHAT_LOG_LIMIT = 0; // Messages kept on screen; zero=all
+
 	private static final String KEY_CHAT_FILENAME_FORMAT = "chatFilenameFormat";
 	private static final String DEFAULT_CHAT_FILENAME_FORMAT = "chatlog-%1$tF-%1$tR.html"; // http://download.oracle.com/javase/1.5.0/docs/api/java/util/Formatter.html
 
@@ -84,6 +94,12 @@ public class AppPreferences {
 	private static final String KEY_USE_SOFT_FOG_EDGES = "useSoftFog";
 	private static final boolean DEFAULT_USE_SOFT_FOG_EDGES = true;
 
+	private static final String KEY_USE_VISIBILITY_SWEEP = "useVisibilitySweep";
+	private static final boolean DEFAULT_USE_VISIBILITY_SWEEP = false;
+
+	private static final String KEY_TILED_BOARD = "tiledBoard";
+	private static final boolean DEFAULT_TILED_BOARD = false;
+
 	private static final String KEY_NEW_MAPS_HAVE_FOW = "newMapsHaveFow";
 	private static final boolean DEFAULT_NEW_MAPS_HAVE_FOW = false;
 
@@ -179,6 +195,25 @@ public static boolean getSaveReminder() {
 		return prefs.getBoolean(KEY_SAVE_REMINDER, DEFAULT_SAVE_REMINDER);
 	}
 
+	public static void setImageCacheSize(int megabytes) {
+		prefs.putInt(KEY_IMAGE_CACHE_SIZE, megabytes);
+	}
+
+	/**
+	 * @return how many megabytes the decoded images may take up
+	 */
+	public static int getImageCacheSize() {
+		return prefs.getInt(KEY_IMAGE_CACHE_SIZE, DEFAULT_IMAGE_CACHE_SIZE);
+	}
+
+	public static void setStreamCampaignSave(boolean stream) {
+		prefs.putBoolean(KEY_STREAM_CAMPAIGN_SAVE, stream);
+	}
+
+	public static boolean getStreamCampaignSave() {
+		return prefs.getBoolean(KEY_STREAM_CAMPAIGN_SAVE, DEFAULT_STREAM_CAMPAIGN_SAVE);
+	}
+
 	// public static void setEnabledMapExportImport(boolean reminder) {
 	// prefs.putBoolean(KEY_ENABLE_MAP_EXPORT_IMPORT, reminder);
 	// AppActions.updateActions();
@@ -207,6 +242,16 @@ public static int getChatAutosaveTime() {
 		return prefs.getInt(KEY_CHAT_AUTOSAVE_TIME, DEFAULT_CHAT_AUTOSAVE_TIME);
 	}
 
+	public static void setChatLogLimit(int messages) {
+		if (messages >= 0) {
+			prefs.putInt(KEY_CHAT_LOG_LIMIT, messages);
+		}
+	}
+
+	public static int getChatLogLimit() {
+		return prefs.getInt(KEY_CHAT_LOG_LIMIT, DEFAULT_CHAT_LOG_LIMIT);
+	}
+
 	public static void setChatFilenameFormat(String pattern) {
 		prefs.put(KEY_CHAT_FILENAME_FORMAT, pattern);
 	}
@@ -626,6 +671,22 @@ public static boolean getUseSoftFogEdges() {
 		return prefs.getBoolean(KEY_USE_SOFT_FOG_EDGES, DEFAULT_USE_SOFT_FOG_EDGES);
 	}
 
+	public static void setUseVisibilitySweep(boolean flag) {
+		prefs.putBoolean(KEY_USE_VISIBILITY_SWEEP, flag);
+	}
+
+	public static boolean getUseVisibilitySweep() {
+		return prefs.getBoolean(KEY_USE_VISIBILITY_SWEEP, DEFAULT_USE_VISIBILITY_SWEEP);
+	}
+
+	public static void setTiledBoard(boolean flag) {
+		prefs.putBoolean(KEY_TILED_BOARD, flag);
+	}
+
+	public static boolean getTiledBoard() {
+		return prefs.getBoolean(KEY_TILED_BOARD, DEFAULT_TILED_BOARD);
+	}
+
 	public static void setNewMapsHaveFOW(boolean flag) {
 		prefs.putBoolean(KEY_NEW_MAPS_HAVE_FOW, flag);
 	}
@@ -152,6 +152,16 @@ public static File getTmpDir() {
 		return getAppHome("tmp");
 	}
 
+	/**
+	 * Returns a File object for the directory that large maps are kept in once cut into tiles, with a subdirectory named after the asset of each map image. The tiles of the maps used least
+	 * recently are deleted once it grows too large, and all of them are deleted with the asset cache.
+	 * 
+	 * @return the maptool tile cache directory
+	 */
+	public static File getTileCacheDir() {
+		return getAppHome("tilecache");
+	}
+
 	/**
 	 * Returns true if the player owns the token, otherwise false. If the player is GM this function always returns true. If strict token management is disabled then this function always returns true.
 	 * 
@@ -0,0 +1,131 @@
+/*
+ * This software Copyright by the RPTools.net development team, and licensed under the Affero GPL Version 3 or, at your option, any later version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public License * along with this source Code. If not, please visit <http://www.gnu.org/licenses/> and specifically the Affero license text
+ * at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import net.rptools.maptool.client.ui.zone.ZoneRenderer;
+import net.rptools.maptool.model.Campaign;
+import net.rptools.maptool.model.GUID;
+import net.rptools.maptool.model.ModelChangeEvent;
+import net.rptools.maptool.model.ModelChangeListener;
+import net.rptools.maptool.model.Zone;
+import net.rptools.maptool.util.PersistenceUtil.CampaignSnapshot;
+
+/**
+ * Remembers which zones of the campaign changed since the last autosave, so that {@link AutoSaveManager} only has to copy and write those.
+ * <p>
+ * Zones are watched through their model change events. A few zone settings change without one, so every {@link #COMPLETE_SNAPSHOT_INTERVAL}th snapshot copies every zone anyway.
+ */
+class AutoSaveJournal {
+	private static final int COMPLETE_SNAPSHOT_INTERVAL = 6;
+
+	private Campaign campaign;
+	private final Map<GUID, ZoneWatcher> watcherMap = new HashMap<GUID, ZoneWatcher>();
+	private final Set<GUID> changedZoneSet = new HashSet<GUID>();
+	private boolean completeSnapshotNeeded = true;
+	private int snapshotsSinceComplete;
+
+	/**
+	 * Copies the campaign without its zones, and the zones that changed since the last snapshot. Must be called on the event dispatch thread, like any other change to the campaign.
+	 *
+	 * @param complete
+	 *            <code>true</code> to copy every zone, when there is no earlier save to keep the others from
+	 */
+	synchronized CampaignSnapshot takeSnapshot(Campaign campaign, boolean complete) {
+		if (campaign != this.campaign) {
+			unwatchAll();
+			this.campaign = campaign;
+			completeSnapshotNeeded = true;
+		}
+		complete |= completeSnapshotNeeded || snapshotsSinceComplete >= COMPLETE_SNAPSHOT_INTERVAL - 1;
+
+		CampaignSnapshot snapshot = new CampaignSnapshot();
+		snapshot.campaign = new Campaign(campaign, false);
+		snapshot.complete = complete;
+		snapshot.assetIds = campaign.getAllAssetIds();
+
+		Set<GUID> zoneIdSet = new HashSet<GUID>();
+		for (Zone zone : campaign.getZones()) {
+			GUID zoneId = zone.getId();
+			snapshot.zoneIds.add(zoneId);
+			zoneIdSet.add(zoneId);
+
+			// A zone can be replaced by another one with the same id, as when the server sends it again
+			ZoneWatcher watcher = watcherMap.get(zoneId);
+			boolean changed = complete || changedZoneSet.contains(zoneId);
+			if (watcher == null || watcher.zone != zone) {
+				if (watcher != null) {
+					watcher.zone.removeModelChangeListener(watcher);
+				}
+				watcher = new ZoneWatcher(zone);
+				zone.addModelChangeListener(watcher);
+				watcherMap.put(zoneId, watcher);
+				changed = true;
+			}
+			if (changed) {
+				// Keeping the ids, so that the autosave restores the same maps and tokens
+				snapshot.zoneMap.put(zoneId, new Zone(zone, true));
+			}
+		}
+		for (Iterator<Map.Entry<GUID, ZoneWatcher>> iter = watcherMap.entrySet().iterator(); iter.hasNext();) {
+			Map.Entry<GUID, ZoneWatcher> entry = iter.next();
+			if (!zoneIdSet.contains(entry.getKey())) {
+				entry.getValue().zone.removeModelChangeListener(entry.getValue());
+				iter.remove();
+			}
+		}
+
+		ZoneRenderer currentZoneRenderer = MapTool.getFrame().getCurrentZoneRenderer();
+		if (currentZoneRenderer != null) {
+			snapshot.currentZoneId = currentZoneRenderer.getZone().getId();
+			snapshot.currentView = currentZoneRenderer.getZoneScale();
+		}
+
+		changedZoneSet.clear();
+		completeSnapshotNeeded = false;
+		snapshotsSinceComplete = complete ? 0 : snapshotsSinceComplete + 1;
+		return snapshot;
+	}
+
+	/**
+	 * Makes the next snapshot copy every zone, for when the last one couldn't be saved.
+	 */
+	synchronized void reset() {
+		completeSnapshotNeeded = true;
+	}
+
+	private void unwatchAll() {
+		for (ZoneWatcher watcher : watcherMap.values()) {
+			watcher.zone.removeModelChangeListener(watcher);
+		}
+		watcherMap.clear();
+		changedZoneSet.clear();
+	}
+
+	private synchronized void zoneChanged(GUID zoneId) {
+		changedZoneSet.add(zoneId);
+	}
+
+	private class ZoneWatcher implements ModelChangeListener {
+		final Zone zone;
+
+		ZoneWatcher(Zone zone) {
+			this.zone = zone;
+		}
+
+		public void modelChanged(ModelChangeEvent event) {
+			zoneChanged(zone.getId());
+		}
+	}
+}
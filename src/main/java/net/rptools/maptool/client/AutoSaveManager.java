@@ -19,8 +19,8 @@
 import org.apache.logging.log4j.Logger;
 
 import net.rptools.maptool.language.I18N;
-import net.rptools.maptool.model.Campaign;
 import net.rptools.maptool.util.PersistenceUtil;
+import net.rptools.maptool.util.PersistenceUtil.CampaignSnapshot;
 
 /**
  * @author tylere
@@ -30,6 +30,7 @@
 public class AutoSaveManager implements ActionListener {
 	private static final Logger log = LogManager.getLogger(AutoSaveManager.class);
 	private Timer autoSaveTimer;
+	private final AutoSaveJournal journal = new AutoSaveJournal();
 	public static final File AUTOSAVE_FILE = new File(AppUtil.getAppHome("autosave"), //$NON-NLS-1$
 			"AutoSave" + AppConstants.CAMPAIGN_FILE_EXTENSION);
 
@@ -89,14 +90,12 @@ public void actionPerformed(ActionEvent e) {
 			long startCopy = System.currentTimeMillis();
 
 			// This occurs on the event dispatch thread, so it's ok to mess with the models.
-			// We need to clone the campaign so that we can save in the background, but
-			// not have concurrency issues with the original model.
-			//
-			// NOTE: This is a cheesy way to clone the campaign, but it makes it so that I
-			// don't have to keep all the various models' clone methods updated on each change.
-			final Campaign campaign = new Campaign(MapTool.getCampaign());
+			// We need to copy the campaign so that we can save in the background, but
+			// not have concurrency issues with the original model. Only the zones that
+			// changed since the last autosave are copied, the others are kept from the file.
+			final CampaignSnapshot snapshot = journal.takeSnapshot(MapTool.getCampaign(), !AUTOSAVE_FILE.exists());
 			if (log.isInfoEnabled())
-				log.info("Time to copy Campaign object (ms): " + (System.currentTimeMillis() - startCopy)); //$NON-NLS-1$
+				log.info("Time to copy " + snapshot.zoneMap.size() + " of " + snapshot.zoneIds.size() + " zones (ms): " + (System.currentTimeMillis() - startCopy)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 
 			// Now that we have a copy of the model, save that one
 			// TODO: Replace this with a swing worker
@@ -106,12 +105,14 @@ public void run() {
 					pause();
 					long startSave = System.currentTimeMillis();
 					try {
-						PersistenceUtil.saveCampaign(campaign, AUTOSAVE_FILE, null);
+						PersistenceUtil.saveCampaignSnapshot(snapshot, AUTOSAVE_FILE);
 						MapTool.getFrame().setStatusMessage(I18N.getText("AutoSaveManager.status.autoSaveComplete",
 								System.currentTimeMillis() - startSave));
 					} catch (IOException ioe) {
+						journal.reset();
 						MapTool.showError("AutoSaveManager.failed", ioe);
 					} catch (Throwable t) {
+						journal.reset();
 						MapTool.showError("AutoSaveManager.failed", t);
 					} finally {
 						AppState.setIsSaving(false);
@@ -125,6 +126,7 @@ public void run() {
 			// will never be invoked, in which case the .run() method will decide when to set/reset
 			// the flag. For safety's sake I retrieve the current value and report it if it's true, but
 			// we shouldn't be able to get here in that case...
+			journal.reset();
 			if (AppState.isSaving()) {
 				MapTool.showError(I18N.getString("AutoSaveManager.failed") + "<br/>\nand AppState.isSaving() is true!",
 						t);
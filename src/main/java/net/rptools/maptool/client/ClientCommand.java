@@ -32,6 +32,6 @@ public static enum COMMAND {
 																																																																																																																																																																					// movement
 		setLiveTypingLabel, // Experimental chat notification
 		enforceNotification, // enforces notification of typing in the chat window
-		exposePCArea, setBoard, updateExposedAreaMeta, clearExposedArea
+		exposePCArea, setBoard, updateExposedAreaMeta, clearExposedArea, updateToken
 	};
 }
@@ -39,6 +39,7 @@
 import net.rptools.maptool.model.Pointer;
 import net.rptools.maptool.model.TextMessage;
 import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.TokenDelta;
 import net.rptools.maptool.model.Zone;
 import net.rptools.maptool.model.Zone.VisionType;
 import net.rptools.maptool.model.ZonePoint;
@@ -89,6 +90,9 @@ public void handleMethod(final String id, final String method, final Object... p
 				// manager, and clear the "we're waiting for" flag so that it
 				// gets requested again
 				ioe.printStackTrace();
+			} finally {
+				// The server only sends a few chunks ahead of these
+				MapTool.serverCommand().assetChunkReceived();
 			}
 			return;
 		}
@@ -212,10 +216,29 @@ public void run() {
 					zoneGUID = (GUID) parameters[0];
 					zone = MapTool.getCampaign().getZone(zoneGUID);
 					Token token = (Token) parameters[1];
+					TokenDelta.reset(token);
 					zone.putToken(token);
 					MapTool.getFrame().refresh();
 					return;
 
+				case updateToken:
+					zoneGUID = (GUID) parameters[0];
+					zone = MapTool.getCampaign().getZone(zoneGUID);
+					TokenDelta delta = (TokenDelta) parameters[1];
+					Token changedToken = zone.getToken(delta.getTokenId());
+					if (changedToken == null) {
+						return;
+					}
+					if (!delta.appliesTo(changedToken)) {
+						// We've missed an update, or changed the token at the same time as someone else
+						MapTool.serverCommand().requestToken(zoneGUID, delta.getTokenId());
+						return;
+					}
+					delta.apply(changedToken);
+					zone.putToken(changedToken);
+					MapTool.getFrame().refresh();
+					return;
+
 				case putLabel:
 					zoneGUID = (GUID) parameters[0];
 					zone = MapTool.getCampaign().getZone(zoneGUID);
@@ -0,0 +1,175 @@
+/*
+ * This software Copyright by the RPTools.net development team, and licensed under the Affero GPL Version 3 or, at your option, any later version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public License * along with this source Code. If not, please visit <http://www.gnu.org/licenses/> and specifically the Affero license text
+ * at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import net.rptools.maptool.model.GUID;
+import net.rptools.maptool.model.ModelChangeEvent;
+import net.rptools.maptool.model.ModelChangeListener;
+import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.Zone;
+
+/**
+ * The lib: tokens of every map by name, so that calling a library macro doesn't have to look at every token of every map.
+ * <p>
+ * The index listens to the maps it was built from and is rebuilt the next time it is used after a lib: token is added, removed or renamed, or after the list of maps changes.
+ */
+public class LibTokenIndex implements ModelChangeListener {
+	/**
+	 * A lib: token and the map it is on
+	 */
+	public static class Entry {
+		private final Token token;
+		private final Zone zone;
+
+		Entry(Token token, Zone zone) {
+			this.token = token;
+			this.zone = zone;
+		}
+
+		public Token getToken() {
+			return token;
+		}
+
+		public Zone getZone() {
+			return zone;
+		}
+	}
+
+	// Names are matched ignoring case, the same as equalsIgnoreCase()
+	private final Map<String, List<Entry>> entryMap = new TreeMap<String, List<Entry>>(String.CASE_INSENSITIVE_ORDER);
+	// Replaced rather than changed, as it is read by whichever thread the maps fire their events on
+	private volatile Set<GUID> indexedIdSet = Collections.emptySet();
+	private final Map<Zone, Boolean> listenedZoneMap = new IdentityHashMap<Zone, Boolean>();
+	private List<Zone> indexedZoneList = Collections.emptyList();
+	private volatile boolean dirty = true;
+
+	/**
+	 * @return whether a token of this name is indexed
+	 */
+	public static boolean isLibToken(String name) {
+		return name != null && name.regionMatches(true, 0, "lib:", 0, 4);
+	}
+
+	/**
+	 * @param name
+	 *            the name of the lib: token, in any case
+	 * @param zones
+	 *            the maps to look on, in the order the tokens are to be returned in
+	 * @return the tokens with that name, usually only one
+	 */
+	public synchronized List<Entry> getEntries(String name, List<Zone> zones) {
+		boolean rebuilt = false;
+		if (dirty || !isIndexed(zones)) {
+			rebuild(zones);
+			rebuilt = true;
+		}
+		List<Entry> entryList = entryMap.get(name);
+		if (entryList == null && !rebuilt) {
+			// A token renamed to it without telling its map
+			rebuild(zones);
+			entryList = entryMap.get(name);
+		}
+		if (entryList == null) {
+			return Collections.emptyList();
+		}
+		// A token that was changed without telling its map
+		for (Entry entry : entryList) {
+			if (!name.equalsIgnoreCase(entry.token.getName()) || entry.zone.getToken(entry.token.getId()) != entry.token) {
+				rebuild(zones);
+				entryList = entryMap.get(name);
+				return entryList != null ? entryList : Collections.<Entry> emptyList();
+			}
+		}
+		return entryList;
+	}
+
+	public void modelChanged(ModelChangeEvent event) {
+		Object evt = event.getEvent();
+		if (dirty || (evt != Zone.Event.TOKEN_ADDED && evt != Zone.Event.TOKEN_REMOVED && evt != Zone.Event.TOKEN_CHANGED)) {
+			return;
+		}
+		Object arg = event.getArg();
+		if (arg instanceof Token) {
+			checkChanged((Token) arg);
+		} else if (arg instanceof Collection<?>) {
+			for (Object token : (Collection<?>) arg) {
+				if (token instanceof Token) {
+					checkChanged((Token) token);
+				}
+			}
+		}
+	}
+
+	private void checkChanged(Token token) {
+		// Either it is a lib: token now, or it was one when the index was built
+		if (isLibToken(token.getName()) || indexedIdSet.contains(token.getId())) {
+			dirty = true;
+		}
+	}
+
+	private boolean isIndexed(List<Zone> zones) {
+		if (zones.size() != indexedZoneList.size()) {
+			return false;
+		}
+		for (int i = 0; i < zones.size(); i++) {
+			if (zones.get(i) != indexedZoneList.get(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void rebuild(List<Zone> zones) {
+		// Clear the flag first so that changes made while building aren't lost
+		dirty = false;
+		entryMap.clear();
+		Set<GUID> idSet = new HashSet<GUID>();
+
+		Map<Zone, Boolean> currentZoneMap = new IdentityHashMap<Zone, Boolean>();
+		for (Zone zone : zones) {
+			currentZoneMap.put(zone, Boolean.TRUE);
+			if (!listenedZoneMap.containsKey(zone)) {
+				zone.addModelChangeListener(this);
+				listenedZoneMap.put(zone, Boolean.TRUE);
+			}
+			for (Token token : zone.getTokensFiltered(new Zone.Filter() {
+				public boolean matchToken(Token t) {
+					return isLibToken(t.getName());
+				}
+			})) {
+				List<Entry> entryList = entryMap.get(token.getName());
+				if (entryList == null) {
+					entryList = new ArrayList<Entry>(1);
+					entryMap.put(token.getName(), entryList);
+				}
+				entryList.add(new Entry(token, zone));
+				idSet.add(token.getId());
+			}
+		}
+		// Stop listening to maps that have gone
+		for (Zone zone : new ArrayList<Zone>(listenedZoneMap.keySet())) {
+			if (!currentZoneMap.containsKey(zone)) {
+				zone.removeModelChangeListener(this);
+				listenedZoneMap.remove(zone);
+			}
+		}
+		indexedIdSet = idSet;
+		indexedZoneList = new ArrayList<Zone>(zones);
+	}
+}
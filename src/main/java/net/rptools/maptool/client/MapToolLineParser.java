@@ -13,9 +13,12 @@
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -97,6 +100,32 @@ public class MapToolLineParser {
 	/** The maximum amount of loop iterations. */
 	private int maxLoopIterations = DEFAULT_MAX_LOOP_ITERATIONS;
 
+	/** How many distinct lines are kept already split into rolls. */
+	private static final int MAX_COMPILED_LINES = 512;
+
+	/** The lib: tokens of the open maps by name. */
+	private final LibTokenIndex libTokenIndex = new LibTokenIndex();
+
+	/** Lines already split into rolls with their options parsed, least recently used first. */
+	private final Map<String, CompiledLine> compiledLineCache = new LinkedHashMap<String, CompiledLine>(64, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CompiledLine> eldest) {
+			return size() > MAX_COMPILED_LINES;
+		}
+	};
+
+	/** The branch regexes only vary with the branch and code options, so there are only a handful of them. */
+	private static final Map<String, Pattern> branchPatternMap = new ConcurrentHashMap<String, Pattern>();
+
+	/** Matches the name of a roll option, "abcd(" or "abcd". */
+	private static final Pattern OPTION_NAME_PATTERN = Pattern.compile("^\\s*(?:(\\w+)\\s*\\(|(\\w+))");
+
+	/** Matches one parameter of a roll option, and the "," or ")" after it. */
+	private static final Pattern OPTION_PARAM_PATTERN = Pattern.compile("^(?:((?:[^()\"',]|\"[^\"]*\"|'[^']*'|\\((?:[^()\"']|\"[^\"]*\"|'[^']*')*\\))+)(,|\\))){1}?");
+
+	/** Matches the "," between roll options. */
+	private static final Pattern OPTION_COMMA_PATTERN = Pattern.compile("^\\s*,\\s*(?!$)");
+
 	private enum Output { // Mutually exclusive output formats
 		NONE, RESULT, TOOLTIP, EXPANDED, UNFORMATTED,
 	}
@@ -187,6 +216,27 @@ public String getRoll() {
 		}
 	}
 
+	/**
+	 * A line split into its inline rolls, with the options of each roll already parsed. Macros run the same lines over and over, so this is done once per distinct line rather than on every call.
+	 */
+	static class CompiledLine {
+		final List<InlineRollMatch> matches;
+		// The options of each roll, or null if the roll has none or they can't be parsed
+		final List<List<OptionInfo>> optionLists;
+		// Why the options of each roll can't be parsed, thrown when the roll is reached
+		final List<RollOptionException> optionErrors;
+
+		CompiledLine(List<InlineRollMatch> matches, List<List<OptionInfo>> optionLists, List<RollOptionException> optionErrors) {
+			this.matches = matches;
+			this.optionLists = optionLists;
+			this.optionErrors = optionErrors;
+		}
+
+		int getRollCount() {
+			return matches.size();
+		}
+	}
+
 	/*****************************************************************************
 	 * OptionType - defines roll options, including values for default parameters.
 	 *****************************************************************************/
@@ -231,11 +281,13 @@ private enum OptionType {
 		TOKEN("token", 1, 1);
 
 		protected final String nameRegex;
+		protected final Pattern namePattern;
 		protected final int minParams, maxParams;
 		protected final Object[] defaultParams;
 
 		OptionType(String nameRegex, int minParams, int maxParams, Object... defaultParams) {
 			this.nameRegex = nameRegex;
+			this.namePattern = Pattern.compile("^\\s*" + nameRegex + "\\s*$", Pattern.CASE_INSENSITIVE);
 			this.minParams = minParams;
 			this.maxParams = maxParams;
 			if (defaultParams == null) {
@@ -258,7 +310,7 @@ private enum OptionType {
 		 */
 		protected static OptionType optionTypeFromName(String strName) {
 			for (OptionType rot : OptionType.values()) {
-				if (Pattern.compile("^\\s*" + rot.getNameRegex() + "\\s*$", Pattern.CASE_INSENSITIVE).matcher(strName).matches()) {
+				if (rot.namePattern.matcher(strName).matches()) {
 					return rot;
 				}
 			}
@@ -348,8 +400,7 @@ private void parseOptionString(String optionString, int start) throws RollOption
 			int endOfString = optionString.length();
 
 			// Find the name
-			Pattern pattern = Pattern.compile("^\\s*(?:(\\w+)\\s*\\(|(\\w+))"); // matches "abcd(" or "abcd"
-			Matcher matcher = pattern.matcher(optionString);
+			Matcher matcher = OPTION_NAME_PATTERN.matcher(optionString);
 			matcher.region(start, endOfString);
 			if (!matcher.find()) {
 				throw new RollOptionException(I18N.getText("lineParser.badRollOpt", optionString));
@@ -378,8 +429,7 @@ private void parseOptionString(String optionString, int start) throws RollOption
 			}
 
 			// Otherwise, match the individual parameters one at a time
-			pattern = Pattern.compile("^(?:((?:[^()\"',]|\"[^\"]*\"|'[^']*'|\\((?:[^()\"']|\"[^\"]*\"|'[^']*')*\\))+)(,|\\))){1}?");
-			matcher = pattern.matcher(optionString);
+			matcher = OPTION_PARAM_PATTERN.matcher(optionString);
 			matcher.region(start, endOfString);
 			List<String> paramList = new ArrayList<String>();
 			boolean lastItem = false; // true if last match ended in ")"
@@ -552,7 +602,6 @@ private List<OptionInfo> getRollOptionList(String optionString) throws RollOptio
 		int start = 0;
 		int endOfString = optionString.length();
 		boolean atEnd = false;
-		Pattern commaPattern = Pattern.compile("^\\s*,\\s*(?!$)");
 
 		while (start < endOfString) {
 			OptionInfo roi;
@@ -565,7 +614,7 @@ private List<OptionInfo> getRollOptionList(String optionString) throws RollOptio
 			list.add(roi);
 			start = roi.getEnd();
 			// Eat any "," sitting between options
-			Matcher matcher = commaPattern.matcher(optionString);
+			Matcher matcher = OPTION_COMMA_PATTERN.matcher(optionString);
 			matcher.region(start, endOfString);
 			if (matcher.find()) {
 				start = matcher.end();
@@ -614,9 +663,10 @@ public String parseLine(MapToolVariableResolver res, Token tokenInContext, Strin
 			resolverInitialized = resolver.initialize();
 			StringBuilder builder = new StringBuilder();
 			int start = 0;
-			List<InlineRollMatch> matches = this.locateInlineRolls(line);
+			CompiledLine compiledLine = getCompiledLine(line);
 
-			for (InlineRollMatch match : matches) {
+			for (int rollIndex = 0; rollIndex < compiledLine.getRollCount(); rollIndex++) {
+				InlineRollMatch match = compiledLine.matches.get(rollIndex);
 				builder.append(line.substring(start, match.getStart())); // add everything before the roll
 
 				start = match.getEnd() + 1;
@@ -651,13 +701,12 @@ public String parseLine(MapToolVariableResolver res, Token tokenInContext, Strin
 					opts = match.getOpt();
 					roll = match.getRoll();
 					if (opts != null) {
-						// Turn the opts string into a list of OptionInfo objects.
-						List<OptionInfo> optionList = null;
-						try {
-							optionList = getRollOptionList(opts);
-						} catch (RollOptionException roe) {
+						// The opts string was turned into a list of OptionInfo objects when the line was compiled
+						RollOptionException roe = compiledLine.optionErrors.get(rollIndex);
+						if (roe != null) {
 							throw doError(roe.msg, opts, roll);
 						}
+						List<OptionInfo> optionList = compiledLine.optionLists.get(rollIndex);
 
 						// Scan the roll options and prepare variables for later use
 						for (OptionInfo option : optionList) {
@@ -1028,7 +1077,7 @@ public String parseLine(MapToolVariableResolver res, Token tokenInContext, Strin
 						case NO_BRANCH: {
 							// There's only one branch, so our regex is very simple
 							String testRegex = String.format("^\\s*%s\\s*$", branchRegex);
-							Matcher testMatcher = Pattern.compile(testRegex).matcher(roll);
+							Matcher testMatcher = getBranchPattern(testRegex).matcher(roll);
 							if (testMatcher.find()) {
 								rollBranch = testMatcher.group(1);
 							} else {
@@ -1044,7 +1093,7 @@ public String parseLine(MapToolVariableResolver res, Token tokenInContext, Strin
 							}
 							int whichBranch = (branchConditionValue != 0) ? 0 : 1;
 							String testRegex = String.format("^\\s*%s\\s*(?:%s\\s*%s\\s*%s)?\\s*$", branchRegex, branchSepRegex, branchRegex, branchLastSepRegex);
-							Matcher testMatcher = Pattern.compile(testRegex).matcher(roll);
+							Matcher testMatcher = getBranchPattern(testRegex).matcher(roll);
 							if (testMatcher.find()) { // verifies that roll body is well-formed
 								rollBranch = testMatcher.group(1 + whichBranch);
 								if (rollBranch == null)
@@ -1063,10 +1112,10 @@ public String parseLine(MapToolVariableResolver res, Token tokenInContext, Strin
 							branchRegex = "(?:case\\s*\"?((?<!\")(?:\\+|-)?[\\d]+(?!\")|(?<=\")[^\"]*(?=\"))\"?|(default))\\s*:\\s*" + branchRegex;
 							String caseTarget = branchConditionParsed.toString();
 							String testRegex = String.format("^(?:\\s*%s\\s*%s\\s*)*\\s*%s\\s*%s\\s*$", branchRegex, branchSepRegex, branchRegex, branchLastSepRegex);
-							Matcher testMatcher = Pattern.compile(testRegex).matcher(roll);
+							Matcher testMatcher = getBranchPattern(testRegex).matcher(roll);
 							if (testMatcher.find()) { // verifies that roll body is well-formed
 								String scanRegex = String.format("\\s*%s\\s*(?:%s)?", branchRegex, branchSepRegex);
-								Matcher scanMatcher = Pattern.compile(scanRegex).matcher(roll);
+								Matcher scanMatcher = getBranchPattern(scanRegex).matcher(roll);
 								boolean foundMatch = false;
 								while (!foundMatch && scanMatcher.find()) {
 									String caseLabel = scanMatcher.group(1); // "case (xxx):"
@@ -1354,13 +1403,7 @@ public String runMacro(MapToolVariableResolver resolver, Token tokenInContext, S
 				macroBody = buttonProps.getCommand();
 			}
 		} else if (macroLocation.equalsIgnoreCase("CAMPAIGN")) {
-			MacroButtonProperties mbp = null;
-			for (MacroButtonProperties m : MapTool.getCampaign().getMacroButtonPropertiesArray()) {
-				if (m.getLabel().equals(macroName)) {
-					mbp = m;
-					break;
-				}
-			}
+			MacroButtonProperties mbp = MapTool.getCampaign().getMacroButtonProperty(macroName);
 			if (mbp == null) {
 				throw new ParserException(I18N.getText("lineParser.unknownCampaignMacro", macroName));
 			}
@@ -1525,26 +1568,18 @@ public Token getTokenMacroLib(String location) throws ParserException {
 		final String libTokenName = location;
 		Token libToken = null;
 		if (libTokenName != null && libTokenName.length() > 0) {
-			List<ZoneRenderer> zrenderers = MapTool.getFrame().getZoneRenderers();
-			for (ZoneRenderer zr : zrenderers) {
-				List<Token> tokenList = zr.getZone().getTokensFiltered(new Zone.Filter() {
-					public boolean matchToken(Token t) {
-						return t.getName().equalsIgnoreCase(libTokenName);
-					}
-				});
-
-				for (Token token : tokenList) {
-					// If we are not the GM and the token is not visible to players then we don't
-					// let them get functions from it.
-					if (!MapTool.getPlayer().isGM() && !token.isVisible()) {
-						throw new ParserException(I18N.getText("lineParser.libUnableToExec", libTokenName));
-					}
-					if (libToken != null) {
-						throw new ParserException(I18N.getText("lineParser.duplicateLibTokens", libTokenName));
-					}
-
-					libToken = token;
+			for (LibTokenIndex.Entry entry : getLibTokenEntries(libTokenName)) {
+				Token token = entry.getToken();
+				// If we are not the GM and the token is not visible to players then we don't
+				// let them get functions from it.
+				if (!MapTool.getPlayer().isGM() && !token.isVisible()) {
+					throw new ParserException(I18N.getText("lineParser.libUnableToExec", libTokenName));
+				}
+				if (libToken != null) {
+					throw new ParserException(I18N.getText("lineParser.duplicateLibTokens", libTokenName));
 				}
+
+				libToken = token;
 			}
 			return libToken;
 		}
@@ -1565,33 +1600,38 @@ public Zone getTokenMacroLibZone(String location) throws ParserException {
 		final String libTokenName = location;
 		Zone libTokenZone = null;
 		if (libTokenName != null && libTokenName.length() > 0) {
-			List<ZoneRenderer> zrenderers = MapTool.getFrame().getZoneRenderers();
-			for (ZoneRenderer zr : zrenderers) {
-				List<Token> tokenList = zr.getZone().getTokensFiltered(new Zone.Filter() {
-					public boolean matchToken(Token t) {
-						return t.getName().equalsIgnoreCase(libTokenName);
-					}
-				});
-
-				for (Token token : tokenList) {
-					// If we are not the GM and the token is not visible to players then we don't
-					// let them get functions from it.
-					if (!MapTool.getPlayer().isGM() && !token.isVisible()) {
-						throw new ParserException(I18N.getText("lineParser.libUnableToExec", libTokenName));
-					}
-
-					if (libTokenZone != null) {
-						throw new ParserException(I18N.getText("lineParser.duplicateLibTokens", libTokenName));
-					}
+			for (LibTokenIndex.Entry entry : getLibTokenEntries(libTokenName)) {
+				// If we are not the GM and the token is not visible to players then we don't
+				// let them get functions from it.
+				if (!MapTool.getPlayer().isGM() && !entry.getToken().isVisible()) {
+					throw new ParserException(I18N.getText("lineParser.libUnableToExec", libTokenName));
+				}
 
-					libTokenZone = zr.getZone();
+				if (libTokenZone != null) {
+					throw new ParserException(I18N.getText("lineParser.duplicateLibTokens", libTokenName));
 				}
+
+				libTokenZone = entry.getZone();
 			}
 			return libTokenZone;
 		}
 		return null;
 	}
 
+	/**
+	 * Looks the lib: token up on the open maps.
+	 * 
+	 * @return the tokens with the name, in the order of the maps
+	 */
+	private List<LibTokenIndex.Entry> getLibTokenEntries(String libTokenName) {
+		List<ZoneRenderer> zrenderers = MapTool.getFrame().getZoneRenderers();
+		List<Zone> zones = new ArrayList<Zone>(zrenderers.size());
+		for (ZoneRenderer zr : zrenderers) {
+			zones.add(zr.getZone());
+		}
+		return libTokenIndex.getEntries(libTokenName, zones);
+	}
+
 	/**
 	 * Throws a helpful ParserException that shows the roll options and body.
 	 * 
@@ -1762,6 +1802,72 @@ public boolean isMacroTrusted() {
 		return !contextStack.isEmpty() && contextStack.peek().isTrusted();
 	}
 
+	/**
+	 * Gets the line split into its rolls, from the cache if the line has been run before.
+	 * 
+	 * @param line
+	 *            The trimmed line.
+	 * @return The compiled line.
+	 */
+	CompiledLine getCompiledLine(String line) {
+		CompiledLine compiledLine;
+		synchronized (compiledLineCache) {
+			compiledLine = compiledLineCache.get(line);
+		}
+		if (compiledLine == null) {
+			compiledLine = compileLine(line);
+			synchronized (compiledLineCache) {
+				compiledLineCache.put(line, compiledLine);
+			}
+		}
+		return compiledLine;
+	}
+
+	/**
+	 * Splits the line into its rolls and parses the options of each. Options that can't be parsed are not an error until the roll they belong to is run, as the rolls before it still produce output.
+	 * 
+	 * @param line
+	 *            The trimmed line.
+	 * @return The compiled line.
+	 */
+	CompiledLine compileLine(String line) {
+		List<InlineRollMatch> matches = locateInlineRolls(line);
+		List<List<OptionInfo>> optionLists = new ArrayList<List<OptionInfo>>(matches.size());
+		List<RollOptionException> optionErrors = new ArrayList<RollOptionException>(matches.size());
+		for (InlineRollMatch match : matches) {
+			List<OptionInfo> optionList = null;
+			RollOptionException error = null;
+			if (match.getMatch().startsWith("[")) {
+				try {
+					optionList = getRollOptionList(match.getOpt());
+				} catch (RollOptionException roe) {
+					error = roe;
+				}
+			}
+			optionLists.add(optionList);
+			optionErrors.add(error);
+		}
+		return new CompiledLine(matches, optionLists, optionErrors);
+	}
+
+	/**
+	 * Forgets the compiled lines, so that each line is compiled again the next time it is run. Used by the tests and by MapToolLineParserBenchmark to compare parsing with and without the cache.
+	 */
+	void clearCompiledLines() {
+		synchronized (compiledLineCache) {
+			compiledLineCache.clear();
+		}
+	}
+
+	private static Pattern getBranchPattern(String regex) {
+		Pattern pattern = branchPatternMap.get(regex);
+		if (pattern == null) {
+			pattern = Pattern.compile(regex);
+			branchPatternMap.put(regex, pattern);
+		}
+		return pattern;
+	}
+
 	/**
 	 * Locate the inline rolls within the input line.
 	 * 
@@ -26,6 +26,7 @@
 import net.rptools.maptool.model.Pointer;
 import net.rptools.maptool.model.TextMessage;
 import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.TokenDelta;
 import net.rptools.maptool.model.Zone;
 import net.rptools.maptool.model.Zone.VisionType;
 import net.rptools.maptool.model.ZonePoint;
@@ -102,16 +103,43 @@ public void removeAsset(MD5Key assetID) {
 		makeServerCall(COMMAND.removeAsset, assetID);
 	}
 
+	public void setCurrentZone(GUID zoneGUID) {
+		makeServerCall(COMMAND.setCurrentZone, zoneGUID);
+	}
+
+	public void assetChunkReceived() {
+		makeServerCall(COMMAND.assetChunkReceived);
+	}
+
 	public void enforceZoneView(GUID zoneGUID, int x, int y, double scale, int width, int height) {
 		makeServerCall(COMMAND.enforceZoneView, zoneGUID, x, y, scale, width, height);
 	}
 
 	public void putToken(GUID zoneGUID, Token token) {
+		Zone zone = MapTool.getCampaign().getZone(zoneGUID);
+		boolean newToken = zone.getToken(token.getId()) == null;
+
 		// Hack to generate zone event. All functions that update tokens call this method
 		// after changing the token. But they don't tell the zone about it so classes
 		// waiting for the zone change event don't get it.
-		MapTool.getCampaign().getZone(zoneGUID).putToken(token);
-		makeServerCall(COMMAND.putToken, zoneGUID, token);
+		zone.putToken(token);
+
+		// Only send what changed, unless the other clients have never seen this copy of the token
+		TokenDelta delta = newToken ? null : TokenDelta.create(token);
+		if (delta == null) {
+			TokenDelta.reset(token);
+			makeServerCall(COMMAND.putToken, zoneGUID, token);
+		} else if (!delta.isEmpty()) {
+			makeServerCall(COMMAND.updateToken, zoneGUID, delta);
+		}
+	}
+
+	public void updateToken(GUID zoneGUID, TokenDelta delta) {
+		makeServerCall(COMMAND.updateToken, zoneGUID, delta);
+	}
+
+	public void requestToken(GUID zoneGUID, GUID tokenGUID) {
+		makeServerCall(COMMAND.requestToken, zoneGUID, tokenGUID);
 	}
 
 	public void removeToken(GUID zoneGUID, GUID tokenGUID) {
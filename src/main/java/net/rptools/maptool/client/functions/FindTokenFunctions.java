@@ -306,7 +306,7 @@ private Object getTokenList(Parser parser, boolean nameOnly, String delim, Strin
 				// Looking for tokens with all of these states set
 				for (Object item : ary) {
 					List<Token> lst = getTokenList(parser, FindType.STATE, item.toString());
-					tokenList.retainAll(lst);
+					tokenList.retainAll(new HashSet<Token>(lst));
 				}
 			} else if ("range".equalsIgnoreCase(searchType)) {
 				// We will do this as one of the last steps as it's one of the most expensive so we want to do it on as few tokens as possible
@@ -335,7 +335,7 @@ private Object getTokenList(Parser parser, boolean nameOnly, String delim, Strin
 						lst = getTokenList(parser, FindType.IMPERSONATED, "");
 					}
 					if (lst != null)
-						tokenList.retainAll(lst);
+						tokenList.retainAll(new HashSet<Token>(lst));
 				}
 			}
 		}
@@ -346,16 +346,16 @@ private Object getTokenList(Parser parser, boolean nameOnly, String delim, Strin
 		// the criteria, remove those from a list of all tokens, and use that
 		// resultant list to tell the tokenList which to retain.
 		// FJE Huh? Why not just remove ones that match from 'tokenList'???
-		List<Token> inverseList = new ArrayList<Token>();
+		Set<Token> inverseSet = new HashSet<Token>();
 		for (Object key : jobj.keySet()) {
 			String searchType = key.toString();
 			if ("unsetStates".equalsIgnoreCase(searchType)) {
 				JSONArray states = (JSONArray) jobj.get(searchType);
 				for (Object st : states) {
-					inverseList.clear();
-					inverseList.addAll(allTokens);
-					inverseList.removeAll(getTokenList(parser, FindType.STATE, st.toString()));
-					tokenList.retainAll(inverseList);
+					inverseSet.clear();
+					inverseSet.addAll(allTokens);
+					inverseSet.removeAll(getTokenSet(parser, FindType.STATE, st.toString()));
+					tokenList.retainAll(inverseSet);
 				}
 				// } else if ("setStates".equalsIgnoreCase(searchType)) {
 				// // ignore
@@ -365,25 +365,25 @@ private Object getTokenList(Parser parser, boolean nameOnly, String delim, Strin
 				// // ignore
 			} else {
 				if (!booleanCheck(jobj, searchType)) {
-					inverseList.clear();
-					inverseList.addAll(allTokens);
+					inverseSet.clear();
+					inverseSet.addAll(allTokens);
 					if ("npc".equalsIgnoreCase(searchType)) {
-						inverseList.removeAll(getTokenList(parser, FindType.NPC, ""));
+						inverseSet.removeAll(getTokenSet(parser, FindType.NPC, ""));
 					} else if ("pc".equalsIgnoreCase(searchType)) {
-						inverseList.removeAll(getTokenList(parser, FindType.PC, ""));
+						inverseSet.removeAll(getTokenSet(parser, FindType.PC, ""));
 					} else if ("selected".equalsIgnoreCase(searchType)) {
-						inverseList.removeAll(getTokenList(parser, FindType.SELECTED, ""));
+						inverseSet.removeAll(getTokenSet(parser, FindType.SELECTED, ""));
 					} else if ("visible".equalsIgnoreCase(searchType)) {
-						inverseList.removeAll(getTokenList(parser, FindType.VISIBLE, ""));
+						inverseSet.removeAll(getTokenSet(parser, FindType.VISIBLE, ""));
 					} else if ("owned".equalsIgnoreCase(searchType)) {
-						inverseList.removeAll(getTokenList(parser, FindType.OWNED, MapTool.getPlayer().getName()));
+						inverseSet.removeAll(getTokenSet(parser, FindType.OWNED, MapTool.getPlayer().getName()));
 					} else if ("current".equalsIgnoreCase(searchType)) {
-						inverseList.removeAll(getTokenList(parser, FindType.CURRENT, ""));
+						inverseSet.removeAll(getTokenSet(parser, FindType.CURRENT, ""));
 					} else if ("impersonated".equalsIgnoreCase(searchType)) {
-						inverseList.removeAll(getTokenList(parser, FindType.IMPERSONATED, ""));
+						inverseSet.removeAll(getTokenSet(parser, FindType.IMPERSONATED, ""));
 					}
-					if (inverseList != null)
-						tokenList.retainAll(inverseList);
+					if (inverseSet != null)
+						tokenList.retainAll(inverseSet);
 				}
 			}
 		}
@@ -425,14 +425,28 @@ private Object getTokenList(Parser parser, boolean nameOnly, String delim, Strin
 			if (range.containsKey("metric")) {
 				metric = range.getString("metric");
 			}
-			List<Token> inrange = new LinkedList<Token>();
+			// On a grid no metric counts fewer cells than the larger of the distances along each axis, so only
+			// the tokens that close need measuring
+			Zone zone = MapTool.getFrame().getCurrentZoneRenderer().getZone();
+			Set<Token> nearby = null;
+			if (upto != Integer.MAX_VALUE && zone.getGrid().getCapabilities().isPathingSupported() && !TokenLocationFunctions.NO_GRID.equals(metric)) {
+				if (!useDistancePerCell) {
+					nearby = zone.getTokensNear(token, Math.max(upto, -1));
+				} else if (zone.getUnitsPerCell() > 0) {
+					nearby = zone.getTokensNear(token, Math.max((int) Math.ceil((double) upto / zone.getUnitsPerCell()), -1));
+				}
+			}
+			List<Token> inrange = new ArrayList<Token>();
 			for (Token targetToken : tokenList) {
+				if (nearby != null && !nearby.contains(targetToken)) {
+					continue;
+				}
 				Double distance = instance.getDistance(token, targetToken, useDistancePerCell, metric);
 				if (distance <= upto && distance >= from && token != targetToken) {
 					inrange.add(targetToken);
 				}
 			}
-			tokenList.retainAll(inrange);
+			tokenList = inrange;
 		}
 
 		// Loop through and compare the area if we have it
@@ -463,8 +477,16 @@ private Object getTokenList(Parser parser, boolean nameOnly, String delim, Strin
 				metric = area.getString("metric");
 			}
 			CellPoint cp = instance.getTokenCell(token);
+			Zone zone = MapTool.getFrame().getCurrentZoneRenderer().getZone();
+			// On a grid a token is no distance from a cell exactly when it occupies it
+			boolean onCells = zone.getGrid().getCapabilities().isPathingSupported() && !TokenLocationFunctions.NO_GRID.equals(metric);
+			if (onCells) {
+				// The metric makes no difference to which cells a token is on, it is only looked up so that a bad one is still an error
+				instance.getWalkerMetric(zone.getGrid(), metric);
+			}
 
 			Set<Token> matching = new HashSet<Token>();
+			Set<CellPoint> cells = new HashSet<CellPoint>();
 			for (Object o : offsets) {
 				if (!(o instanceof JSONObject)) {
 					throw new ParserException(I18N.getText("macro.function.findTokenFunctions.offsetArray", "getTokens"));
@@ -475,6 +497,10 @@ private Object getTokenList(Parser parser, boolean nameOnly, String delim, Strin
 				}
 				int x = joff.getInt("x");
 				int y = joff.getInt("y");
+				if (onCells) {
+					cells.add(new CellPoint(cp.x + x, cp.y + y));
+					continue;
+				}
 				for (Token targetToken : tokenList) {
 					if (!matching.contains(targetToken)) {
 						Double distance = instance.getDistance(targetToken, cp.x + x, cp.y + y, false, metric);
@@ -484,6 +510,9 @@ private Object getTokenList(Parser parser, boolean nameOnly, String delim, Strin
 					}
 				}
 			}
+			if (onCells) {
+				matching = zone.getTokensOnCells(cells);
+			}
 			tokenList.retainAll(matching);
 		}
 
@@ -521,6 +550,10 @@ private boolean booleanCheck(JSONObject jobj, String searchType) {
 		}
 	}
 
+	private Set<Token> getTokenSet(Parser parser, FindType findType, String findArgs) throws ParserException {
+		return new HashSet<Token>(getTokenList(parser, findType, findArgs));
+	}
+
 	private List<Token> getTokenList(Parser parser, FindType findType, String findArgs) throws ParserException {
 		List<Token> tokenList = new LinkedList<Token>();
 		ZoneRenderer zoneRenderer = MapTool.getFrame().getCurrentZoneRenderer();
@@ -12,14 +12,12 @@
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
 
 import net.rptools.maptool.client.MapTool;
 import net.rptools.maptool.client.MapToolVariableResolver;
 import net.rptools.maptool.client.ui.zone.ZoneRenderer;
+import net.rptools.maptool.client.walker.DistanceService;
 import net.rptools.maptool.client.walker.WalkerMetric;
-import net.rptools.maptool.client.walker.ZoneWalker;
-import net.rptools.maptool.client.walker.astar.AStarSquareEuclideanWalker;
 import net.rptools.maptool.language.I18N;
 import net.rptools.maptool.model.CellPoint;
 import net.rptools.maptool.model.Grid;
@@ -41,7 +39,7 @@ private static class TokenLocation {
 	}
 
 	/** Ignore grid for movement metric in distance methods. */
-	private static final String NO_GRID = "NO_GRID";
+	static final String NO_GRID = "NO_GRID";
 
 	/** Singleton for class/ */
 	private static final TokenLocationFunctions instance = new TokenLocationFunctions();
@@ -87,7 +85,6 @@ public Object childEvaluate(Parser parser, String functionName, List<Object> par
 			Zone zone = renderer.getZone();
 			zone.putToken(token);
 			MapTool.serverCommand().putToken(zone.getId(), token);
-			renderer.flushLight();
 			return BigDecimal.valueOf(token.getZOrder());
 		}
 		if (functionName.equals("getDistance")) {
@@ -273,31 +270,8 @@ public double getDistance(Token source, Token target, boolean units, String metr
 
 		if (grid.getCapabilities().isPathingSupported() && !NO_GRID.equals(metric)) {
 
-			// Get which cells our tokens occupy
-			Set<CellPoint> sourceCells = source.getFootprint(grid).getOccupiedCells(grid.convert(new ZonePoint(source.getX(), source.getY())));
-			Set<CellPoint> targetCells = target.getFootprint(grid).getOccupiedCells(grid.convert(new ZonePoint(target.getX(), target.getY())));
-
-			ZoneWalker walker;
-			if (metric != null && grid instanceof SquareGrid) {
-				try {
-					WalkerMetric wmetric = WalkerMetric.valueOf(metric);
-					walker = new AStarSquareEuclideanWalker(renderer.getZone(), wmetric);
-
-				} catch (IllegalArgumentException e) {
-					throw new ParserException(I18N.getText("macro.function.getDistance.invalidMetric", metric));
-				}
-			} else {
-				walker = grid.createZoneWalker();
-			}
-
-			// Get the distances from each source to target cell and keep the minimum one
-			int distance = Integer.MAX_VALUE;
-			for (CellPoint scell : sourceCells) {
-				for (CellPoint tcell : targetCells) {
-					walker.setWaypoints(scell, tcell);
-					distance = Math.min(distance, walker.getDistance());
-				}
-			}
+			// The distance between the closest cells of the two tokens
+			int distance = DistanceService.getInstance(renderer.getZone()).getDistance(source, target, getWalkerMetric(grid, metric), null);
 
 			if (units) {
 				return distance;
@@ -346,29 +320,8 @@ public double getDistance(Token source, int x, int y, boolean units, String metr
 
 		if (grid.getCapabilities().isPathingSupported() && !NO_GRID.equals(metric)) {
 
-			// Get which cells our tokens occupy
-			Set<CellPoint> sourceCells = source.getFootprint(grid).getOccupiedCells(grid.convert(new ZonePoint(source.getX(), source.getY())));
-
-			ZoneWalker walker;
-			if (metric != null && grid instanceof SquareGrid) {
-				try {
-					WalkerMetric wmetric = WalkerMetric.valueOf(metric);
-					walker = new AStarSquareEuclideanWalker(renderer.getZone(), wmetric);
-
-				} catch (IllegalArgumentException e) {
-					throw new ParserException(I18N.getText("macro.function.getDistance.invalidMetric", metric));
-				}
-			} else {
-				walker = grid.createZoneWalker();
-			}
-
-			// Get the distances from each source to target cell and keep the minimum one
-			int distance = Integer.MAX_VALUE;
-			CellPoint targetCell = new CellPoint(x, y);
-			for (CellPoint scell : sourceCells) {
-				walker.setWaypoints(scell, targetCell);
-				distance = Math.min(distance, walker.getDistance());
-			}
+			// The distance from the closest cell of the token
+			int distance = DistanceService.getInstance(renderer.getZone()).getDistance(source, new CellPoint(x, y), getWalkerMetric(grid, metric), null);
 
 			if (units) {
 				return distance;
@@ -391,6 +344,28 @@ public double getDistance(Token source, int x, int y, boolean units, String metr
 		}
 	}
 
+	/**
+	 * Gets the walker metric named by a macro.
+	 * 
+	 * @param grid
+	 *            the grid of the map.
+	 * @param metric
+	 *            the name of the metric, or null.
+	 * @return the metric, or null to use the one tokens move by.
+	 * @throws ParserException
+	 *             if there is no metric of that name.
+	 */
+	WalkerMetric getWalkerMetric(Grid grid, String metric) throws ParserException {
+		if (metric == null || !(grid instanceof SquareGrid)) {
+			return null;
+		}
+		try {
+			return WalkerMetric.valueOf(metric);
+		} catch (IllegalArgumentException e) {
+			throw new ParserException(I18N.getText("macro.function.getDistance.invalidMetric", metric));
+		}
+	}
+
 	/**
 	 * Gets the distance to another token.
 	 * 
@@ -554,7 +529,6 @@ private String moveToken(MapToolVariableResolver res, List<Object> args) throws
 		Zone zone = renderer.getZone();
 		zone.putToken(token);
 		MapTool.serverCommand().putToken(zone.getId(), token);
-		renderer.flushLight();
 		return "";
 	}
 
@@ -98,7 +98,6 @@ public Object childEvaluate(Parser parser, String functionName, List<Object> par
 			token.setHasSight(!parameters.get(0).equals(BigDecimal.ZERO));
 			zone.putToken(token);
 			MapTool.serverCommand().putToken(zone.getId(), token);
-			renderer.flushLight();
 			return "";
 		}
 
@@ -106,7 +105,6 @@ public Object childEvaluate(Parser parser, String functionName, List<Object> par
 			token.setSightType(parameters.get(0).toString());
 			zone.putToken(token);
 			MapTool.serverCommand().putToken(zone.getId(), token);
-			renderer.flushLight();
 			return "";
 		}
 
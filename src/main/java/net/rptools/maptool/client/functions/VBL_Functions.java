@@ -228,7 +228,13 @@ public Object childEvaluate(Parser parser, String functionName, List<Object> par
 					if (alpha < 0 || alpha > 255)
 						throw new ParserException(I18N.getText("macro.function.input.illegalArgumentType", alpha, "0-255"));
 					System.out.println("Alpha: " + alpha);
-					tokenVBL = TokenVBL.createVblArea(token, alpha);
+					double tolerance = TokenVBL.DEFAULT_TOLERANCE;
+					if (vblObject.containsKey("tolerance")) {
+						tolerance = vblObject.optDouble("tolerance", -1);
+						if (tolerance < 0)
+							throw new ParserException(I18N.getText("macro.function.input.illegalArgumentType", vblObject.get("tolerance"), "0+"));
+					}
+					tokenVBL = TokenVBL.createVblArea(token, alpha, tolerance);
 					break;
 				case NONE:
 					tokenVBL = null;
@@ -1290,9 +1290,9 @@ public void clearZoneRendererList() {
 	}
 
 	public void setCurrentZoneRenderer(ZoneRenderer renderer) {
-		// Flush first so that the new zone renderer can inject the newly needed images
+		// Pin first so that the images of the new zone stay cached, the others are released as the cache fills up
 		if (renderer != null) {
-			ImageManager.flush(renderer.getZone().getAllAssetIds());
+			ImageManager.setPinnedImages(renderer.getZone().getAllAssetIds());
 		} else {
 			ImageManager.flush();
 			// zoneRendererList.remove(currentRenderer);
@@ -1315,6 +1315,10 @@ public void setCurrentZoneRenderer(ZoneRenderer renderer) {
 		toolbox.setTargetRenderer(renderer);
 
 		if (renderer != null) {
+			// So that the server streams the assets of this zone first
+			if (MapTool.serverCommand() != null) {
+				MapTool.serverCommand().setCurrentZone(renderer.getZone().getId());
+			}
 			MapTool.getEventDispatcher().fireEvent(MapTool.ZoneEvent.Activated, this, null, renderer.getZone());
 			renderer.requestFocusInWindow();
 		}
@@ -39,11 +39,13 @@
 import net.rptools.lib.swing.SwingUtil;
 import net.rptools.maptool.client.AppPreferences;
 import net.rptools.maptool.client.MapTool;
+import net.rptools.maptool.client.ui.zone.ZoneRenderer;
 import net.rptools.maptool.client.walker.WalkerMetric;
 import net.rptools.maptool.model.Grid;
 import net.rptools.maptool.model.GridFactory;
 import net.rptools.maptool.model.Token;
 import net.rptools.maptool.model.Zone;
+import net.rptools.maptool.util.ImageManager;
 import net.rptools.maptool.util.StringUtil;
 import net.rptools.maptool.util.UserJvmPrefs;
 import net.rptools.maptool.util.UserJvmPrefs.JVM_OPTION;
@@ -129,6 +131,9 @@ public void stateChanged(ChangeEvent ce) {
 	private final JSpinner fogOverlayOpacitySpinner;
 	private final JCheckBox useHaloColorAsVisionOverlayCheckBox;
 	private final JCheckBox autoRevealVisionOnGMMoveCheckBox;
+	private final JCheckBox useVisibilitySweepCheckBox;
+	private final JSpinner imageCacheSizeSpinner;
+	private final JCheckBox tiledBoardCheckBox;
 	private final JCheckBox showSmiliesCheckBox;
 	private final JCheckBox playSystemSoundCheckBox;
 	private final JCheckBox playSystemSoundOnlyWhenNotFocusedCheckBox;
@@ -146,6 +151,7 @@ public void stateChanged(ChangeEvent ce) {
 	private final JETAColorWell trustedOuputForeground;
 	private final JETAColorWell trustedOuputBackground;
 	private final JSpinner chatAutosaveTime;
+	private final JSpinner chatLogLimit;
 	private final JTextField chatFilenameFormat;
 	private final JSpinner typingNotificationDuration;
 
@@ -162,6 +168,7 @@ public void stateChanged(ChangeEvent ce) {
 
 	private final JSpinner autoSaveSpinner;
 	private final JCheckBox saveReminderCheckBox;
+	private final JCheckBox streamCampaignSaveCheckBox;
 
 	private final JCheckBox showDialogOnNewToken;
 
@@ -216,6 +223,7 @@ public void actionPerformed(java.awt.event.ActionEvent e) {
 		showStatSheetModifierCheckBox = panel.getCheckBox("showStatSheetModifier");
 		showNumberingCombo = panel.getComboBox("showNumberingCombo");
 		saveReminderCheckBox = panel.getCheckBox("saveReminderCheckBox");
+		streamCampaignSaveCheckBox = panel.getCheckBox("streamCampaignSaveCheckBox");
 		fillSelectionCheckBox = panel.getCheckBox("fillSelectionCheckBox");
 		initEnableServerSyncCheckBox = panel.getCheckBox("initEnableServerSyncCheckBox");
 		autoSaveSpinner = panel.getSpinner("autoSaveSpinner");
@@ -246,6 +254,9 @@ public void actionPerformed(java.awt.event.ActionEvent e) {
 
 		useHaloColorAsVisionOverlayCheckBox = panel.getCheckBox("useHaloColorAsVisionOverlayCheckBox");
 		autoRevealVisionOnGMMoveCheckBox = panel.getCheckBox("autoRevealVisionOnGMMoveCheckBox");
+		useVisibilitySweepCheckBox = panel.getCheckBox("useVisibilitySweepCheckBox");
+		imageCacheSizeSpinner = panel.getSpinner("imageCacheSizeSpinner");
+		tiledBoardCheckBox = panel.getCheckBox("tiledBoardCheckBox");
 		showSmiliesCheckBox = panel.getCheckBox("showSmiliesCheckBox");
 		playSystemSoundCheckBox = panel.getCheckBox("playSystemSounds");
 		playSystemSoundOnlyWhenNotFocusedCheckBox = panel.getCheckBox("soundsOnlyWhenNotFocused");
@@ -267,6 +278,7 @@ public void actionPerformed(java.awt.event.ActionEvent e) {
 		chatNotificationShowBackground = panel.getCheckBox("chatNotificationShowBackground");
 
 		chatAutosaveTime = panel.getSpinner("chatAutosaveTime");
+		chatLogLimit = panel.getSpinner("chatLogLimit");
 		chatFilenameFormat = panel.getTextField("chatFilenameFormat");
 
 		fitGMView = panel.getCheckBox("fitGMView");
@@ -358,6 +370,12 @@ protected void storeSpinnerValue(int value) {
 				AppPreferences.setChatAutosaveTime(value);
 			}
 		});
+		chatLogLimit.addChangeListener(new ChangeListenerProxy() {
+			@Override
+			protected void storeSpinnerValue(int value) {
+				AppPreferences.setChatLogLimit(value);
+			}
+		});
 		typingNotificationDuration.addChangeListener(new ChangeListenerProxy() {
 			@Override
 			protected void storeSpinnerValue(int value) {
@@ -394,6 +412,11 @@ public void actionPerformed(ActionEvent e) {
 				AppPreferences.setSaveReminder(saveReminderCheckBox.isSelected());
 			}
 		});
+		streamCampaignSaveCheckBox.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				AppPreferences.setStreamCampaignSave(streamCampaignSaveCheckBox.isSelected());
+			}
+		});
 		fillSelectionCheckBox.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
 				AppPreferences.setFillSelectionBox(fillSelectionCheckBox.isSelected());
@@ -548,6 +571,13 @@ protected void storeSpinnerValue(int value) {
 				MapTool.getFrame().refresh();
 			}
 		});
+		imageCacheSizeSpinner.addChangeListener(new ChangeListenerProxy() {
+			@Override
+			protected void storeSpinnerValue(int value) {
+				AppPreferences.setImageCacheSize(value);
+				ImageManager.setCacheSize(value);
+			}
+		});
 		useHaloColorAsVisionOverlayCheckBox.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
 				AppPreferences.setUseHaloColorOnVisionOverlay(useHaloColorAsVisionOverlayCheckBox.isSelected());
@@ -558,6 +588,26 @@ public void actionPerformed(ActionEvent e) {
 				AppPreferences.setAutoRevealVisionOnGMMovement(autoRevealVisionOnGMMoveCheckBox.isSelected());
 			}
 		});
+		useVisibilitySweepCheckBox.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				AppPreferences.setUseVisibilitySweep(useVisibilitySweepCheckBox.isSelected());
+				// Vision already calculated the other way has to be thrown away
+				for (ZoneRenderer zr : MapTool.getFrame().getZoneRenderers()) {
+					zr.getZoneView().flush();
+					zr.flushFog();
+				}
+			}
+		});
+		tiledBoardCheckBox.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				AppPreferences.setTiledBoard(tiledBoardCheckBox.isSelected());
+				// The maps are drawn the other way from the next paint on
+				for (ZoneRenderer zr : MapTool.getFrame().getZoneRenderers()) {
+					zr.flush();
+					zr.repaint();
+				}
+			}
+		});
 		showSmiliesCheckBox.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
 				AppPreferences.setShowSmilies(showSmiliesCheckBox.isSelected());
@@ -810,6 +860,7 @@ private void updateFacings() {
 	private void setInitialState() {
 		showDialogOnNewToken.setSelected(AppPreferences.getShowDialogOnNewToken());
 		saveReminderCheckBox.setSelected(AppPreferences.getSaveReminder());
+		streamCampaignSaveCheckBox.setSelected(AppPreferences.getStreamCampaignSave());
 		fillSelectionCheckBox.setSelected(AppPreferences.getFillSelectionBox());
 		initEnableServerSyncCheckBox.setSelected(AppPreferences.getInitEnableServerSync());
 		autoSaveSpinner.setValue(AppPreferences.getAutoSaveIncrement());
@@ -838,9 +889,12 @@ private void setInitialState() {
 		auraOverlayOpacitySpinner.setModel(new SpinnerNumberModel(AppPreferences.getAuraOverlayOpacity(), 0, 255, 1));
 		lightOverlayOpacitySpinner.setModel(new SpinnerNumberModel(AppPreferences.getLightOverlayOpacity(), 0, 255, 1));
 		fogOverlayOpacitySpinner.setModel(new SpinnerNumberModel(AppPreferences.getFogOverlayOpacity(), 0, 255, 1));
+		imageCacheSizeSpinner.setModel(new SpinnerNumberModel(AppPreferences.getImageCacheSize(), 16, 65536, 16));
 
 		useHaloColorAsVisionOverlayCheckBox.setSelected(AppPreferences.getUseHaloColorOnVisionOverlay());
 		autoRevealVisionOnGMMoveCheckBox.setSelected(AppPreferences.getAutoRevealVisionOnGMMovement());
+		useVisibilitySweepCheckBox.setSelected(AppPreferences.getUseVisibilitySweep());
+		tiledBoardCheckBox.setSelected(AppPreferences.getTiledBoard());
 		showSmiliesCheckBox.setSelected(AppPreferences.getShowSmilies());
 		playSystemSoundCheckBox.setSelected(AppPreferences.getPlaySystemSounds());
 		playSystemSoundOnlyWhenNotFocusedCheckBox.setSelected(AppPreferences.getPlaySystemSoundsOnlyWhenNotFocused());
@@ -857,6 +911,7 @@ private void setInitialState() {
 		facingFaceVertices.setSelected(AppPreferences.getFaceVertex());
 
 		chatAutosaveTime.setModel(new SpinnerNumberModel(AppPreferences.getChatAutosaveTime(), 0, 24 * 60, 1));
+		chatLogLimit.setModel(new SpinnerNumberModel(AppPreferences.getChatLogLimit(), 0, 100000, 100));
 		chatFilenameFormat.setText(AppPreferences.getChatFilenameFormat());
 
 		fitGMView.setSelected(AppPreferences.getFitGMView());
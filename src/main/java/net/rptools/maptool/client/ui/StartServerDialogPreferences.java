@@ -36,6 +36,7 @@ public class StartServerDialogPreferences {
 	private static final String KEY_WALKER_METRIC = "movementMetric";
 	private static final String KEY_USE_INDIVIDUAL_FOW = "useIndividualFOW";
 	private static final String KEY_AUTO_REVEAL_ON_MOVE = "autoRevealOnMovement";
+	private static final String KEY_VBL_BLOCKS_MOVE = "vblBlocksMove";
 
 	private static Boolean useToolTipsForUnformattedRolls = null;
 
@@ -190,4 +191,12 @@ public boolean isAutoRevealOnMovement() {
 	public void setAutoRevealOnMovement(boolean flag) {
 		prefs.putBoolean(KEY_AUTO_REVEAL_ON_MOVE, flag);
 	}
+
+	public boolean getVblBlocksMove() {
+		return prefs.getBoolean(KEY_VBL_BLOCKS_MOVE, false);
+	}
+
+	public void setVblBlocksMove(boolean flag) {
+		prefs.putBoolean(KEY_VBL_BLOCKS_MOVE, flag);
+	}
 }
@@ -0,0 +1,85 @@
+/*
+ * This software Copyright by the RPTools.net development team, and licensed under the Affero GPL Version 3 or, at your option, any later version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public License * along with this source Code. If not, please visit <http://www.gnu.org/licenses/> and specifically the Affero license text
+ * at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.ui.commandpanel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.rptools.maptool.client.AppUtil;
+
+/**
+ * The chat messages that no longer fit in the {@link MessagePanel}, in an append-only file so that they can be shown again and saved with the rest of the log. Each message is written as its
+ * length followed by its HTML in UTF-8, and the offset of each one is kept in memory to read them back.
+ */
+class ChatArchive {
+	private final RandomAccessFile data;
+	private long[] offsets = new long[256];
+	private int size;
+
+	/**
+	 * Creates an empty archive in the temporary directory. The file is removed when the application exits.
+	 */
+	ChatArchive() throws IOException {
+		this(File.createTempFile("chat", ".log", AppUtil.getTmpDir())); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/**
+	 * Creates an empty archive in the file, which is removed when the application exits.
+	 */
+	ChatArchive(File file) throws IOException {
+		file.deleteOnExit();
+		data = new RandomAccessFile(file, "rw"); //$NON-NLS-1$
+		data.setLength(0);
+	}
+
+	/**
+	 * @return the number of messages in the archive
+	 */
+	int size() {
+		return size;
+	}
+
+	void append(String message) throws IOException {
+		if (size == offsets.length) {
+			offsets = Arrays.copyOf(offsets, size * 2);
+		}
+		long offset = data.length();
+		byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+		data.seek(offset);
+		data.writeInt(bytes.length);
+		data.write(bytes);
+		offsets[size++] = offset;
+	}
+
+	/**
+	 * @return the messages from the first index up to but not including the second one, in order
+	 */
+	List<String> read(int from, int to) throws IOException {
+		List<String> messages = new ArrayList<String>(to - from);
+		if (from < to) {
+			data.seek(offsets[from]);
+			for (int i = from; i < to; i++) {
+				byte[] bytes = new byte[data.readInt()];
+				data.readFully(bytes);
+				messages.add(new String(bytes, StandardCharsets.UTF_8));
+			}
+		}
+		return messages;
+	}
+
+	void clear() throws IOException {
+		data.setLength(0);
+		size = 0;
+	}
+}
@@ -12,18 +12,24 @@
 import java.awt.EventQueue;
 import java.awt.GridLayout;
 import java.awt.Rectangle;
+import java.awt.event.AdjustmentEvent;
+import java.awt.event.AdjustmentListener;
 import java.awt.event.ComponentEvent;
 import java.awt.event.ComponentListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseMotionAdapter;
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.swing.JEditorPane;
 import javax.swing.JPanel;
+import javax.swing.JScrollBar;
 import javax.swing.JScrollPane;
 import javax.swing.ToolTipManager;
 import javax.swing.event.HyperlinkEvent;
@@ -33,6 +39,9 @@
 import javax.swing.text.html.HTMLDocument;
 import javax.swing.text.html.StyleSheet;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
 import net.rptools.maptool.client.AppPreferences;
 import net.rptools.maptool.client.MapTool;
 import net.rptools.maptool.client.functions.MacroLinkFunction;
@@ -40,6 +49,7 @@
 import net.rptools.maptool.model.TextMessage;
 
 public class MessagePanel extends JPanel {
+	private static final Logger log = LogManager.getLogger(MessagePanel.class);
 
 	private final JScrollPane scrollPane;
 	private final HTMLDocument document;
@@ -47,6 +57,24 @@ public class MessagePanel extends JPanel {
 
 	private static final String SND_MESSAGE_RECEIVED = "messageReceived";
 
+	/**
+	 * How many archived messages are shown again each time the top of the log is reached
+	 */
+	private static final int PAGE_SIZE = 50;
+	private static final String MESSAGE_ID_PREFIX = "message";
+
+	/*
+	 * With a limit on the messages on screen (AppPreferences.getChatLogLimit()) the oldest ones are moved to the archive. Messages are numbered from the start of the log; the document holds those
+	 * from liveStart on, and their HTML is in liveMessages. The archive holds at least every message before liveStart. All of this is only touched on the event dispatch thread.
+	 */
+	private final List<String> liveMessages = new ArrayList<String>();
+	private int liveStart;
+	private ChatArchive archive;
+	private boolean archiveFailed;
+	private int lastScrollValue;
+	/** Whether scroll lock was turned on to show archived messages, it is turned off again once the view is back at the bottom */
+	private boolean lockedForArchive;
+
 	/**
 	 * From ImageView
 	 */
@@ -105,6 +133,31 @@ public void hyperlinkUpdate(HyperlinkEvent e) {
 		scrollPane.setBorder(null);
 		scrollPane.getViewport().setBorder(null);
 		scrollPane.getViewport().setBackground(Color.white);
+		scrollPane.getVerticalScrollBar().addAdjustmentListener(new AdjustmentListener() {
+			public void adjustmentValueChanged(AdjustmentEvent e) {
+				// Scrolling up to the top shows the archived messages before it
+				JScrollBar scrollBar = scrollPane.getVerticalScrollBar();
+				if (e.getValue() == scrollBar.getMinimum() && lastScrollValue > e.getValue() && liveStart > 0) {
+					EventQueue.invokeLater(new Runnable() {
+						public void run() {
+							showArchivedMessages();
+						}
+					});
+				} else if (lockedForArchive && e.getValue() + scrollBar.getVisibleAmount() >= scrollBar.getMaximum()) {
+					// Back at the bottom after reading back, follow new messages again
+					EventQueue.invokeLater(new Runnable() {
+						public void run() {
+							if (lockedForArchive) {
+								lockedForArchive = false;
+								MapTool.getFrame().getCommandPanel().getScrollLockButton().setSelected(false);
+								trimMessages();
+							}
+						}
+					});
+				}
+				lastScrollValue = e.getValue();
+			}
+		});
 		scrollPane.getVerticalScrollBar().addMouseMotionListener(new MouseMotionAdapter() {
 			@Override
 			public void mouseDragged(MouseEvent e) {
@@ -141,9 +194,50 @@ public void setTrustedMacroPrefixColors(Color foreground, Color background) {
 		repaint();
 	}
 
+	/**
+	 * @return the whole log as HTML, including the messages that were moved to the archive
+	 */
 	public String getMessagesText() {
+		if (EventQueue.isDispatchThread()) {
+			return buildMessagesText();
+		}
+		// The chat log autosave calls this from its own thread
+		final String[] text = new String[1];
+		try {
+			EventQueue.invokeAndWait(new Runnable() {
+				public void run() {
+					text[0] = buildMessagesText();
+				}
+			});
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (InvocationTargetException e) {
+			log.error("Could not get the chat log", e.getCause()); //$NON-NLS-1$
+		}
+		return text[0] != null ? text[0] : textPane.getText();
+	}
 
-		return textPane.getText();
+	private String buildMessagesText() {
+		String text = textPane.getText();
+		if (liveStart == 0) {
+			return text;
+		}
+		int body = text.indexOf("<body"); //$NON-NLS-1$
+		int bodyEnd = body < 0 ? -1 : text.indexOf('>', body);
+		if (bodyEnd < 0) {
+			return text;
+		}
+		StringBuilder sb = new StringBuilder(text.length());
+		sb.append(text, 0, bodyEnd + 1).append('\n');
+		try {
+			for (String message : archive.read(0, liveStart)) {
+				sb.append("<div>").append(message).append("</div>\n"); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+		} catch (IOException ioe) {
+			log.error("Could not read the archived chat messages", ioe); //$NON-NLS-1$
+		}
+		sb.append(text, bodyEnd + 1, text.length());
+		return sb.toString();
 	}
 
 	public void clearMessages() {
@@ -151,10 +245,126 @@ public void clearMessages() {
 			public void run() {
 				textPane.setText("<html><body id=\"body\"></body></html>");
 				((MessagePanelEditorKit) textPane.getEditorKit()).flush();
+				liveMessages.clear();
+				liveStart = 0;
+				if (archive != null) {
+					try {
+						archive.clear();
+					} catch (IOException ioe) {
+						log.error("Could not clear the chat archive", ioe); //$NON-NLS-1$
+						archive = null;
+						archiveFailed = true;
+					}
+				}
 			}
 		});
 	}
 
+	private static String getMessageId(int index) {
+		return MESSAGE_ID_PREFIX + index;
+	}
+
+	private static String toDiv(String message, int index) {
+		return "<div id=\"" + getMessageId(index) + "\">" + message + "</div>"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+
+	/**
+	 * Moves the oldest messages to the archive once there are more than the limit in the document. While the view is scroll locked only the messages above the view are moved, and the view is kept on
+	 * the same message; the others are moved once the reader scrolls on.
+	 */
+	private void trimMessages() {
+		int limit = AppPreferences.getChatLogLimit();
+		if (limit <= 0 || archiveFailed || liveMessages.size() <= limit) {
+			return;
+		}
+		boolean locked = MapTool.getFrame().getCommandPanel().getScrollLockButton().isSelected();
+		if (!locked) {
+			lockedForArchive = false;
+		}
+		JScrollBar scrollBar = scrollPane.getVerticalScrollBar();
+		int oldHeight = textPane.getPreferredSize().height;
+		int oldValue = scrollBar.getValue();
+		int removed = 0;
+		try {
+			if (archive == null) {
+				archive = new ChatArchive();
+			}
+			Element body = document.getElement("body");
+			while (liveMessages.size() > limit) {
+				Element element = document.getElement(getMessageId(liveStart));
+				if (locked && element != null && element != body) {
+					Rectangle bounds = textPane.modelToView(element.getEndOffset() - 1);
+					if (bounds == null || bounds.y + bounds.height > oldValue) {
+						// The reader may be looking at it
+						break;
+					}
+				}
+				// Messages that were shown again from the archive are already in it
+				if (archive.size() == liveStart) {
+					archive.append(liveMessages.get(0));
+				}
+				if (element != null && element != body) {
+					document.removeElement(element);
+				}
+				liveMessages.remove(0);
+				liveStart++;
+				removed++;
+			}
+		} catch (IOException ioe) {
+			// Keep everything on screen rather than lose messages
+			log.error("Could not archive chat messages", ioe); //$NON-NLS-1$
+			archiveFailed = true;
+		} catch (BadLocationException ble) {
+			log.error("Could not find the chat messages above the view", ble); //$NON-NLS-1$
+		}
+		if (locked && removed > 0) {
+			// Move the view up by what was removed, without reaching the top showing the archive again
+			scrollPane.validate();
+			int value = Math.max(0, oldValue - (oldHeight - textPane.getPreferredSize().height));
+			lastScrollValue = value;
+			scrollBar.setValue(value);
+		}
+	}
+
+	/**
+	 * Puts the archived messages just before the first one in the document back at its top, keeping the view on the same message.
+	 */
+	private void showArchivedMessages() {
+		if (liveStart == 0) {
+			return;
+		}
+		int from = Math.max(0, liveStart - PAGE_SIZE);
+		try {
+			List<String> messages = archive.read(from, liveStart);
+			StringBuilder html = new StringBuilder();
+			for (int i = 0; i < messages.size(); i++) {
+				html.append(toDiv(messages.get(i), from + i));
+			}
+
+			// The user is reading back, don't jump to the bottom when the document grows
+			if (!MapTool.getFrame().getCommandPanel().getScrollLockButton().isSelected()) {
+				MapTool.getFrame().getCommandPanel().getScrollLockButton().setSelected(true);
+				lockedForArchive = true;
+			}
+			JScrollBar scrollBar = scrollPane.getVerticalScrollBar();
+			int oldHeight = textPane.getPreferredSize().height;
+			int oldValue = scrollBar.getValue();
+
+			document.insertAfterStart(document.getElement("body"), html.toString());
+			liveMessages.addAll(0, messages);
+			liveStart = from;
+
+			// Lay the longer document out now so that the view can be moved down by what was added
+			scrollPane.validate();
+			scrollBar.setValue(oldValue + textPane.getPreferredSize().height - oldHeight);
+			lastScrollValue = scrollBar.getValue();
+		} catch (IOException ioe) {
+			log.error("Could not read the archived chat messages", ioe); //$NON-NLS-1$
+		} catch (BadLocationException ble) {
+			log.error("Could not show the archived chat messages", ble); //$NON-NLS-1$
+		}
+	}
+
 	/*
 	 * We use ASCII control characters to mark off the rolls so that there's no limitation on what (printable) characters the output can include Rolls look like "\036roll output\036" or
 	 * "\036tooltip\037roll output\036" or "\036\001format info\002roll output\036" or "\036\001format info\002tooltip\037roll output\036"
@@ -223,7 +433,10 @@ else if (options.contains("r"))
 
 					try {
 						Element element = document.getElement("body");
-						document.insertBeforeEnd(element, "<div>" + output + "</div>");
+						int index = liveStart + liveMessages.size();
+						document.insertBeforeEnd(element, toDiv(output, index));
+						liveMessages.add(output);
+						trimMessages();
 
 						if (!message.getSource().equals(MapTool.getPlayer().getName())) {
 							MapTool.playSound(SND_MESSAGE_RECEIVED);
@@ -23,6 +23,7 @@
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.geom.Area;
 import java.awt.image.BufferedImage;
 import java.math.BigDecimal;
 import java.util.ArrayList;
@@ -34,6 +35,7 @@
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.AbstractButton;
 import javax.swing.AbstractListModel;
@@ -61,6 +63,7 @@
 import javax.swing.JToggleButton;
 import javax.swing.SpinnerNumberModel;
 import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 import javax.swing.table.AbstractTableModel;
@@ -121,6 +124,8 @@ public class EditTokenDialog extends AbeillePanel<Token> {
 	private RSyntaxTextArea XMLstatblockRSyntaxTextArea = new RSyntaxTextArea(2, 2);
 	private RSyntaxTextArea TEXTstatblockRSyntaxTextArea = new RSyntaxTextArea(2, 2);
 	private HeroLabData heroLabData;
+	// Goes up each time VBL is generated, cleared or the token changes, so that only the last VBL asked for is shown
+	private int vblGeneration;
 
 	private static final ImageIcon REFRESH_ICON_ON = new ImageIcon(EditTokenDialog.class.getClassLoader()
 			.getResource("net/rptools/maptool/client/image/refresh_arrows_small.png"));
@@ -261,6 +266,8 @@ public void run() {
 
 		if (MapTool.getPlayer().isGM()) {
 			tabbedPane.setEnabledAt(tabbedPane.indexOfTab("VBL"), true);
+			// VBL still being traced for the last token shown doesn't belong to this one
+			vblGeneration++;
 			getTokenVblPanel().setToken(token);
 			getAlwaysVisibleButton().setSelected(token.isAlwaysVisible());
 			getAlphaSensitivitySpinner().setValue(getTokenVblPanel().getAlphaSensitivity());
@@ -971,9 +978,7 @@ public void actionPerformed(ActionEvent e) {
 				}
 
 				vblPanel.setAutoGenerated(true);
-				vblPanel.setTokenVBL(
-						TokenVBL.createVblArea(vblPanel.getToken(), (int) getAlphaSensitivitySpinner().getValue()));
-				getTokenVblPanel().repaint();
+				generateVbl(vblPanel);
 
 			}
 		});
@@ -986,6 +991,8 @@ public void actionPerformed(ActionEvent e) {
 					}
 				}
 
+				// Drop VBL that is still being generated, it would bring back what was just cleared
+				vblGeneration++;
 				vblPanel.setTokenVBL(null);
 				vblPanel.setAutoGenerated(false);
 				getTokenVblPanel().repaint();
@@ -1005,9 +1012,7 @@ public void stateChanged(ChangeEvent e) {
 				getTokenVblPanel().setAlphaSensitivity((int) getAlphaSensitivitySpinner().getValue());
 
 				if (vblPanel.getAutoGenerated()) {
-					vblPanel.setTokenVBL(
-							TokenVBL.createVblArea(vblPanel.getToken(), (int) getAlphaSensitivitySpinner().getValue()));
-					getTokenVblPanel().repaint();
+					generateVbl(vblPanel);
 				}
 			}
 		});
@@ -1015,6 +1020,37 @@ public void stateChanged(ChangeEvent e) {
 		getVisibilityToleranceSpinner().setModel(new SpinnerNumberModel(2, 1, 9, 1));
 	}
 
+	/**
+	 * Traces the token image in the background and shows the VBL when it is done, unless it has been asked for again with other settings in the meantime.
+	 */
+	private void generateVbl(final TokenVblPanel vblPanel) {
+		final Token token = vblPanel.getToken();
+		final int alphaSensitivity = (int) getAlphaSensitivitySpinner().getValue();
+		final int generation = ++vblGeneration;
+		new SwingWorker<Area, Object>() {
+			@Override
+			protected Area doInBackground() throws Exception {
+				return TokenVBL.createVblArea(token, alphaSensitivity);
+			}
+
+			@Override
+			protected void done() {
+				if (generation != vblGeneration || !vblPanel.getAutoGenerated()) {
+					return;
+				}
+				try {
+					vblPanel.setTokenVBL(get());
+				} catch (InterruptedException e) {
+					return;
+				} catch (ExecutionException e) {
+					MapTool.showError("EditTokenDialog.error.vbl.generate", e.getCause());
+					return;
+				}
+				getTokenVblPanel().repaint();
+			}
+		}.execute();
+	}
+
 	/*
 	 * Initialize the Hero Lab Images tab
 	 */
@@ -39,10 +39,12 @@
 import org.apache.logging.log4j.Logger;
 
 import net.rptools.lib.CodeTimer;
+import net.rptools.maptool.client.AppPreferences;
 import net.rptools.maptool.client.AppUtil;
 import net.rptools.maptool.client.MapTool;
 import net.rptools.maptool.client.ui.zone.vbl.AreaOcean;
 import net.rptools.maptool.client.ui.zone.vbl.AreaTree;
+import net.rptools.maptool.client.ui.zone.vbl.VisibilitySweep;
 import net.rptools.maptool.client.ui.zone.vbl.VisibleAreaSegment;
 import net.rptools.maptool.model.CellPoint;
 import net.rptools.maptool.model.ExposedAreaMetaData;
@@ -58,7 +60,34 @@
 public class FogUtil {
 	private static final Logger log = LogManager.getLogger(FogUtil.class);
 
+	/**
+	 * Calculates the part of the vision area that can be seen from the point through the topology. Uses {@link VisibilitySweep} if the user prefers so, and otherwise subtracts the shadow of every
+	 * visible segment of the topology from the vision.
+	 *
+	 * @return the visible area, or <code>null</code> if the point is inside the topology
+	 */
 	public static Area calculateVisibility(int x, int y, Area vision, AreaTree topology) {
+		if (AppPreferences.getUseVisibilitySweep()) {
+			return calculateVisibilityBySweep(x, y, vision, topology);
+		}
+		return calculateVisibilityByArea(x, y, vision, topology);
+	}
+
+	static Area calculateVisibilityBySweep(int x, int y, Area vision, AreaTree topology) {
+		vision = new Area(vision);
+		vision.transform(AffineTransform.getTranslateInstance(x, y));
+
+		Point origin = new Point(x, y);
+
+		AreaOcean ocean = topology.getOceanAt(origin);
+		if (ocean == null) {
+			return null;
+		}
+		vision.intersect(VisibilitySweep.calculateVisibility(origin, vision.getBounds2D(), ocean.getBlockingFaces()));
+		return vision;
+	}
+
+	static Area calculateVisibilityByArea(int x, int y, Area vision, AreaTree topology) {
 		CodeTimer timer = new CodeTimer("calculateVisibility");
 
 		vision = new Area(vision);
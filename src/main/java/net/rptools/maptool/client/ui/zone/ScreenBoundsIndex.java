@@ -0,0 +1,159 @@
+/*
+ * This software Copyright by the RPTools.net development team, and licensed under the Affero GPL Version 3 or, at your option, any later version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public License * along with this source Code. If not, please visit <http://www.gnu.org/licenses/> and specifically the Affero license text
+ * at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.ui.zone;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A uniform grid over screen space that finds the items drawn during the last paint that lie under a point or inside a rectangle, without looking at every item.
+ * <p>
+ * Items are returned in the order they were added, which is the order they were drawn in, so the last one found is the top most. Items covering a large part of the screen are kept in a separate
+ * list that every query looks at, instead of being added to dozens of buckets.
+ */
+class ScreenBoundsIndex<T> {
+	private static final int BUCKET_SHIFT = 6; // 64 pixels
+	private static final int MAX_BUCKETS_PER_ITEM = 64;
+
+	private static final Comparator<Entry<?>> DRAW_ORDER = new Comparator<Entry<?>>() {
+		public int compare(Entry<?> e1, Entry<?> e2) {
+			return Integer.compare(e1.order, e2.order);
+		}
+	};
+
+	private final Map<Long, List<Entry<T>>> buckets = new HashMap<Long, List<Entry<T>>>();
+	private final List<Entry<T>> largeEntries = new ArrayList<Entry<T>>();
+	private int count;
+
+	public void add(T item, Rectangle bounds) {
+		Entry<T> entry = new Entry<T>(item, bounds, count++);
+
+		int minX = bounds.x >> BUCKET_SHIFT;
+		int minY = bounds.y >> BUCKET_SHIFT;
+		int maxX = (bounds.x + bounds.width) >> BUCKET_SHIFT;
+		int maxY = (bounds.y + bounds.height) >> BUCKET_SHIFT;
+		if ((long) (maxX - minX + 1) * (maxY - minY + 1) > MAX_BUCKETS_PER_ITEM) {
+			largeEntries.add(entry);
+			return;
+		}
+		for (int bx = minX; bx <= maxX; bx++) {
+			for (int by = minY; by <= maxY; by++) {
+				Long key = key(bx, by);
+				List<Entry<T>> bucket = buckets.get(key);
+				if (bucket == null) {
+					bucket = new ArrayList<Entry<T>>(4);
+					buckets.put(key, bucket);
+				}
+				bucket.add(entry);
+			}
+		}
+	}
+
+	public void clear() {
+		buckets.clear();
+		largeEntries.clear();
+		count = 0;
+	}
+
+	/**
+	 * @return the items whose bounds contain the point, top most first
+	 */
+	public List<T> getItemsAt(int x, int y) {
+		List<Entry<T>> found = new ArrayList<Entry<T>>();
+		List<Entry<T>> bucket = buckets.get(key(x >> BUCKET_SHIFT, y >> BUCKET_SHIFT));
+		if (bucket != null) {
+			for (Entry<T> entry : bucket) {
+				if (entry.bounds.contains(x, y)) {
+					found.add(entry);
+				}
+			}
+		}
+		for (Entry<T> entry : largeEntries) {
+			if (entry.bounds.contains(x, y)) {
+				found.add(entry);
+			}
+		}
+		if (!largeEntries.isEmpty()) {
+			Collections.sort(found, DRAW_ORDER);
+		}
+		List<T> items = new ArrayList<T>(found.size());
+		for (int i = found.size() - 1; i >= 0; i--) {
+			items.add(found.get(i).item);
+		}
+		return items;
+	}
+
+	/**
+	 * @return the items whose bounds intersect the rectangle, in the order they were drawn
+	 */
+	public List<T> getItemsIntersecting(Rectangle rect) {
+		List<Entry<T>> found = new ArrayList<Entry<T>>();
+		int minX = rect.x >> BUCKET_SHIFT;
+		int minY = rect.y >> BUCKET_SHIFT;
+		int maxX = (rect.x + rect.width) >> BUCKET_SHIFT;
+		int maxY = (rect.y + rect.height) >> BUCKET_SHIFT;
+		if ((long) (maxX - minX + 1) * (maxY - minY + 1) > buckets.size()) {
+			// Cheaper to look at every bucket than at every cell of the rectangle
+			for (List<Entry<T>> bucket : buckets.values()) {
+				addIntersecting(found, bucket, rect);
+			}
+		} else {
+			for (int bx = minX; bx <= maxX; bx++) {
+				for (int by = minY; by <= maxY; by++) {
+					List<Entry<T>> bucket = buckets.get(key(bx, by));
+					if (bucket != null) {
+						addIntersecting(found, bucket, rect);
+					}
+				}
+			}
+		}
+		addIntersecting(found, largeEntries, rect);
+		Collections.sort(found, DRAW_ORDER);
+
+		// Items spanning several buckets were found more than once
+		List<T> items = new ArrayList<T>(found.size());
+		int lastOrder = -1;
+		for (Entry<T> entry : found) {
+			if (entry.order != lastOrder) {
+				items.add(entry.item);
+				lastOrder = entry.order;
+			}
+		}
+		return items;
+	}
+
+	private void addIntersecting(List<Entry<T>> found, List<Entry<T>> entries, Rectangle rect) {
+		for (Entry<T> entry : entries) {
+			if (entry.bounds.intersects(rect)) {
+				found.add(entry);
+			}
+		}
+	}
+
+	private static Long key(int bx, int by) {
+		return ((long) bx << 32) | (by & 0xFFFFFFFFL);
+	}
+
+	private static class Entry<T> {
+		final T item;
+		final Rectangle bounds;
+		final int order;
+
+		Entry(T item, Rectangle bounds, int order) {
+			this.item = item;
+			this.bounds = bounds;
+			this.order = order;
+		}
+	}
+}
@@ -44,6 +44,7 @@
 import java.awt.image.BufferedImage;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
+import java.io.File;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -71,6 +72,8 @@
 import net.rptools.lib.CodeTimer;
 import net.rptools.lib.MD5Key;
 import net.rptools.lib.image.ImageUtil;
+import net.rptools.lib.image.MipMap;
+import net.rptools.lib.image.TiledImage;
 import net.rptools.lib.swing.ImageBorder;
 import net.rptools.lib.swing.ImageLabel;
 import net.rptools.lib.swing.SwingUtil;
@@ -97,6 +100,7 @@
 import net.rptools.maptool.client.ui.token.AbstractTokenOverlay;
 import net.rptools.maptool.client.ui.token.BarTokenOverlay;
 import net.rptools.maptool.client.ui.token.NewTokenDialog;
+import net.rptools.maptool.client.walker.MovementBlockingMap;
 import net.rptools.maptool.client.walker.ZoneWalker;
 import net.rptools.maptool.model.AbstractPoint;
 import net.rptools.maptool.model.Asset;
@@ -142,6 +146,10 @@ public class ZoneRenderer extends JComponent implements DropTargetListener, Comp
 	private static final Logger log = LogManager.getLogger(ZoneRenderer.class);
 
 	public static final int MIN_GRID_SIZE = 10;
+	// Map images at least this wide or high are drawn from tiles when tiled boards are turned on
+	private static final int TILED_BOARD_MIN_SIZE = 4096;
+	// The tiles of the maps used least recently are deleted once those of all maps take more than this, see AppUtil.getTileCacheDir()
+	private static final long MAX_TILE_CACHE_SIZE = 1024L * 1024 * 1024;
 	private static LightSourceIconOverlay lightSourceIconOverlay = new LightSourceIconOverlay();
 	protected Zone zone;
 	private final ZoneView zoneView;
@@ -152,16 +160,19 @@ public class ZoneRenderer extends JComponent implements DropTargetListener, Comp
 	private final DrawableRenderer gmDrawableRenderer = new PartitionedDrawableRenderer();
 	private final List<ZoneOverlay> overlayList = new ArrayList<ZoneOverlay>();
 	private final Map<Zone.Layer, List<TokenLocation>> tokenLocationMap = new HashMap<Zone.Layer, List<TokenLocation>>();
+	private final Map<Zone.Layer, ScreenBoundsIndex<TokenLocation>> tokenLocationIndexMap = new HashMap<Zone.Layer, ScreenBoundsIndex<TokenLocation>>();
 	private Set<GUID> selectedTokenSet = new LinkedHashSet<GUID>();
 	private boolean keepSelectedTokenSet = false;
 	private final List<Set<GUID>> selectedTokenSetHistory = new ArrayList<Set<GUID>>();
 	private final List<LabelLocation> labelLocationList = new LinkedList<LabelLocation>();
+	private final ScreenBoundsIndex<LabelLocation> labelLocationIndex = new ScreenBoundsIndex<LabelLocation>();
 	private Map<Token, Set<Token>> tokenStackMap;
 	private final Map<GUID, SelectionSet> selectionSetMap = new HashMap<GUID, SelectionSet>();
 	// private final Map<Token, TokenLocation> tokenLocationCache = Collections.synchronizedMap(new HashMap<Token,
 	// TokenLocation>());
 	private final Map<Token, TokenLocation> tokenLocationCache = new HashMap<Token, TokenLocation>();
 	private final List<TokenLocation> markerLocationList = new ArrayList<TokenLocation>();
+	private final ScreenBoundsIndex<TokenLocation> markerLocationIndex = new ScreenBoundsIndex<TokenLocation>();
 	private GeneralPath facingArrow;
 	private final List<Token> showPathList = new ArrayList<Token>();
 	// Optimizations
@@ -183,6 +194,10 @@ public class ZoneRenderer extends JComponent implements DropTargetListener, Comp
 	private BufferedImage miniImage;
 	private BufferedImage backbuffer;
 	private boolean drawBackground = true;
+	// The map image cut into tiles on disk, see getTiledBoard()
+	private TiledImage tiledBoard;
+	private MD5Key tiledBoardAssetId;
+	private boolean tiledBoardPending;
 	private int lastX;
 	private int lastY;
 	private double lastScale;
@@ -645,6 +660,11 @@ public void flush() {
 		fogBuffer = null;
 		renderedLightMap = null;
 		renderedAuraMap = null;
+		if (tiledBoard != null) {
+			tiledBoard.flush();
+		}
+		tiledBoard = null;
+		tiledBoardAssetId = null;
 
 		isLoaded = false;
 	}
@@ -828,7 +848,10 @@ public Rectangle zoneExtents(PlayerView view) {
 
 		// First background image extents
 		// TODO: when the background image can be resized, fix this!
-		if (zone.getMapAssetId() != null) {
+		TiledImage tiledImage = getTiledBoard();
+		if (tiledImage != null) {
+			extents = new Rectangle(zone.getBoardX(), zone.getBoardY(), tiledImage.getWidth(), tiledImage.getHeight());
+		} else if (zone.getMapAssetId() != null) {
 			extents = new Rectangle(zone.getBoardX(), zone.getBoardY(),
 					ImageManager.getImage(zone.getMapAssetId(), this).getWidth(),
 					ImageManager.getImage(zone.getMapAssetId(), this).getHeight());
@@ -999,7 +1022,9 @@ public void renderZone(Graphics2D g2d, PlayerView view) {
 
 		// Clear internal state
 		tokenLocationMap.clear();
+		tokenLocationIndexMap.clear();
 		markerLocationList.clear();
+		markerLocationIndex.clear();
 		itemRenderList.clear();
 
 		timer.stop("setup");
@@ -1152,6 +1177,10 @@ public void renderZone(Graphics2D g2d, PlayerView view) {
 				timer.start("tokens");
 				renderTokens(g2d, tokens, view);
 				timer.stop("tokens");
+				if (ImageManager.hasPendingImages()) {
+					// Now that we know which tokens are on screen, load their images first
+					prioritizeOnScreenImages();
+				}
 			}
 			timer.start("unowned movement");
 			renderMoveSelectionSets(g2d, view, getUnOwnedMovementSet(view));
@@ -1536,6 +1565,7 @@ private void renderHaloArea(Graphics2D g, Area visible) {
 	private void renderLabels(Graphics2D g, PlayerView view) {
 		timer.start("labels-1");
 		labelLocationList.clear();
+		labelLocationIndex.clear();
 		for (Label label : zone.getLabels()) {
 			ZonePoint zp = new ZonePoint(label.getX(), label.getY());
 			if (!zone.isPointVisible(zp, view)) {
@@ -1559,7 +1589,9 @@ private void renderLabels(Graphics2D g, PlayerView view) {
 
 				bounds = new Rectangle(x, y, strWidth, fm.getHeight());
 			}
-			labelLocationList.add(new LabelLocation(bounds, label));
+			LabelLocation labelLocation = new LabelLocation(bounds, label);
+			labelLocationList.add(labelLocation);
+			labelLocationIndex.add(labelLocation, bounds);
 			timer.stop("labels-1.1");
 		}
 		timer.stop("labels-1");
@@ -1806,6 +1838,11 @@ public boolean isLoading() {
 			}
 			downloadCount++;
 
+			// The map doesn't need to be in memory once it has been cut into tiles
+			if (id.equals(zone.getMapAssetId()) && getTiledBoard() != null) {
+				cacheCount++;
+				continue;
+			}
 			// Have we loaded the image into memory yet ?
 			Image image = ImageManager.getImage(asset.getId(), this);
 			if (image == null || image == ImageManager.TRANSFERING_IMAGE) {
@@ -1835,8 +1872,12 @@ protected void renderDrawableOverlay(Graphics g, DrawableRenderer renderer, Play
 
 	protected void renderBoard(Graphics2D g, PlayerView view) {
 		Dimension size = getSize();
-		if (backbuffer == null || backbuffer.getWidth() != size.width || backbuffer.getHeight() != size.height) {
-			backbuffer = new BufferedImage(size.width, size.height, Transparency.OPAQUE);
+		// The board is kept in device pixels, which on a HiDPI display are smaller than the pixels of the view
+		double deviceScale = getTransformScale(g.getTransform());
+		int width = (int) Math.ceil(size.width * deviceScale);
+		int height = (int) Math.ceil(size.height * deviceScale);
+		if (backbuffer == null || backbuffer.getWidth() != width || backbuffer.getHeight() != height) {
+			backbuffer = new BufferedImage(width, height, Transparency.OPAQUE);
 			drawBackground = true;
 		}
 		Scale scale = getZoneScale();
@@ -1851,26 +1892,85 @@ protected void renderBoard(Graphics2D g, PlayerView view) {
 			Graphics2D bbg = backbuffer.createGraphics();
 
 			// Background texture
+			AffineTransform deviceTransform = bbg.getTransform();
+			bbg.scale(deviceScale, deviceScale);
 			Paint paint = zone.getBackgroundPaint().getPaint(getViewOffsetX(), getViewOffsetY(), getScale(), this);
 			bbg.setPaint(paint);
 			bbg.fillRect(0, 0, size.width, size.height);
-
-			// Map
-			if (zone.getMapAssetId() != null) {
+			bbg.setTransform(deviceTransform);
+
+			// Map, in device pixels so that the level of detail is chosen for how large it really is drawn
+			boolean complete = true;
+			double scaleFactor = getScale() * deviceScale;
+			int boardX = (int) ((getViewOffsetX() + (int) (zone.getBoardX() * getScale())) * deviceScale);
+			int boardY = (int) ((getViewOffsetY() + (int) (zone.getBoardY() * getScale())) * deviceScale);
+			TiledImage tiledImage = getTiledBoard();
+			if (tiledImage != null) {
+				complete = tiledImage.draw(bbg, boardX, boardY, scaleFactor, new Rectangle(0, 0, width, height), this);
+			} else if (zone.getMapAssetId() != null) {
 				BufferedImage mapImage = ImageManager.getImage(zone.getMapAssetId(), this);
-				double scaleFactor = getScale();
-				bbg.drawImage(mapImage, getViewOffsetX() + (int) (zone.getBoardX() * scaleFactor),
-						getViewOffsetY() + (int) (zone.getBoardY() * scaleFactor),
+				bbg.drawImage(MipMap.getLevel(mapImage, scaleFactor), boardX, boardY,
 						(int) (mapImage.getWidth() * scaleFactor), (int) (mapImage.getHeight() * scaleFactor), null);
 			}
 			bbg.dispose();
-			drawBackground = false;
+			// Tiles that are still being read are drawn on the next paint
+			drawBackground = !complete;
 		}
 		lastX = scale.getOffsetX();
 		lastY = scale.getOffsetY();
 		lastScale = scale.getScale();
 
-		g.drawImage(backbuffer, 0, 0, this);
+		g.drawImage(backbuffer, 0, 0, size.width, size.height, this);
+	}
+
+	/**
+	 * Returns the map image of the zone cut into tiles, if it is large enough to be worth it and tiled boards are turned on. The tiles are kept on disk between sessions; the first time a map is
+	 * shown it is drawn whole while it is cut up in the background, and is then released from the image cache.
+	 * 
+	 * @return the tiles, or <code>null</code> if the map image is to be drawn whole
+	 */
+	private TiledImage getTiledBoard() {
+		final MD5Key mapAssetId = zone.getMapAssetId();
+		if (mapAssetId == null || !AppPreferences.getTiledBoard()) {
+			return null;
+		}
+		if (!mapAssetId.equals(tiledBoardAssetId)) {
+			tiledBoardAssetId = mapAssetId;
+			tiledBoard = TiledImage.open(getTiledBoardDir(mapAssetId));
+			tiledBoardPending = false;
+		}
+		if (tiledBoard == null && !tiledBoardPending) {
+			BufferedImage mapImage = ImageManager.getImage(mapAssetId, this);
+			if (mapImage != ImageManager.TRANSFERING_IMAGE && mapImage != ImageManager.BROKEN_IMAGE
+					&& Math.max(mapImage.getWidth(), mapImage.getHeight()) >= TILED_BOARD_MIN_SIZE) {
+				tiledBoardPending = true;
+				TiledImage.createAsynchronously(mapImage, getTiledBoardDir(mapAssetId), new TiledImage.TileListener() {
+					public void tilesCreated(final TiledImage image) {
+						if (image != null) {
+							TiledImage.trimCache(AppUtil.getTileCacheDir(), MAX_TILE_CACHE_SIZE, getTiledBoardDir(mapAssetId));
+						}
+						SwingUtilities.invokeLater(new Runnable() {
+							public void run() {
+								if (image == null || !mapAssetId.equals(tiledBoardAssetId)) {
+									return;
+								}
+								tiledBoard = image;
+								tiledBoardPending = false;
+								drawBackground = true;
+								// Only the tiles are drawn from now on
+								ImageManager.flushImage(mapAssetId);
+								repaint();
+							}
+						});
+					}
+				});
+			}
+		}
+		return tiledBoard;
+	}
+
+	private static File getTiledBoardDir(MD5Key mapAssetId) {
+		return new File(AppUtil.getTileCacheDir(), mapAssetId.toString());
 	}
 
 	protected void renderGrid(Graphics2D g, PlayerView view) {
@@ -2059,6 +2159,7 @@ protected void renderMoveSelectionSets(Graphics2D g, PlayerView view, Set<Select
 								(double) scaledHeight / workImage.getHeight());
 					}
 				}
+				workImage = getMipMapLevel(workImage, at, g);
 
 				g.drawImage(workImage, at, this);
 
@@ -2355,6 +2456,37 @@ public int compare(Token o1, Token o2) {
 		return list;
 	}
 
+	/**
+	 * @return the copy of the image nearest in size to how large the transform draws it on the device of the graphics, with the transform changed to draw the copy in place of the image
+	 */
+	private static BufferedImage getMipMapLevel(BufferedImage image, AffineTransform at, Graphics2D g) {
+		AffineTransform deviceTransform = new AffineTransform(g.getTransform());
+		deviceTransform.concatenate(at);
+		BufferedImage level = MipMap.getLevel(image, getTransformScale(deviceTransform));
+		if (level != image) {
+			at.scale((double) image.getWidth() / level.getWidth(), (double) image.getHeight() / level.getHeight());
+		}
+		return level;
+	}
+
+	/**
+	 * @return how much the transform scales what it draws, on average over both axes
+	 */
+	private static double getTransformScale(AffineTransform transform) {
+		return Math.sqrt(Math.abs(transform.getDeterminant()));
+	}
+
+	/**
+	 * Tell the image loader which images belong to the tokens on screen, so that they are loaded before the others
+	 */
+	private void prioritizeOnScreenImages() {
+		Set<MD5Key> ids = new HashSet<MD5Key>();
+		for (Token token : getTokensOnScreen()) {
+			ids.add(token.getImageAssetId());
+		}
+		ImageManager.setOnScreenImages(ids);
+	}
+
 	public Zone.Layer getActiveLayer() {
 		return activeLayer != null ? activeLayer : Zone.Layer.TOKEN;
 	}
@@ -2382,6 +2514,18 @@ private List<TokenLocation> getTokenLocations(Zone.Layer layer) {
 		return list;
 	}
 
+	/**
+	 * Get the spatial index over the token locations for the given layer, creates an empty one if there are not locations for the given layer
+	 */
+	private ScreenBoundsIndex<TokenLocation> getTokenLocationIndex(Zone.Layer layer) {
+		ScreenBoundsIndex<TokenLocation> index = tokenLocationIndexMap.get(layer);
+		if (index == null) {
+			index = new ScreenBoundsIndex<TokenLocation>();
+			tokenLocationIndexMap.put(layer, index);
+		}
+		return index;
+	}
+
 	// TODO: I don't like this hardwiring
 	protected Shape getFigureFacingArrow(int angle, int size) {
 		int base = (int) (size * .75);
@@ -2567,6 +2711,7 @@ protected void renderTokens(Graphics2D g, List<Token> tokenList, PlayerView view
 			// System.out.println("Token " + token.getName() + " is a marker? " + token.isMarker());
 			if (token.isMarker() && canSeeMarker(token)) {
 				markerLocationList.add(location);
+				markerLocationIndex.add(location, location.bounds.getBounds());
 			}
 			timer.stop("renderTokens:Markers");
 
@@ -2576,7 +2721,7 @@ protected void renderTokens(Graphics2D g, List<Token> tokenList, PlayerView view
 				// System.out.println(token.getName() + " - " + location.boundsCache);
 
 				Set<Token> tokenStackSet = null;
-				for (TokenLocation currLocation : getTokenLocations(Zone.Layer.TOKEN)) {
+				for (TokenLocation currLocation : getTokenLocationIndex(Zone.Layer.TOKEN).getItemsIntersecting(location.boundsCache)) {
 					// Are we covering anyone ?
 					// System.out.println("\t" + currLocation.token.getName() + " - " +
 					// location.boundsCache.contains(currLocation.boundsCache));
@@ -2607,6 +2752,7 @@ protected void renderTokens(Graphics2D g, List<Token> tokenList, PlayerView view
 			List<TokenLocation> locationList = getTokenLocations(layer);
 			if (locationList != null) {
 				locationList.add(location);
+				getTokenLocationIndex(layer).add(location, location.bounds.getBounds());
 			}
 			timer.stop("renderTokens:Locations");
 
@@ -2745,6 +2891,8 @@ protected void renderTokens(Graphics2D g, List<Token> tokenList, PlayerView view
 							(double) scaledHeight / workImage.getHeight());
 				}
 			}
+			// Draw from the copy of the image nearest in size, rather than resampling the whole image
+			workImage = getMipMapLevel(workImage, at, g);
 			timer.stop("tokenlist-6");
 
 			// Apply Alpha Transparency
@@ -3230,10 +3378,8 @@ public void selectTokens(Collection<GUID> tokens) {
 	 */
 	public void selectTokens(Rectangle rect) {
 		List<GUID> selectedList = new LinkedList<GUID>();
-		for (TokenLocation location : getTokenLocations(getActiveLayer())) {
-			if (rect.intersects(location.bounds.getBounds())) {
-				selectedList.add(location.token.getId());
-			}
+		for (TokenLocation location : getTokenLocationIndex(getActiveLayer()).getItemsIntersecting(rect)) {
+			selectedList.add(location.token.getId());
 		}
 		selectTokens(selectedList);
 	}
@@ -3385,10 +3531,7 @@ public Rectangle getLabelBounds(Label label) {
 	 * @return
 	 */
 	public Token getTokenAt(int x, int y) {
-		List<TokenLocation> locationList = new ArrayList<TokenLocation>();
-		locationList.addAll(getTokenLocations(getActiveLayer()));
-		Collections.reverse(locationList);
-		for (TokenLocation location : locationList) {
+		for (TokenLocation location : getTokenLocationIndex(getActiveLayer()).getItemsAt(x, y)) {
 			if (location.bounds.contains(x, y)) {
 				return location.token;
 			}
@@ -3397,10 +3540,7 @@ public Token getTokenAt(int x, int y) {
 	}
 
 	public Token getMarkerAt(int x, int y) {
-		List<TokenLocation> locationList = new ArrayList<TokenLocation>();
-		locationList.addAll(markerLocationList);
-		Collections.reverse(locationList);
-		for (TokenLocation location : locationList) {
+		for (TokenLocation location : markerLocationIndex.getItemsAt(x, y)) {
 			if (location.bounds.contains(x, y)) {
 				return location.token;
 			}
@@ -3426,10 +3566,7 @@ public List<Token> getTokenStackAt(int x, int y) {
 	 * @return
 	 */
 	public Label getLabelAt(int x, int y) {
-		List<LabelLocation> labelList = new ArrayList<LabelLocation>();
-		labelList.addAll(labelLocationList);
-		Collections.reverse(labelList);
-		for (LabelLocation location : labelList) {
+		for (LabelLocation location : labelLocationIndex.getItemsAt(x, y)) {
 			if (location.bounds.contains(x, y)) {
 				return location.label;
 			}
@@ -3617,6 +3754,9 @@ public SelectionSet(String playerId, GUID tokenGUID, Set<GUID> selectionList) {
 					CellPoint tokenPoint = zone.getGrid().convert(new ZonePoint(token.getX(), token.getY()));
 
 					walker = zone.getGrid().createZoneWalker();
+					if (MapTool.getServerPolicy().isVblBlocksMove() && !MapTool.getGMs().contains(playerId)) {
+						walker.setBlockingMap(MovementBlockingMap.getInstance(zone));
+					}
 					walker.setWaypoints(tokenPoint, tokenPoint);
 				}
 			} else {
@@ -3654,6 +3794,15 @@ public void setOffset(int x, int y) {
 			if (ZoneRenderer.this.zone.getGrid().getCapabilities().isPathingSupported() && token.isSnapToGrid()) {
 				CellPoint point = zone.getGrid().convert(zp);
 				walker.replaceLastWaypoint(point);
+
+				// Keep the token where its path ends if the walker couldn't get all the way there
+				CellPoint endPoint = walker.getLastPoint();
+				if (!endPoint.equals(point)) {
+					ZonePoint reached = zone.getGrid().convert(endPoint);
+					ZonePoint requested = zone.getGrid().convert(point);
+					offsetX += reached.x - requested.x;
+					offsetY += reached.y - requested.y;
+				}
 			} else {
 				if (gridlessPath.getCellPath().size() > 1) {
 					gridlessPath.replaceLastPoint(zp);
@@ -4027,18 +4176,28 @@ public void modelChanged(ModelChangeEvent event) {
 
 			if (evt == Zone.Event.TOPOLOGY_CHANGED) {
 				flushFog();
-				flushLight();
-
+				// The zone view listens for topology changes itself and only throws away what the change touched
+				renderedLightMap = null;
+				renderedAuraMap = null;
 			}
 			if (evt == Zone.Event.TOKEN_CHANGED || evt == Zone.Event.TOKEN_REMOVED || evt == Zone.Event.TOKEN_ADDED) {
+				// New images on the map being looked at are pinned along with the rest of its images
+				boolean pin = evt != Zone.Event.TOKEN_REMOVED && MapTool.getFrame().getCurrentZoneRenderer() == ZoneRenderer.this;
 				if (event.getArg() instanceof List<?>) {
 					@SuppressWarnings("unchecked")
 					List<Token> list = (List<Token>) (event.getArg());
 					for (Token token : list) {
 						flush(token);
+						if (pin) {
+							ImageManager.addPinnedImages(token.getAllImageAssets());
+						}
 					}
 				} else {
-					flush((Token) event.getArg());
+					Token token = (Token) event.getArg();
+					flush(token);
+					if (pin) {
+						ImageManager.addPinnedImages(token.getAllImageAssets());
+					}
 				}
 			}
 			if (evt == Zone.Event.FOG_CHANGED) {
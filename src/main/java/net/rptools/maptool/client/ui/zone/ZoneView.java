@@ -14,6 +14,7 @@
 import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
@@ -21,18 +22,11 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
-
-import javax.swing.SwingWorker;
-
 import java.util.Set;
-import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import net.rptools.maptool.client.AppState;
 import net.rptools.maptool.client.AppUtil;
@@ -52,17 +46,25 @@
 import net.rptools.maptool.model.Zone.Filter;
 
 public class ZoneView implements ModelChangeListener {
+	// Shared by all zones; light sources are combined on every core but never on more threads than that
+	private static final ForkJoinPool LIGHTS_POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
 	private final Zone zone;
 
 	// VISION
-	private final Map<GUID, Area> tokenVisibleAreaCache = new HashMap<GUID, Area>();
-	private final Map<GUID, Area> tokenVisionCache = new HashMap<GUID, Area>();
-	private final Map<GUID, Map<String, TreeMap<Double, Area>>> lightSourceCache = new HashMap<GUID, Map<String, TreeMap<Double, Area>>>();
+	private final Map<GUID, Area> tokenVisibleAreaCache = new ConcurrentHashMap<GUID, Area>();
+	private final Map<GUID, Area> tokenVisionCache = new ConcurrentHashMap<GUID, Area>();
+	private final Map<GUID, Map<String, TreeMap<Double, Area>>> lightSourceCache = new ConcurrentHashMap<GUID, Map<String, TreeMap<Double, Area>>>();
 	private final Map<LightSource.Type, Set<GUID>> lightSourceMap = new HashMap<LightSource.Type, Set<GUID>>();
 	private final Map<GUID, Map<String, Set<DrawableLight>>> drawableLightCache = new HashMap<GUID, Map<String, Set<DrawableLight>>>();
 	private final Map<GUID, Map<String, Set<Area>>> brightLightCache = new Hashtable<GUID, Map<String, Set<Area>>>();
 	private final Map<PlayerView, VisibleAreaMeta> visibleAreaMap = new HashMap<PlayerView, VisibleAreaMeta>();
-	private final SortedMap<Double, Area> allLightAreaMap = new ConcurrentSkipListMap<Double, Area>(); // Hold all of our lights combined by lumens
+
+	// The part of the zone each cached vision and light area was calculated over. Topology or lights outside of it can't change the area, so only the entries
+	// whose bounds a change touches need to be thrown away.
+	private final Map<GUID, Rectangle2D> tokenVisionBounds = new ConcurrentHashMap<GUID, Rectangle2D>();
+	private final Map<GUID, Rectangle2D> lightSourceBounds = new ConcurrentHashMap<GUID, Rectangle2D>();
+	private final Map<GUID, Rectangle2D> tokenVBLBounds = new ConcurrentHashMap<GUID, Rectangle2D>();
 
 	// private AreaData topologyAreaData;
 	private AreaTree topologyTree;
@@ -95,8 +97,11 @@ public synchronized AreaTree getTopology(boolean useTokenVBL) {
 			tokenTopolgy = new Area(zone.getTopology());
 			List<Token> vblTokens = MapTool.getFrame().getCurrentZoneRenderer().getZone().getTokensWithVBL();
 
+			tokenVBLBounds.clear();
 			for (Token vblToken : vblTokens) {
-				tokenTopolgy.add(vblToken.getTransformedVBL());
+				Area vbl = vblToken.getTransformedVBL();
+				tokenTopolgy.add(vbl);
+				tokenVBLBounds.put(vblToken.getId(), vbl.getBounds2D());
 			}
 
 			topologyTree = new AreaTree(tokenTopolgy);
@@ -124,8 +129,13 @@ private TreeMap<Double, Area> getLightSourceArea(Token baseToken, Token lightSou
 				return lightSourceArea;
 			}
 		} else {
-			areaBySightMap = new HashMap<String, TreeMap<Double, Area>>();
-			lightSourceCache.put(lightSourceToken.getId(), areaBySightMap);
+			// Light sources are calculated on several threads at once, and the token may not have a sight type
+			areaBySightMap = Collections.synchronizedMap(new HashMap<String, TreeMap<Double, Area>>());
+			Map<String, TreeMap<Double, Area>> existing = lightSourceCache.putIfAbsent(lightSourceToken.getId(), areaBySightMap);
+			if (existing != null) {
+				// Another thread got there first, keep the areas it adds
+				areaBySightMap = existing;
+			}
 		}
 
 		// Calculate
@@ -177,6 +187,9 @@ private Area calculateLightSourceArea(LightSource lightSource, Token lightSource
 		if (sight.getMultiplier() != 1 && lightSource.getLumens() >= 0) {
 			lightSourceArea.transform(AffineTransform.getScaleInstance(sight.getMultiplier(), sight.getMultiplier()));
 		}
+		if (!isPersonalLight) {
+			addBounds(lightSourceBounds, lightSourceToken.getId(), translate(lightSourceArea.getBounds2D(), p));
+		}
 		Area visibleArea = FogUtil.calculateVisibility(p.x, p.y, lightSourceArea, getTopology());
 
 		if (visibleArea == null) {
@@ -203,30 +216,30 @@ private Area calculateLightSourceArea(LightSource lightSource, Token lightSource
 				brightLightSet.add(lightArea);
 			}
 		}
-		// FIXME There was a bug report of a ConcurrentModificationException regarding drawableLightCache.
-		// I don't see how, but perhaps this code -- and the ones in flush() and flush(Token) -- should be
-		// wrapped in a synchronization block? This method is probably called only on the same thread as
-		// getDrawableLights() but the two flush() methods may be called from different threads. How to
-		// verify this with Eclipse? Maybe the flush() methods should defer modifications to the EventDispatchingThread?
-		Map<String, Set<DrawableLight>> lightMap = drawableLightCache.get(lightSourceToken.getId());
-		if (lightMap == null) {
-			lightMap = new HashMap<String, Set<DrawableLight>>();
-			drawableLightCache.put(lightSourceToken.getId(), lightMap);
-		}
-		if (lightMap.get(sight.getName()) != null) {
-			lightMap.get(sight.getName()).addAll(lightSet);
-		} else {
-			lightMap.put(sight.getName(), lightSet);
-		}
-		Map<String, Set<Area>> brightLightMap = brightLightCache.get(lightSourceToken.getId());
-		if (brightLightMap == null) {
-			brightLightMap = new HashMap<String, Set<Area>>();
-			brightLightCache.put(lightSourceToken.getId(), brightLightMap);
+		// Light sources are calculated in parallel by CombineLightsTask, so these caches are only touched while holding their lock
+		synchronized (drawableLightCache) {
+			Map<String, Set<DrawableLight>> lightMap = drawableLightCache.get(lightSourceToken.getId());
+			if (lightMap == null) {
+				lightMap = new HashMap<String, Set<DrawableLight>>();
+				drawableLightCache.put(lightSourceToken.getId(), lightMap);
+			}
+			if (lightMap.get(sight.getName()) != null) {
+				lightMap.get(sight.getName()).addAll(lightSet);
+			} else {
+				lightMap.put(sight.getName(), lightSet);
+			}
 		}
-		if (brightLightMap.get(sight.getName()) != null) {
-			brightLightMap.get(sight.getName()).addAll(brightLightSet);
-		} else {
-			brightLightMap.put(sight.getName(), brightLightSet);
+		synchronized (brightLightCache) {
+			Map<String, Set<Area>> brightLightMap = brightLightCache.get(lightSourceToken.getId());
+			if (brightLightMap == null) {
+				brightLightMap = new HashMap<String, Set<Area>>();
+				brightLightCache.put(lightSourceToken.getId(), brightLightMap);
+			}
+			if (brightLightMap.get(sight.getName()) != null) {
+				brightLightMap.get(sight.getName()).addAll(brightLightSet);
+			} else {
+				brightLightMap.put(sight.getName(), brightLightSet);
+			}
 		}
 		return visibleArea;
 	}
@@ -257,7 +270,10 @@ public Area getVisibleArea(Token token) {
 			Area visibleArea = sight.getVisionShape(token, zone);
 			tokenVisibleArea = FogUtil.calculateVisibility(p.x, p.y, visibleArea, getTopology());
 
-			tokenVisibleAreaCache.put(token.getId(), tokenVisibleArea);
+			if (tokenVisibleArea != null) {
+				tokenVisionBounds.put(token.getId(), translate(visibleArea.getBounds2D(), p));
+				tokenVisibleAreaCache.put(token.getId(), tokenVisibleArea);
+			}
 		}
 
 		// Combine in the visible light areas
@@ -282,17 +298,8 @@ public Area getVisibleArea(Token token) {
 			}
 
 			// Jamz: Iterate through all tokens and combine light areas by lumens
-			CombineLightsSwingWorker workerThread = new CombineLightsSwingWorker(token, lightSourceTokens);
-			workerThread.execute();
-			try {
-				workerThread.get(); // Jamz: We need to wait for this thread (which spawns more threads) to finish before we go on
-			} catch (InterruptedException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			} catch (ExecutionException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
+			getTopology(); // build it once up front rather than have every task wait for it
+			TreeMap<Double, Area> allLightAreaMap = new TreeMap<Double, Area>(LIGHTS_POOL.invoke(new CombineLightsTask(token, lightSourceTokens, 0, lightSourceTokens.size())));
 
 			// Check for personal vision and add to overall light map
 			if (sight.hasPersonalLightSource()) {
@@ -329,77 +336,59 @@ public Area getVisibleArea(Token token) {
 			tokenVisibleArea = allLightArea;
 		}
 
-		allLightAreaMap.clear(); // Dispose of object, only needed for the scope of this method
-		tokenVisionCache.put(token.getId(), tokenVisibleArea);
+		if (tokenVisibleArea != null) {
+			tokenVisionCache.put(token.getId(), tokenVisibleArea);
+		}
 		return tokenVisibleArea;
 	}
 
-	private class CombineLightsSwingWorker extends SwingWorker<Void, List<Token>> {
+	/**
+	 * Calculates the light areas of a range of light source tokens as seen by the base token, splitting the range in half until each task handles a single light source, and combines the halves by
+	 * lumens as they complete.
+	 * <p>
+	 * The areas returned by {@link #getLightSourceArea(Token, Token)} are cached, so they are copied rather than added to when two halves have lights of the same lumens.
+	 */
+	private final class CombineLightsTask extends RecursiveTask<TreeMap<Double, Area>> {
+		private static final long serialVersionUID = 1L;
+
 		private final Token baseToken;
 		private final List<Token> lightSourceTokens;
-		private final ExecutorService lightsThreadPool;
-		private final long startTime = System.currentTimeMillis();
+		private final int from;
+		private final int to;
 
-		private CombineLightsSwingWorker(Token baseToken, List<Token> lightSourceTokens) {
+		private CombineLightsTask(Token baseToken, List<Token> lightSourceTokens, int from, int to) {
 			this.baseToken = baseToken;
 			this.lightSourceTokens = lightSourceTokens;
-			lightsThreadPool = Executors.newCachedThreadPool();
+			this.from = from;
+			this.to = to;
 		}
 
 		@Override
-		protected Void doInBackground() throws Exception {
-			for (Token lightSourceToken : lightSourceTokens) {
-				CombineLightsTask task = new CombineLightsTask(baseToken, lightSourceToken);
-				lightsThreadPool.submit(task);
+		protected TreeMap<Double, Area> compute() {
+			if (to - from == 0) {
+				return new TreeMap<Double, Area>();
 			}
-
-			lightsThreadPool.shutdown();
-			lightsThreadPool.awaitTermination(3, TimeUnit.MINUTES);
-
-			return null;
-		}
-
-		@Override
-		public void done() {
-			lightsThreadPool.shutdown(); // always reclaim resources just in case?
-			// System.out.println("Time to calculated lights for token: " + baseToken.getName() + ", " + (System.currentTimeMillis() - startTime) + "ms");
-
-			return;
-		}
-	}
-
-	/**
-	 * 
-	 * @author Jamz
-	 * 
-	 *         A Callable task add to the ExecutorCompletionService to combine lights as a threaded task
-	 *
-	 */
-	private final class CombineLightsTask implements Callable<TreeMap<Double, Area>> {
-		private final Token baseToken;
-		private final Token lightSourceToken;
-
-		private CombineLightsTask(Token baseToken, Token lightSourceToken) {
-			this.baseToken = baseToken;
-			this.lightSourceToken = lightSourceToken;
-		}
-
-		@Override
-		public TreeMap<Double, Area> call() throws Exception {
-			TreeMap<Double, Area> lightArea = getLightSourceArea(baseToken, lightSourceToken);
-
-			for (Entry<Double, Area> light : lightArea.entrySet()) {
-				Area tempArea = light.getValue();
-
-				synchronized (allLightAreaMap) {
-					if (allLightAreaMap.containsKey(light.getKey()))
-						tempArea.add(allLightAreaMap.get(light.getKey()));
-
-					allLightAreaMap.put(light.getKey(), tempArea);
+			if (to - from == 1) {
+				return getLightSourceArea(baseToken, lightSourceTokens.get(from));
+			}
+			int middle = (from + to) >>> 1;
+			CombineLightsTask left = new CombineLightsTask(baseToken, lightSourceTokens, from, middle);
+			left.fork();
+			TreeMap<Double, Area> rightLights = new CombineLightsTask(baseToken, lightSourceTokens, middle, to).compute();
+			TreeMap<Double, Area> leftLights = left.join();
+
+			TreeMap<Double, Area> combined = new TreeMap<Double, Area>(leftLights);
+			for (Entry<Double, Area> light : rightLights.entrySet()) {
+				Area area = combined.get(light.getKey());
+				if (area == null) {
+					combined.put(light.getKey(), light.getValue());
+				} else {
+					area = new Area(area);
+					area.add(light.getValue());
+					combined.put(light.getKey(), area);
 				}
 			}
-
-			return lightArea;
+			return combined;
 		}
 	}
 
@@ -475,9 +464,11 @@ private void findLightSources() {
 	public Set<DrawableLight> getDrawableLights() {
 		Set<DrawableLight> lightSet = new HashSet<DrawableLight>();
 
-		for (Map<String, Set<DrawableLight>> map : drawableLightCache.values()) {
-			for (Set<DrawableLight> set : map.values()) {
-				lightSet.addAll(set);
+		synchronized (drawableLightCache) {
+			for (Map<String, Set<DrawableLight>> map : drawableLightCache.values()) {
+				for (Set<DrawableLight> set : map.values()) {
+					lightSet.addAll(set);
+				}
 			}
 		}
 		return lightSet;
@@ -499,33 +490,131 @@ public Set<Area> getBrightLights() {
 	public void flush() {
 		tokenVisibleAreaCache.clear();
 		tokenVisionCache.clear();
+		tokenVisionBounds.clear();
 		lightSourceCache.clear();
+		lightSourceBounds.clear();
 		visibleAreaMap.clear();
-		drawableLightCache.clear();
+		synchronized (drawableLightCache) {
+			drawableLightCache.clear();
+		}
 		brightLightCache.clear();
 	}
 
+	/**
+	 * Throws away what the change of a token may have made out of date: its own vision and lights, the vision of tokens lit by its lights where they were and where they are now, and if it has VBL
+	 * everything calculated over the area its VBL used to and now covers.
+	 */
 	public void flush(Token token) {
-		boolean hadLightSource = lightSourceCache.get(token.getId()) != null;
+		GUID id = token.getId();
+		flushTokenVision(id);
 
-		tokenVisionCache.remove(token.getId());
-		tokenVisibleAreaCache.remove(token.getId());
-		lightSourceCache.remove(token.getId());
-		drawableLightCache.remove(token.getId());
-		brightLightCache.remove(token.getId());
+		Rectangle2D lightBounds = flushLightSource(id);
+		if (token.hasLightSources()) {
+			lightBounds = union(lightBounds, calculateLightSourceBounds(token));
+		}
+		if (lightBounds != null) {
+			flushLitVision(lightBounds);
+		}
+		Rectangle2D vblBounds = tokenVBLBounds.get(id);
+		if (token.hasVBL()) {
+			vblBounds = union(vblBounds, token.getTransformedVBL().getBounds2D());
+		}
+		if (vblBounds != null) {
+			flushTopology(vblBounds);
+		}
 		visibleAreaMap.clear();
+	}
 
-		if (hadLightSource || token.hasLightSources()) {
-			// Have to recalculate all token vision
-			tokenVisionCache.clear();
+	/**
+	 * Throws away everything calculated over a part of the zone whose topology has changed, including the vision of tokens lit by lights that were.
+	 */
+	private void flushTopology(Rectangle2D bounds) {
+		topologyTree = null;
+		tokenTopolgy = null;
+
+		for (Entry<GUID, Rectangle2D> entry : tokenVisionBounds.entrySet()) {
+			if (entry.getValue().intersects(bounds)) {
+				flushTokenVision(entry.getKey());
+			}
 		}
-		if (token.getHasSight()) {
-			visibleAreaMap.clear();
+		for (Entry<GUID, Rectangle2D> entry : lightSourceBounds.entrySet()) {
+			if (entry.getValue().intersects(bounds)) {
+				flushLitVision(flushLightSource(entry.getKey()));
+			}
+		}
+		visibleAreaMap.clear();
+	}
+
+	/**
+	 * Throws away the combined vision of the tokens that can see into the bounds of a light that has changed. What they see without light is kept.
+	 */
+	private void flushLitVision(Rectangle2D lightBounds) {
+		for (Entry<GUID, Rectangle2D> entry : tokenVisionBounds.entrySet()) {
+			if (entry.getValue().intersects(lightBounds)) {
+				tokenVisionCache.remove(entry.getKey());
+			}
+		}
+	}
+
+	private void flushTokenVision(GUID id) {
+		tokenVisionCache.remove(id);
+		tokenVisibleAreaCache.remove(id);
+		tokenVisionBounds.remove(id);
+	}
+
+	/**
+	 * @return the bounds the light source areas of the token had been calculated over, if any
+	 */
+	private Rectangle2D flushLightSource(GUID id) {
+		lightSourceCache.remove(id);
+		synchronized (drawableLightCache) {
+			drawableLightCache.remove(id);
+		}
+		brightLightCache.remove(id);
+		return lightSourceBounds.remove(id);
+	}
+
+	/**
+	 * Works out the bounds the light sources of a token would be calculated over at its current position, for every sight type.
+	 */
+	private Rectangle2D calculateLightSourceBounds(Token token) {
+		double multiplier = 1;
+		for (SightType sight : MapTool.getCampaign().getSightTypeMap().values()) {
+			multiplier = Math.max(multiplier, sight.getMultiplier());
+		}
+		Point p = FogUtil.calculateVisionCenter(token, zone);
+		Rectangle2D bounds = null;
+		for (AttachedLightSource als : token.getLightSources()) {
+			LightSource lightSource = MapTool.getCampaign().getLightSource(als.getLightSourceId());
+			if (lightSource == null) {
+				continue;
+			}
+			Rectangle2D r = lightSource.getArea(token, zone, als.getDirection()).getBounds2D();
+			r.setRect(r.getX() * multiplier, r.getY() * multiplier, r.getWidth() * multiplier, r.getHeight() * multiplier);
+			bounds = union(bounds, translate(r, p));
+		}
+		return bounds;
+	}
+
+	private static void addBounds(Map<GUID, Rectangle2D> boundsMap, GUID id, Rectangle2D bounds) {
+		synchronized (boundsMap) {
+			boundsMap.put(id, union(boundsMap.get(id), bounds));
 		}
-		// TODO: This fixes a bug with changing vision type, I don't like it though, it needs to be optimized back out
-		lightSourceCache.clear();
-		// TODO: This fixes a similar bug with turning lights off after moving a different npc token, I don't like it either...
-		tokenVisionCache.clear();
+	}
+
+	private static Rectangle2D translate(Rectangle2D r, Point p) {
+		r.setRect(r.getX() + p.x, r.getY() + p.y, r.getWidth(), r.getHeight());
+		return r;
+	}
+
+	private static Rectangle2D union(Rectangle2D r1, Rectangle2D r2) {
+		if (r1 == null) {
+			return r2;
+		}
+		if (r2 == null) {
+			return r1;
+		}
+		return r1.createUnion(r2);
 	}
 
 	private void calculateVisibleArea(PlayerView view) {
@@ -583,25 +672,17 @@ public boolean matchToken(Token t) {
 	public void modelChanged(ModelChangeEvent event) {
 		Object evt = event.getEvent();
 		if (event.getModel() instanceof Zone) {
-			boolean tokenChangedVBL = false;
-
-			if (evt == Zone.Event.TOKEN_CHANGED || evt == Zone.Event.TOKEN_REMOVED) {
+			if (evt == Zone.Event.TOKEN_ADDED || evt == Zone.Event.TOKEN_CHANGED || evt == Zone.Event.TOKEN_REMOVED) {
+				// A token that has VBL is added/removed/edited (rotated/moved/etc) also changes the topology, flush(Token) takes care of that
 				if (event.getArg() instanceof List<?>) {
 					@SuppressWarnings("unchecked")
 					List<Token> list = (List<Token>) (event.getArg());
 					for (Token token : list) {
-						if (token.hasVBL())
-							tokenChangedVBL = true;
 						flush(token);
 					}
 				} else {
-					final Token token = (Token) event.getArg();
-					if (token.hasVBL())
-						tokenChangedVBL = true;
-					flush(token);
+					flush((Token) event.getArg());
 				}
-				// Ug, stupid hack here, can't find a bug where if a NPC token is moved before lights are cleared on another token, changes aren't pushed to client?
-				// tokenVisionCache.clear();
 			}
 
 			if (evt == Zone.Event.TOKEN_ADDED || evt == Zone.Event.TOKEN_CHANGED) {
@@ -614,13 +695,11 @@ public void modelChanged(ModelChangeEvent event) {
 					tokens = (List<Token>) o;
 				}
 
-				tokenChangedVBL = processTokenAddChangeEvent(tokens);
+				processTokenAddChangeEvent(tokens);
 			}
 
 			if (evt == Zone.Event.TOKEN_REMOVED) {
 				Token token = (Token) event.getArg();
-				if (token.hasVBL())
-					tokenChangedVBL = true;
 
 				for (AttachedLightSource als : token.getLightSources()) {
 					LightSource lightSource = MapTool.getCampaign().getLightSource(als.getLightSourceId());
@@ -634,35 +713,30 @@ public void modelChanged(ModelChangeEvent event) {
 				}
 			}
 
-			// Moved this event to the bottom so we can check the other events
-			// since if a token that has VBL is added/removed/edited (rotated/moved/etc)
-			// it should also trip a Topology change
-			if (evt == Zone.Event.TOPOLOGY_CHANGED || tokenChangedVBL) {
-				tokenVisionCache.clear();
-				lightSourceCache.clear();
-				visibleAreaMap.clear();
-				topologyTree = null;
-				tokenTopolgy = null;
-				tokenVisibleAreaCache.clear();
-				// topologyAreaData = null; // Jamz: This isn't used, probably never completed code.
+			if (evt == Zone.Event.TOPOLOGY_CHANGED) {
+				if (event.getArg() instanceof Area) {
+					flushTopology(((Area) event.getArg()).getBounds2D());
+				} else {
+					tokenVisionCache.clear();
+					tokenVisionBounds.clear();
+					lightSourceCache.clear();
+					lightSourceBounds.clear();
+					visibleAreaMap.clear();
+					topologyTree = null;
+					tokenTopolgy = null;
+					tokenVisibleAreaCache.clear();
+					// topologyAreaData = null; // Jamz: This isn't used, probably never completed code.
+				}
 			}
-
 		}
 	}
 
-	/**
-	 * @return
-	 * 
-	 */
-	private boolean processTokenAddChangeEvent(List<Token> tokens) {
+	private void processTokenAddChangeEvent(List<Token> tokens) {
 		boolean hasSight = false;
-		boolean hasVBL = false;
 		Campaign c = MapTool.getCampaign();
 
 		for (Token token : tokens) {
 			boolean hasLightSource = token.hasLightSources() && (token.isVisible() || (MapTool.getPlayer().isGM() && !AppState.isShowAsPlayer()));
-			if (token.hasVBL())
-				hasVBL = true;
 			for (AttachedLightSource als : token.getLightSources()) {
 				LightSource lightSource = c.getLightSource(als.getLightSourceId());
 				if (lightSource != null) {
@@ -682,8 +756,6 @@ private boolean processTokenAddChangeEvent(List<Token> tokens) {
 
 		if (hasSight)
 			visibleAreaMap.clear();
-
-		return hasVBL;
 	}
 
 	private static class VisibleAreaMeta {
@@ -11,6 +11,7 @@
 import java.awt.geom.Area;
 import java.awt.geom.Point2D;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 public class AreaIsland implements AreaContainer {
@@ -45,6 +46,10 @@ public AreaOcean getDeepestOceanAt(Point2D point) {
 		return null;
 	}
 
+	List<AreaFace> getFaces() {
+		return meta.faceList;
+	}
+
 	public Set<AreaOcean> getOceans() {
 		return new HashSet<AreaOcean>(oceanSet);
 	}
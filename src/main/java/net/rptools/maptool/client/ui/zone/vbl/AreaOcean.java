@@ -10,7 +10,9 @@
 
 import java.awt.geom.Area;
 import java.awt.geom.Point2D;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 public class AreaOcean implements AreaContainer {
@@ -47,6 +49,20 @@ public Set<VisibleAreaSegment> getVisibleAreaSegments(Point2D origin) {
 		return segSet;
 	}
 
+	/**
+	 * @return the faces that can block the view of something in this ocean: its own boundary and the boundaries of its islands
+	 */
+	public List<AreaFace> getBlockingFaces() {
+		List<AreaFace> faces = new ArrayList<AreaFace>();
+		if (meta != null) {
+			faces.addAll(meta.faceList);
+		}
+		for (AreaIsland island : islandSet) {
+			faces.addAll(island.getFaces());
+		}
+		return faces;
+	}
+
 	public AreaOcean getDeepestOceanAt(Point2D point) {
 
 		if (meta != null && !meta.area.contains(point)) {
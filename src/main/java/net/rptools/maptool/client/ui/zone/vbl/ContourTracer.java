@@ -0,0 +1,281 @@
+/*
+ * This software Copyright by the RPTools.net development team, and licensed under the Affero GPL Version 3 or, at your option, any later version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public License * along with this source Code. If not, please visit <http://www.gnu.org/licenses/> and specifically the Affero license text
+ * at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.ui.zone.vbl;
+
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.util.Arrays;
+
+/**
+ * Traces the outline of the pixels of an image that are at least so opaque, as one path made of a closed polygon per outline.
+ * <p>
+ * This is marching squares over the corners of the pixels: each corner looks at the four pixels around it to know which pixel edges leading away from it separate an opaque pixel from a transparent
+ * one. The edges are oriented so that the opaque pixel is always on the right, so outlines go clockwise and the outlines of holes anticlockwise, and following them from corner to corner gives closed
+ * polygons that fill exactly the opaque pixels with the non-zero winding rule. Only the corners where an outline turns are kept, and the polygons can then be simplified to within a tolerance.
+ */
+public class ContourTracer {
+	private static final int EAST = 0;
+	private static final int SOUTH = 1;
+	private static final int WEST = 2;
+	private static final int NORTH = 3;
+	private static final int[] DX = { 1, 0, -1, 0 };
+	private static final int[] DY = { 0, 1, 0, -1 };
+
+	private ContourTracer() {
+	}
+
+	/**
+	 * @param image
+	 *            the image to trace
+	 * @param alphaSensitivity
+	 *            the least alpha, 0 to 255, of the pixels inside the outline
+	 * @param tolerance
+	 *            how many pixels the simplified outline may stray from the pixel edges, 0 to keep every corner
+	 * @return the outline, or <code>null</code> if no pixel is that opaque
+	 */
+	public static Path2D trace(BufferedImage image, int alphaSensitivity, double tolerance) {
+		return trace(readMask(image, alphaSensitivity), image.getWidth(), image.getHeight(), tolerance);
+	}
+
+	/**
+	 * @return which pixels are at least as opaque as the sensitivity, row by row
+	 */
+	static boolean[] readMask(BufferedImage image, int alphaSensitivity) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		boolean[] mask = new boolean[width * height];
+		if (!image.getColorModel().hasAlpha()) {
+			Arrays.fill(mask, 255 >= alphaSensitivity);
+			return mask;
+		}
+
+		// Read the alpha samples straight from the raster when they are bytes, otherwise let the image convert them
+		Raster alpha = image.getAlphaRaster();
+		if (alpha != null && alpha.getSampleModel().getSampleSize(0) != 8) {
+			alpha = null;
+		}
+		int[] row = new int[width];
+		for (int y = 0; y < height; y++) {
+			if (alpha != null) {
+				alpha.getSamples(alpha.getMinX(), alpha.getMinY() + y, width, 1, 0, row);
+			} else {
+				image.getRGB(0, y, width, 1, row, 0, width);
+				for (int x = 0; x < width; x++) {
+					row[x] >>>= 24;
+				}
+			}
+			int offset = y * width;
+			for (int x = 0; x < width; x++) {
+				mask[offset + x] = row[x] >= alphaSensitivity;
+			}
+		}
+		return mask;
+	}
+
+	/**
+	 * @return the outline of the pixels set in the mask, or <code>null</code> if there are none
+	 */
+	static Path2D trace(boolean[] mask, int width, int height, double tolerance) {
+		// The unused edges leading away from each pixel corner, a bit per direction
+		int cornerWidth = width + 1;
+		byte[] edges = new byte[cornerWidth * (height + 1)];
+		for (int y = 0; y <= height; y++) {
+			for (int x = 0; x <= width; x++) {
+				boolean topLeft = isSet(mask, width, height, x - 1, y - 1);
+				boolean topRight = isSet(mask, width, height, x, y - 1);
+				boolean bottomLeft = isSet(mask, width, height, x - 1, y);
+				boolean bottomRight = isSet(mask, width, height, x, y);
+				int bits = 0;
+				if (bottomRight && !topRight) {
+					bits |= 1 << EAST;
+				}
+				if (bottomLeft && !bottomRight) {
+					bits |= 1 << SOUTH;
+				}
+				if (topLeft && !bottomLeft) {
+					bits |= 1 << WEST;
+				}
+				if (topRight && !topLeft) {
+					bits |= 1 << NORTH;
+				}
+				edges[y * cornerWidth + x] = (byte) bits;
+			}
+		}
+
+		Path2D path = new Path2D.Double(Path2D.WIND_NON_ZERO);
+		boolean empty = true;
+		Polygon polygon = new Polygon();
+		for (int corner = 0; corner < edges.length; corner++) {
+			while (edges[corner] != 0) {
+				polygon.clear();
+				traceOutline(edges, cornerWidth, corner % cornerWidth, corner / cornerWidth, polygon);
+				polygon.simplify(tolerance);
+				polygon.appendTo(path);
+				empty = false;
+			}
+		}
+		return empty ? null : path;
+	}
+
+	private static boolean isSet(boolean[] mask, int width, int height, int x, int y) {
+		return x >= 0 && y >= 0 && x < width && y < height && mask[y * width + x];
+	}
+
+	/**
+	 * Follows unused edges from a corner until it is reached again, taking them out of the edge table and keeping the corners where the outline turns. Every corner has as many edges leading in as
+	 * leading out, so the outline always gets back to where it started.
+	 */
+	private static void traceOutline(byte[] edges, int cornerWidth, int startX, int startY, Polygon polygon) {
+		int x = startX;
+		int y = startY;
+		int firstDirection = Integer.numberOfTrailingZeros(edges[y * cornerWidth + x]);
+		int direction = firstDirection;
+		polygon.add(x, y);
+		while (true) {
+			edges[y * cornerWidth + x] &= ~(1 << direction);
+			x += DX[direction];
+			y += DY[direction];
+			if (x == startX && y == startY) {
+				break;
+			}
+			// Where two opaque pixels only touch at a corner, turning right keeps them apart
+			int bits = edges[y * cornerWidth + x];
+			int next;
+			if ((bits & (1 << ((direction + 1) & 3))) != 0) {
+				next = (direction + 1) & 3;
+			} else if ((bits & (1 << direction)) != 0) {
+				next = direction;
+			} else {
+				next = (direction + 3) & 3;
+			}
+			if (next != direction) {
+				polygon.add(x, y);
+				direction = next;
+			}
+		}
+		if (direction == firstDirection) {
+			// The start was halfway along a side
+			polygon.removeFirst();
+		}
+	}
+
+	/**
+	 * The corners of one outline.
+	 */
+	private static class Polygon {
+		private double[] xs = new double[64];
+		private double[] ys = new double[64];
+		private int size;
+
+		void clear() {
+			size = 0;
+		}
+
+		void add(double x, double y) {
+			if (size == xs.length) {
+				xs = Arrays.copyOf(xs, size * 2);
+				ys = Arrays.copyOf(ys, size * 2);
+			}
+			xs[size] = x;
+			ys[size] = y;
+			size++;
+		}
+
+		void removeFirst() {
+			System.arraycopy(xs, 1, xs, 0, size - 1);
+			System.arraycopy(ys, 1, ys, 0, size - 1);
+			size--;
+		}
+
+		/**
+		 * Douglas-Peucker: splits the outline at the corner furthest from the first and keeps, in each half, only the corners that are further than the tolerance from the line through the ends of
+		 * the part they are in. Outlines that would be left with fewer than three corners are kept as they are.
+		 */
+		void simplify(double tolerance) {
+			if (tolerance <= 0 || size <= 4) {
+				return;
+			}
+			int far = 0;
+			double farDistance = -1;
+			for (int i = 1; i < size; i++) {
+				double dx = xs[i] - xs[0];
+				double dy = ys[i] - ys[0];
+				double distance = dx * dx + dy * dy;
+				if (distance > farDistance) {
+					far = i;
+					farDistance = distance;
+				}
+			}
+			boolean[] keep = new boolean[size + 1];
+			keep[0] = true;
+			keep[far] = true;
+			keep[size] = true;
+			int[] stack = new int[2 * (size + 1)];
+			int top = 0;
+			stack[top++] = 0;
+			stack[top++] = far;
+			stack[top++] = far;
+			stack[top++] = size;
+			while (top > 0) {
+				int end = stack[--top];
+				int start = stack[--top];
+				double x1 = xs[start];
+				double y1 = ys[start];
+				// The outline is closed, the last part ends where it started
+				double x2 = xs[end % size];
+				double y2 = ys[end % size];
+				double length = Math.hypot(x2 - x1, y2 - y1);
+				int worst = -1;
+				double worstDistance = tolerance;
+				for (int i = start + 1; i < end; i++) {
+					// An outline can come back to a corner it has been through, measure from the corner then
+					double distance = length == 0 ? Math.hypot(xs[i] - x1, ys[i] - y1) : Math.abs((x2 - x1) * (y1 - ys[i]) - (x1 - xs[i]) * (y2 - y1)) / length;
+					if (distance > worstDistance) {
+						worst = i;
+						worstDistance = distance;
+					}
+				}
+				if (worst >= 0) {
+					keep[worst] = true;
+					stack[top++] = start;
+					stack[top++] = worst;
+					stack[top++] = worst;
+					stack[top++] = end;
+				}
+			}
+			int kept = 0;
+			for (int i = 0; i < size; i++) {
+				if (keep[i]) {
+					kept++;
+				}
+			}
+			if (kept < 3) {
+				return;
+			}
+			int j = 0;
+			for (int i = 0; i < size; i++) {
+				if (keep[i]) {
+					xs[j] = xs[i];
+					ys[j] = ys[i];
+					j++;
+				}
+			}
+			size = j;
+		}
+
+		void appendTo(Path2D path) {
+			path.moveTo(xs[0], ys[0]);
+			for (int i = 1; i < size; i++) {
+				path.lineTo(xs[i], ys[i]);
+			}
+			path.closePath();
+		}
+	}
+}
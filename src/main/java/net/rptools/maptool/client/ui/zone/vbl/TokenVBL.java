@@ -8,11 +8,15 @@
  */
 package net.rptools.maptool.client.ui.zone.vbl;
 
-import java.awt.Color;
 import java.awt.Polygon;
-import java.awt.Rectangle;
 import java.awt.geom.Area;
+import java.awt.geom.Path2D;
 import java.awt.image.BufferedImage;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.rptools.lib.MD5Key;
 import net.rptools.maptool.model.Token;
 import net.rptools.maptool.util.ImageManager;
 
@@ -24,6 +28,21 @@
  */
 public class TokenVBL {
 
+	/**
+	 * How many pixels the generated VBL may stray from the outline of the image, enough to smooth out the steps of diagonal edges.
+	 */
+	public static final double DEFAULT_TOLERANCE = 1.0;
+
+	private static final int MAX_CACHED_OUTLINES = 64;
+
+	// Outlines by asset, alpha sensitivity and tolerance; the same image is usually traced again with the same settings
+	private static final Map<String, Path2D> outlineCache = Collections.synchronizedMap(new LinkedHashMap<String, Path2D>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Path2D> eldest) {
+			return size() > MAX_CACHED_OUTLINES;
+		}
+	});
+
 	/**
 	 * A passed token will have it's image asset rendered into an Area based on pixels that have an Alpha transparency level greater than or equal to the alphaSensitivity parameter.
 	 * 
@@ -35,54 +54,48 @@ public class TokenVBL {
 	 * @return Area
 	 */
 	public static Area createVblArea(Token token, int alphaSensitivity) {
-		BufferedImage image = ImageManager.getImageAndWait(token.getImageAssetId());
+		return createVblArea(token, alphaSensitivity, DEFAULT_TOLERANCE);
+	}
+
+	/**
+	 * As {@link #createVblArea(Token, int)}, with the outline simplified to within the tolerance.
+	 * 
+	 * @param token
+	 * @param alphaSensitivity
+	 * @param tolerance
+	 *            how many pixels the outline may stray from the edges of the pixels, 0 to follow them exactly
+	 * @return Area
+	 */
+	public static Area createVblArea(Token token, int alphaSensitivity, double tolerance) {
+		Path2D outline = getOutline(token.getImageAssetId(), alphaSensitivity, tolerance);
+		return outline == null ? null : new Area(outline);
+	}
+
+	/**
+	 * Traces the image of the asset, or finds it traced already. This can take a while for a large image the first time, so it is best not done on the event dispatch thread.
+	 */
+	private static Path2D getOutline(MD5Key assetId, int alphaSensitivity, double tolerance) {
+		String key = assetId + "/" + alphaSensitivity + "/" + tolerance;
+		if (outlineCache.containsKey(key)) {
+			return outlineCache.get(key);
+		}
+
+		BufferedImage image = ImageManager.getImageAndWait(assetId);
 
 		// Future enhancement to create solid token VBL vs VBL with holes, further UI options...
 		// int detail = 1;
 		// int angle = 15;
 		// return new Area(makePolyFromImage(image, detail, angle, alphaSensitivity));
 
-		return createVblArea(image, alphaSensitivity);
-	}
-
-	private static Area createVblArea(BufferedImage image, int alphaSensitivity) {
-		// Assumes all colors form the VBL Area, eg everything except transparent pixels with alpha >= alphaSensitivity
-		if (image == null)
+		if (image == null) {
 			return null;
-
-		Area vblArea = new Area();
-		Rectangle vblRectangle;
-		int y1, y2;
-
-		for (int x = 0; x < image.getWidth(); x++) {
-			y1 = 99;
-			y2 = -1;
-			for (int y = 0; y < image.getHeight(); y++) {
-				Color pixelColor = new Color(image.getRGB(x, y), true);
-				if (pixelColor.getAlpha() >= alphaSensitivity) {
-					if (y1 == 99) {
-						y1 = y;
-						y2 = y;
-					}
-					if (y > (y2 + 1)) {
-						vblRectangle = new Rectangle(x, y1, 1, y2 - y1);
-						vblArea.add(new Area(vblRectangle));
-						y1 = y;
-						y2 = y;
-					}
-					y2 = y;
-				}
-			}
-			if ((y2 - y1) >= 0) {
-				vblRectangle = new Rectangle(x, y1, 1, y2 - y1 + 1);
-				vblArea.add(new Area(vblRectangle));
-			}
 		}
-
-		if (vblArea.isEmpty())
-			return null;
-		else
-			return vblArea;
+		// Assumes all colors form the VBL Area, eg everything except transparent pixels with alpha >= alphaSensitivity
+		Path2D outline = ContourTracer.trace(image, alphaSensitivity, tolerance);
+		if (image != ImageManager.BROKEN_IMAGE) {
+			outlineCache.put(key, outline);
+		}
+		return outline;
 	}
 
 	private static Polygon makePolyFromImage(BufferedImage image, int detail, int angle, int alphaSensitivity) {
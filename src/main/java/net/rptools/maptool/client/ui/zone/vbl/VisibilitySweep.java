@@ -0,0 +1,237 @@
+/*
+ * This software Copyright by the RPTools.net development team, and licensed under the Affero GPL Version 3 or, at your option, any later version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public License * along with this source Code. If not, please visit <http://www.gnu.org/licenses/> and specifically the Affero license text
+ * at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.ui.zone.vbl;
+
+import java.awt.geom.Area;
+import java.awt.geom.Path2D;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Calculates what can be seen from a point as a single polygon, by sweeping a ray around the point over the faces of the topology and keeping the face nearest to the point in every direction.
+ * <p>
+ * This gives the same result as subtracting the shadow of every {@link VisibleAreaSegment} from the vision, but only builds one {@link Area} at the end instead of one per segment plus all the
+ * unions between them.
+ */
+public class VisibilitySweep {
+	private static final double EPSILON = 1e-9;
+
+	private static final Comparator<Segment> START_ANGLE = new Comparator<Segment>() {
+		public int compare(Segment s1, Segment s2) {
+			return Double.compare(s1.startAngle, s2.startAngle);
+		}
+	};
+
+	/**
+	 * @param origin
+	 *            the point seen from, which must not be inside the topology
+	 * @param bounds
+	 *            the part of the zone the caller is interested in, usually the bounds of the vision shape. Nothing outside of it is looked at.
+	 * @param faces
+	 *            the faces of the topology around the origin
+	 * @return the polygon of everything within the bounds that can be seen from the origin
+	 */
+	public static Area calculateVisibility(Point2D origin, Rectangle2D bounds, Collection<AreaFace> faces) {
+		double ox = origin.getX();
+		double oy = origin.getY();
+
+		// Work relative to the origin. The box always contains the origin so every ray hits something.
+		Rectangle2D box = new Rectangle2D.Double(bounds.getX() - ox, bounds.getY() - oy, bounds.getWidth(), bounds.getHeight());
+		box.add(0, 0);
+		box.setRect(box.getX() - 1, box.getY() - 1, box.getWidth() + 2, box.getHeight() + 2);
+
+		List<Segment> segments = new ArrayList<Segment>(faces.size() + 8);
+		for (AreaFace face : faces) {
+			double[] clipped = clip(face.getP1().getX() - ox, face.getP1().getY() - oy, face.getP2().getX() - ox, face.getP2().getY() - oy, box);
+			if (clipped != null) {
+				addSegment(segments, clipped[0], clipped[1], clipped[2], clipped[3]);
+			}
+		}
+		double minX = box.getMinX();
+		double minY = box.getMinY();
+		double maxX = box.getMaxX();
+		double maxY = box.getMaxY();
+		addSegment(segments, minX, minY, maxX, minY);
+		addSegment(segments, maxX, minY, maxX, maxY);
+		addSegment(segments, maxX, maxY, minX, maxY);
+		addSegment(segments, minX, maxY, minX, minY);
+
+		// Every angle at which the nearest face might change
+		double[] angles = new double[segments.size() * 2 + 2];
+		int count = 0;
+		for (Segment segment : segments) {
+			angles[count++] = segment.startAngle;
+			angles[count++] = segment.endAngle;
+		}
+		angles[count++] = -Math.PI;
+		angles[count++] = Math.PI;
+		Arrays.sort(angles, 0, count);
+
+		Collections.sort(segments, START_ANGLE);
+		List<Segment> active = new ArrayList<Segment>();
+		int next = 0;
+
+		Path2D path = new Path2D.Double();
+		double lastX = Double.NaN;
+		double lastY = Double.NaN;
+		for (int i = 0; i < count - 1; i++) {
+			double from = angles[i];
+			double to = angles[i + 1];
+			if (to - from < EPSILON) {
+				continue;
+			}
+			double middle = (from + to) / 2;
+			while (next < segments.size() && segments.get(next).startAngle <= middle) {
+				active.add(segments.get(next++));
+			}
+			Segment nearest = null;
+			double nearestDistance = Double.MAX_VALUE;
+			for (Iterator<Segment> iter = active.iterator(); iter.hasNext();) {
+				Segment segment = iter.next();
+				if (segment.endAngle < middle) {
+					iter.remove();
+					continue;
+				}
+				double distance = segment.distance(Math.cos(middle), Math.sin(middle));
+				if (distance < nearestDistance) {
+					nearest = segment;
+					nearestDistance = distance;
+				}
+			}
+			if (nearest == null) {
+				// Can't happen, the box surrounds the origin
+				continue;
+			}
+			for (double angle : new double[] { from, to }) {
+				double dx = Math.cos(angle);
+				double dy = Math.sin(angle);
+				double distance = nearest.distance(dx, dy);
+				double x = ox + dx * distance;
+				double y = oy + dy * distance;
+				if (Double.isNaN(lastX)) {
+					path.moveTo(x, y);
+				} else if (Math.abs(x - lastX) > EPSILON || Math.abs(y - lastY) > EPSILON) {
+					path.lineTo(x, y);
+				} else {
+					continue;
+				}
+				lastX = x;
+				lastY = y;
+			}
+		}
+		path.closePath();
+		return new Area(path);
+	}
+
+	/**
+	 * Adds the segment oriented counter clockwise around the origin, split in two where it crosses the negative x axis so that its angles don't wrap around. Segments pointing at the origin don't
+	 * block anything and are left out.
+	 */
+	private static void addSegment(List<Segment> segments, double x1, double y1, double x2, double y2) {
+		double cross = x1 * y2 - x2 * y1;
+		if (Math.abs(cross) < EPSILON) {
+			return;
+		}
+		if (cross < 0) {
+			double t = x1;
+			x1 = x2;
+			x2 = t;
+			t = y1;
+			y1 = y2;
+			y2 = t;
+		}
+		double startAngle = Math.atan2(y1, x1);
+		double endAngle = Math.atan2(y2, x2);
+		if (startAngle >= Math.PI - EPSILON) {
+			startAngle = -Math.PI;
+		}
+		if (endAngle <= -Math.PI + EPSILON) {
+			endAngle = Math.PI;
+		}
+		if (endAngle >= startAngle) {
+			segments.add(new Segment(x1, y1, x2, y2, startAngle, endAngle));
+			return;
+		}
+		// Crosses the negative x axis
+		double x = x1 + (x2 - x1) * (y1 / (y1 - y2));
+		segments.add(new Segment(x1, y1, x, 0, startAngle, Math.PI));
+		segments.add(new Segment(x, 0, x2, y2, -Math.PI, endAngle));
+	}
+
+	/**
+	 * Liang-Barsky clipping of a line to the box.
+	 *
+	 * @return the clipped line, or <code>null</code> if it is outside of the box
+	 */
+	private static double[] clip(double x1, double y1, double x2, double y2, Rectangle2D box) {
+		double dx = x2 - x1;
+		double dy = y2 - y1;
+		double[] p = { -dx, dx, -dy, dy };
+		double[] q = { x1 - box.getMinX(), box.getMaxX() - x1, y1 - box.getMinY(), box.getMaxY() - y1 };
+		double t0 = 0;
+		double t1 = 1;
+		for (int i = 0; i < 4; i++) {
+			if (p[i] == 0) {
+				if (q[i] < 0) {
+					return null;
+				}
+				continue;
+			}
+			double t = q[i] / p[i];
+			if (p[i] < 0) {
+				if (t > t1) {
+					return null;
+				}
+				t0 = Math.max(t0, t);
+			} else {
+				if (t < t0) {
+					return null;
+				}
+				t1 = Math.min(t1, t);
+			}
+		}
+		return new double[] { x1 + t0 * dx, y1 + t0 * dy, x1 + t1 * dx, y1 + t1 * dy };
+	}
+
+	private static class Segment {
+		final double x1;
+		final double y1;
+		final double dx;
+		final double dy;
+		final double startAngle;
+		final double endAngle;
+
+		Segment(double x1, double y1, double x2, double y2, double startAngle, double endAngle) {
+			this.x1 = x1;
+			this.y1 = y1;
+			this.dx = x2 - x1;
+			this.dy = y2 - y1;
+			this.startAngle = startAngle;
+			this.endAngle = endAngle;
+		}
+
+		/**
+		 * @return how far a ray from the origin in the given direction travels before it meets the line through this segment
+		 */
+		double distance(double rayX, double rayY) {
+			double denominator = rayX * dy - rayY * dx;
+			if (Math.abs(denominator) < EPSILON) {
+				return Double.MAX_VALUE;
+			}
+			return (x1 * dy - y1 * dx) / denominator;
+		}
+	}
+}
@@ -19,6 +19,7 @@
 public abstract class AbstractZoneWalker implements ZoneWalker {
 	protected List<PartialPath> partialPaths = new ArrayList<PartialPath>();
 	protected final Zone zone;
+	protected MovementBlockingMap blockingMap;
 
 	public AbstractZoneWalker(Zone zone) {
 		this.zone = zone;
@@ -28,6 +29,10 @@ public Zone getZone() {
 		return zone;
 	}
 
+	public void setBlockingMap(MovementBlockingMap blockingMap) {
+		this.blockingMap = blockingMap;
+	}
+
 	public CellPoint getLastPoint() {
 		if (partialPaths.isEmpty()) {
 			return null;
@@ -45,7 +50,9 @@ public void addWaypoints(CellPoint... points) {
 		CellPoint previous = partialPaths.size() > 0 ? partialPaths.get(partialPaths.size() - 1).end : null;
 		for (CellPoint current : points) {
 			if (previous != null) {
-				partialPaths.add(new PartialPath(previous, current, calculatePath(previous, current)));
+				PartialPath partial = createPartialPath(previous, current);
+				partialPaths.add(partial);
+				current = partial.end;
 			}
 			previous = current;
 		}
@@ -60,7 +67,7 @@ public CellPoint replaceLastWaypoint(CellPoint point) {
 		// if (oldPartial.end.equals(point))
 		// return null;
 
-		partialPaths.add(new PartialPath(oldPartial.start, point, calculatePath(oldPartial.start, point)));
+		partialPaths.add(createPartialPath(oldPartial.start, point));
 		return oldPartial.end;
 	}
 
@@ -120,7 +127,7 @@ public boolean removeWaypoint(CellPoint aPoint) {
 					return false;
 				i.remove();
 				PartialPath path2 = i.next();
-				i.set(new PartialPath(path.start, path2.end, calculatePath(path.start, path2.end)));
+				i.set(createPartialPath(path.start, path2.end));
 				return true;
 			} // endif
 		} // endwhile
@@ -150,6 +157,17 @@ public String toString() {
 		return s.toString();
 	}
 
+	/**
+	 * Creates the partial path between two points. When the end can't be reached the partial path ends where its path does.
+	 */
+	private PartialPath createPartialPath(CellPoint start, CellPoint end) {
+		List<CellPoint> path = calculatePath(start, end);
+		if (blockingMap != null && path != null && !path.isEmpty()) {
+			end = path.get(path.size() - 1);
+		}
+		return new PartialPath(start, end, path);
+	}
+
 	protected abstract List<CellPoint> calculatePath(CellPoint start, CellPoint end);
 
 	protected static class PartialPath {
@@ -0,0 +1,207 @@
+/*
+ * This software Copyright by the RPTools.net development team, and licensed under the Affero GPL Version 3 or, at your option, any later version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public License * along with this source Code. If not, please visit <http://www.gnu.org/licenses/> and specifically the Affero license text
+ * at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.walker;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import net.rptools.maptool.client.walker.astar.AStarSquareEuclideanWalker;
+import net.rptools.maptool.client.walker.astar.AbstractAStarWalker;
+import net.rptools.maptool.model.CellPoint;
+import net.rptools.maptool.model.Grid;
+import net.rptools.maptool.model.ModelChangeEvent;
+import net.rptools.maptool.model.ModelChangeListener;
+import net.rptools.maptool.model.SquareGrid;
+import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.TokenFootprint;
+import net.rptools.maptool.model.Zone;
+import net.rptools.maptool.model.ZonePoint;
+
+/**
+ * Distances between tokens following the movement rules of the grid, as macros ask for them.
+ * <p>
+ * On a square grid with nothing in the way the distance between two footprints only depends on the gap between them along each axis, so it is worked out directly for every {@link WalkerMetric}.
+ * Otherwise one search is run from all the cells of the source footprint at once, instead of one per pair of source and target cells. Distances are kept until a token on the map changes.
+ */
+public class DistanceService implements ModelChangeListener {
+	private static final int MAX_DISTANCES = 1024;
+
+	private static final Map<Zone, DistanceService> instances = new WeakHashMap<Zone, DistanceService>();
+
+	// The zone holds on to us as a listener, so only hold on to it weakly
+	private final WeakReference<Zone> zoneRef;
+
+	private final Map<List<Object>, Integer> distanceMap = new LinkedHashMap<List<Object>, Integer>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<List<Object>, Integer> eldest) {
+			return size() > MAX_DISTANCES;
+		}
+	};
+
+	private DistanceService(Zone zone) {
+		zoneRef = new WeakReference<Zone>(zone);
+	}
+
+	/**
+	 * @return the distance service for the zone, creating it if needed
+	 */
+	public static synchronized DistanceService getInstance(Zone zone) {
+		DistanceService service = instances.get(zone);
+		if (service == null) {
+			service = new DistanceService(zone);
+			zone.addModelChangeListener(service);
+			instances.put(zone, service);
+		}
+		return service;
+	}
+
+	/**
+	 * Gets the distance between the closest cells of two tokens.
+	 *
+	 * @param metric
+	 *            the metric on a square grid, or <code>null</code> for the one tokens move by
+	 * @param blockingMap
+	 *            the topology to route around, or <code>null</code> to measure across it
+	 * @return the distance in map units, or -1 if the target can't be reached
+	 */
+	public int getDistance(Token source, Token target, WalkerMetric metric, MovementBlockingMap blockingMap) {
+		Grid grid = getZone().getGrid();
+		CellPoint targetCell = grid.convert(new ZonePoint(target.getX(), target.getY()));
+		return getDistance(source, target.getFootprint(grid), targetCell, metric, blockingMap);
+	}
+
+	/**
+	 * Gets the distance from the closest cell of a token to a cell.
+	 *
+	 * @param metric
+	 *            the metric on a square grid, or <code>null</code> for the one tokens move by
+	 * @param blockingMap
+	 *            the topology to route around, or <code>null</code> to measure across it
+	 * @return the distance in map units, or -1 if the cell can't be reached
+	 */
+	public int getDistance(Token source, CellPoint targetCell, WalkerMetric metric, MovementBlockingMap blockingMap) {
+		return getDistance(source, null, targetCell, metric, blockingMap);
+	}
+
+	private synchronized int getDistance(Token source, TokenFootprint targetFootprint, CellPoint targetCell, WalkerMetric metric, MovementBlockingMap blockingMap) {
+		Zone zone = getZone();
+		Grid grid = zone.getGrid();
+		if (metric == null && grid instanceof SquareGrid) {
+			metric = ((SquareGrid) grid).getMovementMetric();
+		}
+		TokenFootprint sourceFootprint = source.getFootprint(grid);
+		CellPoint sourceCell = grid.convert(new ZonePoint(source.getX(), source.getY()));
+
+		List<Object> key = Arrays.<Object> asList(sourceFootprint.getId(), sourceCell, targetFootprint != null ? targetFootprint.getId() : null, targetCell, metric, blockingMap != null,
+				zone.getUnitsPerCell());
+		Integer distance = distanceMap.get(key);
+		if (distance == null) {
+			Set<CellPoint> sourceCells = sourceFootprint.getOccupiedCells(sourceCell);
+			Set<CellPoint> targetCells = targetFootprint != null ? targetFootprint.getOccupiedCells(targetCell) : Collections.singleton(targetCell);
+			if (blockingMap == null && grid instanceof SquareGrid) {
+				distance = getCellDistance(sourceCells, targetCells, metric) * zone.getUnitsPerCell();
+			} else {
+				distance = searchDistance(zone, sourceCells, targetCells, metric, blockingMap);
+			}
+			distanceMap.put(key, distance);
+		}
+		return distance;
+	}
+
+	/**
+	 * The distance in cells between two sets of cells on an open square grid, the same as the walker would find.
+	 */
+	static int getCellDistance(Set<CellPoint> sourceCells, Set<CellPoint> targetCells, WalkerMetric metric) {
+		int[] source = getBounds(sourceCells);
+		int[] target = getBounds(targetCells);
+		if (fillsBounds(sourceCells, source) && fillsBounds(targetCells, target)) {
+			// Every metric grows with the distance along each axis, so the closest cells are the ones either side of the gap
+			int dx = Math.max(0, Math.max(target[0] - source[2], source[0] - target[2]));
+			int dy = Math.max(0, Math.max(target[1] - source[3], source[1] - target[3]));
+			return getCellDistance(dx, dy, metric);
+		}
+		int distance = Integer.MAX_VALUE;
+		for (CellPoint scell : sourceCells) {
+			for (CellPoint tcell : targetCells) {
+				distance = Math.min(distance, getCellDistance(Math.abs(tcell.x - scell.x), Math.abs(tcell.y - scell.y), metric));
+			}
+		}
+		return distance;
+	}
+
+	/**
+	 * The distance in cells between two cells dx and dy apart on an open square grid. Diagonal paths take as many diagonal steps as they can, as the walker does.
+	 */
+	static int getCellDistance(int dx, int dy, WalkerMetric metric) {
+		int max = Math.max(dx, dy);
+		int min = Math.min(dx, dy);
+		switch (metric) {
+		case MANHATTAN:
+		case NO_DIAGONALS:
+			return dx + dy;
+		case ONE_ONE_ONE:
+			return max;
+		default:
+		case ONE_TWO_ONE:
+			return max + min / 2;
+		}
+	}
+
+	/**
+	 * @return the minimum x and y and maximum x and y of the cells
+	 */
+	private static int[] getBounds(Set<CellPoint> cells) {
+		int[] bounds = { Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE };
+		for (CellPoint cell : cells) {
+			bounds[0] = Math.min(bounds[0], cell.x);
+			bounds[1] = Math.min(bounds[1], cell.y);
+			bounds[2] = Math.max(bounds[2], cell.x);
+			bounds[3] = Math.max(bounds[3], cell.y);
+		}
+		return bounds;
+	}
+
+	private static boolean fillsBounds(Set<CellPoint> cells, int[] bounds) {
+		return !cells.isEmpty() && (long) (bounds[2] - bounds[0] + 1) * (bounds[3] - bounds[1] + 1) == cells.size();
+	}
+
+	private static int searchDistance(Zone zone, Set<CellPoint> sourceCells, Set<CellPoint> targetCells, WalkerMetric metric, MovementBlockingMap blockingMap) {
+		ZoneWalker walker = metric != null && zone.getGrid() instanceof SquareGrid ? new AStarSquareEuclideanWalker(zone, metric) : zone.getGrid().createZoneWalker();
+		walker.setBlockingMap(blockingMap);
+		if (walker instanceof AbstractAStarWalker) {
+			return ((AbstractAStarWalker) walker).getDistance(sourceCells, targetCells);
+		}
+		// Walkers that don't search, try every pair of cells
+		int distance = Integer.MAX_VALUE;
+		for (CellPoint scell : sourceCells) {
+			for (CellPoint tcell : targetCells) {
+				walker.setWaypoints(scell, tcell);
+				distance = Math.min(distance, walker.getDistance());
+			}
+		}
+		return distance;
+	}
+
+	private Zone getZone() {
+		return zoneRef.get();
+	}
+
+	public synchronized void modelChanged(ModelChangeEvent event) {
+		Object evt = event.getEvent();
+		if (evt == Zone.Event.TOKEN_ADDED || evt == Zone.Event.TOKEN_CHANGED || evt == Zone.Event.TOKEN_REMOVED || evt == Zone.Event.TOPOLOGY_CHANGED || evt == Zone.Event.GRID_CHANGED) {
+			distanceMap.clear();
+		}
+	}
+}
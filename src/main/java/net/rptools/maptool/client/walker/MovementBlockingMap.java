@@ -0,0 +1,248 @@
+/*
+ * This software Copyright by the RPTools.net development team, and licensed under the Affero GPL Version 3 or, at your option, any later version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public License * along with this source Code. If not, please visit <http://www.gnu.org/licenses/> and specifically the Affero license text
+ * at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.walker;
+
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import net.rptools.maptool.model.GUID;
+import net.rptools.maptool.model.ModelChangeEvent;
+import net.rptools.maptool.model.ModelChangeListener;
+import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.Zone;
+
+/**
+ * A bitmap of the zone topology (including token VBL) used to keep walkers from routing through walls.
+ * <p>
+ * The topology is rasterized at a quarter of the grid size into chunks of 64x64 pixels, one <code>long</code> per row. Chunks are rasterized the first time a walker looks at them and are dropped again
+ * when the topology under them changes, so adding or removing a wall only costs the chunks it touches.
+ */
+public class MovementBlockingMap implements ModelChangeListener {
+	private static final int CHUNK_SIZE = 64;
+	private static final long[] EMPTY_CHUNK = new long[CHUNK_SIZE];
+
+	private static final Map<Zone, MovementBlockingMap> instances = new WeakHashMap<Zone, MovementBlockingMap>();
+
+	// The zone holds on to us as a listener, so only hold on to it weakly
+	private final WeakReference<Zone> zoneRef;
+	private final Map<Long, long[]> chunks = new HashMap<Long, long[]>();
+	// Where the VBL of each token was when the topology was last built, so that moving it away also clears the chunks it leaves
+	private final Map<GUID, Rectangle> tokenVBLBounds = new HashMap<GUID, Rectangle>();
+
+	private Area topology;
+	private int pixelSize;
+
+	private MovementBlockingMap(Zone zone) {
+		zoneRef = new WeakReference<Zone>(zone);
+	}
+
+	/**
+	 * @return the blocking map for the zone, creating it if needed
+	 */
+	public static synchronized MovementBlockingMap getInstance(Zone zone) {
+		MovementBlockingMap map = instances.get(zone);
+		if (map == null) {
+			map = new MovementBlockingMap(zone);
+			zone.addModelChangeListener(map);
+			instances.put(zone, map);
+		}
+		return map;
+	}
+
+	/**
+	 * Checks whether moving in a straight line between two zone points crosses the topology. The starting point itself is not checked so that a token that ends up inside a wall can still leave.
+	 */
+	public synchronized boolean isBlocked(int x1, int y1, int x2, int y2) {
+		if (!validate()) {
+			return false;
+		}
+		int startX = Math.floorDiv(x1, pixelSize);
+		int startY = Math.floorDiv(y1, pixelSize);
+		int px = startX;
+		int py = startY;
+		int endX = Math.floorDiv(x2, pixelSize);
+		int endY = Math.floorDiv(y2, pixelSize);
+
+		// Bresenham
+		int dx = Math.abs(endX - px);
+		int dy = -Math.abs(endY - py);
+		int sx = px < endX ? 1 : -1;
+		int sy = py < endY ? 1 : -1;
+		int err = dx + dy;
+		while (true) {
+			if ((px != startX || py != startY) && isPixelSet(px, py)) {
+				return true;
+			}
+			if (px == endX && py == endY) {
+				return false;
+			}
+			int e2 = 2 * err;
+			boolean stepX = e2 >= dy;
+			boolean stepY = e2 <= dx;
+			if (stepX && stepY && isPixelSet(px + sx, py) && isPixelSet(px, py + sy)) {
+				// Diagonal step between two blocked pixels, i.e. through a thin diagonal wall
+				return true;
+			}
+			if (stepX) {
+				err += dy;
+				px += sx;
+			}
+			if (stepY) {
+				err += dx;
+				py += sy;
+			}
+		}
+	}
+
+	public synchronized void modelChanged(ModelChangeEvent event) {
+		Object evt = event.getEvent();
+		if (evt == Zone.Event.TOPOLOGY_CHANGED) {
+			topology = null;
+			if (event.getArg() instanceof Area) {
+				invalidate(((Area) event.getArg()).getBounds());
+			} else {
+				chunks.clear();
+			}
+		} else if (evt == Zone.Event.GRID_CHANGED) {
+			topology = null;
+			chunks.clear();
+		} else if (evt == Zone.Event.TOKEN_ADDED || evt == Zone.Event.TOKEN_CHANGED || evt == Zone.Event.TOKEN_REMOVED) {
+			boolean removed = evt == Zone.Event.TOKEN_REMOVED;
+			Object arg = event.getArg();
+			if (arg instanceof Token) {
+				tokenChanged((Token) arg, removed);
+			} else if (arg instanceof List<?>) {
+				for (Object o : (List<?>) arg) {
+					if (o instanceof Token) {
+						tokenChanged((Token) o, removed);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Throws away the chunks under a token's VBL, both where it was the last time we looked and where it is now.
+	 */
+	private void tokenChanged(Token token, boolean removed) {
+		Rectangle oldBounds = tokenVBLBounds.remove(token.getId());
+		Rectangle newBounds = null;
+		if (!removed && token.hasVBL()) {
+			newBounds = token.getTransformedVBL().getBounds();
+			tokenVBLBounds.put(token.getId(), newBounds);
+		}
+		if (oldBounds == null && newBounds == null) {
+			return;
+		}
+		topology = null;
+		if (oldBounds != null) {
+			invalidate(oldBounds);
+		}
+		if (newBounds != null) {
+			invalidate(newBounds);
+		}
+	}
+
+	/**
+	 * Makes sure the combined topology is current.
+	 *
+	 * @return <code>false</code> if the zone has gone away
+	 */
+	private boolean validate() {
+		if (topology != null) {
+			return true;
+		}
+		Zone zone = zoneRef.get();
+		if (zone == null || zone.getGrid() == null) {
+			return false;
+		}
+		topology = new Area(zone.getTopology());
+		tokenVBLBounds.clear();
+		for (Token vblToken : zone.getTokensWithVBL()) {
+			Area vbl = vblToken.getTransformedVBL();
+			topology.add(vbl);
+			tokenVBLBounds.put(vblToken.getId(), vbl.getBounds());
+		}
+		pixelSize = Math.max(1, zone.getGrid().getSize() / 4);
+		return true;
+	}
+
+	private void invalidate(Rectangle bounds) {
+		if (pixelSize == 0) {
+			return;
+		}
+		int chunkSize = CHUNK_SIZE * pixelSize;
+		int minX = Math.floorDiv(bounds.x, chunkSize);
+		int minY = Math.floorDiv(bounds.y, chunkSize);
+		int maxX = Math.floorDiv(bounds.x + bounds.width, chunkSize);
+		int maxY = Math.floorDiv(bounds.y + bounds.height, chunkSize);
+		for (Iterator<Long> iter = chunks.keySet().iterator(); iter.hasNext();) {
+			long key = iter.next();
+			int cx = (int) (key >> 32);
+			int cy = (int) key;
+			if (cx >= minX && cx <= maxX && cy >= minY && cy <= maxY) {
+				iter.remove();
+			}
+		}
+	}
+
+	private boolean isPixelSet(int px, int py) {
+		int cx = Math.floorDiv(px, CHUNK_SIZE);
+		int cy = Math.floorDiv(py, CHUNK_SIZE);
+		long key = ((long) cx << 32) | (cy & 0xFFFFFFFFL);
+		long[] chunk = chunks.get(key);
+		if (chunk == null) {
+			chunk = rasterize(cx, cy);
+			chunks.put(key, chunk);
+		}
+		return (chunk[py - cy * CHUNK_SIZE] & (1L << (px - cx * CHUNK_SIZE))) != 0;
+	}
+
+	private long[] rasterize(int cx, int cy) {
+		int x = cx * CHUNK_SIZE;
+		int y = cy * CHUNK_SIZE;
+		int size = CHUNK_SIZE * pixelSize;
+		if (!topology.intersects(x * pixelSize, y * pixelSize, size, size)) {
+			return EMPTY_CHUNK;
+		}
+		long[] chunk = new long[CHUNK_SIZE];
+		fill(chunk, x, y, 0, 0, CHUNK_SIZE);
+		return chunk;
+	}
+
+	/**
+	 * Rasterizes a square block of the chunk, splitting it up only where the topology edges run through it.
+	 */
+	private void fill(long[] chunk, int chunkX, int chunkY, int col, int row, int size) {
+		double zx = (chunkX + col) * (double) pixelSize;
+		double zy = (chunkY + row) * (double) pixelSize;
+		double zsize = size * (double) pixelSize;
+		if (!topology.intersects(zx, zy, zsize, zsize)) {
+			return;
+		}
+		if (size == 1 || topology.contains(zx, zy, zsize, zsize)) {
+			long bits = size == CHUNK_SIZE ? -1L : ((1L << size) - 1) << col;
+			for (int r = row; r < row + size; r++) {
+				chunk[r] |= bits;
+			}
+			return;
+		}
+		int half = size / 2;
+		fill(chunk, chunkX, chunkY, col, row, half);
+		fill(chunk, chunkX, chunkY, col + half, row, half);
+		fill(chunk, chunkX, chunkY, col, row + half, half);
+		fill(chunk, chunkX, chunkY, col + half, row + half, half);
+	}
+}
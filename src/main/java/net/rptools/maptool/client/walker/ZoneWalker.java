@@ -26,6 +26,14 @@ public interface ZoneWalker {
 
 	public CellPoint getLastPoint();
 
+	/**
+	 * Sets the topology the walker has to route around. If the end of a path cannot be reached the path stops at the closest cell that can.
+	 * 
+	 * @param blockingMap
+	 *            The topology to route around, or <code>null</code> to move freely
+	 */
+	public void setBlockingMap(MovementBlockingMap blockingMap);
+
 	/**
 	 * Remove an existing waypoint. Nothing is removed if the passed point is not a waypoint.
 	 * 
@@ -0,0 +1,266 @@
+/*
+ * This software Copyright by the RPTools.net development team, and licensed under the Affero GPL Version 3 or, at your option, any later version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public License * along with this source Code. If not, please visit <http://www.gnu.org/licenses/> and specifically the Affero license text
+ * at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.walker.astar;
+
+import java.util.Arrays;
+
+/**
+ * The A* search used by {@link AbstractAStarWalker}.
+ * <p>
+ * Nodes are identified by their cell coordinates packed into a <code>long</code> and live in parallel primitive arrays. The node lookup is an open addressing hash table and the open list is a binary
+ * heap of node indices that knows the heap position of every node, so a lookup, a push or a pop never allocates once the tables have grown to the size of the search. The tables are kept between
+ * searches and are reset by bumping a generation stamp instead of clearing them.
+ */
+class AStarSearch {
+	static final int NO_NODE = -1;
+	private static final int SEARCH_MARGIN = 8;
+	private static final int CLOSED = -1;
+
+	private final AbstractAStarWalker walker;
+
+	// Node storage, indexed by node number
+	private int nodeCount;
+	private int[] nodeX = new int[256];
+	private int[] nodeY = new int[256];
+	private int[] parent = new int[256];
+	private int[] heapIndex = new int[256];
+	private double[] gScore = new double[256];
+	private double[] fScore = new double[256];
+
+	// Cell key -> node number
+	private long[] slotKey = new long[512];
+	private int[] slotNode = new int[512];
+	private int[] slotStamp = new int[512];
+	private int slotMask = 511;
+	private int stamp;
+
+	// Open list
+	private int[] heap = new int[256];
+	private int heapSize;
+
+	AStarSearch(AbstractAStarWalker walker) {
+		this.walker = walker;
+	}
+
+	/**
+	 * Runs the search from the start to the end cell. The search stays within a margin around the box spanned by the two cells, so that an end cell walled off by topology doesn't send it across
+	 * the whole zone.
+	 *
+	 * @return the node number of the end cell, or if it cannot be reached the node closest to it
+	 */
+	int search(int startX, int startY, int endX, int endY) {
+		reset();
+
+		int margin = SEARCH_MARGIN + Math.max(Math.abs(endX - startX), Math.abs(endY - startY)) / 2;
+		int minX = Math.min(startX, endX) - margin;
+		int maxX = Math.max(startX, endX) + margin;
+		int minY = Math.min(startY, endY) - margin;
+		int maxY = Math.max(startY, endY) + margin;
+
+		int start = addNode(startX, startY, NO_NODE, 0, walker.hScore(startX, startY, endX, endY));
+		push(start);
+
+		int closest = start;
+		double closestScore = fScore[start];
+		while (heapSize > 0) {
+			int node = pop();
+			heapIndex[node] = CLOSED;
+			int x = nodeX[node];
+			int y = nodeY[node];
+			if (x == endX && y == endY) {
+				return node;
+			}
+			double h = fScore[node] - gScore[node];
+			if (h < closestScore) {
+				closest = node;
+				closestScore = h;
+			}
+			int[][] neighborMap = walker.getNeighborMap(x, y);
+			for (int i = 0; i < neighborMap.length; i++) {
+				int dx = neighborMap[i][0];
+				int dy = neighborMap[i][1];
+				if (dx == 0 && dy == 0) {
+					// Hex neighbor maps pad unused directions with zero offsets
+					continue;
+				}
+				int nx = x + dx;
+				int ny = y + dy;
+				if (nx < minX || nx > maxX || ny < minY || ny > maxY || !walker.isPassable(x, y, nx, ny)) {
+					continue;
+				}
+				double g = walker.gScore(startX, startY, nx, ny);
+				int neighbor = findNode(nx, ny);
+				if (neighbor == NO_NODE) {
+					neighbor = addNode(nx, ny, node, g, g + walker.hScore(nx, ny, endX, endY));
+					push(neighbor);
+				} else if (heapIndex[neighbor] != CLOSED && g < gScore[neighbor]) {
+					// check if it is cheaper to get here the way that we just came, versus the previous path
+					fScore[neighbor] += g - gScore[neighbor];
+					gScore[neighbor] = g;
+					parent[neighbor] = node;
+					siftUp(heapIndex[neighbor]);
+				}
+			}
+		}
+		return closest;
+	}
+
+	int getX(int node) {
+		return nodeX[node];
+	}
+
+	int getY(int node) {
+		return nodeY[node];
+	}
+
+	int getParent(int node) {
+		return parent[node];
+	}
+
+	private void reset() {
+		nodeCount = 0;
+		heapSize = 0;
+		if (++stamp == 0) {
+			// Wrapped around; stale stamps could now match so start over
+			Arrays.fill(slotStamp, 0);
+			stamp = 1;
+		}
+	}
+
+	private static long key(int x, int y) {
+		return ((long) x << 32) | (y & 0xFFFFFFFFL);
+	}
+
+	private int slotFor(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & slotMask;
+	}
+
+	private int findNode(int x, int y) {
+		long key = key(x, y);
+		for (int slot = slotFor(key);; slot = (slot + 1) & slotMask) {
+			if (slotStamp[slot] != stamp) {
+				return NO_NODE;
+			}
+			if (slotKey[slot] == key) {
+				return slotNode[slot];
+			}
+		}
+	}
+
+	private int addNode(int x, int y, int parentNode, double g, double f) {
+		if (nodeCount == nodeX.length) {
+			int size = nodeCount * 2;
+			nodeX = Arrays.copyOf(nodeX, size);
+			nodeY = Arrays.copyOf(nodeY, size);
+			parent = Arrays.copyOf(parent, size);
+			heapIndex = Arrays.copyOf(heapIndex, size);
+			gScore = Arrays.copyOf(gScore, size);
+			fScore = Arrays.copyOf(fScore, size);
+		}
+		// Keep the table at most half full
+		if (nodeCount * 2 >= slotKey.length) {
+			rehash(slotKey.length * 2);
+		}
+		int node = nodeCount++;
+		nodeX[node] = x;
+		nodeY[node] = y;
+		parent[node] = parentNode;
+		gScore[node] = g;
+		fScore[node] = f;
+		insertSlot(key(x, y), node);
+		return node;
+	}
+
+	private void insertSlot(long key, int node) {
+		int slot = slotFor(key);
+		while (slotStamp[slot] == stamp) {
+			slot = (slot + 1) & slotMask;
+		}
+		slotKey[slot] = key;
+		slotNode[slot] = node;
+		slotStamp[slot] = stamp;
+	}
+
+	private void rehash(int capacity) {
+		slotKey = new long[capacity];
+		slotNode = new int[capacity];
+		slotStamp = new int[capacity];
+		slotMask = capacity - 1;
+		for (int node = 0; node < nodeCount; node++) {
+			insertSlot(key(nodeX[node], nodeY[node]), node);
+		}
+	}
+
+	/**
+	 * Orders by total cost and then by creation order, so that nodes of equal cost are expanded first come first served.
+	 */
+	private boolean less(int a, int b) {
+		if (fScore[a] != fScore[b]) {
+			return fScore[a] < fScore[b];
+		}
+		return a < b;
+	}
+
+	private void push(int node) {
+		if (heapSize == heap.length) {
+			heap = Arrays.copyOf(heap, heapSize * 2);
+		}
+		heap[heapSize] = node;
+		heapIndex[node] = heapSize;
+		siftUp(heapSize++);
+	}
+
+	private int pop() {
+		int top = heap[0];
+		int last = heap[--heapSize];
+		if (heapSize > 0) {
+			heap[0] = last;
+			heapIndex[last] = 0;
+			siftDown(0);
+		}
+		return top;
+	}
+
+	private void siftUp(int pos) {
+		int node = heap[pos];
+		while (pos > 0) {
+			int parentPos = (pos - 1) >>> 1;
+			int parentNode = heap[parentPos];
+			if (!less(node, parentNode)) {
+				break;
+			}
+			heap[pos] = parentNode;
+			heapIndex[parentNode] = pos;
+			pos = parentPos;
+		}
+		heap[pos] = node;
+		heapIndex[node] = pos;
+	}
+
+	private void siftDown(int pos) {
+		int node = heap[pos];
+		int half = heapSize >>> 1;
+		while (pos < half) {
+			int child = 2 * pos + 1;
+			int right = child + 1;
+			if (right < heapSize && less(heap[right], heap[child])) {
+				child = right;
+			}
+			if (!less(heap[child], node)) {
+				break;
+			}
+			heap[pos] = heap[child];
+			heapIndex[heap[pos]] = pos;
+			pos = child;
+		}
+		heap[pos] = node;
+		heapIndex[node] = pos;
+	}
+}
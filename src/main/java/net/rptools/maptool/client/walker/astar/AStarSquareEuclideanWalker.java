@@ -50,24 +50,28 @@ public AStarSquareEuclideanWalker(Zone zone, WalkerMetric metric) {
 		}
 	}
 
+	public WalkerMetric getMetric() {
+		return metric;
+	}
+
 	@Override
 	public int[][] getNeighborMap(int x, int y) {
 		return neighborMap;
 	}
 
 	@Override
-	protected double gScore(CellPoint p1, CellPoint p2) {
-		return metricDistance(p1, p2);
+	protected double gScore(int x1, int y1, int x2, int y2) {
+		return metricDistance(x1, y1, x2, y2);
 	}
 
 	@Override
-	protected double hScore(CellPoint p1, CellPoint p2) {
-		return metricDistance(p1, p2);
+	protected double hScore(int x1, int y1, int x2, int y2) {
+		return metricDistance(x1, y1, x2, y2);
 	}
 
-	private double metricDistance(CellPoint p1, CellPoint p2) {
-		int a = p2.x - p1.x;
-		int b = p2.y - p1.y;
+	private double metricDistance(int x1, int y1, int x2, int y2) {
+		int a = x2 - x1;
+		int b = y2 - y1;
 
 		final double distance;
 
@@ -88,6 +92,23 @@ private double metricDistance(CellPoint p1, CellPoint p2) {
 		return distance;
 	}
 
+	@Override
+	protected int getStepCost(int dx, int dy, boolean afterOddDiagonal) {
+		if (dx == 0 || dy == 0) {
+			return 1;
+		}
+		switch (metric) {
+		case MANHATTAN:
+		case NO_DIAGONALS:
+			return 2;
+		case ONE_ONE_ONE:
+			return 1;
+		default:
+		case ONE_TWO_ONE:
+			return afterOddDiagonal ? 2 : 1;
+		}
+	}
+
 	@Override
 	protected int calculateDistance(List<CellPoint> path, int feetPerCell) {
 		if (path == null || path.size() == 0)
@@ -30,18 +30,18 @@ protected int[][] getNeighborMap(int x, int y) {
 	}
 
 	@Override
-	protected double gScore(CellPoint p1, CellPoint p2) {
-		return euclideanDistance(p1, p2);
+	protected double gScore(int x1, int y1, int x2, int y2) {
+		return euclideanDistance(x1, y1, x2, y2);
 	}
 
 	@Override
-	protected double hScore(CellPoint p1, CellPoint p2) {
-		return euclideanDistance(p1, p2);
+	protected double hScore(int x1, int y1, int x2, int y2) {
+		return euclideanDistance(x1, y1, x2, y2);
 	}
 
-	private double euclideanDistance(CellPoint p1, CellPoint p2) {
-		ZonePoint zp1 = getZone().getGrid().convert(p1);
-		ZonePoint zp2 = getZone().getGrid().convert(p2);
+	private double euclideanDistance(int x1, int y1, int x2, int y2) {
+		ZonePoint zp1 = getZone().getGrid().convert(new CellPoint(x1, y1));
+		ZonePoint zp2 = getZone().getGrid().convert(new CellPoint(x2, y2));
 
 		int a = zp2.x - zp1.x;
 		int b = zp2.y - zp1.y;
@@ -8,25 +8,23 @@
  */
 package net.rptools.maptool.client.walker.astar;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
-import java.util.Map;
-import java.util.Set;
 
 import net.rptools.maptool.client.walker.AbstractZoneWalker;
 import net.rptools.maptool.model.CellPoint;
+import net.rptools.maptool.model.Grid;
 import net.rptools.maptool.model.Zone;
+import net.rptools.maptool.model.ZonePoint;
 
 public abstract class AbstractAStarWalker extends AbstractZoneWalker {
 	public AbstractAStarWalker(Zone zone) {
 		super(zone);
 	}
 
+	private final AStarSearch search = new AStarSearch(this);
+	private MultiSourceSearch multiSourceSearch;
 	private int distance = -1;
 
 	/**
@@ -40,88 +38,62 @@ public AbstractAStarWalker(Zone zone) {
 
 	@Override
 	protected List<CellPoint> calculatePath(CellPoint start, CellPoint end) {
-		List<AStarCellPoint> openList = new ArrayList<AStarCellPoint>();
-		Map<AStarCellPoint, AStarCellPoint> openSet = new HashMap<AStarCellPoint, AStarCellPoint>(); // For faster lookups
-		Set<AStarCellPoint> closedSet = new HashSet<AStarCellPoint>();
-
-		openList.add(new AStarCellPoint(start));
-		openSet.put(openList.get(0), openList.get(0));
-
-		AStarCellPoint node = null;
-
-		while (!openList.isEmpty()) {
-			node = openList.remove(0);
-			openSet.remove(node);
-			if (node.equals(end)) {
-				break;
-			}
-			int[][] neighborMap = getNeighborMap(node.x, node.y);
-			for (int i = 0; i < neighborMap.length; i++) {
-				int x = node.x + neighborMap[i][0];
-				int y = node.y + neighborMap[i][1];
-				AStarCellPoint neighborNode = new AStarCellPoint(x, y);
-				if (closedSet.contains(neighborNode)) {
-					continue;
-				}
-				neighborNode.parent = node;
-				neighborNode.gScore = gScore(start, neighborNode);
-				neighborNode.hScore = hScore(neighborNode, end);
-
-				if (openSet.containsKey(neighborNode)) {
-					AStarCellPoint oldNode = openSet.get(neighborNode);
-					// check if it is cheaper to get here the way that we just
-					// came, versus the previous path
-					if (neighborNode.gScore < oldNode.gScore) {
-						oldNode.gScore = neighborNode.gScore;
-						neighborNode = oldNode;
-						neighborNode.parent = node;
-					}
-					continue;
-				}
-				pushNode(openList, neighborNode);
-				openSet.put(neighborNode, neighborNode);
-			}
-			closedSet.add(node);
-			node = null;
-		}
-		List<CellPoint> ret = new LinkedList<CellPoint>();
-		while (node != null) {
-			ret.add(node);
-			node = node.parent;
+		LinkedList<CellPoint> ret = new LinkedList<CellPoint>();
+		for (int node = search.search(start.x, start.y, end.x, end.y); node != AStarSearch.NO_NODE; node = search.getParent(node)) {
+			ret.addFirst(new CellPoint(search.getX(node), search.getY(node)));
 		}
 		distance = -1;
-		Collections.reverse(ret);
 		return ret;
 	}
 
-	private void pushNode(List<AStarCellPoint> list, AStarCellPoint node) {
-		if (list.isEmpty()) {
-			list.add(node);
-			return;
-		}
-		if (node.cost() < list.get(0).cost()) {
-			list.add(0, node);
-			return;
-		}
-		if (node.cost() > list.get(list.size() - 1).cost()) {
-			list.add(node);
-			return;
-		}
-		for (ListIterator<AStarCellPoint> iter = list.listIterator(); iter.hasNext();) {
-			AStarCellPoint listNode = iter.next();
-			if (listNode.cost() > node.cost()) {
-				iter.previous();
-				iter.add(node);
-				return;
-			}
+	/**
+	 * Checks whether a token can step from the cell (x1,y1) to the neighboring cell (x2,y2) without crossing the blocking topology.
+	 */
+	protected boolean isPassable(int x1, int y1, int x2, int y2) {
+		if (blockingMap == null) {
+			return true;
 		}
+		Grid grid = getZone().getGrid();
+		ZonePoint from = grid.getCellCenter(new CellPoint(x1, y1));
+		ZonePoint to = grid.getCellCenter(new CellPoint(x2, y2));
+		return !blockingMap.isBlocked(from.x, from.y, to.x, to.y);
 	}
 
 	protected abstract int calculateDistance(List<CellPoint> path, int feetPerCell);
 
-	protected abstract double gScore(CellPoint p1, CellPoint p2);
+	/**
+	 * The cost of getting from the start cell (x1,y1) to the cell (x2,y2).
+	 */
+	protected abstract double gScore(int x1, int y1, int x2, int y2);
 
-	protected abstract double hScore(CellPoint p1, CellPoint p2);
+	/**
+	 * The estimated cost of getting from the cell (x1,y1) to the end cell (x2,y2).
+	 */
+	protected abstract double hScore(int x1, int y1, int x2, int y2);
+
+	/**
+	 * The number of cells a step to the neighboring cell (x+dx,y+dy) counts for, the same as {@link #calculateDistance(List, int)} counts it.
+	 * 
+	 * @param afterOddDiagonal
+	 *            whether an odd number of diagonal steps were taken before this one, for metrics where every second diagonal costs more
+	 */
+	protected int getStepCost(int dx, int dy, boolean afterOddDiagonal) {
+		return 1;
+	}
+
+	/**
+	 * The distance from the closest of the start cells to the closest of the end cells. This is one search from all the start cells at once, rather than one per pair of cells, and routes around
+	 * the blocking map if there is one. The waypoints are not changed.
+	 * 
+	 * @return the distance in map units, or -1 if none of the end cells can be reached
+	 */
+	public int getDistance(Collection<CellPoint> startCells, Collection<CellPoint> endCells) {
+		if (multiSourceSearch == null) {
+			multiSourceSearch = new MultiSourceSearch(this);
+		}
+		int cells = multiSourceSearch.search(startCells, endCells);
+		return cells < 0 ? -1 : cells * getZone().getUnitsPerCell();
+	}
 
 	public int getDistance() {
 		if (distance == -1) {
@@ -0,0 +1,133 @@
+/*
+ * This software Copyright by the RPTools.net development team, and licensed under the Affero GPL Version 3 or, at your option, any later version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public License * along with this source Code. If not, please visit <http://www.gnu.org/licenses/> and specifically the Affero license text
+ * at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.walker.astar;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import net.rptools.maptool.model.CellPoint;
+
+/**
+ * A shortest path search from several start cells at once to the nearest of several end cells, used by {@link AbstractAStarWalker#getDistance(java.util.Collection, java.util.Collection)}.
+ * <p>
+ * This is Dijkstra's search with the step costs of the walker. Where every second diagonal costs more the cost of a step depends on how many diagonals came before it, so each cell is searched
+ * twice, once after an even and once after an odd number of diagonals.
+ */
+class MultiSourceSearch {
+	private static final int SEARCH_MARGIN = 8;
+
+	private final AbstractAStarWalker walker;
+
+	private static class Node implements Comparable<Node> {
+		final int x;
+		final int y;
+		final int cost;
+		final boolean oddDiagonal;
+
+		Node(int x, int y, int cost, boolean oddDiagonal) {
+			this.x = x;
+			this.y = y;
+			this.cost = cost;
+			this.oddDiagonal = oddDiagonal;
+		}
+
+		public int compareTo(Node other) {
+			return cost < other.cost ? -1 : (cost == other.cost ? 0 : 1);
+		}
+	}
+
+	MultiSourceSearch(AbstractAStarWalker walker) {
+		this.walker = walker;
+	}
+
+	/**
+	 * Runs the search. Like {@link AStarSearch} it stays within a margin around the box spanned by the cells.
+	 *
+	 * @return the number of cells to the nearest end cell, or -1 if none can be reached
+	 */
+	int search(Collection<CellPoint> startCells, Collection<CellPoint> endCells) {
+		if (startCells.isEmpty() || endCells.isEmpty()) {
+			return -1;
+		}
+		int minX = Integer.MAX_VALUE;
+		int minY = Integer.MAX_VALUE;
+		int maxX = Integer.MIN_VALUE;
+		int maxY = Integer.MIN_VALUE;
+		Set<Long> endSet = new HashSet<Long>();
+		for (CellPoint cell : endCells) {
+			endSet.add(key(cell.x, cell.y));
+			minX = Math.min(minX, cell.x);
+			minY = Math.min(minY, cell.y);
+			maxX = Math.max(maxX, cell.x);
+			maxY = Math.max(maxY, cell.y);
+		}
+
+		PriorityQueue<Node> open = new PriorityQueue<Node>();
+		// The cheapest cost found so far after an even and after an odd number of diagonals
+		Map<Long, Integer> evenCostMap = new HashMap<Long, Integer>();
+		Map<Long, Integer> oddCostMap = new HashMap<Long, Integer>();
+		for (CellPoint cell : startCells) {
+			evenCostMap.put(key(cell.x, cell.y), 0);
+			open.add(new Node(cell.x, cell.y, 0, false));
+			minX = Math.min(minX, cell.x);
+			minY = Math.min(minY, cell.y);
+			maxX = Math.max(maxX, cell.x);
+			maxY = Math.max(maxY, cell.y);
+		}
+		int margin = SEARCH_MARGIN + Math.max(maxX - minX, maxY - minY) / 2;
+		minX -= margin;
+		minY -= margin;
+		maxX += margin;
+		maxY += margin;
+
+		while (!open.isEmpty()) {
+			Node node = open.poll();
+			long nodeKey = key(node.x, node.y);
+			Integer best = (node.oddDiagonal ? oddCostMap : evenCostMap).get(nodeKey);
+			if (best != null && best < node.cost) {
+				// Already reached more cheaply
+				continue;
+			}
+			if (endSet.contains(nodeKey)) {
+				return node.cost;
+			}
+			int[][] neighborMap = walker.getNeighborMap(node.x, node.y);
+			for (int i = 0; i < neighborMap.length; i++) {
+				int dx = neighborMap[i][0];
+				int dy = neighborMap[i][1];
+				if (dx == 0 && dy == 0) {
+					continue;
+				}
+				int nx = node.x + dx;
+				int ny = node.y + dy;
+				if (nx < minX || nx > maxX || ny < minY || ny > maxY || !walker.isPassable(node.x, node.y, nx, ny)) {
+					continue;
+				}
+				int cost = node.cost + walker.getStepCost(dx, dy, node.oddDiagonal);
+				boolean oddDiagonal = (dx != 0 && dy != 0) != node.oddDiagonal;
+				Map<Long, Integer> costMap = oddDiagonal ? oddCostMap : evenCostMap;
+				long neighborKey = key(nx, ny);
+				Integer previous = costMap.get(neighborKey);
+				if (previous == null || cost < previous) {
+					costMap.put(neighborKey, cost);
+					open.add(new Node(nx, ny, cost, oddDiagonal));
+				}
+			}
+		}
+		return -1;
+	}
+
+	private static long key(int x, int y) {
+		return ((long) x << 32) | (y & 0xFFFFFFFFL);
+	}
+}
@@ -76,7 +76,7 @@ public class AssetManager {
 	}
 
 	/**
-	 * Brute force clear asset cache... TODO: Create preferences and filter to clear cache automatically by age of asset
+	 * Brute force clear asset cache, and the tiles cut from the map images with it... TODO: Create preferences and filter to clear cache automatically by age of asset
 	 * 
 	 * @author Jamz
 	 * @since 1.4.0.1
@@ -87,6 +87,11 @@ public static void clearCache() {
 			if (cacheDir != null) {
 				FileUtils.cleanDirectory(cacheDir);
 			}
+			// The maps cut into tiles go with the assets they were cut from
+			File tileCacheDir = AppUtil.getTileCacheDir();
+			if (tileCacheDir != null) {
+				FileUtils.cleanDirectory(tileCacheDir);
+			}
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -475,10 +480,18 @@ public void run() {
 
 					try {
 						assetFile.getParentFile().mkdirs();
-						// Image
-						OutputStream out = new FileOutputStream(assetFile);
-						out.write(asset.getImage());
-						out.close();
+						// Image, written aside and renamed once complete so that the cache file is never read half written
+						File partFile = File.createTempFile(asset.getId().toString(), ".part", assetFile.getParentFile());
+						OutputStream out = new FileOutputStream(partFile);
+						try {
+							out.write(asset.getImage());
+						} finally {
+							out.close();
+						}
+						if (!partFile.renameTo(assetFile)) {
+							// Already written by another thread
+							partFile.delete();
+						}
 					} catch (IOException ioe) {
 						log.error("Could not persist asset while writing image data", ioe);
 						return;
@@ -633,7 +646,7 @@ public static File getAssetCacheFile(Asset asset) {
 	}
 
 	/**
-	 * Return the assets cache file, if any
+	 * Return the assets cache file, if any. The file only appears once all of the asset has been written to it.
 	 * 
 	 * @param is
 	 *            MD5 sum of the asset
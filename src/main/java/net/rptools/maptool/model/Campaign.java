@@ -68,6 +68,9 @@ public class Campaign {
 	// need to have a counter for additions to macroButtonProperties array
 	// otherwise deletions/insertions from/to that array will go out of sync
 	private int macroButtonLastIndex = 0;
+	// campaign macros by label, see getMacroButtonProperty(); rebuilt when the list changes
+	private transient Map<String, MacroButtonProperties> macroButtonIndex;
+	private transient int macroButtonIndexSize;
 
 	// DEPRECATED: As of 1.3b20 these are now in campaignProperties, but are here for backward compatibility
 	private Map<String, List<TokenProperty>> tokenTypeMap;
@@ -123,15 +126,27 @@ public List<String> getRemoteRepositoryList() {
 	}
 
 	public Campaign(Campaign campaign) {
+		this(campaign, true);
+	}
+
+	/**
+	 * Same as {@link #Campaign(Campaign)} except that the zones can be left out, for callers that copy only some of them.
+	 * 
+	 * @param copyZones
+	 *            <code>false</code> to leave the copy without zones
+	 */
+	public Campaign(Campaign campaign, boolean copyZones) {
 		zones = Collections.synchronizedMap(new LinkedHashMap<GUID, Zone>());
 
 		/*
 		 * JFJ 2010-10-27 Don't forget that since these are new zones AND new tokens created here from the old one, if you have any data that needs to transfer over you will need to manually copy it
 		 * as is done below for the campaign properties and macro buttons.
 		 */
-		for (Entry<GUID, Zone> entry : campaign.zones.entrySet()) {
-			Zone copy = new Zone(entry.getValue());
-			zones.put(copy.getId(), copy);
+		if (copyZones) {
+			for (Entry<GUID, Zone> entry : campaign.zones.entrySet()) {
+				Zone copy = new Zone(entry.getValue());
+				zones.put(copy.getId(), copy);
+			}
 		}
 		campaignProperties = new CampaignProperties(campaign.campaignProperties);
 		macroButtonProperties = new ArrayList<MacroButtonProperties>(campaign.getMacroButtonPropertiesArray());
@@ -380,6 +395,40 @@ public List<MacroButtonProperties> getMacroButtonPropertiesArray() {
 
 	public void setMacroButtonPropertiesArray(List<MacroButtonProperties> properties) {
 		macroButtonProperties = properties;
+		macroButtonIndex = null;
+	}
+
+	/**
+	 * Finds a campaign macro by its label, which is how macros call each other with <code>macro@campaign</code>.
+	 * 
+	 * @return the first campaign macro with the label, or <code>null</code> if there is none
+	 */
+	public MacroButtonProperties getMacroButtonProperty(String label) {
+		List<MacroButtonProperties> properties = getMacroButtonPropertiesArray();
+		Map<String, MacroButtonProperties> index = macroButtonIndex;
+		boolean rebuilt = false;
+		if (index == null || macroButtonIndexSize != properties.size()) {
+			index = buildMacroButtonIndex(properties);
+			rebuilt = true;
+		}
+		MacroButtonProperties prop = index.get(label);
+		if (!rebuilt && (prop == null || !label.equals(prop.getLabel()))) {
+			// Relabelled without being saved
+			prop = buildMacroButtonIndex(properties).get(label);
+		}
+		return prop;
+	}
+
+	private Map<String, MacroButtonProperties> buildMacroButtonIndex(List<MacroButtonProperties> properties) {
+		Map<String, MacroButtonProperties> index = new HashMap<String, MacroButtonProperties>();
+		for (MacroButtonProperties prop : properties) {
+			if (!index.containsKey(prop.getLabel())) {
+				index.put(prop.getLabel(), prop);
+			}
+		}
+		macroButtonIndex = index;
+		macroButtonIndexSize = properties.size();
+		return index;
 	}
 
 	public void saveMacroButtonProperty(MacroButtonProperties properties) {
@@ -402,11 +451,13 @@ public void saveMacroButtonProperty(MacroButtonProperties properties) {
 				prop.setMaxWidth(properties.getMaxWidth());
 				prop.setToolTip(properties.getToolTip());
 				prop.setAllowPlayerEdits(properties.getAllowPlayerEdits());
+				macroButtonIndex = null;
 				MapTool.getFrame().getCampaignPanel().reset();
 				return;
 			}
 		}
 		macroButtonProperties.add(properties);
+		macroButtonIndex = null;
 		MapTool.getFrame().getCampaignPanel().reset();
 	}
 
@@ -421,6 +472,7 @@ public int getMacroButtonNextIndex() {
 
 	public void deleteMacroButton(MacroButtonProperties properties) {
 		macroButtonProperties.remove(properties);
+		macroButtonIndex = null;
 		MapTool.getFrame().getCampaignPanel().reset();
 	}
 
@@ -533,4 +585,12 @@ public CampaignExportDialog getExportCampaignDialog() {
 	public void setExportCampaignDialog(CampaignExportDialog d) {
 		campaignExportDialog = d;
 	}
-}
\ No newline at end of file
+
+	protected Object readResolve() {
+		// Campaigns saved with one entry per zone don't carry their zones, PersistenceUtil adds them after loading
+		if (zones == null) {
+			zones = Collections.synchronizedMap(new LinkedHashMap<GUID, Zone>());
+		}
+		return this;
+	}
+}
@@ -152,6 +152,14 @@ public Object clone() throws CloneNotSupportedException {
 	 */
 	public abstract ZonePoint convert(CellPoint cp);
 
+	/**
+	 * @return The ZonePoint at the center of the cell
+	 */
+	public ZonePoint getCellCenter(CellPoint cp) {
+		Rectangle bounds = getBounds(cp);
+		return new ZonePoint((int) bounds.getCenterX(), (int) bounds.getCenterY());
+	}
+
 	public ZonePoint getNearestVertex(ZonePoint point) {
 		int gridx = (int) Math.round((point.x - getOffsetX()) / getCellWidth());
 		int gridy = (int) Math.round((point.y - getOffsetY()) / getCellHeight());
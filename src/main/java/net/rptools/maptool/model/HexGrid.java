@@ -236,6 +236,11 @@ public Rectangle getBounds(CellPoint cp) {
 		return new Rectangle(zp.x, zp.y, w, h);
 	}
 
+	@Override
+	public ZonePoint getCellCenter(CellPoint cp) {
+		return convert(cp);
+	}
+
 	/**
 	 * @return Distance from the center to edge of a hex
 	 */
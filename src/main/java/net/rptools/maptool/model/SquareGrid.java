@@ -244,8 +244,14 @@ public CellPoint convert(ZonePoint zp) {
 
 	@Override
 	public ZoneWalker createZoneWalker() {
-		WalkerMetric metric = MapTool.isPersonalServer() ? AppPreferences.getMovementMetric() : MapTool.getServerPolicy().getMovementMetric();
-		return new AStarSquareEuclideanWalker(getZone(), metric);
+		return new AStarSquareEuclideanWalker(getZone(), getMovementMetric());
+	}
+
+	/**
+	 * @return the metric tokens move by, set by the server or for a personal server in the preferences
+	 */
+	public WalkerMetric getMovementMetric() {
+		return MapTool.isPersonalServer() ? AppPreferences.getMovementMetric() : MapTool.getServerPolicy().getMovementMetric();
 	}
 
 	@Override
@@ -253,6 +259,13 @@ public ZonePoint convert(CellPoint cp) {
 		return new ZonePoint((cp.x * getSize() + getOffsetX()), (cp.y * getSize() + getOffsetY()));
 	}
 
+	@Override
+	public ZonePoint getCellCenter(CellPoint cp) {
+		ZonePoint zp = convert(cp);
+		zp.translate(getSize() / 2, getSize() / 2);
+		return zp;
+	}
+
 	@Override
 	public GridCapabilities getCapabilities() {
 		return CAPABILITIES;
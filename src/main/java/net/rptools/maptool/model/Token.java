@@ -121,6 +121,9 @@ public int compare(Token o1, Token o2) {
 
 	// Lee: for use in added path calculations
 	transient private ZonePoint tokenOrigin = null;
+
+	// The zone whose token indexes hold this token, told when an indexed property or the position changes
+	private transient Zone zone;
 	private boolean snapToScale = true; // Whether the scaleX and scaleY represent snap-to-grid measurements
 
 	// These are the original image width and height
@@ -227,6 +230,26 @@ public enum ChangeEvent {
 
 	private HeroLabData heroLabData;
 
+	// What the other clients last saw of this token, see TokenDelta
+	private transient int syncVersion;
+	private transient TokenDelta.Snapshot syncSnapshot;
+
+	// JSON property values already parsed, by lower case property name, see getEvaluatedProperty()
+	private transient Map<String, ParsedProperty> parsedPropertyMap;
+
+	/**
+	 * A property value and the JSON object or array parsed from it
+	 */
+	private static class ParsedProperty {
+		private final String value;
+		private final Object json;
+
+		ParsedProperty(String value, Object json) {
+			this.value = value;
+			this.json = json;
+		}
+	}
+
 	public Token(Token token) {
 		this(token.name, token.getImageAssetId());
 		currentImageAsset = token.currentImageAsset;
@@ -399,6 +422,7 @@ public void imported() {
 
 	public void setHasSight(boolean hasSight) {
 		this.hasSight = hasSight;
+		indexedPropertyChanged();
 	}
 
 	public void setHasImageTable(boolean hasImageTable) {
@@ -466,6 +490,7 @@ public String getGMName() {
 
 	public void setGMName(String name) {
 		gmName = name;
+		indexedPropertyChanged();
 	}
 
 	public boolean hasHalo() {
@@ -568,6 +593,7 @@ public void setType(Type type) {
 		tokenType = type.name();
 		if (type == Type.PC) {
 			hasSight = true;
+			indexedPropertyChanged();
 		}
 	}
 
@@ -585,6 +611,7 @@ public Zone.Layer getLayer() {
 	public void setLayer(Zone.Layer layer) {
 		this.layer = layer.name();
 		actualLayer = layer;
+		indexedPropertyChanged();
 	}
 
 	public boolean hasFacing() {
@@ -624,6 +651,31 @@ public boolean getHasSight() {
 		return hasSight;
 	}
 
+	/**
+	 * Sets the zone to tell when the token changes its name, GM name, layer, VBL or sight, moves or changes its footprint, so that the zone can index it again.
+	 */
+	void setZone(Zone zone) {
+		this.zone = zone;
+	}
+
+	Zone getZone() {
+		return zone;
+	}
+
+	private void indexedPropertyChanged() {
+		Zone zone = this.zone;
+		if (zone != null) {
+			zone.tokenIndexedPropertyChanged(this);
+		}
+	}
+
+	private void positionChanged() {
+		Zone zone = this.zone;
+		if (zone != null) {
+			zone.tokenMoved(this);
+		}
+	}
+
 	public boolean getHasImageTable() {
 		if (hasImageTable != null)
 			return hasImageTable;
@@ -865,6 +917,7 @@ public void setName(String name) throws IllegalArgumentException {
 			}
 		}
 		this.name = name;
+		indexedPropertyChanged();
 		fireModelChangeEvent(new ModelChangeEvent(this, ChangeEvent.name, name));
 	}
 
@@ -932,11 +985,13 @@ public int getY() {
 	public void setX(int x) {
 		lastX = this.x;
 		this.x = x;
+		positionChanged();
 	}
 
 	public void setY(int y) {
 		lastY = this.y;
 		this.y = y;
+		positionChanged();
 	}
 
 	// Lee: added functions necessary for path computations
@@ -1064,6 +1119,7 @@ public void setVBL(Area vbl) {
 		this.vbl = vbl;
 		if (vbl == null)
 			vblAlphaSensitivity = -1;
+		indexedPropertyChanged();
 	}
 
 	public Area getVBL() {
@@ -1230,6 +1286,7 @@ public TokenFootprint getFootprint(Grid grid) {
 	}
 
 	public TokenFootprint setFootprint(Grid grid, TokenFootprint footprint) {
+		positionChanged();
 		return grid.getFootprint(getSizeMap().put(grid.getClass(), footprint.getId()));
 	}
 
@@ -1276,10 +1333,12 @@ public Object setState(String aState, Object aValue) {
 
 	public void resetProperty(String key) {
 		getPropertyMap().remove(key);
+		forgetParsedProperty(key);
 	}
 
 	public void setProperty(String key, Object value) {
 		getPropertyMap().put(key, value);
+		forgetParsedProperty(key);
 	}
 
 	public Object getProperty(String key) {
@@ -1315,7 +1374,7 @@ public Object getEvaluatedProperty(String key) {
 		}
 		// First we try convert it to a JSON object.
 		if (val.toString().trim().startsWith("[") || val.toString().trim().startsWith("{")) {
-			Object obj = JSONMacroFunctions.convertToJSON(val.toString());
+			Object obj = getParsedProperty(key, val);
 			if (obj != null) {
 				return obj;
 			}
@@ -1335,6 +1394,36 @@ public Object getEvaluatedProperty(String key) {
 		return val;
 	}
 
+	/**
+	 * Parses a JSON property value, or returns it as it was parsed the last time if the value is the same. The same JSON object or array is handed out each time; the JSON macro functions never
+	 * change the object they are given but make a new one, so it can be shared.
+	 * 
+	 * @return the JSON object or array, or <code>null</code> if the value isn't JSON
+	 */
+	private Object getParsedProperty(String key, Object val) {
+		// Only strings can be cached, anything else could be changed without setting the property again
+		if (!(val instanceof String)) {
+			return JSONMacroFunctions.convertToJSON(val.toString());
+		}
+		String lkey = key.toLowerCase();
+		if (parsedPropertyMap == null) {
+			parsedPropertyMap = new HashMap<String, ParsedProperty>();
+		}
+		ParsedProperty parsed = parsedPropertyMap.get(lkey);
+		// The same string, not just an equal one, as the property map can be replaced wholesale
+		if (parsed == null || parsed.value != val) {
+			parsed = new ParsedProperty((String) val, JSONMacroFunctions.convertToJSON((String) val));
+			parsedPropertyMap.put(lkey, parsed);
+		}
+		return parsed.json;
+	}
+
+	private void forgetParsedProperty(String key) {
+		if (parsedPropertyMap != null && key != null) {
+			parsedPropertyMap.remove(key.toLowerCase());
+		}
+	}
+
 	/**
 	 * Returns all property names, all in lowercase.
 	 * 
@@ -1462,7 +1551,7 @@ public boolean hasMacros(boolean secure) {
 	}
 
 	public void saveMacroButtonProperty(MacroButtonProperties prop) {
-		getMacroPropertiesMap(false).put(prop.getIndex(), prop);
+		putMacroButtonProperty(prop);
 		MapTool.getFrame().resetTokenPanels();
 		MapTool.serverCommand().putToken(MapTool.getFrame().getCurrentZoneRenderer().getZone().getId(), this);
 
@@ -1470,6 +1559,15 @@ public void saveMacroButtonProperty(MacroButtonProperties prop) {
 		fireModelChangeEvent(new ModelChangeEvent(this, ChangeEvent.MACRO_CHANGED, id));
 	}
 
+	/**
+	 * Puts the macro in the map without telling anyone. The macro may have been edited in place in ways that its hash code doesn't show, such as its tooltip, so the next token delta is made to carry
+	 * the macros anyway.
+	 */
+	void putMacroButtonProperty(MacroButtonProperties prop) {
+		getMacroPropertiesMap(false).put(prop.getIndex(), prop);
+		TokenDelta.fieldChanged(this, "macroPropertiesMap");
+	}
+
 	public void deleteMacroButtonProperty(MacroButtonProperties prop) {
 		getMacroPropertiesMap(false).remove(prop.getIndex());
 		MapTool.serverCommand().putToken(MapTool.getFrame().getCurrentZoneRenderer().getZone().getId(), this);
@@ -1861,7 +1959,10 @@ public GUID getExposedAreaGUID() {
 	 */
 	public Token clone() {
 		try {
-			return (Token) super.clone();
+			Token clone = (Token) super.clone();
+			// Changes to the clone must not be diffed against what was sent of the original
+			clone.syncSnapshot = null;
+			return clone;
 		} catch (CloneNotSupportedException e) {
 			return null;
 		}
@@ -1874,4 +1975,29 @@ public HeroLabData getHeroLabData() {
 	public void setHeroLabData(HeroLabData heroLabData) {
 		this.heroLabData = heroLabData;
 	}
+
+	int getSyncVersion() {
+		return syncVersion;
+	}
+
+	void setSyncVersion(int syncVersion) {
+		this.syncVersion = syncVersion;
+	}
+
+	TokenDelta.Snapshot getSyncSnapshot() {
+		return syncSnapshot;
+	}
+
+	void setSyncSnapshot(TokenDelta.Snapshot syncSnapshot) {
+		this.syncSnapshot = syncSnapshot;
+	}
+
+	/**
+	 * Drops the values worked out from fields that a {@link TokenDelta} has just replaced
+	 */
+	void clearCachedFields() {
+		actualLayer = null;
+		haloColor = null;
+		visionOverlayColor = null;
+	}
 }
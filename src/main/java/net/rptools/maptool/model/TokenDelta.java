@@ -0,0 +1,286 @@
+/*
+ * This software Copyright by the RPTools.net development team, and licensed under the Affero GPL Version 3 or, at your option, any later version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public License * along with this source Code. If not, please visit <http://www.gnu.org/licenses/> and specifically the Affero license text
+ * at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * The fields of a {@link Token} that changed between two versions of it, so that an edit to a large token doesn't send the whole token over the wire.
+ * <p>
+ * Every copy of a token remembers the version it is at and what its fields looked like at that version. A delta only applies to a copy that is at its base version; a copy that isn't has missed an
+ * update and asks for a {@link #RESYNC} delta, which carries every field and applies to any version.
+ * <p>
+ * Tokens are usually changed in place, so a field is taken to have changed when it no longer equals what it held, or when the hash code of its contents is different.
+ */
+public class TokenDelta {
+	private static final Logger log = LogManager.getLogger(TokenDelta.class);
+
+	/**
+	 * Base version of a delta that carries every field and replaces the token whatever version it is at
+	 */
+	public static final int RESYNC = -1;
+
+	private static Field[] syncedFields;
+	private static Map<String, Integer> fieldIndexMap;
+
+	private GUID tokenId;
+	private int baseVersion;
+	private int version;
+	private Map<String, Object> fieldMap;
+
+	public TokenDelta() {
+		// for serialization
+	}
+
+	private TokenDelta(GUID tokenId, int baseVersion, int version, Map<String, Object> fieldMap) {
+		this.tokenId = tokenId;
+		this.baseVersion = baseVersion;
+		this.version = version;
+		this.fieldMap = fieldMap;
+	}
+
+	/**
+	 * Collects the fields that have changed since the token was last sent or received and moves it on to the next version.
+	 *
+	 * @return the changes, or <code>null</code> if the token has never been sent or received and the whole token has to be sent instead
+	 */
+	public static TokenDelta create(Token token) {
+		Snapshot snapshot = token.getSyncSnapshot();
+		if (snapshot == null) {
+			return null;
+		}
+		Field[] fields = getSyncedFields();
+		Map<String, Object> changed = new HashMap<String, Object>();
+		for (int i = 0; i < fields.length; i++) {
+			Object value = getValue(fields[i], token);
+			if (snapshot.update(i, value)) {
+				changed.put(fields[i].getName(), value);
+			}
+		}
+		if (changed.isEmpty()) {
+			return new TokenDelta(token.getId(), token.getSyncVersion(), token.getSyncVersion(), changed);
+		}
+		TokenDelta delta = new TokenDelta(token.getId(), token.getSyncVersion(), token.getSyncVersion() + 1, changed);
+		token.setSyncVersion(delta.version);
+		return delta;
+	}
+
+	/**
+	 * @return every field of the token, to bring a copy that has missed an update up to date
+	 */
+	public static TokenDelta resync(Token token) {
+		Field[] fields = getSyncedFields();
+		Map<String, Object> all = new HashMap<String, Object>();
+		for (Field field : fields) {
+			all.put(field.getName(), getValue(field, token));
+		}
+		return new TokenDelta(token.getId(), RESYNC, token.getSyncVersion(), all);
+	}
+
+	/**
+	 * Starts the token over at the first version, for when the whole token is sent or received.
+	 */
+	public static void reset(Token token) {
+		token.setSyncVersion(0);
+		token.setSyncSnapshot(new Snapshot(token));
+	}
+
+	/**
+	 * @return the version the token is at
+	 */
+	public static int getTokenVersion(Token token) {
+		return token.getSyncVersion();
+	}
+
+	/**
+	 * Moves the token on to a version no copy of it has been at, so that deltas based on what it was before don't apply any more.
+	 */
+	public static void setTokenVersion(Token token, int version) {
+		token.setSyncVersion(version);
+	}
+
+	public GUID getTokenId() {
+		return tokenId;
+	}
+
+	public int getBaseVersion() {
+		return baseVersion;
+	}
+
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return <code>true</code> if there are no changes to send
+	 */
+	public boolean isEmpty() {
+		return fieldMap == null || fieldMap.isEmpty();
+	}
+
+	/**
+	 * @return <code>true</code> if the token is at the version this delta was made from
+	 */
+	public boolean appliesTo(Token token) {
+		return baseVersion == RESYNC || baseVersion == token.getSyncVersion();
+	}
+
+	/**
+	 * Copies the changed fields into the token and moves it to the version of this delta. The caller puts the token back into its zone afterwards.
+	 */
+	public void apply(Token token) {
+		Field[] fields = getSyncedFields();
+		Snapshot snapshot = token.getSyncSnapshot();
+		for (Map.Entry<String, Object> entry : fieldMap.entrySet()) {
+			Integer index = fieldIndexMap.get(entry.getKey());
+			if (index == null) {
+				// Sent by a build with different token fields
+				log.debug("Ignoring unknown token field " + entry.getKey());
+				continue;
+			}
+			Object value = toFieldType(fields[index].getType(), entry.getValue());
+			try {
+				fields[index].set(token, value);
+			} catch (IllegalAccessException | IllegalArgumentException e) {
+				log.error("Could not update token field " + entry.getKey(), e);
+				continue;
+			}
+			if (snapshot != null) {
+				snapshot.update(index, value);
+			}
+		}
+		token.clearCachedFields();
+		token.setSyncVersion(version);
+		if (snapshot == null) {
+			token.setSyncSnapshot(new Snapshot(token));
+		}
+	}
+
+	/**
+	 * Marks a field as changed, so that the next delta carries it even if it looks the same. For fields holding objects that can be edited in place in ways their hash code doesn't show.
+	 */
+	static void fieldChanged(Token token, String fieldName) {
+		Snapshot snapshot = token.getSyncSnapshot();
+		if (snapshot != null) {
+			getSyncedFields();
+			snapshot.invalidate(fieldIndexMap.get(fieldName));
+		}
+	}
+
+	/**
+	 * Hessian doesn't keep the type of numbers, a float comes back as a Double and a short as an Integer. Turns them back into the type of the field.
+	 */
+	static Object toFieldType(Class<?> type, Object value) {
+		if (!(value instanceof Number)) {
+			return value;
+		}
+		Number number = (Number) value;
+		if (type == float.class || type == Float.class) {
+			return number.floatValue();
+		} else if (type == double.class || type == Double.class) {
+			return number.doubleValue();
+		} else if (type == int.class || type == Integer.class) {
+			return number.intValue();
+		} else if (type == long.class || type == Long.class) {
+			return number.longValue();
+		} else if (type == short.class || type == Short.class) {
+			return number.shortValue();
+		} else if (type == byte.class || type == Byte.class) {
+			return number.byteValue();
+		}
+		return value;
+	}
+
+	private static Object getValue(Field field, Token token) {
+		try {
+			return field.get(token);
+		} catch (IllegalAccessException e) {
+			// Can't happen, the fields have been made accessible
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return the fields that make up the state of a token, that is all of them except the id and the transient ones, in a fixed order
+	 */
+	private static synchronized Field[] getSyncedFields() {
+		if (syncedFields == null) {
+			List<Field> fields = new ArrayList<Field>();
+			for (Field field : Token.class.getDeclaredFields()) {
+				int modifiers = field.getModifiers();
+				if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.getName().equals("id")) {
+					continue;
+				}
+				field.setAccessible(true);
+				fields.add(field);
+			}
+			Collections.sort(fields, new Comparator<Field>() {
+				public int compare(Field f1, Field f2) {
+					return f1.getName().compareTo(f2.getName());
+				}
+			});
+			Map<String, Integer> indexMap = new HashMap<String, Integer>();
+			for (int i = 0; i < fields.size(); i++) {
+				indexMap.put(fields.get(i).getName(), i);
+			}
+			fieldIndexMap = indexMap;
+			syncedFields = fields.toArray(new Field[fields.size()]);
+		}
+		return syncedFields;
+	}
+
+	/**
+	 * What the fields of a token held at the version it is at: the objects themselves, to notice a field being replaced, and the hash codes of their contents, to notice a map or list being changed in
+	 * place.
+	 */
+	static class Snapshot {
+		// Equal to nothing, for a field that has to be sent whatever it holds
+		private static final Object CHANGED = new Object();
+
+		private final Object[] values;
+		private final int[] hashCodes;
+
+		Snapshot(Token token) {
+			Field[] fields = getSyncedFields();
+			values = new Object[fields.length];
+			hashCodes = new int[fields.length];
+			for (int i = 0; i < fields.length; i++) {
+				update(i, getValue(fields[i], token));
+			}
+		}
+
+		/**
+		 * @return <code>true</code> if the value is different from the one recorded for the field
+		 */
+		boolean update(int index, Object value) {
+			int hashCode = value != null ? value.hashCode() : 0;
+			if (Objects.equals(values[index], value) && hashCodes[index] == hashCode) {
+				return false;
+			}
+			values[index] = value;
+			hashCodes[index] = hashCode;
+			return true;
+		}
+
+		void invalidate(int index) {
+			values[index] = CHANGED;
+		}
+	}
+}
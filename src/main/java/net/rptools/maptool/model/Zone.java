@@ -46,7 +46,6 @@
 import net.rptools.maptool.model.drawing.DrawablesGroup;
 import net.rptools.maptool.model.drawing.DrawnElement;
 import net.rptools.maptool.model.drawing.Pen;
-import net.rptools.maptool.util.StringUtil;
 
 /**
  * This object represents the maps that will appear for placement of {@link Token}s.
@@ -165,6 +164,9 @@ public enum TokenSelection {
 	private int width;
 
 	private transient HashMap<String, Integer> tokenNumberCache;
+	// Built on demand; guarded by this zone, as are the token map and list while they are indexed
+	private transient ZoneTokenIndex tokenIndex;
+	private transient ZoneCellIndex cellIndex;
 
 	/**
 	 * Note: When adding new fields to this class, make sure to update all constructors, {@link #imported()}, {@link #readResolve()}, and potentially {@link #optimize()}.
@@ -263,6 +265,19 @@ public DrawablePaint getFogPaint() {
 	 * manually copy it as is done below for various items.
 	 */
 	public Zone(Zone zone) {
+		this(zone, false);
+	}
+
+	/**
+	 * Same as {@link #Zone(Zone)}, except that the copy can keep the ids of the zone and its tokens when it stands for the zone itself rather than for a new map, as in an autosave.
+	 * 
+	 * @param keepIds
+	 *            <code>true</code> to keep the ids, <code>false</code> to give the copy and its tokens new ones
+	 */
+	public Zone(Zone zone, boolean keepIds) {
+		if (keepIds) {
+			id = zone.id;
+		}
 		backgroundPaint = zone.backgroundPaint;
 		mapAsset = zone.mapAsset;
 		fogPaint = zone.fogPaint;
@@ -327,8 +342,11 @@ public Zone(Zone zone) {
 			while (i.hasNext()) {
 				Token old = zone.tokenMap.get(i.next());
 				Token token = new Token(old);
+				if (keepIds) {
+					token.setId(old.getId());
+				}
 				if (old.getExposedAreaGUID() != null) {
-					GUID guid = new GUID();
+					GUID guid = keepIds ? old.getExposedAreaGUID() : new GUID();
 					token.setExposedAreaGUID(guid);
 					// Update the TEA on the new map, since we have the Token object available...
 					ExposedAreaMetaData eamd = zone.getExposedAreaMetaData(old.getExposedAreaGUID());
@@ -645,12 +663,12 @@ public void clearTopology() {
 
 	public void addTopology(Area area) {
 		topology.add(area);
-		fireModelChangeEvent(new ModelChangeEvent(this, Event.TOPOLOGY_CHANGED));
+		fireModelChangeEvent(new ModelChangeEvent(this, Event.TOPOLOGY_CHANGED, area));
 	}
 
 	public void removeTopology(Area area) {
 		topology.subtract(area);
-		fireModelChangeEvent(new ModelChangeEvent(this, Event.TOPOLOGY_CHANGED));
+		fireModelChangeEvent(new ModelChangeEvent(this, Event.TOPOLOGY_CHANGED, area));
 	}
 
 	public void tokenTopologyChanged() {
@@ -1084,15 +1102,25 @@ public void redoDrawable() {
 	 *            the Token to be added to this zone
 	 */
 	public void putToken(Token token) {
-		boolean newToken = !tokenMap.containsKey(token.getId());
+		boolean newToken;
+		synchronized (this) {
+			newToken = !tokenMap.containsKey(token.getId());
 
-		tokenMap.put(token.getId(), token);
+			tokenMap.put(token.getId(), token);
 
-		// LATER: optimize this
-		tokenOrderedList.remove(token);
-		tokenOrderedList.add(token);
-		Collections.sort(tokenOrderedList, getZOrderComparator());
+			// LATER: optimize this
+			tokenOrderedList.remove(token);
+			tokenOrderedList.add(token);
+			Collections.sort(tokenOrderedList, getZOrderComparator());
 
+			token.setZone(this);
+			if (tokenIndex != null) {
+				tokenIndex.add(token);
+			}
+			if (cellIndex != null) {
+				cellIndex.add(token);
+			}
+		}
 		if (newToken) {
 			fireModelChangeEvent(new ModelChangeEvent(this, Event.TOKEN_ADDED, token));
 		} else {
@@ -1121,12 +1149,26 @@ public void putTokens(List<Token> tokens) {
 		List<Token> changedTokens = new LinkedList<Token>(tokens);
 		changedTokens.retainAll(values);
 
-		for (Token t : tokens) {
-			tokenMap.put(t.getId(), t);
+		synchronized (this) {
+			for (Token t : tokens) {
+				tokenMap.put(t.getId(), t);
+				t.setZone(this);
+			}
+			tokenOrderedList.removeAll(tokens);
+			tokenOrderedList.addAll(tokens);
+			Collections.sort(tokenOrderedList, getZOrderComparator());
+
+			if (tokenIndex != null) {
+				for (Token t : tokens) {
+					tokenIndex.add(t);
+				}
+			}
+			if (cellIndex != null) {
+				for (Token t : tokens) {
+					cellIndex.add(t);
+				}
+			}
 		}
-		tokenOrderedList.removeAll(tokens);
-		tokenOrderedList.addAll(tokens);
-		Collections.sort(tokenOrderedList, getZOrderComparator());
 
 		if (!addedTokens.isEmpty())
 			fireModelChangeEvent(new ModelChangeEvent(this, Event.TOKEN_ADDED, addedTokens));
@@ -1135,9 +1177,23 @@ public void putTokens(List<Token> tokens) {
 	}
 
 	public void removeToken(GUID id) {
-		Token token = tokenMap.remove(id);
+		Token token;
+		synchronized (this) {
+			token = tokenMap.remove(id);
+			if (token != null) {
+				tokenOrderedList.remove(token);
+				if (token.getZone() == this) {
+					token.setZone(null);
+				}
+				if (tokenIndex != null) {
+					tokenIndex.remove(id);
+				}
+				if (cellIndex != null) {
+					cellIndex.remove(id);
+				}
+			}
+		}
 		if (token != null) {
-			tokenOrderedList.remove(token);
 			fireModelChangeEvent(new ModelChangeEvent(this, Event.TOKEN_REMOVED, token));
 		}
 	}
@@ -1149,16 +1205,8 @@ public Token getToken(GUID id) {
 	/**
 	 * Returns the first token with a given name. The name is matched case-insensitively.
 	 */
-	public Token getTokenByName(String name) {
-		for (Token token : getAllTokens()) {
-			if (StringUtil.isEmpty(token.getName())) {
-				continue;
-			}
-			if (token.getName().equalsIgnoreCase(name)) {
-				return token;
-			}
-		}
-		return null;
+	public synchronized Token getTokenByName(String name) {
+		return getTokenIndex().getTokenByName(name);
 	}
 
 	/**
@@ -1186,16 +1234,79 @@ public Token resolveToken(String identifier) {
 	/**
 	 * Returns the first token with a given GM name. The name is matched case-insensitively.
 	 */
-	public Token getTokenByGMName(String name) {
-		for (Token token : getAllTokens()) {
-			if (StringUtil.isEmpty(token.getGMName())) {
-				continue;
+	public synchronized Token getTokenByGMName(String name) {
+		return getTokenIndex().getTokenByGMName(name);
+	}
+
+	/**
+	 * Returns the tokens whose occupied cells come within the given number of cells of those of a token along both axes. Every token that is that close by any movement metric of the grid is
+	 * returned, along with some that are further away by the metric, so the caller still has to measure the distance to each.
+	 *
+	 * @param token
+	 *            the token to look around, it is not returned itself
+	 * @param cells
+	 *            how many cells away to look
+	 */
+	public synchronized Set<Token> getTokensNear(Token token, int cells) {
+		return getCellIndex().getTokensNear(token, cells);
+	}
+
+	/**
+	 * Returns the tokens whose footprint occupies any of the cells.
+	 */
+	public synchronized Set<Token> getTokensOnCells(Collection<CellPoint> cells) {
+		return getCellIndex().getTokensOnCells(cells);
+	}
+
+	/**
+	 * Returns the index of where tokens are on the grid, (re)building it if this zone was just created or loaded or the grid has changed.
+	 */
+	private ZoneCellIndex getCellIndex() {
+		if (cellIndex == null || !cellIndex.isCurrent()) {
+			for (Token token : tokenOrderedList) {
+				token.setZone(this);
 			}
-			if (token.getGMName().equalsIgnoreCase(name)) {
-				return token;
+			cellIndex = new ZoneCellIndex(this, tokenOrderedList);
+		}
+		return cellIndex;
+	}
+
+	/**
+	 * Returns the token indexes, building them if this zone was just created or loaded. Callers must hold the lock on this zone.
+	 */
+	private ZoneTokenIndex getTokenIndex() {
+		if (tokenIndex == null) {
+			for (Token token : tokenOrderedList) {
+				token.setZone(this);
 			}
+			tokenIndex = new ZoneTokenIndex(this, tokenOrderedList);
+		}
+		return tokenIndex;
+	}
+
+	/**
+	 * Called by a token of this zone that has changed its name, GM name, layer, VBL or sight, which it may do before it is put back into the zone (if it ever is), to index it again.
+	 */
+	synchronized void tokenIndexedPropertyChanged(Token token) {
+		if (tokenIndex != null && tokenMap.get(token.getId()) == token) {
+			tokenIndex.add(token);
+		}
+	}
+
+	/**
+	 * Called by a token of this zone that has moved or changed its footprint, which it may do before it is put back into the zone, so that the cell index checks where it is.
+	 */
+	synchronized void tokenMoved(Token token) {
+		if (cellIndex != null && tokenMap.get(token.getId()) == token) {
+			cellIndex.tokenMoved(token);
 		}
-		return null;
+	}
+
+	/**
+	 * @return the tokens with sight in z-order; the list must not be modified
+	 */
+	private synchronized List<Token> getIndexedTokensWithSight() {
+		return getTokenIndex().getTokensWithSight();
 	}
 
 	public List<DrawnElement> getAllDrawnElements() {
@@ -1270,9 +1381,13 @@ public Set<MD5Key> getAllAssetIds() {
 	}
 
 	public List<Token> getTokensFiltered(Filter filter) {
-		ArrayList<Token> copy = new ArrayList<Token>(getTokenCount());
+		return filterTokens(tokenOrderedList, filter);
+	}
 
-		for (Token token : tokenOrderedList) {
+	private static List<Token> filterTokens(List<Token> tokens, Filter filter) {
+		ArrayList<Token> copy = new ArrayList<Token>(tokens.size());
+
+		for (Token token : tokens) {
 			if (filter.matchToken(token)) {
 				copy.add(token);
 			}
@@ -1280,6 +1395,25 @@ public List<Token> getTokensFiltered(Filter filter) {
 		return Collections.unmodifiableList(copy);
 	}
 
+	/**
+	 * Returns the tokens on a layer in z-order, optionally leaving out the ones that are always visible.
+	 */
+	private List<Token> getTokensOnLayer(Layer layer, boolean getAlwaysVisible) {
+		List<Token> tokens;
+		synchronized (this) {
+			tokens = getTokenIndex().getTokensOnLayer(layer);
+		}
+		if (getAlwaysVisible) {
+			return tokens;
+		}
+		return filterTokens(tokens, new Filter() {
+			@Override
+			public boolean matchToken(Token t) {
+				return !t.isAlwaysVisible();
+			}
+		});
+	}
+
 	public List<Token> removeTokens(List<Token> tokensToKeep, List<Token> tokensToRemove) {
 		ArrayList<Token> originalList = new ArrayList<Token>(tokensToKeep);
 		originalList.removeAll(tokensToRemove);
@@ -1296,15 +1430,7 @@ public List<Token> getTokens() {
 	}
 
 	public List<Token> getTokens(boolean getAlwaysVisible) {
-		return getTokensFiltered(new Filter() {
-			@Override
-			public boolean matchToken(Token t) {
-				if (getAlwaysVisible)
-					return !t.isStamp();
-				else
-					return !t.isStamp() && !t.isAlwaysVisible();
-			}
-		});
+		return getTokensOnLayer(Layer.TOKEN, getAlwaysVisible);
 	}
 
 	public List<Token> getGMStamps() {
@@ -1312,15 +1438,7 @@ public List<Token> getGMStamps() {
 	}
 
 	public List<Token> getGMStamps(boolean getAlwaysVisible) {
-		return getTokensFiltered(new Filter() {
-			@Override
-			public boolean matchToken(Token t) {
-				if (getAlwaysVisible)
-					return t.isGMStamp();
-				else
-					return t.isGMStamp() && !t.isAlwaysVisible();
-			}
-		});
+		return getTokensOnLayer(Layer.GM, getAlwaysVisible);
 	}
 
 	public List<Token> getStampTokens() {
@@ -1328,15 +1446,7 @@ public List<Token> getStampTokens() {
 	}
 
 	public List<Token> getStampTokens(boolean getAlwaysVisible) {
-		return getTokensFiltered(new Filter() {
-			@Override
-			public boolean matchToken(Token t) {
-				if (getAlwaysVisible)
-					return t.isObjectStamp();
-				else
-					return t.isObjectStamp() && !t.isAlwaysVisible();
-			}
-		});
+		return getTokensOnLayer(Layer.OBJECT, getAlwaysVisible);
 	}
 
 	public List<Token> getBackgroundStamps() {
@@ -1344,15 +1454,7 @@ public List<Token> getBackgroundStamps() {
 	}
 
 	public List<Token> getBackgroundStamps(boolean getAlwaysVisible) {
-		return getTokensFiltered(new Filter() {
-			@Override
-			public boolean matchToken(Token t) {
-				if (getAlwaysVisible)
-					return t.isBackgroundStamp();
-				else
-					return t.isBackgroundStamp() && !t.isAlwaysVisible();
-			}
-		});
+		return getTokensOnLayer(Layer.BACKGROUND, getAlwaysVisible);
 	}
 
 	public List<Token> getPlayerTokens() {
@@ -1382,13 +1484,8 @@ public boolean matchToken(Token t) {
 		});
 	}
 
-	public List<Token> getTokensWithVBL() {
-		return getTokensFiltered(new Filter() {
-			@Override
-			public boolean matchToken(Token t) {
-				return t.hasVBL();
-			}
-		});
+	public synchronized List<Token> getTokensWithVBL() {
+		return getTokenIndex().getTokensWithVBL();
 	}
 
 	/**
@@ -1403,7 +1500,7 @@ public boolean matchToken(Token t) {
 	 * @return
 	 */
 	public List<Token> getOwnedTokensWithSight(Player p) {
-		return getTokensFiltered(new Filter() {
+		return filterTokens(getIndexedTokensWithSight(), new Filter() {
 			public boolean matchToken(Token t) {
 				// System.out.println("isOwnedByAll(): " + t.getName() + ":" + t.isOwnedByAll());
 				// System.out.println("AppUtil.playerOwns(t): " + t.getName() + ":" + AppUtil.playerOwns(t));
@@ -1432,7 +1529,7 @@ public boolean matchToken(Token t) {
 
 	// Jamz: For FogUtil.exposePCArea to skip sight test.
 	public List<Token> getPlayerTokensWithSight() {
-		return getTokensFiltered(new Filter() {
+		return filterTokens(getIndexedTokensWithSight(), new Filter() {
 			public boolean matchToken(Token t) {
 				return t.getType() == Token.Type.PC && t.getHasSight();
 			}
@@ -1442,7 +1539,7 @@ public boolean matchToken(Token t) {
 	// Jamz: Get a list of all tokens with sight that are either PC tokens or NPC Tokens "Owned by All",
 	// or "Owned" by the current player; in theory, NPC tokens the Player control.
 	public List<Token> getTokensOwnedByAllWithSight() {
-		return getTokensFiltered(new Filter() {
+		return filterTokens(getIndexedTokensWithSight(), new Filter() {
 			// String playerId = MapTool.getPlayer().getName();
 			public boolean matchToken(Token t) {
 				return (t.getHasSight()
@@ -1454,7 +1551,7 @@ public boolean matchToken(Token t) {
 	// Jamz: Get a list of all tokens with sight that are either PC tokens or NPC Tokens "Owned by All",
 	// or "Owned" by the current player; in theory, NPC tokens the Player control.
 	public List<Token> getTokensOwnedByAllWithSight(Player p) {
-		return getTokensFiltered(new Filter() {
+		return filterTokens(getIndexedTokensWithSight(), new Filter() {
 			String playerId = MapTool.getPlayer().getName();
 
 			public boolean matchToken(Token t) {
@@ -1464,7 +1561,7 @@ public boolean matchToken(Token t) {
 	}
 
 	public List<Token> getPlayerOwnedTokensWithSight(Player p) {
-		return getTokensFiltered(new Filter() {
+		return filterTokens(getIndexedTokensWithSight(), new Filter() {
 			@Override
 			public boolean matchToken(Token t) {
 				return t.getType() == Token.Type.PC && t.getHasSight() && AppUtil.playerOwns(t);
@@ -0,0 +1,218 @@
+/*
+ * This software Copyright by the RPTools.net development team, and licensed under the Affero GPL Version 3 or, at your option, any later version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public License * along with this source Code. If not, please visit <http://www.gnu.org/licenses/> and specifically the Affero license text
+ * at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Where the tokens of a {@link Zone} are on its grid: the tokens occupying each cell, and a uniform grid of buckets of {@link #BUCKET_SIZE} cells a side, so that the tokens near a cell can be found
+ * without looking at every token of the zone.
+ * <p>
+ * The zone updates the index as tokens are put and removed. A token can be moved before it is put back, so each token also tells its zone when it moves, and the index looks at where the tokens
+ * that moved are before it next answers. It is thrown away when the grid changes, and is guarded by the lock on the zone.
+ */
+class ZoneCellIndex {
+	private static final int BUCKET_SIZE = 8;
+
+	private final Zone zone;
+	private final Grid grid;
+	private final int gridSize;
+	private final int gridOffsetX;
+	private final int gridOffsetY;
+
+	private final Map<GUID, Entry> entries = new HashMap<GUID, Entry>();
+	private final Map<CellPoint, List<Token>> byCell = new HashMap<CellPoint, List<Token>>();
+	private final Map<Long, List<Token>> byBucket = new HashMap<Long, List<Token>>();
+	// Tokens that have moved or changed their footprint since they were indexed
+	private final Set<Token> moved = new HashSet<Token>();
+
+	ZoneCellIndex(Zone zone, List<Token> tokens) {
+		this.zone = zone;
+		this.grid = zone.getGrid();
+		this.gridSize = grid.getSize();
+		this.gridOffsetX = grid.getOffsetX();
+		this.gridOffsetY = grid.getOffsetY();
+		for (Token token : tokens) {
+			add(token);
+		}
+	}
+
+	/**
+	 * @return <code>false</code> if the grid has been replaced, resized or moved since the index was built
+	 */
+	boolean isCurrent() {
+		return grid == zone.getGrid() && gridSize == grid.getSize() && gridOffsetX == grid.getOffsetX() && gridOffsetY == grid.getOffsetY();
+	}
+
+	void add(Token token) {
+		remove(token.getId());
+
+		Entry entry = new Entry(token, grid);
+		entries.put(token.getId(), entry);
+		for (CellPoint cell : entry.cells) {
+			addTo(byCell, cell, token);
+		}
+		for (int bx = bucket(entry.minX); bx <= bucket(entry.maxX); bx++) {
+			for (int by = bucket(entry.minY); by <= bucket(entry.maxY); by++) {
+				addTo(byBucket, key(bx, by), token);
+			}
+		}
+	}
+
+	void remove(GUID id) {
+		Entry entry = entries.remove(id);
+		if (entry == null) {
+			return;
+		}
+		moved.remove(entry.token);
+		for (CellPoint cell : entry.cells) {
+			removeFrom(byCell, cell, entry.token);
+		}
+		for (int bx = bucket(entry.minX); bx <= bucket(entry.maxX); bx++) {
+			for (int by = bucket(entry.minY); by <= bucket(entry.maxY); by++) {
+				removeFrom(byBucket, key(bx, by), entry.token);
+			}
+		}
+	}
+
+	void tokenMoved(Token token) {
+		moved.add(token);
+	}
+
+	/**
+	 * @return the tokens whose cells are no more than the given number of cells from the cells of the token along either axis, not including the token itself
+	 */
+	Set<Token> getTokensNear(Token token, int cells) {
+		checkPositions();
+		Entry center = new Entry(token, grid);
+		int minX = center.minX - cells;
+		int minY = center.minY - cells;
+		int maxX = center.maxX + cells;
+		int maxY = center.maxY + cells;
+
+		Set<Token> result = new HashSet<Token>();
+		for (int bx = bucket(minX); bx <= bucket(maxX); bx++) {
+			for (int by = bucket(minY); by <= bucket(maxY); by++) {
+				List<Token> list = byBucket.get(key(bx, by));
+				if (list == null) {
+					continue;
+				}
+				for (Token candidate : list) {
+					Entry entry = entries.get(candidate.getId());
+					if (entry.maxX >= minX && entry.minX <= maxX && entry.maxY >= minY && entry.minY <= maxY) {
+						result.add(candidate);
+					}
+				}
+			}
+		}
+		result.remove(token);
+		return result;
+	}
+
+	/**
+	 * @return the tokens occupying any of the cells
+	 */
+	Set<Token> getTokensOnCells(Collection<CellPoint> cells) {
+		checkPositions();
+		Set<Token> result = new HashSet<Token>();
+		for (CellPoint cell : cells) {
+			List<Token> list = byCell.get(cell);
+			if (list != null) {
+				result.addAll(list);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Re-indexes the tokens that have moved or changed size without being put back into the zone.
+	 */
+	private void checkPositions() {
+		if (moved.isEmpty()) {
+			return;
+		}
+		for (Token token : new ArrayList<Token>(moved)) {
+			Entry entry = entries.get(token.getId());
+			if (entry != null && entry.token == token && (token.getX() != entry.x || token.getY() != entry.y || token.getFootprint(grid) != entry.footprint)) {
+				add(token);
+			}
+		}
+		moved.clear();
+	}
+
+	private static int bucket(int cell) {
+		return Math.floorDiv(cell, BUCKET_SIZE);
+	}
+
+	private static long key(int x, int y) {
+		return ((long) x << 32) | (y & 0xFFFFFFFFL);
+	}
+
+	private static <K> void addTo(Map<K, List<Token>> map, K key, Token token) {
+		List<Token> list = map.get(key);
+		if (list == null) {
+			list = new ArrayList<Token>(1);
+			map.put(key, list);
+		}
+		list.add(token);
+	}
+
+	private static <K> void removeFrom(Map<K, List<Token>> map, K key, Token token) {
+		List<Token> list = map.get(key);
+		if (list != null) {
+			list.remove(token);
+			if (list.isEmpty()) {
+				map.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * Where a token was indexed, so it can be taken out again after it has moved.
+	 */
+	private static class Entry {
+		final Token token;
+		final int x;
+		final int y;
+		final TokenFootprint footprint;
+		final Set<CellPoint> cells;
+		final int minX;
+		final int minY;
+		final int maxX;
+		final int maxY;
+
+		Entry(Token token, Grid grid) {
+			this.token = token;
+			x = token.getX();
+			y = token.getY();
+			footprint = token.getFootprint(grid);
+			cells = footprint.getOccupiedCells(grid.convert(new ZonePoint(x, y)));
+			int left = Integer.MAX_VALUE;
+			int top = Integer.MAX_VALUE;
+			int right = Integer.MIN_VALUE;
+			int bottom = Integer.MIN_VALUE;
+			for (CellPoint cell : cells) {
+				left = Math.min(left, cell.x);
+				top = Math.min(top, cell.y);
+				right = Math.max(right, cell.x);
+				bottom = Math.max(bottom, cell.y);
+			}
+			minX = left;
+			minY = top;
+			maxX = right;
+			maxY = bottom;
+		}
+	}
+}
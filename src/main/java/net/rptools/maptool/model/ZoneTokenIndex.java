@@ -0,0 +1,201 @@
+/*
+ * This software Copyright by the RPTools.net development team, and licensed under the Affero GPL Version 3 or, at your option, any later version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public License * along with this source Code. If not, please visit <http://www.gnu.org/licenses/> and specifically the Affero license text
+ * at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.rptools.maptool.util.StringUtil;
+
+/**
+ * Secondary indexes over the tokens of a {@link Zone}: case-insensitive name and GM name maps, the tokens on each layer, and the tokens that have VBL or sight.
+ * <p>
+ * The zone updates the index as tokens are put and removed. Tokens are usually changed in place before being put back, but a macro may rename a token and look it up again before that happens, so
+ * each token also tells its zone when it changes one of the indexed properties and is indexed again then. The index is guarded by the lock on the zone.
+ */
+class ZoneTokenIndex {
+	private static final Object VBL_KEY = new Object();
+	private static final Object SIGHT_KEY = new Object();
+
+	private final Zone zone;
+
+	private final Map<GUID, Entry> entries = new HashMap<GUID, Entry>();
+	private final Map<String, List<Token>> byName = new HashMap<String, List<Token>>();
+	private final Map<String, List<Token>> byGMName = new HashMap<String, List<Token>>();
+	private final Map<Zone.Layer, Set<Token>> byLayer = new EnumMap<Zone.Layer, Set<Token>>(Zone.Layer.class);
+	private final Set<Token> withVBL = new HashSet<Token>();
+	private final Set<Token> withSight = new HashSet<Token>();
+
+	// Layer or VBL_KEY/SIGHT_KEY -> tokens in z-order, built on demand and dropped on every change
+	private final Map<Object, List<Token>> sortedCache = new HashMap<Object, List<Token>>();
+
+	ZoneTokenIndex(Zone zone, List<Token> tokens) {
+		this.zone = zone;
+		for (Zone.Layer layer : Zone.Layer.values()) {
+			byLayer.put(layer, new HashSet<Token>());
+		}
+		for (Token token : tokens) {
+			add(token);
+		}
+	}
+
+	void add(Token token) {
+		remove(token.getId());
+
+		Entry entry = new Entry(token);
+		entries.put(token.getId(), entry);
+		addTo(byName, entry.nameKey, token);
+		addTo(byGMName, entry.gmNameKey, token);
+		byLayer.get(entry.layer).add(token);
+		if (entry.hasVBL) {
+			withVBL.add(token);
+		}
+		if (entry.hasSight) {
+			withSight.add(token);
+		}
+		sortedCache.clear();
+	}
+
+	void remove(GUID id) {
+		Entry entry = entries.remove(id);
+		if (entry == null) {
+			return;
+		}
+		removeFrom(byName, entry.nameKey, entry.token);
+		removeFrom(byGMName, entry.gmNameKey, entry.token);
+		byLayer.get(entry.layer).remove(entry.token);
+		withVBL.remove(entry.token);
+		withSight.remove(entry.token);
+		sortedCache.clear();
+	}
+
+	/**
+	 * @return the first token in z-order whose name matches, ignoring case
+	 */
+	Token getTokenByName(String name) {
+		return first(byName, name);
+	}
+
+	/**
+	 * @return the first token in z-order whose GM name matches, ignoring case
+	 */
+	Token getTokenByGMName(String name) {
+		return first(byGMName, name);
+	}
+
+	/**
+	 * @return the tokens on the layer in z-order; the list must not be modified
+	 */
+	List<Token> getTokensOnLayer(Zone.Layer layer) {
+		return sorted(layer, byLayer.get(layer));
+	}
+
+	/**
+	 * @return the tokens that have VBL in z-order; the list must not be modified
+	 */
+	List<Token> getTokensWithVBL() {
+		return sorted(VBL_KEY, withVBL);
+	}
+
+	/**
+	 * @return the tokens that have sight in z-order; the list must not be modified
+	 */
+	List<Token> getTokensWithSight() {
+		return sorted(SIGHT_KEY, withSight);
+	}
+
+	private Token first(Map<String, List<Token>> map, String name) {
+		if (name == null) {
+			return null;
+		}
+		List<Token> candidates = map.get(nameKey(name));
+		if (candidates == null) {
+			return null;
+		}
+		if (candidates.size() == 1) {
+			return candidates.get(0);
+		}
+		return Collections.min(candidates, zone.getZOrderComparator());
+	}
+
+	private List<Token> sorted(Object key, Set<Token> tokens) {
+		List<Token> list = sortedCache.get(key);
+		if (list == null) {
+			list = new ArrayList<Token>(tokens);
+			Collections.sort(list, zone.getZOrderComparator());
+			list = Collections.unmodifiableList(list);
+			sortedCache.put(key, list);
+		}
+		return list;
+	}
+
+	private static void addTo(Map<String, List<Token>> map, String key, Token token) {
+		if (key == null) {
+			return;
+		}
+		List<Token> list = map.get(key);
+		if (list == null) {
+			list = new ArrayList<Token>(1);
+			map.put(key, list);
+		}
+		list.add(token);
+	}
+
+	private static void removeFrom(Map<String, List<Token>> map, String key, Token token) {
+		if (key == null) {
+			return;
+		}
+		List<Token> list = map.get(key);
+		if (list != null) {
+			list.remove(token);
+			if (list.isEmpty()) {
+				map.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * Folds the case of each character the same way {@link String#equalsIgnoreCase(String)} compares them, so two names have the same key exactly when they are equal ignoring case.
+	 */
+	private static String nameKey(String name) {
+		char[] chars = name.toCharArray();
+		for (int i = 0; i < chars.length; i++) {
+			chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * What a token was indexed under, so it can be taken out again after it has changed.
+	 */
+	private static class Entry {
+		final Token token;
+		final String nameKey;
+		final String gmNameKey;
+		final Zone.Layer layer;
+		final boolean hasVBL;
+		final boolean hasSight;
+
+		Entry(Token token) {
+			this.token = token;
+			nameKey = StringUtil.isEmpty(token.getName()) ? null : nameKey(token.getName());
+			gmNameKey = StringUtil.isEmpty(token.getGMName()) ? null : nameKey(token.getGMName());
+			layer = token.getLayer();
+			hasVBL = token.hasVBL();
+			hasSight = token.getHasSight();
+		}
+	}
+
+}
@@ -0,0 +1,277 @@
+/*
+ * This software Copyright by the RPTools.net development team, and licensed under the Affero GPL Version 3 or, at your option, any later version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public License * along with this source Code. If not, please visit <http://www.gnu.org/licenses/> and specifically the Affero license text
+ * at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import net.rptools.maptool.client.ClientCommand;
+import net.rptools.maptool.common.MapToolConstants;
+import net.rptools.maptool.model.GUID;
+import net.rptools.maptool.model.Zone;
+import net.rptools.maptool.transfer.AssetChunk;
+import net.rptools.maptool.transfer.AssetProducer;
+import net.rptools.maptool.transfer.AssetTransferManager;
+
+/**
+ * Streams asset chunks to the connected clients.
+ * <p>
+ * Every connection has its own queue of producers and may only have a few chunks on the wire at a time; the client acknowledges each chunk as it is applied, which frees the slot for the next one.
+ * The time between acknowledgements gives the throughput of the connection, and the chunk size follows it so that a chunk takes about {@link #TARGET_CHUNK_MILLIS} to arrive: slow connections get
+ * small chunks and stay responsive to other traffic, fast ones get large chunks and few messages. Assets used by the zone the client is looking at are sent before any others.
+ * <p>
+ * The thread only wakes up when there is something to do: a new producer, an acknowledgement, a zone change or a disconnect.
+ */
+class AssetStreamScheduler extends Thread {
+	private static final Logger log = LogManager.getLogger(AssetStreamScheduler.class);
+
+	private static final int MIN_CHUNK_SIZE = 5 * 1024;
+	private static final int MAX_CHUNK_SIZE = 256 * 1024;
+	private static final int INITIAL_CHUNK_SIZE = 16 * 1024;
+	private static final int TARGET_CHUNK_MILLIS = 100;
+	private static final int MAX_CHUNKS_IN_FLIGHT = 3;
+
+	// A client that stops acknowledging (e.g. an older build) shouldn't stall its queue forever
+	private static final long ACK_TIMEOUT = 30 * 1000;
+
+	private final MapToolServer server;
+	private final Map<String, ClientStream> streamMap = new HashMap<String, ClientStream>();
+	private boolean stop = false;
+
+	AssetStreamScheduler(MapToolServer server) {
+		super("AssetStreamScheduler");
+		setDaemon(true);
+		this.server = server;
+	}
+
+	synchronized void addClient(String connectionId) {
+		streamMap.put(connectionId, new ClientStream());
+	}
+
+	synchronized void removeClient(String connectionId) {
+		ClientStream stream = streamMap.remove(connectionId);
+		if (stream != null) {
+			// Closes the files of the assets that were still being sent
+			stream.manager.flush();
+		}
+		notifyAll();
+	}
+
+	synchronized void addProducer(String connectionId, AssetProducer producer) {
+		ClientStream stream = streamMap.get(connectionId);
+		if (stream == null) {
+			return;
+		}
+		stream.manager.addProducer(producer);
+		stream.producersAdded++;
+		stream.empty = false;
+		stream.priorityStale = true;
+		notifyAll();
+	}
+
+	/**
+	 * Sends the assets of this zone to the client first from now on.
+	 */
+	synchronized void setCurrentZone(String connectionId, GUID zoneGUID) {
+		ClientStream stream = streamMap.get(connectionId);
+		if (stream == null) {
+			return;
+		}
+		stream.zoneGUID = zoneGUID;
+		stream.priorityStale = true;
+		notifyAll();
+	}
+
+	/**
+	 * Called when the client has applied a chunk, frees its slot and updates the throughput of the connection.
+	 */
+	synchronized void chunkReceived(String connectionId) {
+		ClientStream stream = streamMap.get(connectionId);
+		if (stream == null) {
+			return;
+		}
+		stream.chunkReceived(System.currentTimeMillis());
+		notifyAll();
+	}
+
+	synchronized void shutdown() {
+		stop = true;
+		notifyAll();
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			List<Map.Entry<String, ClientStream>> ready;
+			synchronized (this) {
+				ready = getReadyStreams();
+				while (!stop && ready.isEmpty()) {
+					try {
+						wait(hasChunksInFlight() ? ACK_TIMEOUT : 0);
+					} catch (InterruptedException e) {
+						return;
+					}
+					expireChunks();
+					ready = getReadyStreams();
+				}
+				if (stop) {
+					return;
+				}
+			}
+			// One chunk per connection per pass, outside the lock so that acknowledgements aren't held up by disk reads
+			for (Map.Entry<String, ClientStream> entry : ready) {
+				sendChunk(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	private void sendChunk(String connectionId, ClientStream stream) {
+		boolean updatePriority;
+		GUID zoneGUID;
+		int chunkSize;
+		int producersAdded;
+		synchronized (this) {
+			updatePriority = stream.priorityStale;
+			stream.priorityStale = false;
+			zoneGUID = stream.zoneGUID;
+			chunkSize = stream.chunkSize;
+			producersAdded = stream.producersAdded;
+		}
+		if (updatePriority) {
+			stream.manager.setPriorityAssets(getZoneAssets(zoneGUID));
+		}
+		AssetChunk chunk;
+		try {
+			chunk = stream.manager.nextChunk(chunkSize);
+		} catch (Exception e) {
+			log.info("Couldn't retrieve AssetChunk for " + connectionId, e);
+			return;
+		}
+		synchronized (this) {
+			if (chunk == null) {
+				// Unless a producer arrived while we were looking
+				stream.empty = stream.producersAdded == producersAdded;
+				return;
+			}
+			if (streamMap.get(connectionId) != stream) {
+				// Disconnected while the chunk was being read
+				return;
+			}
+			stream.chunkSent(chunk.getData().length, System.currentTimeMillis());
+		}
+		server.getConnection().callMethod(connectionId, MapToolConstants.Channel.IMAGE, ClientCommand.COMMAND.updateAssetTransfer.name(), chunk);
+	}
+
+	private Set<?> getZoneAssets(GUID zoneGUID) {
+		if (zoneGUID == null) {
+			return Collections.emptySet();
+		}
+		Zone zone = server.getCampaign().getZone(zoneGUID);
+		if (zone == null) {
+			return Collections.emptySet();
+		}
+		try {
+			return zone.getAllAssetIds();
+		} catch (RuntimeException e) {
+			// The zone is being changed by a client at the same time, try again with the next producer
+			log.debug("Couldn't collect the assets of zone " + zoneGUID, e);
+			return Collections.emptySet();
+		}
+	}
+
+	private List<Map.Entry<String, ClientStream>> getReadyStreams() {
+		List<Map.Entry<String, ClientStream>> ready = new ArrayList<Map.Entry<String, ClientStream>>();
+		for (Map.Entry<String, ClientStream> entry : streamMap.entrySet()) {
+			ClientStream stream = entry.getValue();
+			if (stream.isReady()) {
+				ready.add(entry);
+			}
+		}
+		return ready;
+	}
+
+	private boolean hasChunksInFlight() {
+		for (ClientStream stream : streamMap.values()) {
+			if (!stream.inFlight.isEmpty()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void expireChunks() {
+		long now = System.currentTimeMillis();
+		for (ClientStream stream : streamMap.values()) {
+			if (!stream.inFlight.isEmpty() && now - stream.inFlight.getFirst().sentTime >= ACK_TIMEOUT) {
+				stream.inFlight.clear();
+				stream.chunkSize = MIN_CHUNK_SIZE;
+			}
+		}
+	}
+
+	/**
+	 * The queue and the transfer statistics of one connection. Guarded by the scheduler, apart from the manager which does its own locking.
+	 */
+	private static class ClientStream {
+		final AssetTransferManager manager = new AssetTransferManager();
+		final LinkedList<SentChunk> inFlight = new LinkedList<SentChunk>();
+
+		GUID zoneGUID;
+		boolean priorityStale;
+
+		// Set when the manager had nothing to send, until the next producer is added
+		boolean empty = true;
+		int producersAdded;
+
+		int chunkSize = INITIAL_CHUNK_SIZE;
+		double bytesPerMilli;
+		long lastReceivedTime;
+
+		boolean isReady() {
+			return !empty && inFlight.size() < MAX_CHUNKS_IN_FLIGHT;
+		}
+
+		void chunkSent(int size, long now) {
+			inFlight.add(new SentChunk(size, now));
+		}
+
+		void chunkReceived(long now) {
+			if (inFlight.isEmpty()) {
+				// Expired already
+				return;
+			}
+			SentChunk chunk = inFlight.removeFirst();
+
+			// The chunk was on the wire from when it was sent or when the one before it arrived, whichever is later
+			long elapsed = Math.max(1, now - Math.max(chunk.sentTime, lastReceivedTime));
+			lastReceivedTime = now;
+			double sample = (double) chunk.size / elapsed;
+			bytesPerMilli = bytesPerMilli == 0 ? sample : bytesPerMilli * 0.75 + sample * 0.25;
+			chunkSize = (int) Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, bytesPerMilli * TARGET_CHUNK_MILLIS));
+		}
+	}
+
+	private static class SentChunk {
+		final int size;
+		final long sentTime;
+
+		SentChunk(int size, long sentTime) {
+			this.size = size;
+			this.sentTime = sentTime;
+		}
+	}
+}
@@ -12,7 +12,6 @@
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Random;
 
 import javax.swing.SwingUtilities;
@@ -22,32 +21,27 @@
 
 import net.rptools.clientserver.simple.client.ClientConnection;
 import net.rptools.clientserver.simple.server.ServerObserver;
-import net.rptools.maptool.client.ClientCommand;
 import net.rptools.maptool.client.MapTool;
 import net.rptools.maptool.client.MapToolRegistry;
 import net.rptools.maptool.client.ui.ConnectionInfoDialog;
-import net.rptools.maptool.common.MapToolConstants;
 import net.rptools.maptool.language.I18N;
 import net.rptools.maptool.model.Campaign;
+import net.rptools.maptool.model.GUID;
 import net.rptools.maptool.model.TextMessage;
-import net.rptools.maptool.transfer.AssetChunk;
 import net.rptools.maptool.transfer.AssetProducer;
-import net.rptools.maptool.transfer.AssetTransferManager;
 
 /**
  * @author drice
  */
 public class MapToolServer {
 	private static final Logger log = LogManager.getLogger(MapToolServer.class);
-	private static final int ASSET_CHUNK_SIZE = 5 * 1024;
 
 	private final MapToolServerConnection conn;
 	private final ServerMethodHandler handler;
 	private final ServerConfig config;
 
-	private final Map<String, AssetTransferManager> assetManagerMap = Collections.synchronizedMap(new HashMap<String, AssetTransferManager>());
 	private final Map<String, ClientConnection> connectionMap = Collections.synchronizedMap(new HashMap<String, ClientConnection>());
-	private final AssetProducerThread assetProducerThread;
+	private final AssetStreamScheduler assetStreamScheduler;
 
 	private Campaign campaign;
 	private ServerPolicy policy;
@@ -60,8 +54,8 @@ public MapToolServer(ServerConfig config, ServerPolicy policy) throws IOExceptio
 
 		campaign = new Campaign();
 
-		assetProducerThread = new AssetProducerThread();
-		assetProducerThread.start();
+		assetStreamScheduler = new AssetStreamScheduler(this);
+		assetStreamScheduler.start();
 
 		this.config = config;
 		this.policy = policy;
@@ -75,7 +69,7 @@ public MapToolServer(ServerConfig config, ServerPolicy policy) throws IOExceptio
 
 	public void configureClientConnection(ClientConnection connection) {
 		String id = connection.getId();
-		assetManagerMap.put(id, new AssetTransferManager());
+		assetStreamScheduler.addClient(id);
 		connectionMap.put(id, connection);
 	}
 
@@ -102,13 +96,26 @@ public void releaseClientConnection(String id) {
 				log.error("Could not release connection: " + id, e);
 			}
 		}
-		assetManagerMap.remove(id);
+		assetStreamScheduler.removeClient(id);
 		connectionMap.remove(id);
 	}
 
 	public void addAssetProducer(String connectionId, AssetProducer producer) {
-		AssetTransferManager manager = assetManagerMap.get(connectionId);
-		manager.addProducer(producer);
+		assetStreamScheduler.addProducer(connectionId, producer);
+	}
+
+	/**
+	 * Remembers which zone a client is looking at so that its assets are streamed to it first
+	 */
+	public void setCurrentZone(String connectionId, GUID zoneGUID) {
+		assetStreamScheduler.setCurrentZone(connectionId, zoneGUID);
+	}
+
+	/**
+	 * Called when a client has applied an asset chunk, lets the next one go out
+	 */
+	public void assetChunkReceived(String connectionId) {
+		assetStreamScheduler.chunkReceived(connectionId);
 	}
 
 	public void addObserver(ServerObserver observer) {
@@ -167,8 +174,8 @@ public void stop() {
 			if (heartbeatThread != null) {
 				heartbeatThread.shutdown();
 			}
-			if (assetProducerThread != null) {
-				assetProducerThread.shutdown();
+			if (assetStreamScheduler != null) {
+				assetStreamScheduler.shutdown();
 			}
 		} catch (IOException e) {
 			// Not too concerned about this
@@ -257,44 +264,6 @@ public void shutdown() {
 		}
 	}
 
-	////
-	// CLASSES
-	private class AssetProducerThread extends Thread {
-		private boolean stop = false;
-
-		@Override
-		public void run() {
-			while (!stop) {
-				Entry<String, AssetTransferManager> entryForException = null;
-				try {
-					boolean lookForMore = false;
-					for (Entry<String, AssetTransferManager> entry : assetManagerMap.entrySet()) {
-						entryForException = entry;
-						AssetChunk chunk = entry.getValue().nextChunk(ASSET_CHUNK_SIZE);
-						if (chunk != null) {
-							lookForMore = true;
-							getConnection().callMethod(entry.getKey(), MapToolConstants.Channel.IMAGE, ClientCommand.COMMAND.updateAssetTransfer.name(), chunk);
-						}
-					}
-					if (lookForMore) {
-						continue;
-					}
-					// Sleep for a bit
-					synchronized (this) {
-						Thread.sleep(500);
-					}
-				} catch (Exception e) {
-					log.info("Couldn't retrieve AssetChunk for " + entryForException.getKey(), e);
-					// keep on going
-				}
-			}
-		}
-
-		public void shutdown() {
-			stop = true;
-		}
-	}
-
 	////
 	// STANDALONE SERVER
 	public static void main(String[] args) throws IOException {
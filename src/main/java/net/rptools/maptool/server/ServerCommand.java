@@ -24,6 +24,7 @@
 import net.rptools.maptool.model.Pointer;
 import net.rptools.maptool.model.TextMessage;
 import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.TokenDelta;
 import net.rptools.maptool.model.Zone;
 import net.rptools.maptool.model.Zone.VisionType;
 import net.rptools.maptool.model.ZonePoint;
@@ -54,7 +55,7 @@ public static enum COMMAND {
 																																																																																																																																																																// movement
 		setLiveTypingLabel, // Experimental
 		enforceNotification, // Override toggle button to show typing notifications
-		exposePCArea, setBoard, updateExposedAreaMeta, clearExposedArea
+		exposePCArea, setBoard, updateExposedAreaMeta, clearExposedArea, setCurrentZone, assetChunkReceived, updateToken, requestToken
 	};
 
 	public void bootPlayer(String player);
@@ -93,6 +94,10 @@ public static enum COMMAND {
 
 	public void removeToken(GUID zoneGUID, GUID tokenGUID);
 
+	public void updateToken(GUID zoneGUID, TokenDelta delta);
+
+	public void requestToken(GUID zoneGUID, GUID tokenGUID);
+
 	public void putLabel(GUID zoneGUID, Label label);
 
 	public void removeLabel(GUID zoneGUID, GUID labelGUID);
@@ -156,4 +161,8 @@ public static enum COMMAND {
 	public void updateExposedAreaMeta(GUID zoneGUID, GUID tokenExposedAreaGUID, ExposedAreaMetaData meta);
 
 	public void clearExposedArea(GUID zoneGUID);
+
+	public void setCurrentZone(GUID zoneGUID);
+
+	public void assetChunkReceived();
 }
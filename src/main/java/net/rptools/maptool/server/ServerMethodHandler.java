@@ -36,6 +36,7 @@
 import net.rptools.maptool.model.Pointer;
 import net.rptools.maptool.model.TextMessage;
 import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.TokenDelta;
 import net.rptools.maptool.model.Zone;
 import net.rptools.maptool.model.Zone.VisionType;
 import net.rptools.maptool.model.ZonePoint;
@@ -217,6 +218,18 @@ public void handleMethod(String id, String method, Object... parameters) {
 			case clearExposedArea:
 				clearExposedArea(context.getGUID(0));
 				break;
+			case setCurrentZone:
+				setCurrentZone(context.getGUID(0));
+				break;
+			case assetChunkReceived:
+				assetChunkReceived();
+				break;
+			case updateToken:
+				updateToken(context.getGUID(0), (TokenDelta) context.get(1));
+				break;
+			case requestToken:
+				requestToken(context.getGUID(0), context.getGUID(1));
+				break;
 			}
 		} finally {
 			RPCContext.setCurrent(null);
@@ -351,6 +364,14 @@ public void getAsset(MD5Key assetID) {
 		}
 	}
 
+	public void setCurrentZone(GUID zoneGUID) {
+		server.setCurrentZone(RPCContext.getCurrent().id, zoneGUID);
+	}
+
+	public void assetChunkReceived() {
+		server.assetChunkReceived(RPCContext.getCurrent().id);
+	}
+
 	public void getZone(GUID zoneGUID) {
 		server.getConnection().callMethod(RPCContext.getCurrent().id, ClientCommand.COMMAND.putZone.name(), server.getCampaign().getZone(zoneGUID));
 	}
@@ -445,6 +466,40 @@ public void putToken(GUID zoneGUID, Token token) {
 		}
 	}
 
+	public void updateToken(GUID zoneGUID, TokenDelta delta) {
+		Zone zone = server.getCampaign().getZone(zoneGUID);
+		Token token = zone.getToken(delta.getTokenId());
+		if (token == null) {
+			// Removed while the change was on its way
+			return;
+		}
+		synchronized (MUTEX) {
+			if (delta.appliesTo(token)) {
+				delta.apply(token);
+				zone.putToken(token);
+				forwardToClients();
+				return;
+			}
+			// Someone else changed the token first. Keep both changes and bring every client, the sender included, up to date
+			int version = Math.max(TokenDelta.getTokenVersion(token), delta.getVersion()) + 1;
+			delta.apply(token);
+			TokenDelta.setTokenVersion(token, version);
+			zone.putToken(token);
+			broadcastToAllClients(ClientCommand.COMMAND.updateToken.name(), zoneGUID, TokenDelta.resync(token));
+		}
+	}
+
+	public void requestToken(GUID zoneGUID, GUID tokenGUID) {
+		Zone zone = server.getCampaign().getZone(zoneGUID);
+		Token token = zone.getToken(tokenGUID);
+		if (token == null) {
+			return;
+		}
+		synchronized (MUTEX) {
+			server.getConnection().callMethod(RPCContext.getCurrent().id, ClientCommand.COMMAND.updateToken.name(), zoneGUID, TokenDelta.resync(token));
+		}
+	}
+
 	public void putZone(Zone zone) {
 		server.getCampaign().putZone(zone);
 		forwardToClients();
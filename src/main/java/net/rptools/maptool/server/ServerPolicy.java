@@ -31,6 +31,7 @@ public class ServerPolicy {
 	private boolean useIndividualFOW;
 	private boolean isAutoRevealOnMovement;
 	private boolean includeOwnedNPCs = true; // Include Owned NPC Tokens in FoW views
+	private boolean vblBlocksMove;
 	private WalkerMetric movementMetric;
 
 	public ServerPolicy() {
@@ -169,6 +170,23 @@ public void setIncludeOwnedNPCs(boolean includeOwnedNPCs) {
 		this.includeOwnedNPCs = includeOwnedNPCs;
 	}
 
+	/**
+	 * Whether players' snap-to-grid movement has to route around VBL. GM movement is never blocked.
+	 * 
+	 * @return the vblBlocksMove
+	 */
+	public boolean isVblBlocksMove() {
+		return vblBlocksMove;
+	}
+
+	/**
+	 * @param vblBlocksMove
+	 *            the vblBlocksMove to set
+	 */
+	public void setVblBlocksMove(boolean vblBlocksMove) {
+		this.vblBlocksMove = vblBlocksMove;
+	}
+
 	/**
 	 * Retrieves the server side preferences as a json object.
 	 * 
@@ -184,6 +202,7 @@ public JSONObject toJSON() {
 		sinfo.put("individual views", isUseIndividualViews() ? BigDecimal.ONE : BigDecimal.ZERO);
 		sinfo.put("strict token management", useStrictTokenManagement() ? BigDecimal.ONE : BigDecimal.ZERO);
 		sinfo.put("players receive campaign macros", playersReceiveCampaignMacros() ? BigDecimal.ONE : BigDecimal.ZERO);
+		sinfo.put("vbl blocks movement", isVblBlocksMove() ? BigDecimal.ONE : BigDecimal.ZERO);
 
 		WalkerMetric metric = MapTool.isPersonalServer() ? AppPreferences.getMovementMetric() : getMovementMetric();
 		sinfo.put("movement metric", metric.toString());
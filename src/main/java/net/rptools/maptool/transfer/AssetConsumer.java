@@ -9,9 +9,11 @@
 package net.rptools.maptool.transfer;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 
 /**
  * Receiving end of AssetProducer
@@ -22,6 +24,7 @@ public class AssetConsumer {
 	private File destinationDir;
 	private AssetHeader header;
 	private long currentPosition;
+	private FileChannel channel;
 
 	/**
 	 * Create a new asset consumer, it will prepare a place to receive the incoming data chunks. When complete the resulting file can be found at getFilename()
@@ -69,12 +72,42 @@ public String getName() {
 	 * @throws IOException
 	 */
 	public void update(AssetChunk chunk) throws IOException {
-		File file = getFilename();
-		FileOutputStream out = new FileOutputStream(file, true);
+		if (channel == null) {
+			channel = FileChannel.open(getFilename().toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		}
 		byte[] data = chunk.getData();
-		out.write(data);
-		out.close();
+		ByteBuffer buffer = ChunkBufferPool.acquire(data.length);
+		try {
+			buffer.put(data);
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer, currentPosition + buffer.position());
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		} finally {
+			ChunkBufferPool.release(buffer);
+		}
 		currentPosition += data.length;
+		if (isComplete()) {
+			// The file is handed on as soon as it is complete
+			close();
+		}
+	}
+
+	/**
+	 * Releases the file, for when the transfer is abandoned before it is complete. Closing after the last chunk happens automatically.
+	 */
+	public void close() {
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// The file is incomplete anyway
+			}
+			channel = null;
+		}
 	}
 
 	/**
@@ -8,13 +8,18 @@
  */
 package net.rptools.maptool.transfer;
 
+import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 
 /**
  * Creates data chunks for transferring binary data. Assumes large datasets (otherwise it would be a direct transfer) so expects the data to be streamed from a file
+ * <p>
+ * The file is kept open from the first chunk until the last one and each chunk is read at its position, so a large asset doesn't cost a file open and a skip over everything sent so far per chunk.
  * 
  * @author trevor
  */
@@ -24,6 +29,7 @@ public class AssetProducer {
 	private File assetFile;
 	private long length;
 	private long currentPosition = 0;
+	private FileChannel channel;
 
 	public AssetProducer(Serializable id, String name, File assetFile) {
 		if (!assetFile.exists() || assetFile.isDirectory()) {
@@ -35,6 +41,10 @@ public AssetProducer(Serializable id, String name, File assetFile) {
 		length = assetFile.length();
 	}
 
+	public Serializable getId() {
+		return id;
+	}
+
 	/**
 	 * Get the header needed to create the corresponding AssetConsumer
 	 * 
@@ -55,17 +65,46 @@ public AssetChunk nextChunk(int size) throws IOException {
 		if (currentPosition + size > length) {
 			size = (int) (length - currentPosition);
 		}
+		if (channel == null) {
+			channel = FileChannel.open(assetFile.toPath(), StandardOpenOption.READ);
+		}
 		byte[] data = new byte[size];
-		FileInputStream in = new FileInputStream(assetFile);
-
-		in.skip(currentPosition);
-		in.read(data, 0, size);
-		in.close();
-
+		ByteBuffer buffer = ChunkBufferPool.acquire(size);
+		try {
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, currentPosition + buffer.position()) < 0) {
+					throw new EOFException(assetFile + " is shorter than the " + length + " bytes announced");
+				}
+			}
+			buffer.flip();
+			buffer.get(data);
+		} catch (IOException e) {
+			close();
+			throw e;
+		} finally {
+			ChunkBufferPool.release(buffer);
+		}
 		currentPosition += size;
+		if (isComplete()) {
+			close();
+		}
 		return new AssetChunk(id, data);
 	}
 
+	/**
+	 * Releases the file, for when the transfer is abandoned before it is complete. Closing after the last chunk happens automatically.
+	 */
+	public void close() {
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// Only reading, nothing is lost
+			}
+			channel = null;
+		}
+	}
+
 	/**
 	 * Whether all the data has been transferred
 	 */
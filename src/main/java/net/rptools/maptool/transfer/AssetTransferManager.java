@@ -11,21 +11,31 @@
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 public class AssetTransferManager {
 	private Map<Serializable, AssetConsumer> consumerMap = new HashMap<Serializable, AssetConsumer>();
 	private List<ConsumerListener> consumerListenerList = new CopyOnWriteArrayList<ConsumerListener>();
 	private List<AssetProducer> producerList = new LinkedList<AssetProducer>();
+	private Set<?> priorityIds = Collections.emptySet();
 
 	/**
 	 * Clear out all existing consumers and producers
 	 */
 	public synchronized void flush() {
+		for (AssetConsumer consumer : consumerMap.values()) {
+			consumer.close();
+		}
+		for (AssetProducer producer : producerList) {
+			producer.close();
+		}
 		consumerMap.clear();
 		producerList.clear();
 	}
@@ -37,6 +47,13 @@ public synchronized void addProducer(AssetProducer producer) {
 		producerList.add(producer);
 	}
 
+	/**
+	 * Producers for these ids are served before all others, the rest wait until none of them are left
+	 */
+	public synchronized void setPriorityAssets(Set<?> ids) {
+		priorityIds = ids;
+	}
+
 	/**
 	 * Get the next chunk from the available producers
 	 * 
@@ -48,7 +65,7 @@ public synchronized AssetChunk nextChunk(int size) throws IOException {
 		if (producerList.size() == 0) {
 			return null;
 		}
-		AssetProducer producer = producerList.remove(0);
+		AssetProducer producer = removeNextProducer();
 		AssetChunk chunk = producer.nextChunk(size);
 		if (!producer.isComplete()) {
 			producerList.add(producer);
@@ -56,6 +73,19 @@ public synchronized AssetChunk nextChunk(int size) throws IOException {
 		return chunk;
 	}
 
+	private AssetProducer removeNextProducer() {
+		if (!priorityIds.isEmpty()) {
+			for (Iterator<AssetProducer> iter = producerList.iterator(); iter.hasNext();) {
+				AssetProducer producer = iter.next();
+				if (priorityIds.contains(producer.getId())) {
+					iter.remove();
+					return producer;
+				}
+			}
+		}
+		return producerList.remove(0);
+	}
+
 	/**
 	 * Add the corresponding consumer that is expecting to receive chunks. Add a ConsumerListener to know when the asset is complete
 	 */
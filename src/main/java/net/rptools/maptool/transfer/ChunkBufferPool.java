@@ -0,0 +1,71 @@
+/*
+ * This software Copyright by the RPTools.net development team, and licensed under the Affero GPL Version 3 or, at your option, any later version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public License * along with this source Code. If not, please visit <http://www.gnu.org/licenses/> and specifically the Affero license text
+ * at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.transfer;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Direct buffers that the producers read chunks into and the consumers write them out of. Direct buffers are expensive to allocate and are only freed by the garbage collector, so the few that a
+ * transfer needs are kept and handed out again.
+ */
+class ChunkBufferPool {
+	private static final int MIN_CAPACITY = 64 * 1024;
+	private static final int MAX_POOLED = 4;
+
+	private static final LinkedList<ByteBuffer> pool = new LinkedList<ByteBuffer>();
+
+	/**
+	 * @return a cleared buffer that can hold at least <code>size</code> bytes, with its limit set to <code>size</code>
+	 */
+	static ByteBuffer acquire(int size) {
+		synchronized (pool) {
+			for (Iterator<ByteBuffer> iter = pool.iterator(); iter.hasNext();) {
+				ByteBuffer buffer = iter.next();
+				if (buffer.capacity() >= size) {
+					iter.remove();
+					buffer.clear();
+					buffer.limit(size);
+					return buffer;
+				}
+			}
+		}
+		int capacity = MIN_CAPACITY;
+		while (capacity < size) {
+			capacity *= 2;
+		}
+		ByteBuffer buffer = ByteBuffer.allocateDirect(capacity);
+		buffer.limit(size);
+		return buffer;
+	}
+
+	/**
+	 * Hands the buffer back, the caller must not use it any more
+	 */
+	static void release(ByteBuffer buffer) {
+		synchronized (pool) {
+			if (pool.size() < MAX_POOLED) {
+				pool.add(buffer);
+			} else {
+				// Keep the larger ones, a small buffer is cheap to allocate again
+				ByteBuffer smallest = buffer;
+				for (ByteBuffer pooled : pool) {
+					if (pooled.capacity() < smallest.capacity()) {
+						smallest = pooled;
+					}
+				}
+				if (smallest != buffer) {
+					pool.remove(smallest);
+					pool.add(buffer);
+				}
+			}
+		}
+	}
+}
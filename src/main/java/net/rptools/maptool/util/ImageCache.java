@@ -0,0 +1,242 @@
+/*
+ * This software Copyright by the RPTools.net development team, and licensed under the Affero GPL Version 3 or, at your option, any later version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public License * along with this source Code. If not, please visit <http://www.gnu.org/licenses/> and specifically the Affero license text
+ * at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.lang.ref.SoftReference;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import net.rptools.lib.MD5Key;
+
+/**
+ * The decoded images kept by {@link ImageManager}, bounded by the memory their rasters take up.
+ * <p>
+ * When the cache is full the least recently used images are evicted, except for the pinned ones, which are the images of the map being looked at. Evicted images are only softly referenced from
+ * then on, so that they can be had back for free until the garbage collector actually needs the memory.
+ * <p>
+ * Placeholders such as {@link ImageManager#TRANSFERING_IMAGE} are stored with a weight of nothing and are never evicted, they mark images that are on their way.
+ */
+public class ImageCache {
+	private final Map<MD5Key, BufferedImage> imageMap = new LinkedHashMap<MD5Key, BufferedImage>(64, 0.75f, true);
+	private final Map<MD5Key, SoftReference<BufferedImage>> evictedMap = new HashMap<MD5Key, SoftReference<BufferedImage>>();
+	private final Set<BufferedImage> placeholders;
+	private Set<MD5Key> pinned = Collections.emptySet();
+
+	private long maxBytes;
+	private long bytes;
+
+	private long hits;
+	private long softHits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * @param maxBytes
+	 *            how much memory the images may take up before they are evicted
+	 * @param placeholders
+	 *            images that stand in for others and are shared, so they are never weighed or evicted
+	 */
+	public ImageCache(long maxBytes, BufferedImage... placeholders) {
+		this.maxBytes = maxBytes;
+		this.placeholders = Collections.newSetFromMap(new IdentityHashMap<BufferedImage, Boolean>());
+		for (BufferedImage placeholder : placeholders) {
+			this.placeholders.add(placeholder);
+		}
+	}
+
+	/**
+	 * @return the image, or <code>null</code> if it isn't cached. Counts as a use of the image.
+	 */
+	public synchronized BufferedImage get(MD5Key id) {
+		BufferedImage image = imageMap.get(id);
+		if (image != null) {
+			if (!placeholders.contains(image)) {
+				hits++;
+			}
+			return image;
+		}
+		SoftReference<BufferedImage> ref = evictedMap.remove(id);
+		image = ref != null ? ref.get() : null;
+		if (image != null) {
+			softHits++;
+			put(id, image);
+			return image;
+		}
+		misses++;
+		return null;
+	}
+
+	/**
+	 * @return the image without counting it as a use or a hit, for checking what state an image is in
+	 */
+	public synchronized BufferedImage peek(MD5Key id) {
+		return imageMap.get(id);
+	}
+
+	public synchronized void put(MD5Key id, BufferedImage image) {
+		BufferedImage old = imageMap.put(id, image);
+		if (old != null) {
+			bytes -= getWeight(old);
+		}
+		evictedMap.remove(id);
+		bytes += getWeight(image);
+		evict();
+	}
+
+	public synchronized void remove(MD5Key id) {
+		BufferedImage old = imageMap.remove(id);
+		if (old != null) {
+			bytes -= getWeight(old);
+		}
+		evictedMap.remove(id);
+	}
+
+	/**
+	 * Drops every image that isn't in the set, softly referenced ones included
+	 */
+	public synchronized void retainAll(Set<MD5Key> ids) {
+		for (Iterator<Map.Entry<MD5Key, BufferedImage>> iter = imageMap.entrySet().iterator(); iter.hasNext();) {
+			Map.Entry<MD5Key, BufferedImage> entry = iter.next();
+			if (!ids.contains(entry.getKey())) {
+				bytes -= getWeight(entry.getValue());
+				iter.remove();
+			}
+		}
+		evictedMap.keySet().retainAll(ids);
+	}
+
+	public synchronized void clear() {
+		imageMap.clear();
+		evictedMap.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * Keeps the images with these ids whatever the size of the cache, until other ids are pinned
+	 */
+	public synchronized void setPinned(Set<MD5Key> ids) {
+		pinned = new HashSet<MD5Key>(ids);
+		evict();
+	}
+
+	/**
+	 * Pins these ids as well as the ones already pinned, for images that show up on the map being looked at
+	 */
+	public synchronized void addPinned(Set<MD5Key> ids) {
+		if (pinned.containsAll(ids)) {
+			return;
+		}
+		Set<MD5Key> newPinned = new HashSet<MD5Key>(pinned);
+		newPinned.addAll(ids);
+		pinned = newPinned;
+	}
+
+	public synchronized void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+		evict();
+	}
+
+	public synchronized long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * @return how much memory the cached images take up, not counting the softly referenced ones
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	public synchronized int size() {
+		return imageMap.size();
+	}
+
+	/**
+	 * @return how often an image was found in the cache
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return how often an image had been evicted but was still in memory, and was put back into the cache
+	 */
+	public synchronized long getSoftHits() {
+		return softHits;
+	}
+
+	/**
+	 * @return how often an image wasn't cached and had to be decoded
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return how many images were evicted to keep the cache within its size
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	public synchronized void resetStatistics() {
+		hits = 0;
+		softHits = 0;
+		misses = 0;
+		evictions = 0;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("ImageCache[%d images, %d of %d KB, %d hits, %d soft hits, %d misses, %d evictions]", imageMap.size(), bytes / 1024, maxBytes / 1024, hits, softHits, misses, evictions);
+	}
+
+	private void evict() {
+		if (bytes <= maxBytes) {
+			return;
+		}
+		// Least recently used first
+		for (Iterator<Map.Entry<MD5Key, BufferedImage>> iter = imageMap.entrySet().iterator(); iter.hasNext() && bytes > maxBytes;) {
+			Map.Entry<MD5Key, BufferedImage> entry = iter.next();
+			BufferedImage image = entry.getValue();
+			if (placeholders.contains(image) || pinned.contains(entry.getKey())) {
+				continue;
+			}
+			iter.remove();
+			bytes -= getWeight(image);
+			evictedMap.put(entry.getKey(), new SoftReference<BufferedImage>(image));
+			evictions++;
+		}
+		// Forget the ones the garbage collector has taken in the meantime
+		for (Iterator<SoftReference<BufferedImage>> iter = evictedMap.values().iterator(); iter.hasNext();) {
+			if (iter.next().get() == null) {
+				iter.remove();
+			}
+		}
+	}
+
+	/**
+	 * @return how many bytes the raster of the image takes up
+	 */
+	private long getWeight(BufferedImage image) {
+		if (placeholders.contains(image)) {
+			return 0;
+		}
+		DataBuffer buffer = image.getRaster().getDataBuffer();
+		return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+	}
+}
@@ -12,14 +12,25 @@
 import java.awt.image.BufferedImage;
 import java.awt.image.ImageObserver;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -29,6 +40,7 @@
 
 import net.rptools.lib.MD5Key;
 import net.rptools.lib.image.ImageUtil;
+import net.rptools.maptool.client.AppPreferences;
 import net.rptools.maptool.client.MapTool;
 import net.rptools.maptool.model.Asset;
 import net.rptools.maptool.model.AssetAvailableListener;
@@ -36,16 +48,16 @@
 
 /**
  * The ImageManager class keeps a cache of loaded images. This class can be used to load the raw image data from an asset. The loading of the raw image data into a usable class is done in the
- * background by one of two threads. The ImageManager will return a "?" (UNKNOWN_IMAGE) if the asset is still downloading or the asset image is still being loaded, and a "X" (BROKEN_IMAGE) if the
- * asset or image is invalid. Small images are loaded using a different thread pool from large images, and allows small images to load quicker.
+ * background by a pool with a thread per core. The ImageManager will return a "?" (UNKNOWN_IMAGE) if the asset is still downloading or the asset image is still being loaded, and a "X" (BROKEN_IMAGE)
+ * if the asset or image is invalid. Images of the tokens on screen are loaded first, then small images, then large ones, so that small images load quicker.
  * 
  * @author RPTools Team.
  */
 public class ImageManager {
 	private static final Logger log = LogManager.getLogger(ImageManager.class);
 
-	/** Cache of images loaded for assets. */
-	private static final Map<MD5Key, BufferedImage> imageMap = new HashMap<MD5Key, BufferedImage>();
+	/** Cache of images loaded for assets, set up once the placeholder images are loaded. */
+	private static final ImageCache imageCache;
 	private static final Map<MD5Key, byte[]> textureMap = new HashMap<MD5Key, byte[]>();
 
 	/**
@@ -63,13 +75,56 @@ public class ImageManager {
 	public static Texture BROKEN_TEXTURE;
 
 	/**
-	 * Small and large thread pools for background processing of asset raw image data.
+	 * Thread pool for background processing of asset raw image data, which takes the most urgent image first. See {@link BackgroundImageLoader#compareTo(BackgroundImageLoader)}.
 	 */
-	private static ExecutorService smallImageLoader = Executors.newFixedThreadPool(1);
-	private static ExecutorService largeImageLoader = Executors.newFixedThreadPool(1);
+	private static final int IMAGE_LOADER_THREADS = Runtime.getRuntime().availableProcessors();
+	private static final ThreadPoolExecutor imageLoader = new ThreadPoolExecutor(IMAGE_LOADER_THREADS, IMAGE_LOADER_THREADS, 30, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(),
+			new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "ImageLoader-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+	private static ExecutorService textureLoader = Executors.newFixedThreadPool(1);
+
+	/**
+	 * Images whose loading has been queued or is under way, so that an image is only loaded once however often it is asked for.
+	 */
+	private static final Map<MD5Key, BackgroundImageLoader> pendingLoaderMap = new ConcurrentHashMap<MD5Key, BackgroundImageLoader>();
+
+	/**
+	 * The images of the tokens on screen, which are loaded before all others.
+	 */
+	private static volatile Set<MD5Key> onScreenImageSet = Collections.emptySet();
+
+	/**
+	 * Loaded images whose observers haven't been told yet. Observers are told in batches so that a map full of new tokens isn't repainted once per token.
+	 */
+	private static final Queue<BackgroundImageLoader> loadedImageQueue = new ConcurrentLinkedQueue<BackgroundImageLoader>();
+	private static final long NOTIFY_BATCH_MILLIS = 50;
+	private static final AtomicLong lastNotifyTime = new AtomicLong();
+
+	/**
+	 * Tells the observers of images loaded within a batch once the batch is over, so that they aren't kept waiting for the next image to finish loading.
+	 */
+	private static final ScheduledExecutorService imageNotifier = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "ImageNotifier");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	private static final AtomicBoolean notifyScheduled = new AtomicBoolean();
 
 	private static Object imageLoaderMutex = new Object();
 
+	static {
+		imageLoader.allowCoreThreadTimeOut(true);
+	}
+
 	/**
 	 * A Map containing sets of observers for each asset id. Observers are notified when the image is done loading.
 	 */
@@ -89,6 +144,8 @@ public class ImageManager {
 			log.error("static for 'broken.png':  not resolved; IOException", ioe);
 			BROKEN_IMAGE = ImageUtil.createCompatibleImage(10, 10, 0);
 		}
+
+		imageCache = new ImageCache(AppPreferences.getImageCacheSize() * 1024L * 1024L, TRANSFERING_IMAGE, BROKEN_IMAGE);
 	}
 
 	/**
@@ -96,7 +153,59 @@ public class ImageManager {
 	 * loading.
 	 */
 	public static void flush() {
-		imageMap.clear();
+		log.debug(imageCache);
+		imageCache.clear();
+	}
+
+	/**
+	 * Keep the images with these ids cached, whatever the size of the cache, until other ids are pinned. The images of the map being looked at are pinned so that switching away from a map and back
+	 * doesn't decode them all again, while the images of other maps are released as the cache fills up.
+	 */
+	public static void setPinnedImages(Set<MD5Key> ids) {
+		log.debug(imageCache);
+		imageCache.setPinned(ids);
+	}
+
+	/**
+	 * Keep the images with these ids cached along with the ones already pinned, for tokens that are added to or changed on the map being looked at.
+	 */
+	public static void addPinnedImages(Set<MD5Key> ids) {
+		imageCache.addPinned(ids);
+	}
+
+	/**
+	 * Resize the cache, for when the preference changes
+	 */
+	public static void setCacheSize(int megabytes) {
+		imageCache.setMaxBytes(megabytes * 1024L * 1024L);
+	}
+
+	/**
+	 * @return the cache of decoded images, for its hit, miss and eviction counters
+	 */
+	public static ImageCache getImageCache() {
+		return imageCache;
+	}
+
+	/**
+	 * @return whether there are images waiting to be loaded, which is when it is worth telling which ones are on screen
+	 */
+	public static boolean hasPendingImages() {
+		return !pendingLoaderMap.isEmpty();
+	}
+
+	/**
+	 * Load the images with these ids before all others, they are the ones on screen. Images that were waiting in the queue are moved up or down to match.
+	 */
+	public static void setOnScreenImages(Set<MD5Key> ids) {
+		onScreenImageSet = ids;
+		for (BackgroundImageLoader loader : pendingLoaderMap.values()) {
+			int priority = loader.getPriority();
+			if (priority != loader.priority && imageLoader.getQueue().remove(loader)) {
+				loader.priority = priority;
+				imageLoader.execute(loader);
+			}
+		}
 	}
 
 	/**
@@ -115,11 +224,7 @@ public static BufferedImage getImageAndWait(MD5Key assetId) {
 	 */
 	public static void flush(Set<MD5Key> exceptionSet) {
 		synchronized (imageLoaderMutex) {
-			for (MD5Key id : new HashSet<MD5Key>(imageMap.keySet())) {
-				if (!exceptionSet.contains(id)) {
-					imageMap.remove(id);
-				}
-			}
+			imageCache.retainAll(exceptionSet);
 		}
 	}
 
@@ -172,12 +277,12 @@ public static BufferedImage getImage(MD5Key assetId, Map<String, Object> hints,
 			return BROKEN_IMAGE;
 		}
 		synchronized (imageLoaderMutex) {
-			BufferedImage image = imageMap.get(assetId);
+			BufferedImage image = imageCache.get(assetId);
 			if (image != null && image != TRANSFERING_IMAGE) {
 				return image;
 			}
 			// Make note that we're currently processing it
-			imageMap.put(assetId, TRANSFERING_IMAGE);
+			imageCache.put(assetId, TRANSFERING_IMAGE);
 
 			// Make sure we are informed when it's done loading
 			addObservers(assetId, observers);
@@ -248,7 +353,7 @@ public static void flushImage(Asset asset) {
 	 */
 	public static void flushImage(MD5Key assetId) {
 		// LATER: investigate how this effects images that are already in progress
-		imageMap.remove(assetId);
+		imageCache.remove(assetId);
 		textureMap.remove(assetId);
 	}
 
@@ -266,13 +371,15 @@ public static void addObservers(MD5Key assetId, ImageObserver... observers) {
 		if (observers == null || observers.length == 0) {
 			return;
 		}
-		Set<ImageObserver> observerSet = imageObserverMap.get(assetId);
-		if (observerSet == null) {
-			observerSet = new HashSet<ImageObserver>();
-			imageObserverMap.put(assetId, observerSet);
-		}
-		for (ImageObserver observer : observers) {
-			observerSet.add(observer);
+		synchronized (imageLoaderMutex) {
+			Set<ImageObserver> observerSet = imageObserverMap.get(assetId);
+			if (observerSet == null) {
+				observerSet = new HashSet<ImageObserver>();
+				imageObserverMap.put(assetId, observerSet);
+			}
+			for (ImageObserver observer : observers) {
+				observerSet.add(observer);
+			}
 		}
 	}
 
@@ -281,9 +388,18 @@ public static void addObservers(MD5Key assetId, ImageObserver... observers) {
 	 * 
 	 * @author RPTools Team.
 	 */
-	private static class BackgroundImageLoader implements Runnable {
+	private static class BackgroundImageLoader implements Runnable, Comparable<BackgroundImageLoader> {
+		private static final int PRIORITY_ON_SCREEN = 0;
+		private static final int PRIORITY_SMALL = 1;
+		private static final int PRIORITY_LARGE = 2;
+
+		private static final AtomicLong sequence = new AtomicLong();
+
 		private final Asset asset;
 		private final Map<String, Object> hints;
+		private final long order = sequence.getAndIncrement();
+		private int priority;
+		private BufferedImage image;
 
 		/**
 		 * Create a background image loader to load the asset image using the hints provided.
@@ -296,14 +412,61 @@ private static class BackgroundImageLoader implements Runnable {
 		public BackgroundImageLoader(Asset asset, Map<String, Object> hints) {
 			this.asset = asset;
 			this.hints = hints;
+			this.priority = getPriority();
+		}
+
+		/**
+		 * @return how urgent the image is now, images on screen first and then the ones smaller than 128kb
+		 */
+		int getPriority() {
+			if (onScreenImageSet.contains(asset.getId())) {
+				return PRIORITY_ON_SCREEN;
+			}
+			return asset.getImage().length > 128 * 1024 ? PRIORITY_LARGE : PRIORITY_SMALL;
+		}
+
+		/**
+		 * Most urgent first, then in the order they were asked for
+		 */
+		public int compareTo(BackgroundImageLoader other) {
+			if (priority != other.priority) {
+				return priority < other.priority ? -1 : 1;
+			}
+			return order < other.order ? -1 : (order > other.order ? 1 : 0);
 		}
 
 		/**
 		 * Load the asset raw image data and notify observers that the image is loaded.
 		 */
 		public void run() {
+			try {
+				load();
+			} finally {
+				pendingLoaderMap.remove(asset.getId(), this);
+			}
+			if (image != null) {
+				loadedImageQueue.add(this);
+			}
+			// Tell the observers once the queue has run dry, or every so often while it is busy
+			long now = System.currentTimeMillis();
+			long last = lastNotifyTime.get();
+			if (imageLoader.getQueue().isEmpty() || (now - last >= NOTIFY_BATCH_MILLIS && lastNotifyTime.compareAndSet(last, now))) {
+				notifyLoadedImages();
+			} else if (notifyScheduled.compareAndSet(false, true)) {
+				// The other loaders may take a while, tell them when the batch is over rather than when the next one finishes
+				imageNotifier.schedule(new Runnable() {
+					public void run() {
+						notifyScheduled.set(false);
+						lastNotifyTime.set(System.currentTimeMillis());
+						notifyLoadedImages();
+					}
+				}, Math.max(NOTIFY_BATCH_MILLIS - (now - last), 0), TimeUnit.MILLISECONDS);
+			}
+		}
+
+		private void load() {
 			log.debug("Loading asset: " + asset.getId());
-			BufferedImage image = imageMap.get(asset.getId());
+			BufferedImage image = imageCache.peek(asset.getId());
 
 			if (image != null && image != TRANSFERING_IMAGE) {
 				// We've somehow already loaded this image
@@ -323,10 +486,9 @@ public void run() {
 
 			synchronized (imageLoaderMutex) {
 				// Replace placeholder with actual image
-				imageMap.put(asset.getId(), image);
-				notifyObservers(asset, image);
+				imageCache.put(asset.getId(), image);
 			}
-
+			this.image = image;
 		}
 	}
 
@@ -376,6 +538,16 @@ public void run() {
 		}
 	}
 
+	/**
+	 * Notify the observers of every image loaded since the last batch.
+	 */
+	private static void notifyLoadedImages() {
+		BackgroundImageLoader loader;
+		while ((loader = loadedImageQueue.poll()) != null) {
+			notifyObservers(loader.asset, loader.image);
+		}
+	}
+
 	/**
 	 * Notify all observers watching the asset that the image is loaded.
 	 * 
@@ -387,7 +559,14 @@ public void run() {
 	private static void notifyObservers(Asset asset, BufferedImage image) {
 		// Notify observers
 		log.debug("Notifying observers of image availability: " + asset.getId());
-		Set<ImageObserver> observerSet = imageObserverMap.remove(asset.getId());
+		Set<ImageObserver> observerSet;
+		synchronized (imageLoaderMutex) {
+			// Observers are added under the mutex, take a copy so that they aren't added while we go through them
+			observerSet = imageObserverMap.remove(asset.getId());
+			if (observerSet != null) {
+				observerSet = new HashSet<ImageObserver>(observerSet);
+			}
+		}
 		if (observerSet != null) {
 			for (ImageObserver observer : observerSet) {
 				observer.imageUpdate(image, ImageObserver.ALLBITS, 0, 0, image.getWidth(), image.getHeight());
@@ -396,7 +575,7 @@ private static void notifyObservers(Asset asset, BufferedImage image) {
 	}
 
 	/**
-	 * Run a thread to load the asset raw image data in the background using the provided hints.
+	 * Queue the asset raw image data to be loaded in the background using the provided hints, unless it already is.
 	 * 
 	 * @param asset
 	 *            Load raw image data from this asset
@@ -404,14 +583,14 @@ private static void notifyObservers(Asset asset, BufferedImage image) {
 	 *            Hints used when loading image data
 	 */
 	private static void backgroundLoadImage(Asset asset, Map<String, Object> hints) {
-		// Use large image loader if the image is larger than 128kb.
-		if (asset.getImage().length > 128 * 1024) {
-			largeImageLoader.execute(new BackgroundImageLoader(asset, hints));
-		} else {
-			smallImageLoader.execute(new BackgroundImageLoader(asset, hints));
+		BackgroundImageLoader loader = new BackgroundImageLoader(asset, hints);
+		// Already on its way
+		if (pendingLoaderMap.putIfAbsent(asset.getId(), loader) != null) {
+			return;
 		}
+		imageLoader.execute(loader);
 
-		largeImageLoader.execute(new BackgroundTextureLoader(asset));
+		textureLoader.execute(new BackgroundTextureLoader(asset));
 	}
 
 	private static class AssetListener implements AssetAvailableListener {
@@ -39,6 +39,7 @@
 import net.rptools.lib.io.PackedFile;
 import net.rptools.lib.swing.SwingUtil;
 import net.rptools.maptool.client.AppConstants;
+import net.rptools.maptool.client.AppPreferences;
 import net.rptools.maptool.client.AppUtil;
 import net.rptools.maptool.client.MapTool;
 import net.rptools.maptool.client.ui.Scale;
@@ -75,10 +76,18 @@ public class PersistenceUtil {
 
 	public static final String PROP_VERSION = "version"; //$NON-NLS-1$
 	public static final String PROP_CAMPAIGN_VERSION = "campaignVersion"; //$NON-NLS-1$
+	public static final String PROP_ZONE_ENTRIES = "zoneEntries"; //$NON-NLS-1$
 	private static final String ASSET_DIR = "assets/"; //$NON-NLS-1$
+	private static final String ZONE_DIR = "zones/"; //$NON-NLS-1$
 	public static final String HERO_LAB = "herolab"; //$NON-NLS-1$
 
-	private static final String CAMPAIGN_VERSION = "1.4.1";
+	private static final String CAMPAIGN_VERSION = "1.4.4.2";
+
+	/**
+	 * The root element of the content of a campaign saved with one entry per zone. Versions that can't read the zones from their entries don't know it and refuse the file, rather than loading a
+	 * campaign without maps.
+	 */
+	private static final String STREAMED_CAMPAIGN_ALIAS = "streamed-campaign"; //$NON-NLS-1$
 
 	// Please add a single note regarding why the campaign version number has been updated:
 	// 1.3.70 ownerOnly added to model.Light (not backward compatible)
@@ -86,6 +95,7 @@ public class PersistenceUtil {
 	// 1.3.83 ExposedAreaData added to tokens in b78 but again not caught until b82 :(
 	// 1.3.85 Added CampaignProperties.hasUsedFogToolbar (old versions could ignore this field, but how to implement?)
 	// 1.4.0 Added lumens to LightSource class, old versions will not load unless saved as b89 compatible
+	// 1.4.4.2 Campaigns can be saved with one entry per zone (zoneEntries property), older versions refuse those
 
 	private static final ModelVersionManager campaignVersionManager = new ModelVersionManager();
 	private static final ModelVersionManager assetnameVersionManager = new ModelVersionManager();
@@ -146,6 +156,24 @@ public static class PersistedCampaign {
 		public String mapToolVersion;
 	}
 
+	/**
+	 * A copy of a campaign to save while the original goes on changing, see {@link #saveCampaignSnapshot(CampaignSnapshot, File)}. Only the zones that changed since the file was last saved need to
+	 * be copied.
+	 */
+	public static class CampaignSnapshot {
+		/** The campaign without its zones */
+		public Campaign campaign;
+		/** The ids of all the zones of the campaign, in order */
+		public List<GUID> zoneIds = new ArrayList<GUID>();
+		/** Copies of the zones to write, by the id of the zone they were copied from */
+		public Map<GUID, Zone> zoneMap = new HashMap<GUID, Zone>();
+		/** Whether every zone is in {@link #zoneMap}, so that nothing is kept from the file */
+		public boolean complete;
+		public Set<MD5Key> assetIds = new HashSet<MD5Key>();
+		public GUID currentZoneId;
+		public Scale currentView;
+	}
+
 	public static void saveMap(Zone z, File mapFile) throws IOException {
 		PersistedMap pMap = new PersistedMap();
 		pMap.zone = z;
@@ -283,6 +311,9 @@ public static void saveCampaign(Campaign campaign, File campaignFile, String cam
 				// If we are exporting the campaign, we will strip classes/fields that were added since the specified campaignVersion
 				if (campaignVersion != null) {
 					pakFile = CampaignExport.stripContent(pakFile, persistedCampaign, campaignVersion);
+				} else if (AppPreferences.getStreamCampaignSave()) {
+					setStreamedContent(pakFile, persistedCampaign);
+					pakFile.setProperty(PROP_VERSION, MapTool.getVersion());
 				} else {
 					pakFile.setContent(persistedCampaign);
 					pakFile.setProperty(PROP_CAMPAIGN_VERSION, CAMPAIGN_VERSION);
@@ -356,6 +387,114 @@ public static void saveCampaign(Campaign campaign, File campaignFile, String cam
 		}
 	}
 
+	/**
+	 * Saves a snapshot of a campaign with one entry per zone. Unless the snapshot is complete, the file must have been written by an earlier snapshot of the same campaign: the zones that aren't in the
+	 * snapshot are copied forward from it, as are the assets it already holds, and only the zones in the snapshot are converted to XML. Zones and assets the campaign no longer has are dropped.
+	 * 
+	 * @throws IOException
+	 *             if the file can't be written, or lacks a zone that isn't in the snapshot
+	 */
+	public static void saveCampaignSnapshot(CampaignSnapshot snapshot, File campaignFile) throws IOException {
+		writeCampaignSnapshot(snapshot, campaignFile, MapTool.getVersion());
+		saveCampaignThumbnail(campaignFile.getName());
+	}
+
+	/**
+	 * Same as {@link #saveCampaignSnapshot(CampaignSnapshot, File)} without the thumbnail.
+	 * 
+	 * @param version
+	 *            the version of MapTool saving the file
+	 */
+	static void writeCampaignSnapshot(CampaignSnapshot snapshot, File campaignFile, String version) throws IOException {
+		CodeTimer saveTimer = new CodeTimer("CampaignSnapshotSave");
+		saveTimer.setThreshold(5);
+		saveTimer.setEnabled(log.isDebugEnabled());
+
+		// A complete snapshot is written aside first so that a failure leaves the old file alone, the packed file does the same for an incremental save
+		File tmpFile = new File(AppUtil.getTmpDir().getAbsolutePath(), campaignFile.getName());
+		File targetFile = snapshot.complete ? tmpFile : campaignFile;
+		if (snapshot.complete && tmpFile.exists())
+			tmpFile.delete();
+
+		PackedFile pakFile = null;
+		try {
+			pakFile = new PackedFile(targetFile);
+
+			saveTimer.start("Zones");
+			List<String> zoneEntries = new ArrayList<String>();
+			for (GUID zoneId : snapshot.zoneIds) {
+				String path = getZoneEntry(zoneId);
+				zoneEntries.add(path);
+				Zone zone = snapshot.zoneMap.get(zoneId);
+				if (zone != null) {
+					pakFile.putStreamedFile(path, zone);
+				} else if (!pakFile.hasFile(path)) {
+					throw new IOException("Zone " + zoneId + " is neither in the snapshot nor in " + campaignFile); //$NON-NLS-1$ //$NON-NLS-2$
+				}
+			}
+			saveTimer.stop("Zones");
+
+			saveTimer.start("Assets");
+			Set<String> assetNames = new HashSet<String>();
+			for (MD5Key assetId : snapshot.assetIds) {
+				if (assetId != null)
+					assetNames.add(assetId.toString());
+			}
+			Set<MD5Key> newAssetIds = new HashSet<MD5Key>();
+			for (MD5Key assetId : snapshot.assetIds) {
+				if (assetId != null && !pakFile.hasFile(ASSET_DIR + assetId))
+					newAssetIds.add(assetId);
+			}
+			Set<String> zoneEntrySet = new HashSet<String>(zoneEntries);
+			for (String path : pakFile.getPaths()) {
+				if (path.startsWith(ZONE_DIR) && !path.equals(ZONE_DIR) && !zoneEntrySet.contains(path)) {
+					pakFile.removeFile(path);
+				} else if (path.startsWith(ASSET_DIR) && !path.equals(ASSET_DIR)) {
+					// Both the asset and its image, "assets/<id>" and "assets/<id>.<extension>"
+					String name = path.substring(ASSET_DIR.length());
+					int dot = name.indexOf('.');
+					if (!assetNames.contains(dot < 0 ? name : name.substring(0, dot)))
+						pakFile.removeFile(path);
+				}
+			}
+			saveAssets(newAssetIds, pakFile);
+			saveTimer.stop("Assets");
+
+			PersistedCampaign persistedCampaign = new PersistedCampaign();
+			persistedCampaign.campaign = snapshot.campaign;
+			persistedCampaign.currentZoneId = snapshot.currentZoneId;
+			persistedCampaign.currentView = snapshot.currentView;
+			for (MD5Key key : snapshot.assetIds) {
+				// Placeholders, as for saveCampaign()
+				persistedCampaign.assetMap.put(key, null);
+			}
+			setStreamedContent(pakFile, persistedCampaign, zoneEntries);
+			pakFile.setProperty(PROP_VERSION, version);
+
+			saveTimer.start("Save");
+			pakFile.save();
+			saveTimer.stop("Save");
+		} finally {
+			if (pakFile != null)
+				pakFile.close();
+		}
+
+		if (snapshot.complete) {
+			saveTimer.start("Copy");
+			FileUtil.copyFile(tmpFile, campaignFile);
+			tmpFile.delete();
+			saveTimer.stop("Copy");
+		}
+
+		if (log.isDebugEnabled()) {
+			log.debug(saveTimer);
+		}
+	}
+
+	private static String getZoneEntry(GUID zoneId) {
+		return ZONE_DIR + zoneId + ".xml"; //$NON-NLS-1$
+	}
+
 	/*
 	 * A public function because I think it should be called when a campaign is opened as well so if it is opened then closed without saving, there is still a preview created; however, the rendering
 	 * of the campaign appears to complete after AppActions.loadCampaign returns, causing the preview to always appear as black if this method is called from within loadCampaign. Either need to find
@@ -393,6 +532,60 @@ public static File getCampaignThumbnailFile(String fileName) {
 		return new File(AppUtil.getAppHome("campaignthumbs"), fileName + ".jpg");
 	}
 
+	/**
+	 * Sets up the campaign to be written straight into the zip when the file is saved, each zone in an entry of its own, so that the XML of the whole campaign is never held in memory at once.
+	 */
+	static void setStreamedContent(PackedFile pakFile, PersistedCampaign persistedCampaign) {
+		List<String> zoneEntries = new ArrayList<String>();
+		for (Zone zone : persistedCampaign.campaign.getZones()) {
+			String path = getZoneEntry(zone.getId());
+			pakFile.putStreamedFile(path, zone);
+			zoneEntries.add(path);
+		}
+		setStreamedContent(pakFile, persistedCampaign, zoneEntries);
+	}
+
+	/**
+	 * Sets up the campaign without its zones to be written straight into the zip, with the entries its zones are in.
+	 */
+	private static void setStreamedContent(PackedFile pakFile, PersistedCampaign persistedCampaign, List<String> zoneEntries) {
+		pakFile.getXStream().omitField(Campaign.class, "zones"); //$NON-NLS-1$
+		pakFile.getXStream().alias(STREAMED_CAMPAIGN_ALIAS, PersistedCampaign.class);
+		pakFile.setStreamedContent(persistedCampaign);
+		pakFile.setProperty(PROP_ZONE_ENTRIES, zoneEntries);
+		pakFile.setProperty(PROP_CAMPAIGN_VERSION, CAMPAIGN_VERSION);
+	}
+
+	/**
+	 * Reads the campaign of a file in either layout, without loading its assets.
+	 * 
+	 * @param campaignVersion
+	 *            the version of the file, for the transforms to apply
+	 * @return the campaign, with its zones
+	 */
+	@SuppressWarnings("unchecked")
+	static PersistedCampaign readCampaign(PackedFile pakFile, String campaignVersion) throws IOException {
+		List<String> zoneEntries = (List<String>) pakFile.getProperty(PROP_ZONE_ENTRIES);
+		if (zoneEntries != null) {
+			pakFile.getXStream().alias(STREAMED_CAMPAIGN_ALIAS, PersistedCampaign.class);
+		}
+		PersistedCampaign persistedCampaign = (PersistedCampaign) pakFile.getContent(campaignVersionManager, campaignVersion);
+		if (persistedCampaign != null && zoneEntries != null) {
+			loadStreamedZones(persistedCampaign.campaign, pakFile, zoneEntries, campaignVersion);
+		}
+		return persistedCampaign;
+	}
+
+	/**
+	 * Adds the zones of a campaign that was saved with one entry per zone, in the order they were saved.
+	 */
+	private static void loadStreamedZones(Campaign campaign, PackedFile pakFile, List<String> zoneEntries, String campaignVersion) throws IOException {
+		for (String path : zoneEntries) {
+			Zone zone = (Zone) pakFile.getFileObject(path, campaignVersionManager, campaignVersion);
+			campaign.putZone(zone);
+		}
+	}
+
 	public static PersistedCampaign loadCampaign(File campaignFile) throws IOException {
 		PersistedCampaign persistedCampaign = null;
 
@@ -412,7 +605,7 @@ public static PersistedCampaign loadCampaign(File campaignFile) throws IOExcepti
 			campaignVersion = campaignVersion == null ? "1.3.50" : campaignVersion;
 
 			try {
-				persistedCampaign = (PersistedCampaign) pakFile.getContent(campaignVersion);
+				persistedCampaign = readCampaign(pakFile, campaignVersion);
 			} catch (ConversionException ce) {
 				// Ignore the exception and check for "campaign == null" below...
 				MapTool.showError("PersistenceUtil.error.campaignVersion", ce);
@@ -10,7 +10,6 @@
 
 import net.rptools.maptool.client.MapTool;
 import net.rptools.maptool.language.I18N;
-import net.sf.json.JSONObject;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.handler.ContextHandler;
 import org.eclipse.jetty.server.handler.HandlerList;
@@ -165,8 +164,7 @@ public Object createWebSocket(ServletUpgradeRequest req, ServletUpgradeResponse
 		ses.scheduleAtFixedRate(new Runnable() {
 			@Override
 			public void run() {
-				JSONObject data = new JSONObject();
-				MTWebClientManager.getInstance().sendToAllSessions("keepalive", data);
+				MTWebClientManager.getInstance().sendKeepAlive(TimeUnit.MINUTES.toMillis(1));
 			}
 		}, 1, 1, TimeUnit.MINUTES);
 
@@ -10,6 +10,7 @@
 
 import net.sf.json.JSONObject;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
@@ -65,6 +66,22 @@ public void sendToAllSessions(String messageType, JSONObject data) {
 		}
 	}
 
+	/**
+	 * Sends a keepalive to the sessions that haven't been sent anything for a while, the others are known to be alive.
+	 *
+	 * @param idleMillis
+	 *            how long a session has to have been idle.
+	 */
+	public void sendKeepAlive(long idleMillis) {
+		long now = System.currentTimeMillis();
+		JSONObject data = new JSONObject();
+		for (MTWebSocket ws : new ArrayList<>(getClientSessions())) {
+			if (now - ws.getLastSendTime() >= idleMillis) {
+				ws.sendMessage("keepalive", data);
+			}
+		}
+	}
+
 	/**
 	 * Adds a client to the list of clients being managed.
 	 * 
@@ -72,6 +89,8 @@ public void sendToAllSessions(String messageType, JSONObject data) {
 	 *            The web socket of the client.
 	 */
 	void addClient(MTWebSocket wcs) {
+		// Make sure that token changes are being listened for
+		WebTokenInfo.getInstance();
 		clientSockets.add(wcs);
 		sendInitialInfo(wcs);
 	}
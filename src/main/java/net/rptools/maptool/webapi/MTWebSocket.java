@@ -9,18 +9,35 @@
 package net.rptools.maptool.webapi;
 
 import net.sf.json.JSONObject;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.eclipse.jetty.websocket.api.Session;
 import org.eclipse.jetty.websocket.api.WebSocketAdapter;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
 
 public class MTWebSocket extends WebSocketAdapter {
+	private static final Logger log = LogManager.getLogger(MTWebSocket.class);
 
 	/**
 	 * The Session of this socket.
 	 */
 	private Session session;
 
+	/**
+	 * The zones and tokens whose changes are sent to the client, null for all of them.
+	 */
+	private volatile Set<String> subscribedZones;
+	private volatile Set<String> subscribedTokens;
+
+	/**
+	 * When the last message was sent to the client.
+	 */
+	private volatile long lastSendTime = System.currentTimeMillis();
+
 	@Override
 	/**
 	 * Adds the session to the chatroom participants list, and sends back to the user the last three messages in the conversation.
@@ -56,6 +73,8 @@ public void onWebSocketText(String message) {
 				WebTokenInfo.getInstance().processMacro(data);
 			} else if ("setProperties".equals(messageType)) {
 				WebTokenInfo.getInstance().processSetProperties(data);
+			} else if ("subscribe".equals(messageType)) {
+				WebTokenUpdates.getInstance().processSubscribe(this, messageId, data);
 			}
 		} catch (Exception e) {
 			e.printStackTrace(); // FIXME: fix this to deal with error properly.
@@ -75,6 +94,37 @@ public void onWebSocketClose(int statusCode, String reason) {
 		MTWebClientManager.getInstance().removeClient(this);
 	}
 
+	/**
+	 * Sets the zones and tokens whose changes are sent to the client. A change is sent if either its zone or its token is subscribed to, or if the client hasn't subscribed to any.
+	 *
+	 * @param zoneIds
+	 *            the ids of the zones, or null.
+	 * @param tokenIds
+	 *            the ids of the tokens, or null.
+	 */
+	void setSubscription(Collection<String> zoneIds, Collection<String> tokenIds) {
+		subscribedZones = zoneIds == null ? null : new HashSet<>(zoneIds);
+		subscribedTokens = tokenIds == null ? null : new HashSet<>(tokenIds);
+	}
+
+	boolean isSubscribed(String zoneId, String tokenId) {
+		Set<String> zones = subscribedZones;
+		Set<String> tokens = subscribedTokens;
+		if (zones == null && tokens == null) {
+			return true;
+		}
+		return (zones != null && zones.contains(zoneId)) || (tokens != null && tokens.contains(tokenId));
+	}
+
+	/**
+	 * Returns when the last message was sent to the client.
+	 *
+	 * @return the time in milliseconds.
+	 */
+	long getLastSendTime() {
+		return lastSendTime;
+	}
+
 	void sendMessage(String messageType, JSONObject data) {
 		sendMessage(messageType, null, data);
 	}
@@ -89,7 +139,7 @@ void sendMessage(String messageType, JSONObject data) {
 	 * @param data
 	 *            The data in the message.
 	 */
-	void sendMessage(String messageType, String inResponseTo, JSONObject data) {
+	synchronized void sendMessage(String messageType, String inResponseTo, JSONObject data) {
 		JSONObject message = new JSONObject();
 		message.put("messageType", messageType);
 		message.put("data", data);
@@ -99,10 +149,12 @@ void sendMessage(String messageType, String inResponseTo, JSONObject data) {
 
 		try {
 			session.getRemote().sendString(message.toString());
-			System.out.println("DEBUG: Wrote: " + message.toString());
+			lastSendTime = System.currentTimeMillis();
+			if (log.isDebugEnabled()) {
+				log.debug("Wrote: " + message);
+			}
 		} catch (IOException ioe) {
-			System.out.println("DEBUG: websocket write error.");
-			System.out.println("DEBUG: number connections = " + MTWebClientManager.getInstance().getClientSessions().size());
+			log.warn("Websocket write error, number of connections = " + MTWebClientManager.getInstance().getClientSessions().size(), ioe);
 			MTWebClientManager.getInstance().removeClient(this);
 		}
 	}
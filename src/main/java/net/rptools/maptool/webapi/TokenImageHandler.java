@@ -8,127 +8,350 @@
  */
 package net.rptools.maptool.webapi;
 
+import net.rptools.lib.MD5Key;
+import net.rptools.lib.image.MipMap;
 import net.rptools.maptool.model.Asset;
 import net.rptools.maptool.model.AssetManager;
 import net.rptools.maptool.model.Token;
 import net.rptools.maptool.util.ImageManager;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Serves the image and portrait of tokens to the web clients.
+ * <p>
+ * Images are tagged with the {@link MD5Key} of their asset, so a client that already has the image is told so with a "304 Not Modified" instead of being sent it again. The original image is
+ * streamed from the asset cache file when there is one, with support for byte ranges. A "size" query parameter asks for a copy scaled down to fit in a square of that many pixels.
+ */
 public class TokenImageHandler extends AbstractHandler {
+	private static final Logger log = LogManager.getLogger(TokenImageHandler.class);
+
+	/**
+	 * The smallest and largest size that can be asked for, sizes are rounded up to a multiple of SIZE_STEP so that there aren't too many copies of an image.
+	 */
+	private static final int MIN_SIZE = 16;
+	private static final int MAX_SIZE = 2048;
+	private static final int SIZE_STEP = 16;
+
+	/**
+	 * How many scaled images are kept.
+	 */
+	private static final int MAX_SCALED_IMAGES = 128;
+
+	private static final int BUFFER_SIZE = 16 * 1024;
+
+	/**
+	 * The token the URL names can be given another image, so the client has to check with us each time, but that costs no more than the headers when the image hasn't changed.
+	 */
+	private static final String CACHE_CONTROL = "private, no-cache";
+
+	/**
+	 * Scaled images as PNG by ETag, least recently used first.
+	 */
+	private final Map<String, byte[]> scaledImageMap = Collections.synchronizedMap(new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+			return size() > MAX_SCALED_IMAGES;
+		}
+	});
+
+	/**
+	 * The image format of the assets served, found by reading the start of the file.
+	 */
+	private final Map<MD5Key, String> extensionMap = new ConcurrentHashMap<>();
+
 	@Override
 	public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
 
 		String args[] = target.replaceAll("^/", "").split("/");
+		if (args.length < 2) {
+			return;
+		}
 
-		for (String s : args) {
-			System.out.println("DEBUG: ARGS: " + s);
+		Token token = WebTokenInfo.getInstance().findTokenFromId(args[1]);
+		if (token == null) {
+			log.warn("No token with id " + args[1] + " for " + target);
+			return;
 		}
 
+		MD5Key assetId;
 		if ("portrait".equalsIgnoreCase(args[0])) {
-			baseRequest.setHandled(sendPortrait(response, args[1]));
+			assetId = token.getPortraitImage();
 		} else if ("image".equalsIgnoreCase(args[0])) {
-			baseRequest.setHandled(sendImage(response, args[1]));
+			assetId = token.getImageAssetId();
 		} else if ("portraitOrImage".equalsIgnoreCase(args[0])) {
-			baseRequest.setHandled(sendPortraitOrImage(response, args[1]));
+			assetId = token.getPortraitImage() != null ? token.getPortraitImage() : token.getImageAssetId();
+		} else {
+			return;
 		}
 
-		/*
-		 * response.setContentType("text/html; charset=utf-8"); response.setStatus(HttpServletResponse.SC_OK);
-		 * 
-		 * PrintWriter out = response.getWriter();
-		 * 
-		 * baseRequest.setHandled(true);
-		 */
+		if (assetId == null) {
+			sendBrokenImage(response);
+		} else {
+			sendAsset(request, response, assetId, getSize(request));
+		}
+		baseRequest.setHandled(true);
 	}
 
-	private boolean sendImage(HttpServletResponse response, String tokenId) throws IOException {
-		System.out.println("DEBUG: Here (> 0) as well");
-		Token token = WebTokenInfo.getInstance().findTokenFromId(tokenId);
-		if (token == null) {
-			return false;
-			// FIXME: log this error
+	/**
+	 * @return the size asked for, or 0 for the original image.
+	 */
+	private int getSize(HttpServletRequest request) {
+		String param = request.getParameter("size");
+		if (param == null) {
+			return 0;
+		}
+		try {
+			int size = Integer.parseInt(param.trim());
+			if (size <= 0) {
+				return 0;
+			}
+			size = Math.max(MIN_SIZE, Math.min(MAX_SIZE, size));
+			return (size + SIZE_STEP - 1) / SIZE_STEP * SIZE_STEP;
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	private void sendBrokenImage(HttpServletResponse response) throws IOException {
+		response.setContentType("image/png");
+		response.setHeader("Cache-Control", "no-store");
+		response.setStatus(HttpServletResponse.SC_OK);
+		ImageIO.write(ImageManager.BROKEN_IMAGE, "png", response.getOutputStream());
+	}
+
+	private void sendAsset(HttpServletRequest request, HttpServletResponse response, MD5Key assetId, int size) throws IOException {
+		String originalTag = "\"" + assetId + "\"";
+		String scaledTag = size == 0 ? originalTag : "\"" + assetId + "-" + size + "\"";
+		response.setHeader("Cache-Control", CACHE_CONTROL);
+
+		// Either tag names the same asset, so this is answered before finding out whether the image needs scaling, which can mean decoding it
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		String matchedTag = matchesETag(ifNoneMatch, scaledTag) ? scaledTag : matchesETag(ifNoneMatch, originalTag) ? originalTag : null;
+		if (matchedTag != null) {
+			response.setHeader("ETag", matchedTag);
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
 		}
 
-		if (token.getImageAssetId() == null) {
+		// An image that is already small enough is sent as the original, under its own tag
+		if (size != 0 && !needsScaling(assetId, size)) {
+			size = 0;
+		}
+		String etag = size == 0 ? originalTag : scaledTag;
+		response.setHeader("ETag", etag);
+
+		if (size != 0) {
+			byte[] image = getScaledImage(assetId, size, etag);
 			response.setContentType("image/png");
-			ImageIO.write(ImageManager.BROKEN_IMAGE, "png", response.getOutputStream());
-			response.setStatus(HttpServletResponse.SC_OK);
-		} else {
-			Asset asset = AssetManager.getAsset(token.getImageAssetId());
-			byte[] image = asset.getImage();
-			response.setContentType("image/" + asset.getImageExtension());
 			response.setStatus(HttpServletResponse.SC_OK);
-
 			response.setContentLength(image.length);
 			response.getOutputStream().write(image);
+			return;
 		}
 
-		return true;
-	}
+		// The cache file only appears once all of it has been written
+		File file = AssetManager.getAssetCacheFile(assetId);
+		if (file.isFile()) {
+			sendFile(request, response, assetId, file, etag);
+			return;
+		}
 
-	private boolean sendPortrait(HttpServletResponse response, String tokenId) throws IOException {
+		// Not written yet, send it from memory
+		Asset asset = AssetManager.getAsset(assetId);
+		if (asset == null || asset.getImage() == null) {
+			sendBrokenImage(response);
+			return;
+		}
+		byte[] image = asset.getImage();
+		response.setContentType("image/" + asset.getImageExtension());
+		response.setStatus(HttpServletResponse.SC_OK);
+		response.setContentLength(image.length);
+		response.getOutputStream().write(image);
+	}
 
-		System.out.println("DEBUG: Here (> 0) as well");
-		Token token = WebTokenInfo.getInstance().findTokenFromId(tokenId);
-		if (token == null) {
+	/**
+	 * @return whether the If-None-Match header names the tag, it can list several or be "*".
+	 */
+	private static boolean matchesETag(String ifNoneMatch, String etag) {
+		if (ifNoneMatch == null) {
 			return false;
-			// FIXME: log this error
 		}
+		for (String tag : ifNoneMatch.split(",")) {
+			tag = tag.trim();
+			if (tag.equals("*") || tag.equals(etag)) {
+				return true;
+			}
+		}
+		return false;
+	}
 
-		if (token.getPortraitImage() == null) {
-			response.setContentType("image/png");
-			ImageIO.write(ImageManager.BROKEN_IMAGE, "png", response.getOutputStream());
-			response.setStatus(HttpServletResponse.SC_OK);
+	/**
+	 * Streams the asset cache file, or the part of it asked for with a Range header.
+	 */
+	private void sendFile(HttpServletRequest request, HttpServletResponse response, MD5Key assetId, File file, String etag) throws IOException {
+		long length = file.length();
+		long start = 0;
+		long end = length - 1;
+
+		response.setContentType("image/" + getExtension(assetId, file));
+		response.setHeader("Accept-Ranges", "bytes");
+
+		String range = request.getHeader("Range");
+		String ifRange = request.getHeader("If-Range");
+		if (range != null && (ifRange == null || ifRange.equals(etag))) {
+			long[] bounds = parseRange(range, length);
+			if (bounds == null) {
+				response.setHeader("Content-Range", "bytes */" + length);
+				response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+				return;
+			}
+			start = bounds[0];
+			end = bounds[1];
+			response.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + length);
+			response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
 		} else {
-			Asset asset = AssetManager.getAsset(token.getPortraitImage());
-			byte[] image = asset.getImage();
-			response.setContentType("image/" + asset.getImageExtension());
 			response.setStatus(HttpServletResponse.SC_OK);
+		}
 
-			response.setContentLength(image.length);
-			response.getOutputStream().write(image);
+		long remaining = end - start + 1;
+		response.setHeader("Content-Length", Long.toString(remaining));
+
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			in.seek(start);
+			OutputStream out = response.getOutputStream();
+			byte[] buffer = new byte[BUFFER_SIZE];
+			while (remaining > 0) {
+				int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+				if (read < 0) {
+					break;
+				}
+				out.write(buffer, 0, read);
+				remaining -= read;
+			}
+		} finally {
+			in.close();
 		}
+	}
 
-		return true;
+	/**
+	 * Parses a single "bytes=" range, several ranges in one request aren't supported and are answered with the first.
+	 *
+	 * @return the first and last byte, or null if the range can't be satisfied.
+	 */
+	private static long[] parseRange(String range, long length) {
+		if (!range.startsWith("bytes=")) {
+			return null;
+		}
+		String spec = range.substring("bytes=".length()).split(",")[0].trim();
+		int dash = spec.indexOf('-');
+		if (dash < 0) {
+			return null;
+		}
+		try {
+			long start;
+			long end;
+			if (dash == 0) {
+				// The last so many bytes
+				long suffix = Long.parseLong(spec.substring(1));
+				if (suffix <= 0) {
+					return null;
+				}
+				start = Math.max(0, length - suffix);
+				end = length - 1;
+			} else {
+				start = Long.parseLong(spec.substring(0, dash));
+				end = dash == spec.length() - 1 ? length - 1 : Math.min(length - 1, Long.parseLong(spec.substring(dash + 1)));
+			}
+			if (start >= length || start > end) {
+				return null;
+			}
+			return new long[] { start, end };
+		} catch (NumberFormatException e) {
+			return null;
+		}
 	}
 
-	private boolean sendPortraitOrImage(HttpServletResponse response, String tokenId) throws IOException {
+	private String getExtension(MD5Key assetId, File file) throws IOException {
+		String extension = extensionMap.get(assetId);
+		if (extension == null) {
+			extension = "data";
+			ImageInputStream iis = ImageIO.createImageInputStream(file);
+			try {
+				Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+				if (readers.hasNext()) {
+					extension = readers.next().getFormatName().toLowerCase();
+				}
+			} finally {
+				iis.close();
+			}
+			extensionMap.put(assetId, extension);
+		}
+		return extension;
+	}
 
-		System.out.println("DEBUG: Here (> 0) as well");
-		Token token = WebTokenInfo.getInstance().findTokenFromId(tokenId);
-		if (token == null) {
-			return false;
-			// FIXME: log this error
+	/**
+	 * @return whether the image is larger than a square of the size, and so has to be scaled down.
+	 */
+	private boolean needsScaling(MD5Key assetId, int size) {
+		if (scaledImageMap.containsKey("\"" + assetId + "-" + size + "\"")) {
+			return true;
 		}
+		BufferedImage image = ImageManager.getImageAndWait(assetId);
+		return image != ImageManager.BROKEN_IMAGE && Math.max(image.getWidth(), image.getHeight()) > size;
+	}
 
-		Asset asset = null;
-		if (token.getPortraitImage() != null) {
-			asset = AssetManager.getAsset(token.getPortraitImage());
-		} else if (token.getImageAssetId() != null) {
-			asset = AssetManager.getAsset(token.getImageAssetId());
+	/**
+	 * @return the image scaled to fit in a square of the size as PNG, the image must be larger than that.
+	 */
+	private byte[] getScaledImage(MD5Key assetId, int size, String etag) throws IOException {
+		byte[] bytes = scaledImageMap.get(etag);
+		if (bytes != null) {
+			return bytes;
 		}
 
-		if (asset != null) {
-			byte[] image = asset.getImage();
-			response.setContentType("image/" + asset.getImageExtension());
-			response.setStatus(HttpServletResponse.SC_OK);
+		BufferedImage image = ImageManager.getImageAndWait(assetId);
+		double scale = (double) size / Math.max(image.getWidth(), image.getHeight());
 
-			response.setContentLength(image.length);
-			response.getOutputStream().write(image);
-		} else {
-			response.setContentType("image/png");
-			ImageIO.write(ImageManager.BROKEN_IMAGE, "png", response.getOutputStream());
-			response.setStatus(HttpServletResponse.SC_OK);
-		}
+		// Start from the mipmap level nearest in size so that the result isn't aliased
+		BufferedImage source = MipMap.getLevel(image, scale);
+		int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+		int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+		BufferedImage scaled = new BufferedImage(width, height, image.getTransparency() == Transparency.OPAQUE ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = scaled.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+		g.drawImage(source, 0, 0, width, height, null);
+		g.dispose();
 
-		return true;
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(scaled, "png", out);
+		bytes = out.toByteArray();
+		scaledImageMap.put(etag, bytes);
+		return bytes;
 	}
-
 }
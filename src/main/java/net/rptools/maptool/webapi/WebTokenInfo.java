@@ -38,6 +38,7 @@ public void handleAppEvent(AppEvent appEvent) {
 			}
 		};
 
+		MapTool.getEventDispatcher().addListener(appEventListener, MapTool.ZoneEvent.Added);
 		addTokenChangeListeners();
 	}
 
@@ -45,17 +46,12 @@ public void handleAppEvent(AppEvent appEvent) {
 	private void addTokenChangeListeners() {
 		for (Zone zone : MapTool.getCampaign().getZones()) {
 			if (modelChangeListeners.containsKey(zone) == false) {
+				final Zone z = zone;
 				modelChangeListeners.put(zone, new ModelChangeListener() {
 					@Override
 					public void modelChanged(ModelChangeEvent event) {
-						System.out.println("DEBUG: Event " + event.eventType);
-						if (event.eventType == Zone.Event.TOKEN_CHANGED) {
-							tokenChanged((Token) event.getArg());
-						} else if (event.eventType == Zone.Event.TOKEN_ADDED) {
-							tokenAdded((Token) event.getArg());
-						} else if (event.eventType == Zone.Event.TOKEN_REMOVED) {
-							tokenRemoved((Token) event.getArg());
-						}
+						// Sent with the next frame, together with any other changes made until then
+						WebTokenUpdates.getInstance().modelChanged(z, event.getEvent(), event.getArg());
 					}
 				});
 				zone.addModelChangeListener(modelChangeListeners.get(zone));
@@ -63,33 +59,6 @@ public void modelChanged(ModelChangeEvent event) {
 		}
 	}
 
-	private void tokenChanged(Token token) {
-		JSONObject jobj = new JSONObject();
-		JSONArray tokenArray = new JSONArray();
-		tokenArray.add(token.getId().toString());
-		jobj.put("tokensChanged", tokenArray);
-
-		MTWebClientManager.getInstance().sendToAllSessions("token-update", jobj);
-	}
-
-	private void tokenAdded(Token token) {
-		JSONObject jobj = new JSONObject();
-		JSONArray tokenArray = new JSONArray();
-		tokenArray.add(token.getId().toString());
-		jobj.put("tokensAdded", tokenArray);
-
-		MTWebClientManager.getInstance().sendToAllSessions("token-update", jobj);
-	}
-
-	private void tokenRemoved(Token token) {
-		JSONObject jobj = new JSONObject();
-		JSONArray tokenArray = new JSONArray();
-		tokenArray.add(token.getId().toString());
-		jobj.put("tokensRemoved", tokenArray);
-
-		MTWebClientManager.getInstance().sendToAllSessions("token-update", jobj);
-	}
-
 	public static WebTokenInfo getInstance() {
 		return instance;
 	}
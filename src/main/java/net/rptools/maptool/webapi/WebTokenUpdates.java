@@ -0,0 +1,314 @@
+/*
+ * This software Copyright by the RPTools.net development team, and licensed under the Affero GPL Version 3 or, at your option, any later version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public License * along with this source Code. If not, please visit <http://www.gnu.org/licenses/> and specifically the Affero license text
+ * at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.webapi;
+
+import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.Zone;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pushes token changes to the web clients as numbered "token-update" frames.
+ * <p>
+ * Changes made between two ticks are coalesced into one frame, so that moving a token along a path or a macro changing a hundred tokens doesn't send a message per change. Each session only gets
+ * the changes to the zones and tokens it has subscribed to. The last frames are kept so that a client that lost its connection can send the last sequence number it saw and be sent what it missed,
+ * instead of fetching everything again.
+ */
+public class WebTokenUpdates {
+	private static final Logger log = LogManager.getLogger(WebTokenUpdates.class);
+
+	/**
+	 * How often the changes are sent, in milliseconds.
+	 */
+	private static final long TICK_MILLIS = 100;
+
+	/**
+	 * How many frames are kept for clients that resume.
+	 */
+	private static final int MAX_HISTORY = 256;
+
+	private static final WebTokenUpdates instance = new WebTokenUpdates();
+
+	/**
+	 * What happened to a token in a frame.
+	 */
+	private enum Kind {
+		ADDED("tokensAdded"), CHANGED("tokensChanged"), REMOVED("tokensRemoved");
+
+		private final String key;
+
+		Kind(String key) {
+			this.key = key;
+		}
+	}
+
+	/**
+	 * A change to a token.
+	 */
+	private static class Change {
+		private final String zoneId;
+		private final String tokenId;
+		private final Kind kind;
+
+		Change(String zoneId, String tokenId, Kind kind) {
+			this.zoneId = zoneId;
+			this.tokenId = tokenId;
+			this.kind = kind;
+		}
+	}
+
+	/**
+	 * The changes of one tick.
+	 */
+	private static class Frame {
+		private final long sequence;
+		private final List<Change> changes;
+
+		Frame(long sequence, List<Change> changes) {
+			this.sequence = sequence;
+			this.changes = changes;
+		}
+	}
+
+	/**
+	 * Identifies this run of MapTool, sequence numbers from another run mean nothing.
+	 */
+	private final long epoch = System.currentTimeMillis();
+
+	/**
+	 * The changes since the last tick by token id, in the order the tokens were first changed.
+	 */
+	private final Map<String, Change> pendingChanges = new LinkedHashMap<>();
+
+	/**
+	 * Held while frames are numbered and sent, so that a client that resumes gets the frames it missed before any new ones.
+	 */
+	private final Object sendLock = new Object();
+
+	/**
+	 * The last frames sent, oldest first.
+	 */
+	private final LinkedList<Frame> history = new LinkedList<>();
+
+	/**
+	 * The sequence number of the last frame, guarded by sendLock.
+	 */
+	private long sequence = 0;
+
+	private WebTokenUpdates() {
+		ScheduledExecutorService ses = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "WebTokenUpdates");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		ses.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					flush();
+				} catch (Exception e) {
+					log.error("Could not send the token updates", e);
+				}
+			}
+		}, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	public static WebTokenUpdates getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Records a change to be sent with the next frame.
+	 *
+	 * @param zone
+	 *            the zone the tokens are on.
+	 * @param eventType
+	 *            the {@link Zone.Event} fired by the zone.
+	 * @param arg
+	 *            the token, or the list of tokens, of the event.
+	 */
+	void modelChanged(Zone zone, Object eventType, Object arg) {
+		Kind kind;
+		if (eventType == Zone.Event.TOKEN_ADDED) {
+			kind = Kind.ADDED;
+		} else if (eventType == Zone.Event.TOKEN_CHANGED) {
+			kind = Kind.CHANGED;
+		} else if (eventType == Zone.Event.TOKEN_REMOVED) {
+			kind = Kind.REMOVED;
+		} else {
+			return;
+		}
+
+		String zoneId = zone.getId().toString();
+		synchronized (this) {
+			if (arg instanceof Token) {
+				addChange(zoneId, (Token) arg, kind);
+			} else if (arg instanceof Collection<?>) {
+				for (Object token : (Collection<?>) arg) {
+					if (token instanceof Token) {
+						addChange(zoneId, (Token) token, kind);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Merges a change into the pending changes for the token.
+	 */
+	private void addChange(String zoneId, Token token, Kind kind) {
+		String tokenId = token.getId().toString();
+		Change previous = pendingChanges.get(tokenId);
+		if (previous != null) {
+			if (previous.kind == Kind.ADDED && kind == Kind.REMOVED) {
+				// The clients never knew about it
+				pendingChanges.remove(tokenId);
+				return;
+			} else if (previous.kind == Kind.ADDED) {
+				// Still new to the clients
+				kind = Kind.ADDED;
+			} else if (previous.kind == Kind.REMOVED && kind == Kind.ADDED) {
+				// Removed and put back, the clients only need to fetch it again
+				kind = Kind.CHANGED;
+			}
+		}
+		pendingChanges.put(tokenId, new Change(zoneId, tokenId, kind));
+	}
+
+	/**
+	 * Sends the changes since the last tick as one frame.
+	 */
+	private void flush() {
+		List<Change> changes;
+		synchronized (this) {
+			if (pendingChanges.isEmpty()) {
+				return;
+			}
+			changes = new ArrayList<>(pendingChanges.values());
+			pendingChanges.clear();
+		}
+
+		synchronized (sendLock) {
+			Frame frame = new Frame(++sequence, changes);
+			history.addLast(frame);
+			while (history.size() > MAX_HISTORY) {
+				history.removeFirst();
+			}
+			for (MTWebSocket ws : new ArrayList<>(MTWebClientManager.getInstance().getClientSessions())) {
+				sendFrame(ws, frame);
+			}
+		}
+	}
+
+	/**
+	 * Sends the part of a frame that the client has subscribed to, if there is any.
+	 */
+	private void sendFrame(MTWebSocket ws, Frame frame) {
+		Map<Kind, JSONArray> tokenArrays = new EnumMap<>(Kind.class);
+		for (Change change : frame.changes) {
+			if (!ws.isSubscribed(change.zoneId, change.tokenId)) {
+				continue;
+			}
+			JSONArray tokenArray = tokenArrays.get(change.kind);
+			if (tokenArray == null) {
+				tokenArray = new JSONArray();
+				tokenArrays.put(change.kind, tokenArray);
+			}
+			tokenArray.add(change.tokenId);
+		}
+		if (tokenArrays.isEmpty()) {
+			return;
+		}
+
+		JSONObject data = new JSONObject();
+		data.put("epoch", epoch);
+		data.put("sequence", frame.sequence);
+		for (Map.Entry<Kind, JSONArray> entry : tokenArrays.entrySet()) {
+			data.put(entry.getKey().key, entry.getValue());
+		}
+		ws.sendMessage("token-update", data);
+	}
+
+	/**
+	 * Handles a "subscribe" message, which sets the zones and tokens a client wants to hear about and optionally resumes from the last frame it saw.
+	 * <p>
+	 * The data may contain "zones" and "tokens", arrays of ids; a client that lists neither gets every change. If it contains "epoch" and "lastSequence" the frames after that one are sent again, or
+	 * a "token-resync" message if they are no longer kept, in which case the client has to fetch the tokens it shows.
+	 *
+	 * @param ws
+	 *            the web socket of the client.
+	 * @param inResponseTo
+	 *            the id of the message.
+	 * @param data
+	 *            the data of the message.
+	 */
+	void processSubscribe(MTWebSocket ws, String inResponseTo, JSONObject data) {
+		ws.setSubscription(getIds(data, "zones"), getIds(data, "tokens"));
+
+		synchronized (sendLock) {
+			List<Frame> missed = null;
+			if (!data.containsKey("lastSequence")) {
+				// A new client starts from now
+				missed = new ArrayList<>();
+			} else if (data.optLong("epoch") == epoch) {
+				long lastSequence = data.getLong("lastSequence");
+				long oldest = history.isEmpty() ? sequence + 1 : history.getFirst().sequence;
+				if (lastSequence <= sequence && lastSequence >= oldest - 1) {
+					missed = new ArrayList<>();
+					for (Frame frame : history) {
+						if (frame.sequence > lastSequence) {
+							missed.add(frame);
+						}
+					}
+				}
+			}
+
+			JSONObject reply = new JSONObject();
+			reply.put("epoch", epoch);
+			reply.put("sequence", sequence);
+			if (missed == null) {
+				ws.sendMessage("token-resync", inResponseTo, reply);
+			} else {
+				ws.sendMessage("subscribe", inResponseTo, reply);
+				for (Frame frame : missed) {
+					sendFrame(ws, frame);
+				}
+			}
+		}
+	}
+
+	private static List<String> getIds(JSONObject data, String key) {
+		JSONArray array = data.optJSONArray(key);
+		if (array == null) {
+			return null;
+		}
+		List<String> ids = new ArrayList<>(array.size());
+		for (int i = 0; i < array.size(); i++) {
+			ids.add(array.getString(i));
+		}
+		return ids;
+	}
+}
@@ -27,6 +27,13 @@ var __MapTool = new (function __MapToolClient() {
 
     var messageIdSequence = 0;
     var websocket = null;
+    var websocketAddress = null;
+
+    // The last token update seen, so that a reconnecting client can be sent
+    // only what it missed.
+    var tokenUpdateEpoch = null;
+    var tokenUpdateSequence = null;
+    var tokenSubscription = {};
 
     var callbacks = {};
 
@@ -69,6 +76,17 @@ var __MapTool = new (function __MapToolClient() {
             return;
         }
 
+        if (msg.messageType === 'token-update' || msg.messageType === 'subscribe' || msg.messageType === 'token-resync') {
+            tokenUpdateEpoch = msg.data.epoch;
+            tokenUpdateSequence = msg.data.sequence;
+        }
+
+        if (msg.messageType === 'token-resync') {
+            // Too much was missed, the token listeners have to fetch what they show again
+            msg.messageType = 'token-update';
+            msg.data = { resync: true };
+        }
+
         var callback;
 
         if (msg.inResponseTo && hasCallback(msg.messageType, msg.inResponseTo)) {
@@ -102,7 +120,13 @@ var __MapTool = new (function __MapToolClient() {
 
         websocket.onclose = function() {
             console.log('Closed');
-            // FIXME: something (but what) should happen here
+            websocket = null;
+            // Try again in a while, resuming the token updates where they stopped
+            setTimeout(function() {
+                if (!websocket) {
+                    __MapTool.setWebSocketAddress(websocketAddress);
+                }
+            }, 2000);
         };
 
         websocket.onerror = function(err) {
@@ -112,7 +136,9 @@ var __MapTool = new (function __MapToolClient() {
 
         websocket.onopen = function() {
             console.log('Opened');
-            // FIXME: something (but what) should happen here
+            if (tokenUpdateSequence !== null) {
+                sendSubscribe(true);
+            }
         };
 
 
@@ -126,6 +152,27 @@ var __MapTool = new (function __MapToolClient() {
     }
 
 
+    ////////////////////////////////////////////////////////////////////////////
+    //
+    // Tells MapTool which token changes to send, optionally resuming from the
+    // last token update seen.
+    //
+    ////////////////////////////////////////////////////////////////////////////
+    var sendSubscribe = function(resume) {
+        var data = {};
+        if (tokenSubscription.zones) {
+            data.zones = tokenSubscription.zones;
+        }
+        if (tokenSubscription.tokens) {
+            data.tokens = tokenSubscription.tokens;
+        }
+        if (resume) {
+            data.epoch = tokenUpdateEpoch;
+            data.lastSequence = tokenUpdateSequence;
+        }
+        __MapTool.sendMessage('subscribe', data);
+    }
+
     ////////////////////////////////////////////////////////////////////////////
     //
     // Register a callback for a message type and message id.
@@ -202,9 +249,21 @@ var __MapTool = new (function __MapToolClient() {
     //
     ////////////////////////////////////////////////////////////////////////////
     this.setWebSocketAddress = function(addr) {
+        websocketAddress = addr;
         setWebSocket(new WebSocket(addr));
     }
 
+    ////////////////////////////////////////////////////////////////////////////
+    //
+    // Only send changes to these zones and tokens (arrays of ids, either may be
+    // left out). Without a subscription all token changes are sent.
+    //
+    ////////////////////////////////////////////////////////////////////////////
+    this.subscribe = function(zones, tokens) {
+        tokenSubscription = { zones: zones, tokens: tokens };
+        sendSubscribe(tokenUpdateSequence !== null);
+    }
+
     ////////////////////////////////////////////////////////////////////////////
     //
     // Sends a message to MapTool.
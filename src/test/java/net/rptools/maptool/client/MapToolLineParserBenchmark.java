@@ -0,0 +1,58 @@
+/*
+ * This software Copyright by the RPTools.net development team, and licensed under the Affero GPL Version 3 or, at your option, any later version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public License * along with this source Code. If not, please visit <http://www.gnu.org/licenses/> and specifically the Affero license text
+ * at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client;
+
+import net.rptools.parser.ParserException;
+
+/**
+ * Measures how much the compiled line cache saves on each call of {@link MapToolLineParser#parseLine(String)}, by running a typical library macro line with the cache cleared before every call
+ * and then with the line already cached. This is not a test, run it by hand with the test classpath.
+ */
+public class MapToolLineParserBenchmark {
+	private static final String MACRO_LINE = "[h: damage = 0][h, count(3, \"\"): damage = damage + 1][h, if(damage > 0): result = \"hit\"; result = \"miss\"]"
+			+ "[h, while(damage > 0, \"\"): damage = damage - 1][r, count(3, \"<br>\"): roll(1, 20)] The target was {result}.";
+
+	private static final int ITERATIONS = 20000;
+
+	public static void main(String[] args) throws ParserException {
+		MapToolLineParser parser = new MapToolLineParser();
+
+		// Warm up both paths
+		for (int i = 0; i < ITERATIONS / 10; i++) {
+			parser.clearCompiledLines();
+			parser.parseLine(MACRO_LINE);
+			parser.parseLine(MACRO_LINE);
+		}
+
+		long cold = 0;
+		for (int i = 0; i < ITERATIONS; i++) {
+			parser.clearCompiledLines();
+			long start = System.nanoTime();
+			parser.parseLine(MACRO_LINE);
+			cold += System.nanoTime() - start;
+		}
+
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			parser.parseLine(MACRO_LINE);
+		}
+		long warm = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			parser.compileLine(MACRO_LINE);
+		}
+		long compile = System.nanoTime() - start;
+
+		System.out.println(String.format("parseLine, cold cache: %.2f us per call", cold / 1000.0 / ITERATIONS));
+		System.out.println(String.format("parseLine, warm cache: %.2f us per call", warm / 1000.0 / ITERATIONS));
+		System.out.println(String.format("Compiling the line:    %.2f us per call", compile / 1000.0 / ITERATIONS));
+		System.out.println(String.format("Saved per call:        %.2f us", (cold - warm) / 1000.0 / ITERATIONS));
+	}
+}
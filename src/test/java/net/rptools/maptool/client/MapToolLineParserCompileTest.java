@@ -0,0 +1,56 @@
+/*
+ * This software Copyright by the RPTools.net development team, and licensed under the Affero GPL Version 3 or, at your option, any later version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public License * along with this source Code. If not, please visit <http://www.gnu.org/licenses/> and specifically the Affero license text
+ * at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks how a typical library macro line is split into its rolls, and that lines run again are taken from the compiled line cache. How much the cache saves is measured by
+ * {@link MapToolLineParserBenchmark}.
+ */
+public class MapToolLineParserCompileTest extends TestCase {
+	private static final String MACRO_LINE = "[h: damage = 0][h, foreach(target, targets, \"\"), code: { [h: damage = damage + 1] }]"
+			+ "[h, if(damage > 0): result = \"hit\"; result = \"miss\"][r, count(3, \"<br>\"): roll(1, 20)]"
+			+ "[t(\"Attack\"), w(\"gm\", \"self\"): 1d20 + strength] The target was {result}.";
+
+	private MapToolLineParser parser;
+
+	@Override
+	protected void setUp() throws Exception {
+		parser = new MapToolLineParser();
+	}
+
+	public void testCompile() {
+		MapToolLineParser.CompiledLine compiledLine = parser.compileLine(MACRO_LINE);
+		assertEquals(6, compiledLine.getRollCount());
+		for (int i = 0; i < 5; i++) {
+			assertNotNull(compiledLine.optionLists.get(i));
+			assertNull(compiledLine.optionErrors.get(i));
+		}
+		assertEquals(1, compiledLine.optionLists.get(0).size());
+		assertEquals(3, compiledLine.optionLists.get(1).size());
+		assertEquals(2, compiledLine.optionLists.get(4).size());
+		// {result} has no options
+		assertNull(compiledLine.optionLists.get(5));
+	}
+
+	public void testBadOptionIsKept() {
+		MapToolLineParser.CompiledLine compiledLine = parser.compileLine("[h: 1][nosuchoption: 2]");
+		assertEquals(2, compiledLine.getRollCount());
+		assertNull(compiledLine.optionErrors.get(0));
+		assertNotNull(compiledLine.optionErrors.get(1));
+	}
+
+	public void testCached() {
+		MapToolLineParser.CompiledLine compiledLine = parser.getCompiledLine(MACRO_LINE);
+		assertSame(compiledLine, parser.getCompiledLine(MACRO_LINE));
+		parser.clearCompiledLines();
+		assertNotSame(compiledLine, parser.getCompiledLine(MACRO_LINE));
+	}
+}
@@ -0,0 +1,54 @@
+/*
+ * This software Copyright by the RPTools.net development team, and licensed under the Affero GPL Version 3 or, at your option, any later version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public License * along with this source Code. If not, please visit <http://www.gnu.org/licenses/> and specifically the Affero license text
+ * at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.ui.commandpanel;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class ChatArchiveTest extends TestCase {
+	private ChatArchive archive;
+
+	@Override
+	protected void setUp() throws Exception {
+		archive = new ChatArchive(File.createTempFile("chat", ".log"));
+	}
+
+	public void testReadBack() throws Exception {
+		// More than the initial offset table holds
+		for (int i = 0; i < 1000; i++) {
+			archive.append("message " + i);
+		}
+		assertEquals(1000, archive.size());
+
+		List<String> messages = archive.read(250, 253);
+		assertEquals(Arrays.asList("message 250", "message 251", "message 252"), messages);
+		assertEquals("message 999", archive.read(999, 1000).get(0));
+		assertTrue(archive.read(10, 10).isEmpty());
+	}
+
+	public void testNonAscii() throws Exception {
+		archive.append("<b>Gr\u00fc\u00dfe</b> \u2694");
+		archive.append("");
+		assertEquals(Arrays.asList("<b>Gr\u00fc\u00dfe</b> \u2694", ""), archive.read(0, 2));
+	}
+
+	public void testClear() throws Exception {
+		archive.append("first");
+		archive.append("second");
+		archive.clear();
+		assertEquals(0, archive.size());
+
+		archive.append("third");
+		assertEquals(1, archive.size());
+		assertEquals(Arrays.asList("third"), archive.read(0, 1));
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ * This software Copyright by the RPTools.net development team, and licensed under the Affero GPL Version 3 or, at your option, any later version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public License * along with this source Code. If not, please visit <http://www.gnu.org/licenses/> and specifically the Affero license text
+ * at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.ui.zone;
+
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.PathIterator;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import net.rptools.maptool.client.ui.zone.vbl.AreaTree;
+
+/**
+ * Checks that the visibility sweep sees the same as the area based visibility calculation.
+ */
+public class FogUtilTest extends TestCase {
+	private static final Area VISION = new Area(new Ellipse2D.Double(-300, -300, 600, 600));
+
+	public void testNoTopology() throws Exception {
+		assertSameVisibility(new Area(), 0, 0);
+	}
+
+	public void testSingleWall() throws Exception {
+		assertSameVisibility(new Area(new Rectangle(50, -100, 20, 200)), 0, 0);
+	}
+
+	public void testDiagonalWall() throws Exception {
+		Polygon wall = new Polygon(new int[] { 40, 60, 160, 140 }, new int[] { 60, 40, 140, 160 }, 4);
+		assertSameVisibility(new Area(wall), 0, 0);
+	}
+
+	public void testWallAcrossNegativeXAxis() throws Exception {
+		// The sweep starts and ends on the negative x axis, make sure a wall across it is handled
+		assertSameVisibility(new Area(new Rectangle(-120, -50, 30, 100)), 0, 0);
+	}
+
+	public void testInsideRoom() throws Exception {
+		Area room = new Area(new Rectangle(-200, -150, 400, 300));
+		room.subtract(new Area(new Rectangle(-180, -130, 360, 260)));
+		// A door in the east wall
+		room.subtract(new Area(new Rectangle(170, -20, 40, 40)));
+		// A pillar
+		room.add(new Area(new Rectangle(60, 60, 30, 30)));
+		assertSameVisibility(room, 0, 0);
+		assertSameVisibility(room, -100, 50);
+	}
+
+	public void testRandomBlocks() throws Exception {
+		Random random = new Random(42);
+		for (int run = 0; run < 20; run++) {
+			Area topology = new Area();
+			for (int i = 0; i < 15; i++) {
+				topology.add(new Area(new Rectangle(random.nextInt(800) - 400, random.nextInt(800) - 400, 10 + random.nextInt(60), 10 + random.nextInt(60))));
+			}
+			int x = random.nextInt(200) - 100;
+			int y = random.nextInt(200) - 100;
+			if (topology.contains(x, y)) {
+				continue;
+			}
+			assertSameVisibility(topology, x, y);
+		}
+	}
+
+	public void testInsideTopology() throws Exception {
+		Area topology = new Area(new Rectangle(-10, -10, 20, 20));
+		AreaTree tree = new AreaTree(topology);
+		assertNull(FogUtil.calculateVisibilityByArea(0, 0, VISION, tree));
+		assertNull(FogUtil.calculateVisibilityBySweep(0, 0, VISION, tree));
+	}
+
+	private static void assertSameVisibility(Area topology, int x, int y) {
+		AreaTree tree = new AreaTree(topology);
+		Area expected = FogUtil.calculateVisibilityByArea(x, y, VISION, tree);
+		Area actual = FogUtil.calculateVisibilityBySweep(x, y, VISION, tree);
+
+		Area difference = new Area(expected);
+		difference.exclusiveOr(actual);
+
+		// Both are polygons made of the same corners, so they may only differ by rounding along the edges
+		double expectedSize = getSize(expected);
+		double differenceSize = getSize(difference);
+		assertTrue("visible area is empty", expectedSize > 0);
+		assertTrue("areas differ by " + differenceSize + " of " + expectedSize + " at " + x + "," + y, differenceSize < expectedSize * 0.001 + 10);
+	}
+
+	/**
+	 * @return the size of the area, holes are wound the other way and are taken off
+	 */
+	private static double getSize(Area area) {
+		double size = 0;
+		double[] coords = new double[6];
+		double startX = 0, startY = 0, lastX = 0, lastY = 0;
+		for (PathIterator iter = area.getPathIterator(null, 0.1); !iter.isDone(); iter.next()) {
+			switch (iter.currentSegment(coords)) {
+			case PathIterator.SEG_MOVETO:
+				startX = lastX = coords[0];
+				startY = lastY = coords[1];
+				break;
+			case PathIterator.SEG_LINETO:
+				size += lastX * coords[1] - coords[0] * lastY;
+				lastX = coords[0];
+				lastY = coords[1];
+				break;
+			case PathIterator.SEG_CLOSE:
+				size += lastX * startY - startX * lastY;
+				lastX = startX;
+				lastY = startY;
+				break;
+			}
+		}
+		return Math.abs(size / 2);
+	}
+}
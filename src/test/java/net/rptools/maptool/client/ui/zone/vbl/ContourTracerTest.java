@@ -0,0 +1,143 @@
+/*
+ * This software Copyright by the RPTools.net development team, and licensed under the Affero GPL Version 3 or, at your option, any later version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public License * along with this source Code. If not, please visit <http://www.gnu.org/licenses/> and specifically the Affero license text
+ * at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.ui.zone.vbl;
+
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.image.BufferedImage;
+
+import junit.framework.TestCase;
+
+/**
+ * Traces small masks and checks that the outline covers exactly the pixels that are set.
+ */
+public class ContourTracerTest extends TestCase {
+
+	public void testNothingSet() {
+		assertNull(ContourTracer.trace(new boolean[16], 4, 4, 0));
+	}
+
+	public void testSolidSquare() {
+		boolean[] mask = createMask(6, 6, new Rectangle(1, 1, 4, 4));
+		Path2D path = ContourTracer.trace(mask, 6, 6, 0);
+		assertEquals(1, countOutlines(path));
+		assertEquals(4, countCorners(path));
+		assertEquals(new Rectangle(1, 1, 4, 4), path.getBounds());
+		assertCovers(mask, 6, 6, path);
+	}
+
+	public void testRing() {
+		boolean[] mask = createMask(7, 7, new Rectangle(1, 1, 5, 5));
+		for (int y = 2; y < 5; y++) {
+			for (int x = 2; x < 5; x++) {
+				mask[y * 7 + x] = false;
+			}
+		}
+		Path2D path = ContourTracer.trace(mask, 7, 7, 0);
+		assertEquals(2, countOutlines(path));
+		assertEquals(8, countCorners(path));
+		assertCovers(mask, 7, 7, path);
+		assertFalse(path.contains(3.5, 3.5));
+	}
+
+	public void testPixelsTouchingAtCorner() {
+		boolean[] mask = new boolean[4];
+		mask[0] = true;
+		mask[3] = true;
+		Path2D path = ContourTracer.trace(mask, 2, 2, 0);
+		// Two squares rather than one outline that crosses itself
+		assertEquals(2, countOutlines(path));
+		assertEquals(8, countCorners(path));
+		assertCovers(mask, 2, 2, path);
+	}
+
+	public void testTolerance() {
+		// A disc has a staircase outline with a corner at every step
+		int size = 40;
+		boolean[] mask = new boolean[size * size];
+		for (int y = 0; y < size; y++) {
+			for (int x = 0; x < size; x++) {
+				double dx = x + 0.5 - size / 2.0;
+				double dy = y + 0.5 - size / 2.0;
+				mask[y * size + x] = dx * dx + dy * dy < 18 * 18;
+			}
+		}
+		Path2D exact = ContourTracer.trace(mask, size, size, 0);
+		Path2D simplified = ContourTracer.trace(mask, size, size, 1);
+		assertCovers(mask, size, size, exact);
+		assertEquals(1, countOutlines(simplified));
+		assertTrue(countCorners(simplified) < countCorners(exact) / 2);
+
+		// Nothing further than the tolerance from the pixels it replaces
+		Area difference = new Area(exact);
+		difference.exclusiveOr(new Area(simplified));
+		Rectangle bounds = exact.getBounds();
+		for (double y = bounds.y; y <= bounds.getMaxY(); y += 0.25) {
+			for (double x = bounds.x; x <= bounds.getMaxX(); x += 0.25) {
+				if (difference.contains(x, y)) {
+					assertTrue(exact.intersects(x - 1, y - 1, 2, 2));
+					assertTrue(simplified.intersects(x - 1, y - 1, 2, 2));
+				}
+			}
+		}
+	}
+
+	public void testAlphaSensitivity() {
+		BufferedImage image = new BufferedImage(3, 1, BufferedImage.TYPE_INT_ARGB);
+		image.setRGB(0, 0, 0x10FFFFFF);
+		image.setRGB(1, 0, 0x80FFFFFF);
+		image.setRGB(2, 0, 0xFFFFFFFF);
+
+		assertEquals(new Rectangle(0, 0, 3, 1), ContourTracer.trace(image, 1, 0).getBounds());
+		assertEquals(new Rectangle(1, 0, 2, 1), ContourTracer.trace(image, 0x80, 0).getBounds());
+		assertNull(ContourTracer.trace(new BufferedImage(3, 1, BufferedImage.TYPE_INT_ARGB), 1, 0));
+	}
+
+	private static boolean[] createMask(int width, int height, Rectangle set) {
+		boolean[] mask = new boolean[width * height];
+		for (int y = set.y; y < set.y + set.height; y++) {
+			for (int x = set.x; x < set.x + set.width; x++) {
+				mask[y * width + x] = true;
+			}
+		}
+		return mask;
+	}
+
+	private static void assertCovers(boolean[] mask, int width, int height, Path2D path) {
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				assertEquals("pixel " + x + "," + y, mask[y * width + x], path.contains(x + 0.5, y + 0.5));
+			}
+		}
+	}
+
+	private static int countOutlines(Path2D path) {
+		int count = 0;
+		double[] coords = new double[6];
+		for (PathIterator iter = path.getPathIterator(null); !iter.isDone(); iter.next()) {
+			if (iter.currentSegment(coords) == PathIterator.SEG_MOVETO) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private static int countCorners(Path2D path) {
+		int count = 0;
+		double[] coords = new double[6];
+		for (PathIterator iter = path.getPathIterator(null); !iter.isDone(); iter.next()) {
+			if (iter.currentSegment(coords) != PathIterator.SEG_CLOSE) {
+				count++;
+			}
+		}
+		return count;
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ * This software Copyright by the RPTools.net development team, and licensed under the Affero GPL Version 3 or, at your option, any later version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public License * along with this source Code. If not, please visit <http://www.gnu.org/licenses/> and specifically the Affero license text
+ * at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.walker;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.rptools.maptool.client.walker.astar.AStarSquareEuclideanWalker;
+import net.rptools.maptool.model.CellPoint;
+import net.rptools.maptool.model.Grid;
+import net.rptools.maptool.model.SquareGrid;
+import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.TokenFootprint;
+import net.rptools.maptool.model.Zone;
+import net.rptools.maptool.model.ZonePoint;
+
+/**
+ * Checks the distances worked out by {@link DistanceService} against walking every pair of cells of the two tokens with {@link AStarSquareEuclideanWalker}, the way distances were measured before.
+ */
+public class DistanceServiceTest extends TestCase {
+	private static final WalkerMetric[] METRICS = { WalkerMetric.NO_DIAGONALS, WalkerMetric.ONE_TWO_ONE, WalkerMetric.MANHATTAN, WalkerMetric.ONE_ONE_ONE };
+	private static final int MAX_OFFSET = 4;
+
+	private Zone zone;
+	private Grid grid;
+	private List<TokenFootprint> footprints;
+	private Token source;
+	private Token target;
+
+	@Override
+	protected void setUp() throws Exception {
+		zone = new Zone();
+		grid = new SquareGrid();
+		zone.setGrid(grid);
+
+		// Footprints up to 3x3 cells
+		footprints = new ArrayList<TokenFootprint>();
+		for (TokenFootprint footprint : grid.getFootprints()) {
+			if (footprint.getOccupiedCells(new CellPoint(0, 0)).size() <= 9) {
+				footprints.add(footprint);
+			}
+		}
+		source = new Token("Source", null);
+		target = new Token("Target", null);
+		zone.putToken(source);
+		zone.putToken(target);
+	}
+
+	public void testOpenGrid() {
+		final DistanceService service = DistanceService.getInstance(zone);
+		for (final WalkerMetric metric : METRICS) {
+			forEachPlacement(metric, new Placement() {
+				public void check(String where) {
+					assertEquals(where, walkEveryPair(metric), service.getDistance(source, target, metric, null));
+				}
+			});
+		}
+	}
+
+	public void testSearch() {
+		// With a blocking map the distance is found with one search from all the source cells
+		final DistanceService service = DistanceService.getInstance(zone);
+		final MovementBlockingMap blockingMap = MovementBlockingMap.getInstance(zone);
+		for (final WalkerMetric metric : METRICS) {
+			forEachPlacement(metric, new Placement() {
+				public void check(String where) {
+					assertEquals(where, walkEveryPair(metric), service.getDistance(source, target, metric, blockingMap));
+				}
+			});
+		}
+	}
+
+	public void testCellDistance() {
+		for (WalkerMetric metric : METRICS) {
+			AStarSquareEuclideanWalker walker = new AStarSquareEuclideanWalker(zone, metric);
+			for (int dx = 0; dx <= 2 * MAX_OFFSET; dx++) {
+				for (int dy = 0; dy <= 2 * MAX_OFFSET; dy++) {
+					walker.setWaypoints(new CellPoint(0, 0), new CellPoint(dx, dy));
+					assertEquals(metric + " " + dx + "," + dy, walker.getDistance(), DistanceService.getCellDistance(dx, dy, metric) * zone.getUnitsPerCell());
+				}
+			}
+		}
+	}
+
+	private interface Placement {
+		void check(String where);
+	}
+
+	/**
+	 * Puts the source at the origin and the target at every offset around it, for every pair of footprints.
+	 */
+	private void forEachPlacement(WalkerMetric metric, Placement placement) {
+		for (TokenFootprint sourceFootprint : footprints) {
+			for (TokenFootprint targetFootprint : footprints) {
+				for (int dx = -MAX_OFFSET; dx <= MAX_OFFSET; dx++) {
+					for (int dy = -MAX_OFFSET; dy <= MAX_OFFSET; dy++) {
+						place(source, sourceFootprint, 0, 0);
+						place(target, targetFootprint, dx, dy);
+						placement.check(metric + " " + sourceFootprint.getName() + " to " + targetFootprint.getName() + " at " + dx + "," + dy);
+					}
+				}
+			}
+		}
+	}
+
+	private void place(Token token, TokenFootprint footprint, int cellX, int cellY) {
+		token.setFootprint(grid, footprint);
+		ZonePoint point = grid.convert(new CellPoint(cellX, cellY));
+		token.setX(point.x);
+		token.setY(point.y);
+		zone.putToken(token);
+	}
+
+	private int walkEveryPair(WalkerMetric metric) {
+		AStarSquareEuclideanWalker walker = new AStarSquareEuclideanWalker(zone, metric);
+		CellPoint sourceCell = grid.convert(new ZonePoint(source.getX(), source.getY()));
+		CellPoint targetCell = grid.convert(new ZonePoint(target.getX(), target.getY()));
+		int distance = Integer.MAX_VALUE;
+		for (CellPoint scell : source.getFootprint(grid).getOccupiedCells(sourceCell)) {
+			for (CellPoint tcell : target.getFootprint(grid).getOccupiedCells(targetCell)) {
+				walker.setWaypoints(scell, tcell);
+				distance = Math.min(distance, walker.getDistance());
+			}
+		}
+		return distance;
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * This software Copyright by the RPTools.net development team, and licensed under the Affero GPL Version 3 or, at your option, any later version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public License * along with this source Code. If not, please visit <http://www.gnu.org/licenses/> and specifically the Affero license text
+ * at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import com.caucho.hessian.io.HessianInput;
+import com.caucho.hessian.io.HessianOutput;
+import com.caucho.hessian.io.SerializerFactory;
+
+/**
+ * Sends token deltas through Hessian, as the server does, and applies them to another copy of the token.
+ */
+public class TestTokenDelta extends TestCase {
+	private Token token;
+	private Token copy;
+
+	@Override
+	protected void setUp() throws Exception {
+		token = new Token("Token", null);
+		MacroButtonProperties macro = new MacroButtonProperties(0);
+		macro.setLabel("Attack");
+		macro.setCommand("[r: 1d20]");
+		token.getMacroPropertiesMap(false).put(0, macro);
+
+		copy = new Token(token);
+		TokenDelta.reset(token);
+		TokenDelta.reset(copy);
+	}
+
+	public void testOpacity() throws Exception {
+		token.setTokenOpacity(0.5f);
+		TokenDelta delta = roundTrip(TokenDelta.create(token));
+		assertFalse(delta.isEmpty());
+		assertTrue(delta.appliesTo(copy));
+
+		delta.apply(copy);
+		assertEquals(0.5f, copy.getTokenOpacity());
+		assertEquals(TokenDelta.getTokenVersion(token), TokenDelta.getTokenVersion(copy));
+	}
+
+	public void testMacroEditedInPlace() throws Exception {
+		// The tooltip isn't part of the hash code of a macro
+		MacroButtonProperties macro = token.getMacro(0, false);
+		macro.setToolTip("Roll to hit");
+		token.putMacroButtonProperty(macro);
+
+		TokenDelta delta = roundTrip(TokenDelta.create(token));
+		assertFalse(delta.isEmpty());
+		delta.apply(copy);
+		assertEquals("Roll to hit", copy.getMacro(0, false).getToolTip());
+
+		// Nothing changed since
+		assertTrue(TokenDelta.create(token).isEmpty());
+	}
+
+	public void testToFieldType() {
+		assertEquals(Float.valueOf(0.25f), TokenDelta.toFieldType(float.class, Double.valueOf(0.25)));
+		assertEquals(Short.valueOf((short) 3), TokenDelta.toFieldType(short.class, Integer.valueOf(3)));
+		assertEquals(Long.valueOf(7), TokenDelta.toFieldType(Long.class, Integer.valueOf(7)));
+		assertEquals("text", TokenDelta.toFieldType(String.class, "text"));
+	}
+
+	private static TokenDelta roundTrip(TokenDelta delta) throws IOException {
+		SerializerFactory factory = new SerializerFactory();
+		factory.setAllowNonSerializable(true);
+
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		HessianOutput out = new HessianOutput(bout);
+		out.setSerializerFactory(factory);
+		out.writeObject(delta);
+		out.flush();
+
+		HessianInput in = new HessianInput(new ByteArrayInputStream(bout.toByteArray()));
+		in.setSerializerFactory(factory);
+		return (TokenDelta) in.readObject();
+	}
+}
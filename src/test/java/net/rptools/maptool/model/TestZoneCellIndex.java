@@ -0,0 +1,157 @@
+/*
+ * This software Copyright by the RPTools.net development team, and licensed under the Affero GPL Version 3 or, at your option, any later version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public License * along with this source Code. If not, please visit <http://www.gnu.org/licenses/> and specifically the Affero license text
+ * at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the tokens found by the cell index against looking at every token, on a zone of 2,000 tokens. How much faster the index is is measured by {@link ZoneCellIndexBenchmark}.
+ */
+public class TestZoneCellIndex extends TestCase {
+	private static final int TOKEN_COUNT = 2000;
+	private static final int ZONE_CELLS = 200;
+
+	private Zone zone;
+	private Grid grid;
+	private List<Token> tokens;
+
+	@Override
+	protected void setUp() throws Exception {
+		zone = new Zone();
+		grid = new SquareGrid();
+		zone.setGrid(grid);
+		tokens = new ArrayList<Token>();
+
+		Random random = new Random(42);
+		List<TokenFootprint> footprints = grid.getFootprints();
+		for (int i = 0; i < TOKEN_COUNT; i++) {
+			Token token = new Token("Token " + i, null);
+			token.setX(random.nextInt(ZONE_CELLS) * grid.getSize());
+			token.setY(random.nextInt(ZONE_CELLS) * grid.getSize());
+			token.setFootprint(grid, footprints.get(random.nextInt(footprints.size())));
+			zone.putToken(token);
+			tokens.add(token);
+		}
+	}
+
+	public void testNear() {
+		Random random = new Random(7);
+		for (int i = 0; i < 200; i++) {
+			Token token = tokens.get(random.nextInt(tokens.size()));
+			int cells = random.nextInt(12);
+			assertEquals(scanNear(token, cells), zone.getTokensNear(token, cells));
+		}
+	}
+
+	public void testOnCells() {
+		Random random = new Random(11);
+		for (int i = 0; i < 200; i++) {
+			Set<CellPoint> cells = new HashSet<CellPoint>();
+			int x = random.nextInt(ZONE_CELLS);
+			int y = random.nextInt(ZONE_CELLS);
+			for (int dx = -1; dx <= 1; dx++) {
+				cells.add(new CellPoint(x + dx, y));
+				cells.add(new CellPoint(x, y + dx));
+			}
+			assertEquals(scanOnCells(cells), zone.getTokensOnCells(cells));
+		}
+	}
+
+	public void testMovedWithoutPut() {
+		Token token = tokens.get(0);
+		Token other = tokens.get(1);
+		zone.getTokensNear(token, 0);
+
+		// Moved but not put back yet, as macros sometimes do
+		token.setX(other.getX());
+		token.setY(other.getY());
+		assertTrue(zone.getTokensNear(other, 0).contains(token));
+		assertEquals(scanNear(other, 3), zone.getTokensNear(other, 3));
+	}
+
+	public void testRemoved() {
+		Token token = tokens.get(0);
+		Token other = tokens.get(1);
+		token.setX(other.getX());
+		token.setY(other.getY());
+		zone.putToken(token);
+		assertTrue(zone.getTokensNear(other, 0).contains(token));
+		zone.removeToken(token.getId());
+		assertFalse(zone.getTokensNear(other, 0).contains(token));
+	}
+
+	public void testMovedInOtherZone() {
+		Zone otherZone = new Zone();
+		otherZone.setGrid(grid);
+		Token token = new Token("Elsewhere", null);
+		otherZone.putToken(token);
+		Token other = tokens.get(1);
+		zone.getTokensNear(other, 0);
+
+		// Moving a token of another zone onto the same cell leaves this zone alone
+		token.setX(other.getX());
+		token.setY(other.getY());
+		assertFalse(zone.getTokensNear(other, 0).contains(token));
+		assertTrue(otherZone.getTokensOnCells(getCells(other)).contains(token));
+	}
+
+	/**
+	 * What the index should find, by looking at every token.
+	 */
+	private Set<Token> scanNear(Token token, int cells) {
+		int[] bounds = getBounds(token);
+		Set<Token> result = new HashSet<Token>();
+		for (Token other : tokens) {
+			if (other == token) {
+				continue;
+			}
+			int[] otherBounds = getBounds(other);
+			int dx = Math.max(0, Math.max(otherBounds[0] - bounds[2], bounds[0] - otherBounds[2]));
+			int dy = Math.max(0, Math.max(otherBounds[1] - bounds[3], bounds[1] - otherBounds[3]));
+			if (dx <= cells && dy <= cells) {
+				result.add(other);
+			}
+		}
+		return result;
+	}
+
+	private Set<Token> scanOnCells(Set<CellPoint> cells) {
+		Set<Token> result = new HashSet<Token>();
+		for (Token token : tokens) {
+			for (CellPoint cell : getCells(token)) {
+				if (cells.contains(cell)) {
+					result.add(token);
+					break;
+				}
+			}
+		}
+		return result;
+	}
+
+	private Set<CellPoint> getCells(Token token) {
+		return token.getFootprint(grid).getOccupiedCells(grid.convert(new ZonePoint(token.getX(), token.getY())));
+	}
+
+	private int[] getBounds(Token token) {
+		int[] bounds = { Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE };
+		for (CellPoint cell : getCells(token)) {
+			bounds[0] = Math.min(bounds[0], cell.x);
+			bounds[1] = Math.min(bounds[1], cell.y);
+			bounds[2] = Math.max(bounds[2], cell.x);
+			bounds[3] = Math.max(bounds[3], cell.y);
+		}
+		return bounds;
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ * This software Copyright by the RPTools.net development team, and licensed under the Affero GPL Version 3 or, at your option, any later version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public License * along with this source Code. If not, please visit <http://www.gnu.org/licenses/> and specifically the Affero license text
+ * at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import net.rptools.maptool.client.walker.DistanceService;
+import net.rptools.maptool.client.walker.WalkerMetric;
+
+/**
+ * Measures the range and area queries of getTokens() on a zone of 2,000 tokens, measuring the distance to every token as they used to against narrowing them down with
+ * {@link Zone#getTokensNear(Token, int)} and {@link Zone#getTokensOnCells(Set)} first. This is not a test, run it by hand with the test classpath.
+ */
+public class ZoneCellIndexBenchmark {
+	private static final int TOKEN_COUNT = 2000;
+	private static final int ZONE_CELLS = 200;
+	private static final int QUERIES = 2000;
+	private static final int RANGE = 6;
+	private static final WalkerMetric METRIC = WalkerMetric.ONE_TWO_ONE;
+
+	public static void main(String[] args) {
+		Zone zone = new Zone();
+		Grid grid = new SquareGrid();
+		zone.setGrid(grid);
+		List<Token> tokens = new ArrayList<Token>();
+
+		Random random = new Random(42);
+		List<TokenFootprint> footprints = grid.getFootprints();
+		for (int i = 0; i < TOKEN_COUNT; i++) {
+			Token token = new Token("Token " + i, null);
+			token.setX(random.nextInt(ZONE_CELLS) * grid.getSize());
+			token.setY(random.nextInt(ZONE_CELLS) * grid.getSize());
+			token.setFootprint(grid, footprints.get(random.nextInt(footprints.size())));
+			zone.putToken(token);
+			tokens.add(token);
+		}
+		DistanceService service = DistanceService.getInstance(zone);
+		int upto = RANGE * zone.getUnitsPerCell();
+
+		// The same queries for each way, with a round first to warm up
+		List<Token> sources = new ArrayList<Token>();
+		for (int i = 0; i < QUERIES; i++) {
+			sources.add(tokens.get(random.nextInt(tokens.size())));
+		}
+		long[] times = new long[4];
+		int[] found = new int[4];
+		for (int round = 0; round < 2; round++) {
+			long start = System.nanoTime();
+			found[0] = 0;
+			for (Token source : sources) {
+				for (Token target : tokens) {
+					if (target != source && service.getDistance(source, target, METRIC, null) <= upto) {
+						found[0]++;
+					}
+				}
+			}
+			times[0] = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			found[1] = 0;
+			for (Token source : sources) {
+				for (Token target : zone.getTokensNear(source, RANGE)) {
+					if (service.getDistance(source, target, METRIC, null) <= upto) {
+						found[1]++;
+					}
+				}
+			}
+			times[1] = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			found[2] = 0;
+			for (Token source : sources) {
+				Set<CellPoint> cells = getArea(grid, source);
+				for (Token target : tokens) {
+					for (CellPoint cell : cells) {
+						if (service.getDistance(target, cell, METRIC, null) == 0) {
+							found[2]++;
+							break;
+						}
+					}
+				}
+			}
+			times[2] = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			found[3] = 0;
+			for (Token source : sources) {
+				found[3] += zone.getTokensOnCells(getArea(grid, source)).size();
+			}
+			times[3] = System.nanoTime() - start;
+		}
+
+		System.out.println(String.format("Range %d, every token:     %8.2f us per query, %d found", RANGE, times[0] / 1000.0 / QUERIES, found[0]));
+		System.out.println(String.format("Range %d, getTokensNear:   %8.2f us per query, %d found", RANGE, times[1] / 1000.0 / QUERIES, found[1]));
+		System.out.println(String.format("Area, every token:         %8.2f us per query, %d found", times[2] / 1000.0 / QUERIES, found[2]));
+		System.out.println(String.format("Area, getTokensOnCells:    %8.2f us per query, %d found", times[3] / 1000.0 / QUERIES, found[3]));
+	}
+
+	/**
+	 * The cells of a 5x5 area around the cell of the token, like the offsets passed to getTokens().
+	 */
+	private static Set<CellPoint> getArea(Grid grid, Token token) {
+		CellPoint cell = grid.convert(new ZonePoint(token.getX(), token.getY()));
+		Set<CellPoint> cells = new HashSet<CellPoint>();
+		for (int dx = -2; dx <= 2; dx++) {
+			for (int dy = -2; dy <= 2; dy++) {
+				cells.add(new CellPoint(cell.x + dx, cell.y + dy));
+			}
+		}
+		return cells;
+	}
+}
@@ -0,0 +1,57 @@
+/*
+ * This software Copyright by the RPTools.net development team, and licensed under the Affero GPL Version 3 or, at your option, any later version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public License * along with this source Code. If not, please visit <http://www.gnu.org/licenses/> and specifically the Affero license text
+ * at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.transfer;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Measures how fast a 40 MB asset moves through a producer and a consumer at different chunk sizes, the way the server sends a map image. This is not a test, run it by hand with the test
+ * classpath.
+ */
+public class AssetTransferBenchmark {
+	private static final int ASSET_SIZE = 40 * 1024 * 1024;
+	private static final int[] CHUNK_SIZES = { 5 * 1024, 64 * 1024, 256 * 1024 };
+
+	public static void main(String[] args) throws IOException {
+		File tmpDir = new File(System.getProperty("java.io.tmpdir"), "assetTransferBenchmark");
+		tmpDir.mkdirs();
+		File assetFile = new File(tmpDir, "asset.dat");
+		AssetTransferChunkTest.writeRandomFile(assetFile, ASSET_SIZE, 42);
+
+		try {
+			// A round first to warm up
+			for (int round = 0; round < 2; round++) {
+				for (int chunkSize : CHUNK_SIZES) {
+					long start = System.nanoTime();
+					transfer(tmpDir, assetFile, chunkSize);
+					long time = System.nanoTime() - start;
+					if (round > 0) {
+						System.out.println(String.format("%7d byte chunks: %8.1f MB/s", chunkSize, ASSET_SIZE / (1024.0 * 1024.0) / (time / 1e9)));
+					}
+				}
+			}
+		} finally {
+			assetFile.delete();
+			tmpDir.delete();
+		}
+	}
+
+	private static void transfer(File tmpDir, File assetFile, int chunkSize) throws IOException {
+		AssetProducer producer = new AssetProducer("Benchmark", "benchmark", assetFile);
+		AssetConsumer consumer = new AssetConsumer(tmpDir, producer.getHeader());
+		while (!producer.isComplete()) {
+			consumer.update(producer.nextChunk(chunkSize));
+		}
+		if (!consumer.isComplete() || consumer.getFilename().length() != ASSET_SIZE) {
+			throw new IllegalStateException("The asset didn't arrive whole");
+		}
+		consumer.getFilename().delete();
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ * This software Copyright by the RPTools.net development team, and licensed under the Affero GPL Version 3 or, at your option, any later version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public License * along with this source Code. If not, please visit <http://www.gnu.org/licenses/> and specifically the Affero license text
+ * at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.transfer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Moves an asset of a few chunks through a producer and a consumer the way the server sends a map image, and checks that it arrives intact. See {@link AssetTransferBenchmark} for how fast it
+ * goes.
+ */
+public class AssetTransferChunkTest extends TestCase {
+	/** Three of the large chunks and a short one */
+	private static final int ASSET_SIZE = 3 * 256 * 1024 + 1000;
+
+	private File tmpDir;
+	private File assetFile;
+
+	@Override
+	protected void setUp() throws Exception {
+		tmpDir = new File(System.getProperty("java.io.tmpdir"), "assetTransferChunk");
+		tmpDir.mkdirs();
+		assetFile = new File(tmpDir, "asset.dat");
+		writeRandomFile(assetFile, ASSET_SIZE, 42);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		assetFile.delete();
+		tmpDir.delete();
+	}
+
+	public void testSmallChunks() throws Exception {
+		transfer(5 * 1024);
+	}
+
+	public void testLargeChunks() throws Exception {
+		transfer(256 * 1024);
+	}
+
+	public void testUnevenChunks() throws Exception {
+		// The last chunk is short
+		transfer(100 * 1000 + 7);
+	}
+
+	private void transfer(int chunkSize) throws IOException {
+		AssetProducer producer = new AssetProducer("Chunk", "chunk", assetFile);
+		AssetConsumer consumer = new AssetConsumer(tmpDir, producer.getHeader());
+
+		long bytes = 0;
+		int chunks = 0;
+		while (!producer.isComplete()) {
+			AssetChunk chunk = producer.nextChunk(chunkSize);
+			bytes += chunk.getData().length;
+			chunks++;
+			consumer.update(chunk);
+		}
+
+		try {
+			assertEquals(ASSET_SIZE, bytes);
+			assertEquals((ASSET_SIZE + chunkSize - 1) / chunkSize, chunks);
+
+			assertTrue(consumer.isComplete());
+			assertEquals(ASSET_SIZE, consumer.getFilename().length());
+			assertSameContents(assetFile, consumer.getFilename());
+		} finally {
+			consumer.getFilename().delete();
+		}
+	}
+
+	static void writeRandomFile(File file, int size, long seed) throws IOException {
+		Random random = new Random(seed);
+		byte[] block = new byte[64 * 1024];
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			for (int written = 0; written < size; written += block.length) {
+				random.nextBytes(block);
+				out.write(block, 0, Math.min(block.length, size - written));
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void assertSameContents(File expected, File actual) throws IOException {
+		InputStream in1 = new FileInputStream(expected);
+		InputStream in2 = new FileInputStream(actual);
+		try {
+			byte[] block1 = new byte[64 * 1024];
+			byte[] block2 = new byte[64 * 1024];
+			long offset = 0;
+			while (true) {
+				int read1 = readFully(in1, block1);
+				int read2 = readFully(in2, block2);
+				assertEquals("length at " + offset, read1, read2);
+				if (read1 == 0) {
+					return;
+				}
+				for (int i = 0; i < read1; i++) {
+					if (block1[i] != block2[i]) {
+						fail("files differ at byte " + (offset + i));
+					}
+				}
+				offset += read1;
+			}
+		} finally {
+			in1.close();
+			in2.close();
+		}
+	}
+
+	private static int readFully(InputStream in, byte[] block) throws IOException {
+		int total = 0;
+		int read;
+		while (total < block.length && (read = in.read(block, total, block.length - total)) > 0) {
+			total += read;
+		}
+		return total;
+	}
+}
@@ -0,0 +1,180 @@
+/*
+ * This software Copyright by the RPTools.net development team, and licensed under the Affero GPL Version 3 or, at your option, any later version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public License * along with this source Code. If not, please visit <http://www.gnu.org/licenses/> and specifically the Affero license text
+ * at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.util;
+
+import java.awt.image.BufferedImage;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import net.rptools.lib.MD5Key;
+
+public class ImageCacheTest extends TestCase {
+	/** A 10x10 ARGB image weighs 400 bytes */
+	private static final int IMAGE_BYTES = 10 * 10 * 4;
+
+	private BufferedImage placeholder;
+	private ImageCache cache;
+
+	@Override
+	protected void setUp() throws Exception {
+		placeholder = newImage();
+		cache = new ImageCache(3 * IMAGE_BYTES, placeholder);
+	}
+
+	public void testWeight() {
+		cache.put(key(1), newImage());
+		assertEquals(IMAGE_BYTES, cache.getBytes());
+
+		cache.put(key(2), new BufferedImage(10, 10, BufferedImage.TYPE_BYTE_GRAY));
+		assertEquals(IMAGE_BYTES + 10 * 10, cache.getBytes());
+
+		// Replacing an image only counts the new one
+		cache.put(key(1), newImage());
+		assertEquals(IMAGE_BYTES + 10 * 10, cache.getBytes());
+
+		cache.remove(key(2));
+		assertEquals(IMAGE_BYTES, cache.getBytes());
+
+		cache.clear();
+		assertEquals(0, cache.getBytes());
+		assertEquals(0, cache.size());
+	}
+
+	public void testLeastRecentlyUsedEvicted() {
+		cache.put(key(1), newImage());
+		cache.put(key(2), newImage());
+		cache.put(key(3), newImage());
+
+		// Using 1 makes 2 the least recently used
+		cache.get(key(1));
+		cache.put(key(4), newImage());
+
+		assertNotNull(cache.peek(key(1)));
+		assertNull(cache.peek(key(2)));
+		assertNotNull(cache.peek(key(3)));
+		assertNotNull(cache.peek(key(4)));
+		assertEquals(3 * IMAGE_BYTES, cache.getBytes());
+		assertEquals(1, cache.getEvictions());
+	}
+
+	public void testPinnedNotEvicted() {
+		cache.put(key(1), newImage());
+		cache.put(key(2), newImage());
+		cache.setPinned(Collections.singleton(key(1)));
+
+		cache.put(key(3), newImage());
+		cache.put(key(4), newImage());
+		cache.put(key(5), newImage());
+
+		assertNotNull(cache.peek(key(1)));
+		assertNull(cache.peek(key(2)));
+		assertNull(cache.peek(key(3)));
+
+		// Pins added later are kept along with the earlier ones
+		cache.addPinned(Collections.singleton(key(4)));
+		cache.put(key(6), newImage());
+		cache.put(key(7), newImage());
+		assertNotNull(cache.peek(key(1)));
+		assertNotNull(cache.peek(key(4)));
+		assertNull(cache.peek(key(5)));
+
+		// More pinned than fits goes over the size rather than dropping any
+		Set<MD5Key> all = new HashSet<MD5Key>();
+		for (int i = 1; i <= 7; i++) {
+			all.add(key(i));
+		}
+		cache.setPinned(all);
+		cache.put(key(2), newImage());
+		cache.put(key(3), newImage());
+		assertEquals(5, cache.size());
+		assertEquals(5 * IMAGE_BYTES, cache.getBytes());
+
+		// Unpinning lets the cache shrink back to its size
+		cache.setPinned(Collections.<MD5Key> emptySet());
+		assertEquals(3, cache.size());
+		assertEquals(3 * IMAGE_BYTES, cache.getBytes());
+	}
+
+	public void testPlaceholders() {
+		for (int i = 1; i <= 10; i++) {
+			cache.put(key(i), placeholder);
+		}
+		assertEquals(0, cache.getBytes());
+		assertEquals(10, cache.size());
+
+		cache.put(key(11), newImage());
+		cache.put(key(12), newImage());
+		cache.put(key(13), newImage());
+		cache.put(key(14), newImage());
+		for (int i = 1; i <= 10; i++) {
+			assertSame(placeholder, cache.peek(key(i)));
+		}
+		assertNull(cache.peek(key(11)));
+
+		// Placeholders don't count as hits
+		cache.get(key(1));
+		assertEquals(0, cache.getHits());
+	}
+
+	public void testStatistics() {
+		BufferedImage image = newImage();
+		cache.put(key(1), image);
+
+		assertSame(image, cache.get(key(1)));
+		assertNull(cache.get(key(2)));
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+
+		// Evicted while still referenced from here, so the soft reference can't have been cleared
+		cache.setMaxBytes(0);
+		assertEquals(1, cache.getEvictions());
+		assertNull(cache.peek(key(1)));
+
+		cache.setMaxBytes(3 * IMAGE_BYTES);
+		assertSame(image, cache.get(key(1)));
+		assertEquals(1, cache.getSoftHits());
+		assertNotNull(cache.peek(key(1)));
+		assertEquals(IMAGE_BYTES, cache.getBytes());
+
+		// Peeking doesn't count
+		cache.peek(key(1));
+		cache.peek(key(2));
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+
+		cache.resetStatistics();
+		assertEquals(0, cache.getHits());
+		assertEquals(0, cache.getSoftHits());
+		assertEquals(0, cache.getMisses());
+		assertEquals(0, cache.getEvictions());
+	}
+
+	public void testRetainAll() {
+		BufferedImage image = newImage();
+		cache.put(key(1), image);
+		cache.put(key(2), newImage());
+		cache.setMaxBytes(0);
+		cache.setMaxBytes(3 * IMAGE_BYTES);
+
+		// Softly referenced images are dropped too
+		cache.retainAll(Collections.singleton(key(2)));
+		assertNull(cache.get(key(1)));
+		assertEquals(0, cache.getSoftHits());
+	}
+
+	private static BufferedImage newImage() {
+		return new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB);
+	}
+
+	private static MD5Key key(int i) {
+		return new MD5Key(Integer.toString(i));
+	}
+}
@@ -0,0 +1,222 @@
+/*
+ * This software Copyright by the RPTools.net development team, and licensed under the Affero GPL Version 3 or, at your option, any later version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public License * along with this source Code. If not, please visit <http://www.gnu.org/licenses/> and specifically the Affero license text
+ * at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.util;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.rptools.lib.MD5Key;
+import net.rptools.lib.io.PackedFile;
+import net.rptools.maptool.model.Asset;
+import net.rptools.maptool.model.AssetManager;
+import net.rptools.maptool.model.Campaign;
+import net.rptools.maptool.model.GUID;
+import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.Zone;
+import net.rptools.maptool.util.PersistenceUtil.CampaignSnapshot;
+import net.rptools.maptool.util.PersistenceUtil.PersistedCampaign;
+
+/**
+ * Saves campaigns with one entry per zone, whole and as autosave snapshots, and reads them back.
+ */
+public class PersistenceUtilTest extends TestCase {
+	private File file;
+	private Campaign campaign;
+	private Asset mapAsset;
+	private Asset portraitAsset;
+
+	@Override
+	protected void setUp() throws Exception {
+		file = File.createTempFile("campaign", ".cmpgn");
+		file.delete();
+		campaign = new Campaign();
+		campaign.putZone(createZone("First", 3));
+		campaign.putZone(createZone("Second", 0));
+		campaign.putZone(createZone("Third", 1));
+
+		mapAsset = new Asset("map", new BufferedImage(2, 2, BufferedImage.TYPE_INT_RGB));
+		portraitAsset = new Asset("portrait", new BufferedImage(3, 3, BufferedImage.TYPE_INT_RGB));
+		AssetManager.putAsset(mapAsset);
+		AssetManager.putAsset(portraitAsset);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		file.delete();
+	}
+
+	public void testStreamedRoundTrip() throws Exception {
+		PersistedCampaign persistedCampaign = new PersistedCampaign();
+		persistedCampaign.campaign = campaign;
+		persistedCampaign.currentZoneId = campaign.getZones().get(1).getId();
+		save(persistedCampaign);
+
+		PersistedCampaign loaded = load();
+		assertSameZones(campaign, loaded.campaign);
+		assertEquals(persistedCampaign.currentZoneId, loaded.currentZoneId);
+
+		// And once more from what was loaded
+		file.delete();
+		save(loaded);
+		assertSameZones(campaign, load().campaign);
+	}
+
+	public void testRefusedWithoutZoneEntries() throws Exception {
+		PersistedCampaign persistedCampaign = new PersistedCampaign();
+		persistedCampaign.campaign = campaign;
+		save(persistedCampaign);
+
+		// What a version that doesn't know about zone entries does
+		PackedFile pakFile = new PackedFile(file);
+		try {
+			pakFile.getContent((String) pakFile.getProperty(PersistenceUtil.PROP_CAMPAIGN_VERSION));
+			fail("Read a campaign without its zones");
+		} catch (RuntimeException e) {
+			// The root element is unknown
+		} finally {
+			pakFile.close();
+		}
+	}
+
+	public void testCompleteSnapshot() throws Exception {
+		PersistenceUtil.writeCampaignSnapshot(createSnapshot(true), file, "test");
+
+		PersistedCampaign loaded = load();
+		assertSameZones(campaign, loaded.campaign);
+		assertTrue(hasAsset(mapAsset));
+		assertTrue(hasAsset(portraitAsset));
+	}
+
+	public void testIncrementalSnapshot() throws Exception {
+		PersistenceUtil.writeCampaignSnapshot(createSnapshot(true), file, "test");
+
+		// The second zone changed, the third one went and the first one now comes last
+		List<Zone> zones = campaign.getZones();
+		Zone first = zones.get(0);
+		Zone second = zones.get(1);
+		Zone third = zones.get(2);
+		second.setName("Second, renamed");
+		second.putToken(new Token("Second new", null));
+		campaign.removeZone(third.getId());
+		campaign.removeZone(first.getId());
+		campaign.putZone(first);
+
+		CampaignSnapshot snapshot = createSnapshot(false);
+		snapshot.zoneMap.remove(first.getId());
+		snapshot.assetIds.remove(portraitAsset.getId());
+		PersistenceUtil.writeCampaignSnapshot(snapshot, file, "test");
+
+		PersistedCampaign loaded = load();
+		assertEquals(Arrays.asList(second.getId(), first.getId()), getZoneIds(loaded.campaign));
+		assertSameZones(campaign, loaded.campaign);
+		assertTrue(hasAsset(mapAsset));
+		assertFalse(hasAsset(portraitAsset));
+		assertFalse(hasEntry("zones/" + third.getId() + ".xml"));
+	}
+
+	public void testZoneMissingFromFile() throws Exception {
+		PersistenceUtil.writeCampaignSnapshot(createSnapshot(true), file, "test");
+
+		Zone added = createZone("Fourth", 0);
+		campaign.putZone(added);
+		CampaignSnapshot snapshot = createSnapshot(false);
+		snapshot.zoneMap.clear();
+		try {
+			PersistenceUtil.writeCampaignSnapshot(snapshot, file, "test");
+			fail("Saved a snapshot without one of its zones");
+		} catch (IOException e) {
+			// The new zone is neither in the snapshot nor in the file
+		}
+		// The file is still the last snapshot that was saved
+		campaign.removeZone(added.getId());
+		assertSameZones(campaign, load().campaign);
+	}
+
+	/**
+	 * A snapshot of the campaign with copies of all its zones, as the autosave journal takes them.
+	 */
+	private CampaignSnapshot createSnapshot(boolean complete) {
+		CampaignSnapshot snapshot = new CampaignSnapshot();
+		snapshot.campaign = new Campaign(campaign, false);
+		snapshot.complete = complete;
+		snapshot.assetIds.add(mapAsset.getId());
+		snapshot.assetIds.add(portraitAsset.getId());
+		for (Zone zone : campaign.getZones()) {
+			snapshot.zoneIds.add(zone.getId());
+			snapshot.zoneMap.put(zone.getId(), new Zone(zone, true));
+		}
+		return snapshot;
+	}
+
+	private boolean hasAsset(Asset asset) throws IOException {
+		return hasEntry("assets/" + asset.getId());
+	}
+
+	private boolean hasEntry(String path) throws IOException {
+		PackedFile pakFile = new PackedFile(file);
+		try {
+			return pakFile.hasFile(path);
+		} finally {
+			pakFile.close();
+		}
+	}
+
+	static Zone createZone(String name, int tokens) {
+		Zone zone = new Zone();
+		zone.setName(name);
+		for (int i = 0; i < tokens; i++) {
+			zone.putToken(new Token(name + " " + i, null));
+		}
+		return zone;
+	}
+
+	static void assertSameZones(Campaign expected, Campaign actual) {
+		assertEquals(getZoneIds(expected), getZoneIds(actual));
+		for (Zone zone : expected.getZones()) {
+			Zone other = actual.getZone(zone.getId());
+			assertEquals(zone.getName(), other.getName());
+			assertEquals(zone.getAllTokens().size(), other.getAllTokens().size());
+			for (Token token : zone.getAllTokens()) {
+				assertEquals(token.getName(), other.getToken(token.getId()).getName());
+			}
+		}
+	}
+
+	private static List<GUID> getZoneIds(Campaign campaign) {
+		List<GUID> zoneIds = new ArrayList<GUID>();
+		for (Zone zone : campaign.getZones()) {
+			zoneIds.add(zone.getId());
+		}
+		return zoneIds;
+	}
+
+	private void save(PersistedCampaign persistedCampaign) throws IOException {
+		PackedFile pakFile = new PackedFile(file);
+		try {
+			PersistenceUtil.setStreamedContent(pakFile, persistedCampaign);
+			pakFile.save();
+		} finally {
+			pakFile.close();
+		}
+	}
+
+	private PersistedCampaign load() throws IOException {
+		PackedFile pakFile = new PackedFile(file);
+		try {
+			return PersistenceUtil.readCampaign(pakFile, (String) pakFile.getProperty(PersistenceUtil.PROP_CAMPAIGN_VERSION));
+		} finally {
+			pakFile.close();
+		}
+	}
+}